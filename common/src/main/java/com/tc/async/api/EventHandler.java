@@ -42,6 +42,16 @@ public interface EventHandler<EC> extends PostInit {
    */
   public void handleEvents(Collection<EC> context) throws EventHandlerException;
 
+  /**
+   * The most events a stage worker may drain from its queue and hand to {@link #handleEvents(Collection)} in one call.
+   * The default of one keeps the stage calling {@link #handleEvent(Object)} for each event.  A handler returning more
+   * should be prepared for an exception thrown while handling one event to abandon the rest of its batch.  The stage
+   * property {@code seda.<stage>.batch} overrides this value.
+   */
+  public default int getMaxBatchSize() {
+    return 1;
+  }
+
   /**
    * Shut down the stage
    */
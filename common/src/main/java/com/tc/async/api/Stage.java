@@ -44,4 +44,9 @@ public interface Stage<EC> {
   public int size();
   
   public Map<String, ?> getState();
+
+  /**
+   * Start the stage's latency histograms over.
+   */
+  public void resetStats();
 }
@@ -44,5 +44,10 @@ public interface StageManager extends PrettyPrintable {
 
   public Stats[] getStats();
 
+  /**
+   * Start the latency histograms of every stage over.
+   */
+  public void resetStats();
+
   public void cleanup();
 }
@@ -0,0 +1,50 @@
+/*
+ *
+ *  The contents of this file are subject to the Terracotta Public License Version
+ *  2.0 (the "License"); You may not use this file except in compliance with the
+ *  License. You may obtain a copy of the License at
+ *
+ *  http://terracotta.org/legal/terracotta-public-license.
+ *
+ *  Software distributed under the License is distributed on an "AS IS" basis,
+ *  WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License for
+ *  the specific language governing rights and limitations under the License.
+ *
+ *  The Covered Software is Terracotta Core.
+ *
+ *  The Initial Developer of the Covered Software is
+ *  Terracotta, Inc., a Software AG company
+ *
+ */
+package com.tc.async.impl;
+
+/**
+ * An event whose context a stage worker can hand to its handler together with others drained from the same queue,
+ * rather than calling it on its own.
+ */
+interface BatchedEvent<EC> extends Event {
+
+  /**
+   * @return the context to add to the batch, or null if this event has to be called on its own
+   */
+  EC getContext();
+
+  /**
+   * Called just before the batch holding this event's context is handled.
+   */
+  default void begin() {
+  }
+
+  /**
+   * Called once the batch holding this event's context has been handled, whether or not the handler succeeded.
+   */
+  default void end() {
+  }
+
+  /**
+   * @return {@link System#nanoTime()} when the event was added to its stage, or 0 if not known
+   */
+  default long getEnqueueTime() {
+    return 0;
+  }
+}
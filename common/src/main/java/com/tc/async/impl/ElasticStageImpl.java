@@ -0,0 +1,336 @@
+/*
+ *
+ *  The contents of this file are subject to the Terracotta Public License Version
+ *  2.0 (the "License"); You may not use this file except in compliance with the
+ *  License. You may obtain a copy of the License at
+ *
+ *  http://terracotta.org/legal/terracotta-public-license.
+ *
+ *  Software distributed under the License is distributed on an "AS IS" basis,
+ *  WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License for
+ *  the specific language governing rights and limitations under the License.
+ *
+ *  The Covered Software is Terracotta Core.
+ *
+ *  The Initial Developer of the Covered Software is
+ *  Terracotta, Inc., a Software AG company
+ *
+ */
+package com.tc.async.impl;
+
+import org.slf4j.Logger;
+
+import com.tc.async.api.ConfigurationContext;
+import com.tc.async.api.EventHandler;
+import com.tc.async.api.EventHandlerException;
+import com.tc.async.api.MultiThreadedEventContext;
+import com.tc.async.api.Sink;
+import com.tc.async.api.Stage;
+import com.tc.exception.TCNotRunningException;
+import com.tc.exception.TCRuntimeException;
+import com.tc.logging.TCLoggerProvider;
+import com.tc.util.concurrent.ThreadUtil;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * A stage for handlers that spend most of their time waiting.  Instead of binding one worker thread to each queue,
+ * events are handed to a pool that grows on demand up to the stage's concurrency and lets idle threads go, so a
+ * stage can have many blocked operations in flight without keeping that many threads around.
+ * <p>
+ * Events with the same scheduling key are chained, each one starting when the one before it completes, so they are
+ * handled in the order they were added while different keys run concurrently.  A flush event is chained after every
+ * event added before it.  Nothing waits on a pool thread for another event, so the bounded pool cannot deadlock on
+ * its own chains.
+ */
+public class ElasticStageImpl<EC extends MultiThreadedEventContext> implements Stage<EC> {
+
+  private static final long KEEP_ALIVE_SECONDS = 60;
+
+  private final String                                 name;
+  private final Logger                                 logger;
+  private final EventHandler<EC>                       handler;
+  private final ThreadGroup                            group;
+  private final int                                    concurrency;
+  private final Semaphore                              capacity;
+  private final Map<Object, CompletableFuture<Void>>   tails    = new ConcurrentHashMap<>();
+  private final Set<CompletableFuture<Void>>           unkeyed  = ConcurrentHashMap.newKeySet();
+  private final AtomicInteger                          inflight = new AtomicInteger();
+  private final StageLatency                           latency  = new StageLatency();
+  private final Object                                 idleLock = new Object();
+  // flushes take the write lock so they see every event added before them
+  private final ReadWriteLock                          flushLock = new ReentrantReadWriteLock();
+  // events added before the stage starts are held until the handler is initialized
+  private final CompletableFuture<Void>                started  = new CompletableFuture<>();
+  private final ThreadPoolExecutor                     executor;
+  private volatile int                                 generation;
+  private volatile boolean                             paused;
+  private volatile boolean                             closed;
+  private volatile boolean                             shutdown = true;
+
+  /**
+   * @param concurrency : most events of this stage handled at once
+   * @param queueSize : most events accepted but not yet handled
+   */
+  public ElasticStageImpl(TCLoggerProvider loggerProvider, String name, EventHandler<EC> handler, int concurrency,
+                          ThreadGroup group, int queueSize) {
+    if (concurrency <= 0) {
+      throw new IllegalArgumentException("concurrency must be positive for stage:" + name);
+    }
+    this.logger = loggerProvider.getLogger(Stage.class.getName() + ": " + name);
+    this.name = name;
+    this.handler = handler;
+    this.group = group;
+    this.concurrency = concurrency;
+    this.capacity = (queueSize == Integer.MAX_VALUE) ? null : new Semaphore(queueSize);
+    AtomicInteger count = new AtomicInteger();
+    ThreadFactory factory = r -> {
+      Thread t = new Thread(group, r, "ElasticWorker(" + name + ", " + count.getAndIncrement() + ")");
+      t.setDaemon(true);
+      return t;
+    };
+    this.executor = new ThreadPoolExecutor(concurrency, concurrency, KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+                                           new LinkedBlockingQueue<>(), factory);
+    this.executor.allowCoreThreadTimeOut(true);
+  }
+
+  @Override
+  public Sink<EC> getSink() {
+    return this::add;
+  }
+
+  private void add(EC context) {
+    if (closed) {
+      throw new IllegalStateException("closed");
+    }
+    if (capacity != null) {
+      capacity.acquireUninterruptibly();
+    }
+    inflight.incrementAndGet();
+    int gen = generation;
+    long enqueued = System.nanoTime();
+    Runnable task = () -> handle(context, gen, enqueued);
+    Object key = context.getSchedulingKey();
+    if (context.flush()) {
+      flushLock.writeLock().lock();
+      try {
+        List<CompletableFuture<Void>> before = new ArrayList<>(tails.values());
+        before.addAll(unkeyed);
+        before.add(started);
+        CompletableFuture<Void> flush = after(CompletableFuture.allOf(before.toArray(new CompletableFuture[before.size()])), task);
+        if (key != null) {
+          CompletableFuture<Void> next = tails.compute(key, (k, tail) -> flush);
+          next.whenComplete((r, t) -> tails.remove(key, next));
+        } else {
+          track(flush);
+        }
+      } finally {
+        flushLock.writeLock().unlock();
+      }
+    } else {
+      flushLock.readLock().lock();
+      try {
+        if (key != null) {
+          CompletableFuture<Void> next = tails.compute(key, (k, tail) -> after((tail == null) ? started : tail, task));
+          next.whenComplete((r, t) -> tails.remove(key, next));
+        } else {
+          // unkeyed events only need tracking to keep a later flush behind them
+          track(after(started, task));
+        }
+      } finally {
+        flushLock.readLock().unlock();
+      }
+    }
+  }
+
+  private CompletableFuture<Void> after(CompletableFuture<Void> previous, Runnable task) {
+    return previous.handleAsync((r, t) -> {
+      task.run();
+      return null;
+    }, executor);
+  }
+
+  private void track(CompletableFuture<Void> next) {
+    unkeyed.add(next);
+    next.whenComplete((r, t) -> unkeyed.remove(next));
+  }
+
+  private void handle(EC context, int gen, long enqueued) {
+    try {
+      if (gen == generation) {
+        while (paused) {
+          ThreadUtil.reallySleep(1000);
+        }
+        long started = System.nanoTime();
+        try {
+          handler.handleEvent(context);
+        } finally {
+          latency.record(enqueued, started, System.nanoTime());
+        }
+      }
+    } catch (EventHandlerException | RuntimeException e) {
+      failed(e, context);
+    } finally {
+      if (capacity != null) {
+        capacity.release();
+      }
+      if (inflight.decrementAndGet() == 0) {
+        synchronized (idleLock) {
+          idleLock.notifyAll();
+        }
+      }
+    }
+  }
+
+  /**
+   * Same policy as a worker thread of {@link StageImpl}, except that the failure is passed to the pool thread's
+   * handler here rather than ending a worker loop.
+   */
+  private void failed(Exception e, EC context) {
+    if (shutdown) {
+      return;
+    } else if (isTCNotRunningException(e)) {
+      logger.info("Ignoring " + TCNotRunningException.class.getSimpleName() + " while handling context: " + context);
+    } else {
+      logger.error("Uncaught exception in stage", e);
+      Thread current = Thread.currentThread();
+      current.getUncaughtExceptionHandler().uncaughtException(current, new TCRuntimeException("Uncaught exception in stage", e));
+    }
+  }
+
+  private void waitForIdle() throws InterruptedException {
+    synchronized (idleLock) {
+      while (inflight.get() > 0) {
+        idleLock.wait(1000);
+      }
+    }
+  }
+
+  @Override
+  public void start(ConfigurationContext context) {
+    synchronized (this) {
+      if (!shutdown) {
+        return;
+      }
+      shutdown = false;
+    }
+    handler.initializeContext(context);
+    started.complete(null);
+  }
+
+  @Override
+  public void destroy() {
+    synchronized (this) {
+      if (shutdown) {
+        return;
+      }
+      shutdown = true;
+      closed = true;
+    }
+    boolean interrupted = false;
+    try {
+      waitForIdle();
+      executor.shutdown();
+      executor.awaitTermination(KEEP_ALIVE_SECONDS, TimeUnit.SECONDS);
+    } catch (InterruptedException ie) {
+      interrupted = true;
+    }
+    handler.destroy();
+    if (interrupted) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  @Override
+  public int pause() {
+    paused = true;
+    return inflight.get();
+  }
+
+  @Override
+  public void unpause() {
+    paused = false;
+  }
+
+  /**
+   * Events already accepted are skipped rather than removed so that every chain still completes.
+   */
+  @Override
+  public void clear() {
+    generation += 1;
+    boolean interrupted = Thread.interrupted();
+    while (true) {
+      try {
+        waitForIdle();
+        break;
+      } catch (InterruptedException ie) {
+        interrupted = true;
+      }
+    }
+    if (interrupted) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  @Override
+  public String getName() {
+    return name;
+  }
+
+  @Override
+  public boolean isEmpty() {
+    return inflight.get() == 0;
+  }
+
+  @Override
+  public int size() {
+    return inflight.get();
+  }
+
+  @Override
+  public Map<String, ?> getState() {
+    Map<String, Object> data = new LinkedHashMap<>();
+    data.put("name", name);
+    data.put("mode", "elastic");
+    data.put("concurrency", concurrency);
+    data.put("backlog", inflight.get());
+    data.put("activeKeys", tails.size());
+    data.put("threads", executor.getPoolSize());
+    data.put("largestThreads", executor.getLargestPoolSize());
+    data.put("processed", executor.getCompletedTaskCount());
+    data.put("latency", latency.getStateMap());
+    return data;
+  }
+
+  @Override
+  public void resetStats() {
+    latency.reset();
+  }
+
+  @Override
+  public String toString() {
+    return "ElasticStageImpl(" + name + ")";
+  }
+
+  private static boolean isTCNotRunningException(Throwable e) {
+    Throwable rootCause = null;
+    while (e != null) {
+      rootCause = e;
+      e = e.getCause();
+    }
+    return rootCause instanceof TCNotRunningException;
+  }
+}
@@ -94,6 +94,11 @@ public class MockStage implements Stage {
   public Map getState() {
     return Collections.emptyMap();
   }
+
+  @Override
+  public void resetStats() {
+
+  }
   
   
 
@@ -18,6 +18,7 @@
  */
 package com.tc.async.impl;
 
+import com.tc.async.api.EventHandlerException;
 import java.util.LinkedHashMap;
 import java.util.Map;
 import java.util.concurrent.TimeUnit;
@@ -69,19 +70,7 @@ public class MonitoringEventCreator<EC> implements EventCreator<EC> {
     }
     Event nextEvent = next.createEvent(event);
     if (nextEvent != null) {
-      return () -> {
-        if (running != null) {
-          CURRENT.set(running.action(name, PipelineMonitor.Type.RUN, event));
-        }
-        stats.run();
-        nextEvent.call();
-        stats.end();
-        addStats(stats);
-        if (running != null) {
-          CURRENT.remove();
-          running.action(name, PipelineMonitor.Type.END, event);
-        }
-      };
+      return new MonitoredEvent(event, nextEvent, running, stats);
     } else {
       if (running != null) {
         running.action(name, PipelineMonitor.Type.RUN, event);
@@ -110,6 +99,68 @@ public class MonitoringEventCreator<EC> implements EventCreator<EC> {
     return stats;
   }
 
+  private class MonitoredEvent implements BatchedEvent<EC> {
+    private final EC event;
+    private final Event next;
+    private final PipelineMonitor running;
+    private final MonitorStats stats;
+
+    MonitoredEvent(EC event, Event next, PipelineMonitor running, MonitorStats stats) {
+      this.event = event;
+      this.next = next;
+      this.running = running;
+      this.stats = stats;
+    }
+
+    @Override
+    public void call() throws EventHandlerException {
+      if (running != null) {
+        CURRENT.set(running.action(name, PipelineMonitor.Type.RUN, event));
+      }
+      stats.run();
+      next.call();
+      stats.end();
+      addStats(stats);
+      if (running != null) {
+        CURRENT.remove();
+        running.action(name, PipelineMonitor.Type.END, event);
+      }
+    }
+
+    /**
+     * Pipeline monitored events carry their monitor onto the handling thread, so they are never batched.
+     */
+    @Override
+    @SuppressWarnings("unchecked")
+    public EC getContext() {
+      return (running == null && next instanceof BatchedEvent) ? ((BatchedEvent<EC>) next).getContext() : null;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public long getEnqueueTime() {
+      return (next instanceof BatchedEvent) ? ((BatchedEvent<EC>) next).getEnqueueTime() : 0;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public void begin() {
+      stats.run();
+      ((BatchedEvent<EC>) next).begin();
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public void end() {
+      try {
+        ((BatchedEvent<EC>) next).end();
+      } finally {
+        stats.end();
+        addStats(stats);
+      }
+    }
+  }
+
   private static class MonitorStats<EC> {
     private long queue = 0;
     private long run = 0;
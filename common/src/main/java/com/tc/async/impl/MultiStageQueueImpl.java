@@ -23,12 +23,19 @@ import com.tc.async.api.MultiThreadedEventContext;
 import com.tc.async.api.Source;
 import com.tc.exception.TCRuntimeException;
 import com.tc.logging.TCLoggerProvider;
+import com.tc.properties.TCPropertiesImpl;
 import com.tc.util.Assert;
 import com.tc.util.concurrent.QueueFactory;
 
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
 import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
 import java.util.function.Consumer;
 
 /**
@@ -44,9 +51,9 @@ public class MultiStageQueueImpl<EC extends MultiThreadedEventContext> extends A
   static final ShortestFindStrategy SHORTEST_FIND_STRATEGY;
 
   static {
-    ShortestFindStrategy strat = ShortestFindStrategy.PARTITION;
+    ShortestFindStrategy strat = ShortestFindStrategy.TWO_CHOICES;
     try {
-      strat = chooseStrategy(ShortestFindStrategy.PARTITION);
+      strat = chooseStrategy(ShortestFindStrategy.TWO_CHOICES);
     } catch (Throwable t) {
     }
     SHORTEST_FIND_STRATEGY = strat;
@@ -55,7 +62,8 @@ public class MultiStageQueueImpl<EC extends MultiThreadedEventContext> extends A
 
   static enum ShortestFindStrategy {
     BRUTE,
-    PARTITION
+    PARTITION,
+    TWO_CHOICES
   }
 
   private final boolean moduloAnd;
@@ -65,6 +73,10 @@ public class MultiStageQueueImpl<EC extends MultiThreadedEventContext> extends A
   private final MultiSourceQueueImpl[] sourceQueues;
   private volatile int fcheck = 0;  // used to start the shortest queue search
   AtomicInteger partitionHand =new AtomicInteger(0);
+  // scheduling keys with events queued or running, and the queue they are bound to until the run ends.  only used
+  // when key stealing is enabled
+  private final Map<Object, KeyRun> keyRuns;
+  private final Consumer<Object> runEnded = this::endOfRun;
 
   /**
    * The Constructor.
@@ -94,6 +106,8 @@ public class MultiStageQueueImpl<EC extends MultiThreadedEventContext> extends A
     PARTITION_MAX_MASK = (1 << (31 - PARTITION_SHIFT)) - 1;
     this.sourceQueues = new MultiSourceQueueImpl[queueCount];
     createWorkerQueues(queueCount, queueFactory, type, queueSize, stageName);
+    this.keyRuns = (queueCount > 1 && TCPropertiesImpl.getProperties().getBoolean("seda." + stageName + ".steal", false))
+        ? new ConcurrentHashMap<>() : null;
 
     if (Integer.bitCount(queueCount) == 1) {
       this.moduloAnd = true;
@@ -135,7 +149,7 @@ public class MultiStageQueueImpl<EC extends MultiThreadedEventContext> extends A
     Assert.eval(queueSize > 0);
 
     for (int i = 0; i < queueCount; i++) {
-      this.sourceQueues[i] = new MultiSourceQueueImpl(queueFactory.createInstance(type, queueSize), v->this.fcheck = v, i);
+      this.sourceQueues[i] = new MultiSourceQueueImpl(queueFactory.createInstance(stage, type, queueSize), v->this.fcheck = v, i);
     }
   }
 
@@ -157,8 +171,20 @@ public class MultiStageQueueImpl<EC extends MultiThreadedEventContext> extends A
     if (event != null) {
       // NOTE:  We don't currently consult the predicate for multi-threaded events (the only implementation always returns true, in any case).
       boolean interrupted = Thread.interrupted();
-      int index = getSourceQueueFor(context);
-      Event wrapper = (context.flush()) ? new FlushingHandledContext(event, index) : event;
+      Object key = context.getSchedulingKey();
+      int index;
+      Event wrapper;
+      if (context.flush()) {
+        index = getSourceQueueFor(key);
+        wrapper = new FlushingHandledContext(event, index);
+      } else if (key != null && keyRuns != null) {
+        KeyRun run = keyRuns.compute(key, (k, current) -> (current == null) ? new KeyRun(chooseQueueForRun(k)) : current.add());
+        index = run.queue;
+        wrapper = new KeyRunEvent<>(key, event, runEnded);
+      } else {
+        index = getSourceQueueFor(key);
+        wrapper = event;
+      }
       try {
         while (true) {
           try {
@@ -194,6 +220,15 @@ public class MultiStageQueueImpl<EC extends MultiThreadedEventContext> extends A
         }
         return can;
       }
+      case TWO_CHOICES: {
+        if (this.sourceQueues.length == 1) {
+          return 0;
+        }
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        int first = random.nextInt(this.sourceQueues.length);
+        int second = moduloQueueCount(first + 1 + random.nextInt(this.sourceQueues.length - 1));
+        return (this.sourceQueues[second].size() < this.sourceQueues[first].size()) ? second : first;
+      }
       case BRUTE: {
         final int pointer = fcheck;
         int min = Integer.MAX_VALUE;
@@ -228,9 +263,7 @@ public class MultiStageQueueImpl<EC extends MultiThreadedEventContext> extends A
     } return newP;
   }
 
-  private int getSourceQueueFor(EC context) {
-    EC multi = context;
-    Object schedulingKey = multi.getSchedulingKey();
+  private int getSourceQueueFor(Object schedulingKey) {
     if (null == schedulingKey) {
       return findShortestQueueIndex();
     } else {
@@ -241,6 +274,43 @@ public class MultiStageQueueImpl<EC extends MultiThreadedEventContext> extends A
   private int hashCodeToArrayIndex(int hashcode, int arrayLength) {
     return Math.abs(hashcode % arrayLength);
   }
+
+  /**
+   * Picks the queue for a key that has nothing queued or running.  The key normally goes to its hashed queue, but if
+   * that queue already has work waiting and a shorter one is found the new run is stolen by that queue instead.  Since
+   * no earlier event for the key is still outstanding, moving it cannot reorder the key's events.
+   */
+  private int chooseQueueForRun(Object key) {
+    int home = hashCodeToArrayIndex(key.hashCode(), this.sourceQueues.length);
+    int backlog = this.sourceQueues[home].size();
+    if (backlog > 0) {
+      int candidate = findShortestQueueIndex();
+      if (candidate != home && this.sourceQueues[candidate].size() < backlog) {
+        this.sourceQueues[candidate].steals.increment();
+        return candidate;
+      }
+    }
+    return home;
+  }
+
+  private void endOfRun(Object key) {
+    keyRuns.computeIfPresent(key, (k, run) -> run.remove() ? null : run);
+  }
+
+  @Override
+  public Map<String, ?> getState() {
+    @SuppressWarnings("unchecked")
+    Map<String, Object> state = (Map<String, Object>) super.getState();
+    if (keyRuns != null) {
+      List<Long> steals = new ArrayList<>(this.sourceQueues.length);
+      for (MultiSourceQueueImpl q : this.sourceQueues) {
+        steals.add(q.steals.sum());
+      }
+      state.put("steals", steals);
+      state.put("activeKeys", keyRuns.size());
+    }
+    return state;
+  }
   
   @Override
   public String toString() {
@@ -261,6 +331,7 @@ public class MultiStageQueueImpl<EC extends MultiThreadedEventContext> extends A
     private final Consumer<Integer> hint;
     private final BlockingQueue<Event> queue;
     private final int                      sourceIndex;
+    private final LongAdder                steals = new LongAdder();
 
     public MultiSourceQueueImpl(BlockingQueue<Event> queue, Consumer<Integer> hint, int sourceIndex) {
       this.queue = queue;
@@ -278,7 +349,11 @@ public class MultiStageQueueImpl<EC extends MultiThreadedEventContext> extends A
     public int clear() {
       int cleared = 0;
       try {
-        while (poll(0) != null) {
+        Event e;
+        while ((e = poll(0)) != null) {
+          if (e instanceof KeyRunEvent) {
+            ((KeyRunEvent) e).discard();
+          }
           cleared++;
         }
         return cleared;
@@ -323,6 +398,83 @@ public class MultiStageQueueImpl<EC extends MultiThreadedEventContext> extends A
 
   }
 
+  /**
+   * Count of a key's events that are queued or running, guarded by the key's entry in {@link #keyRuns}.
+   */
+  private static final class KeyRun {
+    private final int queue;
+    private int outstanding = 1;
+
+    KeyRun(int queue) {
+      this.queue = queue;
+    }
+
+    KeyRun add() {
+      outstanding += 1;
+      return this;
+    }
+
+    boolean remove() {
+      return --outstanding == 0;
+    }
+  }
+
+  /**
+   * Ends its part of the key's run once handled, whether called on its own or as part of a batch.
+   */
+  private static final class KeyRunEvent<C> implements BatchedEvent<C> {
+    private final Object key;
+    private final Event event;
+    private final Consumer<Object> endOfRun;
+
+    KeyRunEvent(Object key, Event event, Consumer<Object> endOfRun) {
+      this.key = key;
+      this.event = event;
+      this.endOfRun = endOfRun;
+    }
+
+    @Override
+    public void call() throws EventHandlerException {
+      try {
+        event.call();
+      } finally {
+        endOfRun.accept(key);
+      }
+    }
+
+    void discard() {
+      endOfRun.accept(key);
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public long getEnqueueTime() {
+      return (event instanceof BatchedEvent) ? ((BatchedEvent<C>) event).getEnqueueTime() : 0;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public C getContext() {
+      return (event instanceof BatchedEvent) ? ((BatchedEvent<C>) event).getContext() : null;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public void begin() {
+      ((BatchedEvent<C>) event).begin();
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public void end() {
+      try {
+        ((BatchedEvent<C>) event).end();
+      } finally {
+        endOfRun.accept(key);
+      }
+    }
+  }
+
   private class FlushingHandledContext<T extends EC> extends HandledEvent<EC> {
     private final int offset;
     private int executionCount = 0;
@@ -64,7 +64,7 @@ public class SingletonStageQueueImpl<EC> extends AbstractStageQueueImpl<EC> {
 
     Assert.eval(queueSize > 0);
 
-    return new SourceQueueImpl(queueFactory.createInstance(type, queueSize));
+    return new SourceQueueImpl(queueFactory.createInstance(stage, type, queueSize));
   }
 
   @Override
@@ -58,6 +58,7 @@ public class StageImpl<EC> implements Stage<EC> {
   private final Logger logger;
   private final int            sleepMs;
   private final boolean        pausable;
+  private final int            batchSize;
   private volatile boolean     paused;
   private volatile boolean     shutdown = true;
   private final AtomicInteger  inflight = new AtomicInteger();
@@ -93,6 +94,7 @@ public class StageImpl<EC> implements Stage<EC> {
     if (this.pausable) {
       logger.warn("Stage pausing is enabled for stage " + name);
     }
+    this.batchSize = Math.max(1, TCPropertiesImpl.getProperties().getInt("seda." + name + ".batch", handler.getMaxBatchSize()));
   }
   
   private EventCreator<EC> eventCreator(boolean direct) {
@@ -102,15 +104,42 @@ public class StageImpl<EC> implements Stage<EC> {
   private EventCreator<EC> baseCreator() {
     return (event) -> {
       inflight.incrementAndGet();
-      return ()-> {
-        try {
-          handler.handleEvent(event);
-        } finally {
-          inflight.decrementAndGet();
-        }
-      };
+      return new HandlerEvent(event);
     };
   }
+
+  private class HandlerEvent implements BatchedEvent<EC> {
+    private final EC context;
+    private final long enqueued = System.nanoTime();
+
+    HandlerEvent(EC context) {
+      this.context = context;
+    }
+
+    @Override
+    public void call() throws EventHandlerException {
+      try {
+        handler.handleEvent(context);
+      } finally {
+        inflight.decrementAndGet();
+      }
+    }
+
+    @Override
+    public EC getContext() {
+      return context;
+    }
+
+    @Override
+    public void end() {
+      inflight.decrementAndGet();
+    }
+
+    @Override
+    public long getEnqueueTime() {
+      return enqueued;
+    }
+  }
   
   @Override
   public boolean isEmpty() {
@@ -222,6 +251,11 @@ public class StageImpl<EC> implements Stage<EC> {
     Arrays.stream(threads).forEach(t->t.waitForIdleUninterruptibly());
   }
   
+  @Override
+  public void resetStats() {
+    Arrays.stream(threads).forEach(t->{if (t != null) t.latency.reset();});
+  }
+
   @Override
   public Map<String, ?> getState() {
     Map<String, Object> data = new LinkedHashMap<>();
@@ -245,6 +279,11 @@ public class StageImpl<EC> implements Stage<EC> {
     private long idleTime  = 0;
     private long runTime = 0;
     private long count = 0;
+    private long batches = 0;
+    private final List<Event> drained = new ArrayList<>();
+    private final List<BatchedEvent<EC>> batch = new ArrayList<>();
+    private final List<EC> contexts = new ArrayList<>();
+    private final StageLatency latency = new StageLatency();
 
     public WorkerThread(String name, Source source, EventHandler<EC> handler) {
       super(group, name);
@@ -282,9 +321,18 @@ public class StageImpl<EC> implements Stage<EC> {
             this.idle = false;
             handleStageDebugPauses();
             idleTime += (running - stopped);
-            ctxt.call();
+            if (batchSize > 1) {
+              count += callBatch(ctxt);
+            } else {
+              long started = System.nanoTime();
+              try {
+                ctxt.call();
+              } finally {
+                record(ctxt, started, System.nanoTime());
+              }
+              count += 1;
+            }
             runTime += (System.nanoTime() - running);
-            count += 1;
           } else {
             idleTime += (System.nanoTime() - stopped);
           }
@@ -312,9 +360,94 @@ public class StageImpl<EC> implements Stage<EC> {
           // to the context will exist until another context comes in. This can potentially keep many objects in memory
           // longer than necessary
           ctxt = null;
+          drained.clear();
         }
       }
     }
+
+    /**
+     * Drains whatever else is already queued, up to the batch size, and hands runs of handler events over together.
+     * Any other event, such as a flush, is called on its own once the run ahead of it has been handled so queue order
+     * is kept.
+     */
+    @SuppressWarnings("unchecked")
+    private int callBatch(Event first) throws InterruptedException, EventHandlerException {
+      drained.add(first);
+      Event next;
+      while (drained.size() < batchSize && (next = source.poll(0)) != null) {
+        drained.add(next);
+      }
+      for (Event e : drained) {
+        EC context = (e instanceof BatchedEvent) ? ((BatchedEvent<EC>) e).getContext() : null;
+        if (context != null) {
+          batch.add((BatchedEvent<EC>) e);
+          contexts.add(context);
+        } else {
+          flushBatch();
+          callAlone(e);
+        }
+      }
+      flushBatch();
+      return drained.size();
+    }
+
+    private void flushBatch() throws EventHandlerException {
+      if (batch.isEmpty()) {
+        return;
+      }
+      long started = System.nanoTime();
+      try {
+        batch.forEach(BatchedEvent::begin);
+        if (contexts.size() == 1) {
+          handler.handleEvent(contexts.get(0));
+        } else {
+          handler.handleEvents(contexts);
+        }
+        batches += 1;
+      } catch (RuntimeException e) {
+        ignoreIfNotRunning(e, contexts);
+      } finally {
+        batch.forEach(BatchedEvent::end);
+        // the handler saw the batch as one call, so each event is charged an equal share of it
+        long share = (System.nanoTime() - started) / batch.size();
+        for (BatchedEvent<EC> e : batch) {
+          latency.record(e.getEnqueueTime(), started, started + share);
+        }
+        batch.clear();
+        contexts.clear();
+      }
+    }
+
+    private void callAlone(Event e) throws EventHandlerException {
+      long started = System.nanoTime();
+      try {
+        e.call();
+      } catch (RuntimeException re) {
+        ignoreIfNotRunning(re, e);
+      } finally {
+        record(e, started, System.nanoTime());
+      }
+    }
+
+    /**
+     * Only events that reach the handler are recorded, not close or flush forwarding events.
+     */
+    private void record(Event e, long started, long ended) {
+      if (e instanceof BatchedEvent) {
+        latency.record(((BatchedEvent<?>) e).getEnqueueTime(), started, ended);
+      }
+    }
+
+    /**
+     * Matches the single event path so one failing batch does not take the rest of the drained events with it.
+     */
+    private void ignoreIfNotRunning(RuntimeException e, Object ctxt) {
+      if (!isTCNotRunningException(e)) {
+        throw e;
+      } else if (!shutdown) {
+        logger.info("Ignoring " + TCNotRunningException.class.getSimpleName() + " while handling context: " + ctxt);
+      }
+    }
     
     private void setToIdle() {
       if (this.idle != true && source.isEmpty()) {
@@ -358,7 +491,11 @@ public class StageImpl<EC> implements Stage<EC> {
       state.put("idle", idleTime);
       state.put("run", runTime);
       state.put("processed", count);
+      if (batchSize > 1) {
+        state.put("batches", batches);
+      }
       state.put("backlog", source.size());
+      state.put("latency", latency.getStateMap());
       return state;
     }
   }
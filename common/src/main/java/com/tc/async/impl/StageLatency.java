@@ -0,0 +1,63 @@
+/*
+ *
+ *  The contents of this file are subject to the Terracotta Public License Version
+ *  2.0 (the "License"); You may not use this file except in compliance with the
+ *  License. You may obtain a copy of the License at
+ *
+ *  http://terracotta.org/legal/terracotta-public-license.
+ *
+ *  Software distributed under the License is distributed on an "AS IS" basis,
+ *  WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License for
+ *  the specific language governing rights and limitations under the License.
+ *
+ *  The Covered Software is Terracotta Core.
+ *
+ *  The Initial Developer of the Covered Software is
+ *  Terracotta, Inc., a Software AG company
+ *
+ */
+package com.tc.async.impl;
+
+import com.tc.properties.TCPropertiesConsts;
+import com.tc.properties.TCPropertiesImpl;
+import com.tc.stats.WindowedHistogram;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Queue wait (added to the sink until the handler starts) and service (handler start to finish) times of one stage
+ * worker, in microseconds.  Cheap and bounded enough to leave on, unlike pipeline monitoring.
+ */
+class StageLatency {
+
+  // sixteen buckets per power of two, percentiles within about 6%
+  private static final int  SUB_BUCKET_BITS = 4;
+  private static final long WINDOW_MILLIS   = TCPropertiesImpl.getProperties()
+                                                .getLong(TCPropertiesConsts.TC_STAGE_LATENCY_WINDOW_MILLIS, 60000);
+
+  private final WindowedHistogram queueWait = new WindowedHistogram(SUB_BUCKET_BITS, WINDOW_MILLIS);
+  private final WindowedHistogram service   = new WindowedHistogram(SUB_BUCKET_BITS, WINDOW_MILLIS);
+
+  /**
+   * @param enqueued {@link System#nanoTime()} the event was added, or 0 if not known
+   */
+  void record(long enqueued, long started, long ended) {
+    if (enqueued != 0) {
+      queueWait.record(TimeUnit.NANOSECONDS.toMicros(started - enqueued));
+    }
+    service.record(TimeUnit.NANOSECONDS.toMicros(ended - started));
+  }
+
+  void reset() {
+    queueWait.reset();
+    service.reset();
+  }
+
+  Map<String, ?> getStateMap() {
+    Map<String, Object> state = new LinkedHashMap<>();
+    state.put("queueWaitMicros", queueWait.getStateMap());
+    state.put("serviceMicros", service.getStateMap());
+    return state;
+  }
+}
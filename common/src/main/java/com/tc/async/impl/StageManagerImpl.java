@@ -22,6 +22,7 @@ import org.slf4j.Logger;
 
 import com.tc.async.api.ConfigurationContext;
 import com.tc.async.api.EventHandler;
+import com.tc.async.api.MultiThreadedEventContext;
 import com.tc.async.api.PostInit;
 import com.tc.async.api.Stage;
 import com.tc.async.api.StageManager;
@@ -55,6 +56,8 @@ public class StageManagerImpl implements StageManager {
   private static final long        MONITOR_DELAY = TCPropertiesImpl.getProperties()
                                                      .getLong(TCPropertiesConsts.TC_STAGE_MONITOR_DELAY);
 
+  private static final int         DEFAULT_ELASTIC_CONCURRENCY = 256;
+
   private final Map<String, Stage<?>>   stages        = new ConcurrentHashMap<String, Stage<?>>();
   private final Map<String, Class<?>> classVerifications = new ConcurrentHashMap<String, Class<?>>();
   private TCLoggerProvider           loggerProvider;
@@ -118,13 +121,41 @@ public class StageManagerImpl implements StageManager {
     }
 
     int capacity = maxSize > 0 ? maxSize : Integer.MAX_VALUE;
-    // Note that the queue factory is used by all the stages under this manager so it can't be type-safe.
-    Stage<EC> s = new StageImpl<EC>(loggerProvider, name, verification, handler, queueCount, group, queueFactory, capacity, canBeDirect);
+    Stage<EC> s;
+    if (isElastic(name, verification)) {
+      s = createElasticStage(name, handler, queueCount, capacity);
+    } else {
+      // Note that the queue factory is used by all the stages under this manager so it can't be type-safe.
+      s = new StageImpl<EC>(loggerProvider, name, verification, handler, queueCount, group, queueFactory, capacity, canBeDirect);
+    }
     addStage(name, s);
     this.classVerifications.put(name,  verification);
     return s;
   }
 
+  /**
+   * Stages that mostly wait can be switched to a pool of short lived threads with {@code seda.<stage>.mode=elastic}.
+   * Only multi-threaded contexts carry the scheduling key needed to keep their order.
+   */
+  private boolean isElastic(String name, Class<?> verification) {
+    if (!"elastic".equalsIgnoreCase(TCPropertiesImpl.getProperties().getProperty("seda." + name + ".mode", true))) {
+      return false;
+    } else if (!MultiThreadedEventContext.class.isAssignableFrom(verification)) {
+      loggerProvider.getLogger(getClass()).warn("Stage " + name + " does not handle multi-threaded events, ignoring elastic mode");
+      return false;
+    } else {
+      return true;
+    }
+  }
+
+  @SuppressWarnings({"unchecked", "rawtypes"})
+  private <EC> Stage<EC> createElasticStage(String name, EventHandler<EC> handler, int queueCount, int capacity) {
+    int concurrency = TCPropertiesImpl.getProperties().getInt("seda." + name + ".elastic.concurrency",
+                                                              Math.max(queueCount, DEFAULT_ELASTIC_CONCURRENCY));
+    loggerProvider.getLogger(getClass()).info("Stage " + name + " runs elastic with concurrency " + concurrency);
+    return new ElasticStageImpl(loggerProvider, name, handler, concurrency, group, capacity);
+  }
+
   private synchronized <EC> void addStage(String name, Stage<EC> s) {
     Object prev = stages.put(name, s);
     Assert.assertNull(prev);
@@ -200,6 +231,13 @@ public class StageManagerImpl implements StageManager {
     return stats;
   }
 
+  @Override
+  public void resetStats() {
+    for (Stage<?> stage : stages.values()) {
+      stage.resetStats();
+    }
+  }
+
   @Override
   public Map<String, ?> getStateMap() {
     Map<String,Object> map = new LinkedHashMap<>();
@@ -18,6 +18,7 @@
  */
 package com.tc.net.core;
 
+import java.io.EOFException;
 import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.nio.channels.GatheringByteChannel;
@@ -41,4 +42,79 @@ public interface BufferManager {
   int forwardFromReadBuffer(GatheringByteChannel gbc) throws IOException;
 
   int forwardToWriteBuffer(ScatteringByteChannel sbc) throws IOException;
+
+  /**
+   * @return true if this manager can write caller supplied buffers straight to the channel through
+   *         {@link #sendFromBuffers(ByteBuffer[], int, int)}, bypassing the intermediate send buffer
+   */
+  default boolean supportsGatheringWrites() {
+    return false;
+  }
+
+  /**
+   * Gathering write of the given buffers directly to the underlying channel. Any data still pending in the
+   * intermediate send buffer is flushed first; if it cannot be flushed completely nothing is taken from {@code srcs}.
+   * <p>
+   * Managers that don't support gathering writes copy the buffers through the intermediate send buffer instead, one
+   * {@link #forwardToWriteBuffer(ByteBuffer)} and {@link #sendFromBuffer()} at a time.
+   *
+   * @return the number of bytes taken from {@code srcs}
+   */
+  default long sendFromBuffers(ByteBuffer[] srcs, int offset, int length) throws IOException {
+    long sent = 0;
+    for (int i = offset; i < offset + length; i++) {
+      while (srcs[i].hasRemaining()) {
+        final int taken = forwardToWriteBuffer(srcs[i]);
+        if (taken == 0) { return sent; }
+        // like the single buffer write path, what was taken is flushed before taking more
+        for (int flushed = 0; flushed < taken;) {
+          flushed += sendFromBuffer();
+        }
+        sent += taken;
+      }
+    }
+    return sent;
+  }
+
+  /**
+   * @return true if this manager can read from the channel straight into caller supplied buffers through
+   *         {@link #recvToBuffers(ByteBuffer[], int, int)}, bypassing the intermediate receive buffer
+   */
+  default boolean supportsScatteringReads() {
+    return false;
+  }
+
+  /**
+   * Scattering read from the underlying channel directly into the given buffers. Any data already held in the
+   * intermediate receive buffer is handed out first.
+   * <p>
+   * Managers that don't support scattering reads fill the buffers from the intermediate receive buffer instead,
+   * reading from the channel with {@link #recvToBuffer()} at most once per call.
+   *
+   * @return the number of bytes placed in {@code dsts}
+   */
+  default long recvToBuffers(ByteBuffer[] dsts, int offset, int length) throws IOException {
+    long received = 0;
+    boolean read = false;
+    for (int i = offset; i < offset + length; i++) {
+      while (dsts[i].hasRemaining()) {
+        final int forwarded = forwardFromReadBuffer(dsts[i]);
+        if (forwarded > 0) {
+          received += forwarded;
+        } else if (read) {
+          return received;
+        } else {
+          read = true;
+          try {
+            if (recvToBuffer() == 0) { return received; }
+          } catch (EOFException eof) {
+            // report the end of stream on the next read, the forwarded bytes still have to be consumed
+            if (received > 0) { return received; }
+            throw eof;
+          }
+        }
+      }
+    }
+    return received;
+  }
 }
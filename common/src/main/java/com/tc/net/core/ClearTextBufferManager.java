@@ -56,6 +56,45 @@ class ClearTextBufferManager extends AbstractBufferManager {
     return written;
   }
 
+  @Override
+  public boolean supportsGatheringWrites() {
+    return true;
+  }
+
+  @Override
+  public long sendFromBuffers(ByteBuffer[] srcs, int offset, int length) throws IOException {
+    if (sendBuffer.position() > 0) {
+      sendFromBuffer();
+      if (sendBuffer.position() > 0) { return 0; }
+    }
+    long written = this.channel.write(srcs, offset, length);
+    if (written == -1) { throw new EOFException(); }
+    return written;
+  }
+
+  @Override
+  public boolean supportsScatteringReads() {
+    return true;
+  }
+
+  @Override
+  public long recvToBuffers(ByteBuffer[] dsts, int offset, int length) throws IOException {
+    long forwarded = 0;
+    if (recvBuffer.position() > 0) {
+      for (int i = offset; i < offset + length && recvBuffer.position() > 0; i++) {
+        forwarded += forwardFromReadBuffer(dsts[i]);
+      }
+      if (recvBuffer.position() > 0) { return forwarded; }
+    }
+    long read = this.channel.read(dsts, offset, length);
+    if (read == -1) {
+      // report the end of stream on the next read, the forwarded bytes still have to be consumed
+      if (forwarded > 0) { return forwarded; }
+      throw new EOFException();
+    }
+    return forwarded + read;
+  }
+
   @Override
   public int recvToBuffer() throws IOException {
     int read = this.channel.read(recvBuffer);
@@ -51,6 +51,7 @@ import java.util.Iterator;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.PriorityQueue;
 import java.util.Queue;
 import java.util.Set;
 import java.util.concurrent.ConcurrentLinkedQueue;
@@ -59,7 +60,8 @@ import java.util.concurrent.TimeUnit;
 
 /**
  * The communication thread. Creates {@link Selector selector}, registers {@link SocketChannel} to the selector and does
- * other NIO operations.
+ * other NIO operations. Reads and writes are handled by separate threads with their own selector, unless the services
+ * were created single threaded, in which case one selector thread handles both.
  *
  * @author mgovinda
  */
@@ -76,36 +78,63 @@ class CoreNIOServices implements TCListenerEventListener, TCConnectionEventListe
   // maintains weight of all L1 Connections which is handled by this WorkerComm
   private final HashMap<TCConnection, Integer> managedConnectionsMap;
   private int                                  clientWeights;
+  private int                                  migratedIn;
+  private int                                  migratedOut;
   private boolean                              isSelectedForWeighting;
   private final List<TCListener>               listeners     = new ArrayList<TCListener>();
   private String                               listenerString;
 
   private static enum COMM_THREAD_MODE {
-    NIO_READER, NIO_WRITER
+    NIO_READER, NIO_WRITER, NIO_READER_WRITER
   }
 
   public CoreNIOServices(String commThreadName, TCWorkerCommManager workerCommManager, SocketParams socketParams) {
+    this(commThreadName, workerCommManager, socketParams, false);
+  }
+
+  public CoreNIOServices(String commThreadName, TCWorkerCommManager workerCommManager, SocketParams socketParams,
+                         boolean singleThreaded) {
     this.commThreadName = commThreadName;
     this.workerCommMgr = workerCommManager;
     this.socketParams = socketParams;
     this.managedConnectionsMap = new HashMap<TCConnection, Integer>();
-    this.readerComm = new CommThread(COMM_THREAD_MODE.NIO_READER);
-    this.writerComm = new CommThread(COMM_THREAD_MODE.NIO_WRITER);
+    if (singleThreaded) {
+      this.readerComm = new CommThread(COMM_THREAD_MODE.NIO_READER_WRITER);
+      this.writerComm = this.readerComm;
+    } else {
+      this.readerComm = new CommThread(COMM_THREAD_MODE.NIO_READER);
+      this.writerComm = new CommThread(COMM_THREAD_MODE.NIO_WRITER);
+    }
   }
 
   public void start() {
     readerComm.start();
-    writerComm.start();
+    if (!isSingleThreaded()) {
+      writerComm.start();
+    }
   }
 
   public void requestStop() {
     if (stopRequested.attemptSet()) {
       readerComm.requestStop();
-      writerComm.requestStop();
+      if (!isSingleThreaded()) {
+        writerComm.requestStop();
+      }
     }
   }
 
+  /**
+   * True if one selector thread handles both reads and writes of the connections of these services.
+   */
+  boolean isSingleThreaded() {
+    return readerComm == writerComm;
+  }
+
   public void cleanupChannel(final SocketChannel channel, final Runnable callback) {
+    if (isSingleThreaded()) {
+      readerComm.cleanupChannel(channel, callback);
+      return;
+    }
 //  shutdown the writer side first, the the read side.  Doing this because
 //  cleanup can race with handshake if the writer side is shutdown after or in parallel
     writerComm.cleanupChannel(channel, new Runnable() {
@@ -137,14 +166,18 @@ class CoreNIOServices implements TCListenerEventListener, TCConnectionEventListe
     Assert.eval(removed);
     updateListenerString();
     readerComm.updateThreadName();
-    writerComm.updateThreadName();
+    if (!isSingleThreaded()) {
+      writerComm.updateThreadName();
+    }
   }
 
   private synchronized void listenerAdded(TCListener listener) {
     listeners.add(listener);
     updateListenerString();
     readerComm.updateThreadName();
-    writerComm.updateThreadName();
+    if (!isSingleThreaded()) {
+      writerComm.updateThreadName();
+    }
   }
 
   private void updateListenerString() {
@@ -171,18 +204,24 @@ class CoreNIOServices implements TCListenerEventListener, TCConnectionEventListe
   }
 
   public long getTotalBytesRead() {
+    if (isSingleThreaded()) { return readerComm.getTotalBytesRead(); }
     return readerComm.getTotalBytesRead() + writerComm.getTotalBytesRead();
   }
 
   public long getTotalBytesWritten() {
+    if (isSingleThreaded()) { return writerComm.getTotalBytesWritten(); }
     return readerComm.getTotalBytesWritten() + writerComm.getTotalBytesWritten();
   }
   
+  static boolean isCommThread() {
+    return Thread.currentThread() instanceof CommThread;
+  }
+
   public static boolean hasPendingReads() {
     Thread t = Thread.currentThread();
     if (t instanceof CommThread) {
       CommThread ct = (CommThread)t;
-      if (ct.isReader()) {
+      if (ct.handlesReads()) {
         try {
           return ct.selector.selectedKeys().stream().anyMatch(key->key.isReadable());
         } catch (ClosedSelectorException closed) {
@@ -275,17 +314,86 @@ class CoreNIOServices implements TCListenerEventListener, TCConnectionEventListe
     }
   }
 
-  @Override
-  public void closeEvent(TCConnectionEvent event) {
+  private boolean removeConnection(TCConnection connection) {
     synchronized (managedConnectionsMap) {
-      Assert.eval(managedConnectionsMap.containsKey(event.getSource()));
-      int closedCientWeight = managedConnectionsMap.get(event.getSource());
-      this.clientWeights -= closedCientWeight;
-      managedConnectionsMap.remove(event.getSource());
-      event.getSource().removeListener(this);
+      Integer weight = managedConnectionsMap.remove(connection);
+      if (weight == null) { return false; }
+      this.clientWeights -= weight;
+      connection.removeListener(this);
+      return true;
     }
   }
 
+  /**
+   * Snapshot of the connections handled by this worker, for the rebalancer.
+   */
+  List<TCConnectionImpl> getManagedConnections() {
+    synchronized (managedConnectionsMap) {
+      List<TCConnectionImpl> connections = new ArrayList<TCConnectionImpl>(managedConnectionsMap.size());
+      for (TCConnection connection : managedConnectionsMap.keySet()) {
+        connections.add((TCConnectionImpl) connection);
+      }
+      return connections;
+    }
+  }
+
+  /**
+   * Moves a connection and its weight over to another worker. The connection is pointed at the target first so that
+   * interest requests racing with the move are forwarded there, then the channel is dropped from this worker's
+   * selectors and registered with the target's. Must not be called from a comm thread.
+   *
+   * @return false if the connection is no longer handled by this worker
+   */
+  boolean migrateConnection(TCConnectionImpl connection, CoreNIOServices target) {
+    Assert.eval(!isCommThread());
+    if (isStopRequested() || target.isStopRequested()) { return false; }
+    final int weight;
+    synchronized (managedConnectionsMap) {
+      Integer current = managedConnectionsMap.get(connection);
+      if (current == null || connection.isClosed()) { return false; }
+      weight = current;
+    }
+    removeConnection(connection);
+    connection.setCommWorker(target);
+    SocketChannel channel = connection.getChannel();
+    readerComm.unregister(channel);
+    if (!isSingleThreaded()) {
+      writerComm.unregister(channel);
+    }
+    target.addConnection(connection, weight);
+    if (connection.isClosed()) {
+      // the close event may have fired while neither worker was listening
+      target.removeConnection(connection);
+      return false;
+    }
+    connection.resumeOnCommWorker();
+    synchronized (managedConnectionsMap) {
+      this.migratedOut++;
+    }
+    synchronized (target.managedConnectionsMap) {
+      target.migratedIn++;
+    }
+    return true;
+  }
+
+  /**
+   * Time both comm threads of this worker spent servicing connections.
+   */
+  long getBusyNanos() {
+    if (isSingleThreaded()) { return readerComm.busyNanos; }
+    return readerComm.busyNanos + writerComm.busyNanos;
+  }
+
+  private boolean isStopRequested() {
+    return stopRequested.isSet();
+  }
+
+  @Override
+  public void closeEvent(TCConnectionEvent event) {
+    // a connection migrating to another worker may be gone from the map already
+    removeConnection(event.getSource());
+  }
+
   @Override
   public void connectEvent(TCConnectionEvent event) {
     //
@@ -315,9 +423,18 @@ class CoreNIOServices implements TCListenerEventListener, TCConnectionEventListe
   public Map<String, ?> getState() {
     Map<String, Object> state = new LinkedHashMap<>();
     state.put("name", this.commThreadName);
-    state.put("weights", this.clientWeights);
-    state.put("writer", this.writerComm.getCommState());
-    state.put("reader", this.readerComm.getCommState());
+    synchronized (managedConnectionsMap) {
+      state.put("weights", this.clientWeights);
+      state.put("connections", this.managedConnectionsMap.size());
+      state.put("migratedIn", this.migratedIn);
+      state.put("migratedOut", this.migratedOut);
+    }
+    if (isSingleThreaded()) {
+      state.put("selector", this.readerComm.getCommState());
+    } else {
+      state.put("writer", this.writerComm.getCommState());
+      state.put("reader", this.readerComm.getCommState());
+    }
     return state;
   }
 
@@ -345,6 +462,20 @@ class CoreNIOServices implements TCListenerEventListener, TCConnectionEventListe
     writerComm.removeWriteInterest(conn, channel);
   }
 
+  /**
+   * Runs {@code task} on the writer comm thread.
+   */
+  void addWriterTask(Runnable task) {
+    writerComm.addSelectorTask(task);
+  }
+
+  /**
+   * Must be called from the writer comm thread, while the connection is selected for write.
+   */
+  void deferWrite(TCConnectionImpl conn, SelectableChannel channel, long deadlineNanos) {
+    writerComm.deferWrite(conn, channel, deadlineNanos);
+  }
+
   private void requestReadWriteInterest(TCConnectionImpl conn, SocketChannel sc) {
     readerComm.requestReadInterest(conn, sc);
     writerComm.requestWriteInterest(conn, sc);
@@ -354,11 +485,17 @@ class CoreNIOServices implements TCListenerEventListener, TCConnectionEventListe
     private final Selector                      selector;
     private final Queue<Runnable> selectorTasks;
     private final String                        name;
-    private long                    bytesMoved    = 0;
+    private long                    bytesRead     = 0;
+    private long                    bytesWritten  = 0;
+    // written by this thread only
+    private volatile long                       busyNanos     = 0;
     private final COMM_THREAD_MODE              mode;
+    // only touched by this thread
+    private final PriorityQueue<DeferredWrite>  deferredWrites = new PriorityQueue<DeferredWrite>();
 
     public CommThread(COMM_THREAD_MODE mode) {
-      name = commThreadName + (mode == COMM_THREAD_MODE.NIO_READER ? "_R" : "_W");
+      name = commThreadName + (mode == COMM_THREAD_MODE.NIO_READER ? "_R"
+          : mode == COMM_THREAD_MODE.NIO_WRITER ? "_W" : "_RW");
       setDaemon(true);
       setName(name);
 
@@ -371,13 +508,19 @@ class CoreNIOServices implements TCListenerEventListener, TCConnectionEventListe
       Map<String, Object> state = new LinkedHashMap<>();
       state.put("name", name);
       state.put("mode", mode);
-      state.put("bytesMoved", bytesMoved);
+      state.put("bytesMoved", bytesRead + bytesWritten);
+      state.put("busyMillis", TimeUnit.NANOSECONDS.toMillis(busyNanos));
       state.put("selectorBacklog", selectorTasks.size());
+      state.put("deferredWrites", deferredWrites.size());
       return state;
     }
 
-    private boolean isReader() {
-      return (this.mode == COMM_THREAD_MODE.NIO_READER);
+    private boolean handlesReads() {
+      return this.mode != COMM_THREAD_MODE.NIO_WRITER;
+    }
+
+    private boolean handlesWrites() {
+      return this.mode != COMM_THREAD_MODE.NIO_READER;
     }
 
     @Override
@@ -629,7 +772,7 @@ class CoreNIOServices implements TCListenerEventListener, TCConnectionEventListe
       while (true) {
         final int numKeys;
         try {
-          numKeys = localSelector.select();
+          numKeys = select(localSelector);
         } catch (IOException ioe) {
           throw ioe;
         } catch (CancelledKeyException cke) {
@@ -661,6 +804,8 @@ class CoreNIOServices implements TCListenerEventListener, TCConnectionEventListe
         }
         Util.selfInterruptIfNeeded(isInterrupted);
 
+        runDueDeferredWrites();
+
         final Set<SelectionKey> selectedKeys = localSelector.selectedKeys();
         if ((0 == numKeys) && (0 == selectedKeys.size())) {
           continue;
@@ -687,21 +832,27 @@ class CoreNIOServices implements TCListenerEventListener, TCConnectionEventListe
               continue;
             }
 
-            if (isReader() && key.isValid() && key.isReadable()) {
+            final long start = System.nanoTime();
+            if (handlesReads() && key.isValid() && key.isReadable()) {
               int read;
               TCChannelReader reader = (TCChannelReader) key.attachment();
               do {
                 read = reader.doRead();
-                bytesMoved += read;
+                bytesRead += read;
               } while ((read != 0) && key.isReadable());
             }
 
-            if (key.isValid() && !isReader() && key.isWritable()) {
+            if (key.isValid() && handlesWrites() && key.isWritable()) {
               int written = ((TCChannelWriter) key.attachment()).doWrite();
-                bytesMoved += written;
+                bytesWritten += written;
             }
 
             TCConnection conn = (TCConnection) key.attachment();
+            final long busy = System.nanoTime() - start;
+            busyNanos += busy;
+            if (conn instanceof TCConnectionImpl) {
+              ((TCConnectionImpl) conn).recordCommTime(busy);
+            }
             if (conn != null && conn.isClosePending()) {
               conn.asynchClose();
             }
@@ -721,6 +872,38 @@ class CoreNIOServices implements TCListenerEventListener, TCConnectionEventListe
       } // while (true)
     }
 
+    /**
+     * Blocks in select until a key is ready or the next deferred write is due. Selectors only take millisecond timeouts,
+     * so the wait is rounded up rather than polling through the last sub-millisecond stretch of a deferral.
+     */
+    private int select(Selector localSelector) throws IOException {
+      DeferredWrite next = deferredWrites.peek();
+      if (next == null) { return localSelector.select(); }
+      long waitNanos = next.deadline - System.nanoTime();
+      if (waitNanos <= 0) { return localSelector.selectNow(); }
+      // round up, a deferred write is better flushed a little late than polled for
+      return localSelector.select(TimeUnit.NANOSECONDS.toMillis(waitNanos + TimeUnit.MILLISECONDS.toNanos(1) - 1));
+    }
+
+    void deferWrite(TCConnectionImpl conn, SelectableChannel channel, long deadlineNanos) {
+      Assert.eval(Thread.currentThread() == this);
+      modifyInterest(InterestRequest.createRemoveInterestRequest(channel, conn, SelectionKey.OP_WRITE, this));
+      deferredWrites.add(new DeferredWrite(conn, channel, deadlineNanos));
+    }
+
+    private void runDueDeferredWrites() {
+      if (deferredWrites.isEmpty()) { return; }
+      long now = System.nanoTime();
+      DeferredWrite due;
+      while ((due = deferredWrites.peek()) != null && due.deadline - now <= 0) {
+        deferredWrites.poll();
+        if (!due.connection.isClosed()) {
+          modifyInterest(InterestRequest.createAddInterestRequest(due.channel, due.connection, SelectionKey.OP_WRITE,
+                                                                  this));
+        }
+      }
+    }
+
     @SuppressWarnings("resource")
     private void doAccept(SelectionKey key) {
       SocketChannel sc = null;
@@ -776,11 +959,11 @@ class CoreNIOServices implements TCListenerEventListener, TCConnectionEventListe
     }
 
     public long getTotalBytesRead() {
-      return this.mode == COMM_THREAD_MODE.NIO_READER ? this.bytesMoved : 0;
+      return this.bytesRead;
     }
 
     public long getTotalBytesWritten() {
-      return this.mode == COMM_THREAD_MODE.NIO_WRITER ? this.bytesMoved : 0;
+      return this.bytesWritten;
     }
 
     private void handleRequest(final InterestRequest req) {
@@ -808,6 +991,16 @@ class CoreNIOServices implements TCListenerEventListener, TCConnectionEventListe
     private void modifyInterest(InterestRequest request) {
       Assert.eval(Thread.currentThread() == this);
 
+      if (request.attachment instanceof TCConnectionImpl) {
+        CoreNIOServices owner = ((TCConnectionImpl) request.attachment).getCommWorker();
+        if (owner != null && owner != CoreNIOServices.this) {
+          // the connection migrated to another worker, don't register it with this selector again
+          CommThread ownerComm = request.interestOps == SelectionKey.OP_WRITE ? owner.writerComm : owner.readerComm;
+          ownerComm.handleRequest(new InterestRequest(request, ownerComm));
+          return;
+        }
+      }
+
       Selector localSelector = null;
       localSelector = selector;
 
@@ -835,7 +1028,8 @@ class CoreNIOServices implements TCListenerEventListener, TCConnectionEventListe
         } else if (request.set) {
           request.channel.register(localSelector, request.interestOps, request.attachment);
         } else if (request.remove) {
-          request.channel.register(localSelector, existingOps ^ request.interestOps, request.attachment);
+          // mask rather than toggle, a remove forwarded from a migrated connection may find the op cleared already
+          request.channel.register(localSelector, existingOps & ~request.interestOps, request.attachment);
         } else {
           throw new TCInternalError();
         }
@@ -851,33 +1045,50 @@ class CoreNIOServices implements TCListenerEventListener, TCConnectionEventListe
     }
 
     void requestReadInterest(TCChannelReader reader, ScatteringByteChannel channel) {
-      Assert.eval(isReader());
+      Assert.eval(handlesReads());
       handleRequest(InterestRequest.createAddInterestRequest((SelectableChannel) channel, reader, SelectionKey.OP_READ,
                                                              this));
     }
 
     void requestWriteInterest(TCChannelWriter writer, GatheringByteChannel channel) {
-      Assert.eval(!isReader());
+      Assert.eval(handlesWrites());
       handleRequest(InterestRequest.createAddInterestRequest((SelectableChannel) channel, writer,
                                                              SelectionKey.OP_WRITE, this));
     }
 
     private void requestAcceptInterest(TCListenerImpl lsnr, ServerSocketChannel ssc) {
-      Assert.eval(isReader());
+      Assert.eval(handlesReads());
       handleRequest(InterestRequest.createSetInterestRequest(ssc, lsnr, SelectionKey.OP_ACCEPT, this));
     }
 
     void removeWriteInterest(TCConnectionImpl conn, SelectableChannel channel) {
-      Assert.eval(!isReader());
+      Assert.eval(handlesWrites());
       handleRequest(InterestRequest.createRemoveInterestRequest(channel, conn, SelectionKey.OP_WRITE, this));
     }
 
     void removeReadInterest(TCConnectionImpl conn, SelectableChannel channel) {
-      Assert.eval(isReader());
+      Assert.eval(handlesReads());
       handleRequest(InterestRequest.createRemoveInterestRequest(channel, conn, SelectionKey.OP_READ, this));
     }
   }
 
+  private static class DeferredWrite implements Comparable<DeferredWrite> {
+    final TCConnectionImpl  connection;
+    final SelectableChannel channel;
+    final long              deadline;
+
+    DeferredWrite(TCConnectionImpl connection, SelectableChannel channel, long deadline) {
+      this.connection = connection;
+      this.channel = channel;
+      this.deadline = deadline;
+    }
+
+    @Override
+    public int compareTo(DeferredWrite o) {
+      return Long.signum(deadline - o.deadline);
+    }
+  }
+
   private static class InterestRequest {
     final SelectableChannel channel;
     final Object            attachment;
@@ -916,6 +1127,11 @@ class CoreNIOServices implements TCListenerEventListener, TCConnectionEventListe
       this.commNIOServiceThread = nioServiceThread;
     }
 
+    InterestRequest(InterestRequest request, CommThread nioServiceThread) {
+      this(request.channel, request.attachment, request.interestOps, request.set, request.add, request.remove,
+           nioServiceThread);
+    }
+
     public CommThread getCommNIOServiceThread() {
       return commNIOServiceThread;
     }
@@ -40,14 +40,19 @@ class TCCommImpl implements TCComm {
   private volatile boolean          started        = false;
 
   TCCommImpl(String name, int workerCommCount, SocketParams socketParams) {
+    this(name, workerCommCount, socketParams, false);
+  }
+
+  TCCommImpl(String name, int workerCommCount, SocketParams socketParams, boolean singleSelectorThread) {
     if (workerCommCount > 0) {
-      workerCommMgr = new TCWorkerCommManager(name, workerCommCount, socketParams);
+      workerCommMgr = new TCWorkerCommManager(name, workerCommCount, socketParams, singleSelectorThread);
     } else {
       logger.debug("Comm Worker Threads NOT requested");
       workerCommMgr = null;
     }
 
-    this.commThread = new CoreNIOServices(name + ":" + commThreadName, workerCommMgr, socketParams);
+    this.commThread = new CoreNIOServices(name + ":" + commThreadName, workerCommMgr, socketParams,
+                                          singleSelectorThread);
   }
 
   protected int getWeightForWorkerComm(int workerCommId) {
@@ -28,12 +28,14 @@ import com.tc.net.core.event.TCConnectionEventCaller;
 import com.tc.net.core.event.TCConnectionEventListener;
 import com.tc.net.protocol.TCNetworkMessage;
 import com.tc.net.protocol.TCProtocolAdaptor;
+import com.tc.net.protocol.transport.WireProtocolCompression;
 import com.tc.net.protocol.transport.WireProtocolGroupMessageImpl;
 import com.tc.net.protocol.transport.WireProtocolHeader;
 import com.tc.net.protocol.transport.WireProtocolMessage;
 import com.tc.net.protocol.transport.WireProtocolMessageImpl;
 import com.tc.properties.TCPropertiesConsts;
 import com.tc.properties.TCPropertiesImpl;
+import com.tc.stats.Histogram;
 import com.tc.util.Assert;
 import com.tc.util.TCTimeoutException;
 import com.tc.util.concurrent.SetOnceFlag;
@@ -50,6 +52,7 @@ import java.net.UnknownHostException;
 import java.nio.ByteBuffer;
 import java.nio.channels.SocketChannel;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Date;
 import java.util.LinkedHashMap;
 import java.util.LinkedList;
@@ -89,6 +92,7 @@ final class TCConnectionImpl implements TCConnection, TCChannelReader, TCChannel
   private final LongAdder                      messagesWritten           = new LongAdder();
   private final AtomicLong                      lastDataReceiveTime         = new AtomicLong(System.currentTimeMillis());
   private final LongAdder                      messagesRead           = new LongAdder();
+  private final LongAdder                       commNanos                   = new LongAdder();
   private final AtomicLong                      connectTime                 = new AtomicLong(NO_CONNECT_TIME);
   private final List<TCConnectionEventListener> eventListeners              = new CopyOnWriteArrayList<TCConnectionEventListener>();
   private final TCProtocolAdaptor               protocolAdaptor;
@@ -104,6 +108,47 @@ final class TCConnectionImpl implements TCConnection, TCChannelReader, TCChannel
   private final Object                          pipeSocketWriteInterestLock = new Object();
   private boolean                               hasPipeSocketWriteInterest  = false;
   private int                                   writeBufferSize             = 0;
+  private volatile boolean                      gatheringWrites             = false;
+  private volatile boolean                      scatteringReads             = false;
+  // outgoing queue accounting, guarded by writeMessages
+  private int                                   queuedMessages              = 0;
+  private long                                  queuedBytes                 = 0;
+  private long                                  queueFullCount              = 0;
+  private boolean                               readsThrottled              = false;
+  private int                                   outgoingQueueMaxMessages    = OUTGOING_QUEUE_MAX_MESSAGES;
+  private long                                  outgoingQueueMaxBytes       = OUTGOING_QUEUE_MAX_BYTES;
+  private QueueFullPolicy                       outgoingQueuePolicy         = OUTGOING_QUEUE_POLICY;
+  // adaptive coalescing state, guarded by writeMessages
+  private long                                  oldestQueuedNanos           = 0;
+  private long                                  lastPutNanos                = 0;
+  private long                                  averagePutIntervalNanos     = Long.MAX_VALUE;
+  private boolean                               writeDeferred               = false;
+  // 0 when coalescing is off
+  private volatile long                         coalesceBudgetNanos         = COALESCING_ENABLED ? COALESCE_BUDGET_NANOS : 0;
+  private long                                  coalescedWrites             = 0;
+  private final ByteBuffer[]                    gatherBuffers               = new ByteBuffer[MAX_GATHER_BUFFERS];
+  // guarded by readerLock
+  private final ByteBuffer[]                    scatterBuffers              = new ByteBuffer[MAX_GATHER_BUFFERS];
+  // guarded by writerLock
+  private boolean                               writingInline               = false;
+  // the sent callbacks and the error of inline writes, left to the comm thread; guarded by writerLock
+  private final List<WriteContext>              writtenInline               = new ArrayList<WriteContext>();
+  private IOException                           inlineWriteError            = null;
+  private boolean                               inlineEventsScheduled       = false;
+  private volatile boolean                      wireCompression             = false;
+  private final LongAdder                       compressedRawBytes          = new LongAdder();
+  private final LongAdder                       compressedWireBytes         = new LongAdder();
+  // put times of the queued messages, in queue order, guarded by writeMessages
+  private long[]                                putNanos                    = new long[16];
+  private int                                   putCount                    = 0;
+  // time from putMessage() to the last byte of the message being written
+  private final Histogram                       writeLatencyMicros          = new Histogram();
+  // outgoing queue depth seen by each message put
+  private final Histogram                       queueDepth                  = new Histogram();
+  private final Histogram                       bytesPerWriteWakeup         = new Histogram();
+  private final Histogram                       bytesPerReadWakeup          = new Histogram();
+  // writes that left data behind because the socket send buffer was full
+  private final LongAdder                       partialWrites               = new LongAdder();
 
   private static final boolean                  MSG_GROUPING_ENABLED        = TCPropertiesImpl
                                                                                 .getProperties()
@@ -116,6 +161,44 @@ final class TCConnectionImpl implements TCConnection, TCChannelReader, TCChannel
                                                                                 .getProperties()
                                                                                 .getBoolean(TCPropertiesConsts.TC_MESSAGE_PACKUP_ENABLED,
                                                                                             true);
+  private static final boolean                  GATHERING_WRITE_ENABLED     = TCPropertiesImpl
+                                                                                .getProperties()
+                                                                                .getBoolean(TCPropertiesConsts.TC_MESSAGE_GATHERING_WRITE_ENABLED,
+                                                                                            true);
+  private static final boolean                  SCATTERING_READ_ENABLED     = TCPropertiesImpl
+                                                                                .getProperties()
+                                                                                .getBoolean(TCPropertiesConsts.TC_MESSAGE_SCATTERING_READ_ENABLED,
+                                                                                            true);
+  // stay well below the IOV_MAX of common platforms
+  private static final int                      MAX_GATHER_BUFFERS          = 64;
+  // smaller reads go through the receive buffer, where one read system call can pick up many small messages
+  private static final int                      SCATTERING_READ_MIN_BYTES   = TCByteBufferFactory.FIXED_BUFFER_SIZE;
+  private static final int                      OUTGOING_QUEUE_MAX_MESSAGES = TCPropertiesImpl
+                                                                                .getProperties()
+                                                                                .getInt(TCPropertiesConsts.TC_MESSAGE_OUTGOING_QUEUE_MAX_MESSAGES,
+                                                                                        0);
+  private static final long                     OUTGOING_QUEUE_MAX_BYTES    = TCPropertiesImpl
+                                                                                .getProperties()
+                                                                                .getInt(TCPropertiesConsts.TC_MESSAGE_OUTGOING_QUEUE_MAX_KB,
+                                                                                        0) * 1024L;
+  private static final QueueFullPolicy          OUTGOING_QUEUE_POLICY       = QueueFullPolicy
+                                                                                .fromProperty(TCPropertiesImpl
+                                                                                    .getProperties()
+                                                                                    .getProperty(TCPropertiesConsts.TC_MESSAGE_OUTGOING_QUEUE_POLICY,
+                                                                                                 true));
+  private static final long                     COALESCE_BUDGET_NANOS       = TimeUnit.MICROSECONDS
+                                                                                .toNanos(TCPropertiesImpl
+                                                                                    .getProperties()
+                                                                                    .getInt(TCPropertiesConsts.TC_MESSAGE_GROUPING_COALESCE_MICROS,
+                                                                                            0));
+  private static final boolean                  COALESCING_ENABLED          = MSG_GROUPING_ENABLED
+                                                                              && COALESCE_BUDGET_NANOS > 0;
+  private static final int                      COMPRESSION_MIN_SIZE_BYTES  = TCPropertiesImpl
+                                                                                .getProperties()
+                                                                                .getInt(TCPropertiesConsts.TC_MESSAGE_COMPRESSION_MIN_SIZE_KB,
+                                                                                        4) * 1024;
+  // don't bother sending a compressed message unless it saves at least 10%
+  private static final int                      COMPRESSION_MAX_RATIO_PERCENT = 90;
   private final Object                          readerLock                  = new Object();
   private final Object                          writerLock                  = new Object();
 
@@ -164,11 +247,30 @@ final class TCConnectionImpl implements TCConnection, TCChannelReader, TCChannel
     state.put("remoteAddress", this.getRemoteAddress());
     state.put("totalRead", this.totalRead.get());
     state.put("totalWrite", this.totalWrite.get());
+    state.put("commTimeMillis", TimeUnit.NANOSECONDS.toMillis(this.commNanos.sum()));
     state.put("connectTime", new Date(this.getConnectTime()));
     state.put("receiveIdleTime", this.getIdleReceiveTime());
     state.put("idleTime", this.getIdleTime());
     state.put("messageWritten", this.messagesWritten.longValue());
     state.put("messageRead", this.messagesRead.longValue());
+    synchronized (this.writeMessages) {
+      state.put("outgoingQueueMessages", this.queuedMessages);
+      state.put("outgoingQueueBytes", this.queuedBytes);
+      state.put("outgoingQueueFull", this.queueFullCount);
+      state.put("readsThrottled", this.readsThrottled);
+      if (this.coalesceBudgetNanos > 0) {
+        state.put("coalescedWrites", this.coalescedWrites);
+      }
+    }
+    state.put("writeLatencyMicros", this.writeLatencyMicros.getStateMap());
+    state.put("outgoingQueueDepth", this.queueDepth.getStateMap());
+    state.put("partialWrites", this.partialWrites.sum());
+    state.put("bytesPerWriteWakeup", this.bytesPerWriteWakeup.getStateMap());
+    state.put("bytesPerReadWakeup", this.bytesPerReadWakeup.getStateMap());
+    if (this.wireCompression) {
+      state.put("compressedRawBytes", this.compressedRawBytes.sum());
+      state.put("compressedWireBytes", this.compressedWireBytes.sum());
+    }
     state.put("worker", commWorker.getName());
     state.put("closed", isClosed());
     state.put("connected", isConnected());
@@ -181,6 +283,40 @@ final class TCConnectionImpl implements TCConnection, TCChannelReader, TCChannel
     this.commWorker = worker;
   }
 
+  CoreNIOServices getCommWorker() {
+    return this.commWorker;
+  }
+
+  SocketChannel getChannel() {
+    return this.channel;
+  }
+
+  /**
+   * Time the comm threads spent reading from and writing to this connection.
+   */
+  void recordCommTime(long nanos) {
+    this.commNanos.add(nanos);
+  }
+
+  long getCommNanos() {
+    return this.commNanos.sum();
+  }
+
+  /**
+   * Registers read and write interest with the current comm worker after the connection was moved over from another
+   * worker. Reads stay suspended if the outgoing queue is throttling them.
+   */
+  void resumeOnCommWorker() {
+    synchronized (this.writeMessages) {
+      if (this.closed.isSet()) { return; }
+      if (!this.readsThrottled) {
+        // queued under the lock so a concurrent throttle can't be overtaken
+        this.commWorker.requestReadInterest(this, this.channel);
+      }
+    }
+    this.commWorker.requestWriteInterest(this, this.channel);
+  }
+
   private void closeImpl(Runnable callback) {
     Assert.assertTrue(this.closed.isSet());
     this.transportEstablished.set(false);
@@ -193,6 +329,11 @@ final class TCConnectionImpl implements TCConnection, TCChannelReader, TCChannel
     } finally {
       synchronized (this.writeMessages) {
         this.writeMessages.clear();
+        this.putCount = 0;
+        this.queuedMessages = 0;
+        this.queuedBytes = 0;
+        // release producers blocked on a full outgoing queue
+        this.writeMessages.notifyAll();
       }
     }
     try {
@@ -240,6 +381,8 @@ final class TCConnectionImpl implements TCConnection, TCChannelReader, TCChannel
     if (this.bufferManager == null) {
       throw new IOException("buffer manager not provided");
     }
+    this.gatheringWrites = GATHERING_WRITE_ENABLED && this.bufferManager.supportsGatheringWrites();
+    this.scatteringReads = SCATTERING_READ_ENABLED && this.bufferManager.supportsScatteringReads();
   }
 
   private SocketChannel createChannel() throws IOException, SocketException {
@@ -291,11 +434,18 @@ final class TCConnectionImpl implements TCConnection, TCChannelReader, TCChannel
   @Override
   public int doRead() throws IOException {
     synchronized (readerLock) {
-      return doReadInternal();
+      final int read = doReadInternal();
+      this.bytesPerReadWakeup.record(read);
+      return read;
     }
   }
 
   private int doReadInternal() throws IOException {
+    if (scatteringReads && pipeSocket == null) {
+      final TCByteBuffer[] readBuffers = getReadBuffers();
+      if (remaining(readBuffers) >= SCATTERING_READ_MIN_BYTES) { return doScatteringRead(readBuffers); }
+    }
+
     try {
       bufferManager.recvToBuffer();
     } catch (IOException ioe) {
@@ -320,6 +470,43 @@ final class TCConnectionImpl implements TCConnection, TCChannelReader, TCChannel
     return totalBytesReadFromBuffer;
   }
 
+  /**
+   * Reads straight from the socket into the buffers the protocol adaptor frames the current message in, skipping the
+   * copy through the receive buffer.
+   */
+  private int doScatteringRead(TCByteBuffer[] readBuffers) throws IOException {
+    final int count = Math.min(readBuffers.length, MAX_GATHER_BUFFERS);
+    final long read;
+    try {
+      for (int i = 0; i < count; i++) {
+        this.scatterBuffers[i] = extractNioBuffer(readBuffers[i]);
+      }
+      read = bufferManager.recvToBuffers(this.scatterBuffers, 0, count);
+    } catch (IOException ioe) {
+      closeReadOnException(ioe);
+      return 0;
+    } finally {
+      Arrays.fill(this.scatterBuffers, 0, count, null);
+    }
+
+    if (logger.isDebugEnabled()) {
+      logger.debug("Read " + read + " bytes on connection " + this.channel.toString());
+    }
+    addNetworkData(readBuffers, (int) read);
+
+    this.totalRead.addAndGet(read);
+    this.messagesRead.increment();
+    return (int) read;
+  }
+
+  private static long remaining(TCByteBuffer[] buffers) {
+    long remaining = 0;
+    for (TCByteBuffer buffer : buffers) {
+      remaining += buffer.remaining();
+    }
+    return remaining;
+  }
+
   public int doReadFromBuffer() throws IOException {
     if (pipeSocket != null) {
       return bufferManager.forwardFromReadBuffer(pipeSocket.getInputPipeSinkChannel());
@@ -331,11 +518,25 @@ final class TCConnectionImpl implements TCConnection, TCChannelReader, TCChannel
   @Override
   public int doWrite() throws IOException {
     synchronized (writerLock) {
-      return doWriteInternal();
+      final int written = doWriteInternal();
+      this.bytesPerWriteWakeup.record(written);
+      return written;
     }
   }
 
   private int doWriteInternal() throws IOException {
+    if (gatheringWrites && pipeSocket == null) {
+      int channelWritten;
+      try {
+        channelWritten = doGatheringWrite();
+      } catch (IOException ioe) {
+        closeWriteOnException(ioe);
+        return 0;
+      }
+      this.totalWrite.addAndGet(channelWritten);
+      return channelWritten;
+    }
+
     int written;
     try {
       written = doWriteToBuffer();
@@ -378,10 +579,13 @@ final class TCConnectionImpl implements TCConnection, TCChannelReader, TCChannel
 
   private void buildWriteContextsFromMessages() {
     TCNetworkMessage messagesToWrite[];
+    final long[] putTimes;
     synchronized (this.writeMessages) {
       if (this.closed.isSet()) { return; }
       messagesToWrite = this.writeMessages.toArray(new TCNetworkMessage[this.writeMessages.size()]);
       this.writeMessages.clear();
+      putTimes = Arrays.copyOf(this.putNanos, this.putCount);
+      this.putCount = 0;
     }
     ArrayList<TCNetworkMessage> currentBatch = (MSG_GROUPING_ENABLED
         ? new ArrayList<TCNetworkMessage>()
@@ -390,37 +594,91 @@ final class TCConnectionImpl implements TCConnection, TCChannelReader, TCChannel
 
     int batchSize = 0;
     int batchMsgCount = 0;
-    for (final TCNetworkMessage element : messagesToWrite) {
+    long batchQueuedBytes = 0;
+    int batchStart = 0;
+    for (int i = 0; i < messagesToWrite.length; i++) {
+      final TCNetworkMessage element = messagesToWrite[i];
+      final int queuedLength = element.getTotalLength();
       if (element instanceof WireProtocolMessage) {
         // we don't want to group already constructed Transport Handshake WireProtocolMessages
         final WireProtocolMessage ms = finalizeWireProtocolMessage((WireProtocolMessage) element, 1);
-        this.writeContexts.add(new WriteContext(ms));
+        this.writeContexts.add(new WriteContext(ms).queued(1, queuedLength, putTimes, i));
       } else if (WireProtocolHeader.PROTOCOL_UNKNOWN == WireProtocolHeader.getProtocolForMessageClass(element)) {
         // GenericNetwork messages are used for testing
-        this.writeContexts.add(new WriteContext(element));
+        this.writeContexts.add(new WriteContext(element).queued(1, queuedLength, putTimes, i));
       } else if (MSG_GROUPING_ENABLED) {
-        int realMessageSize = getRealMessgeSize(element.getTotalLength());
+        int realMessageSize = getRealMessgeSize(queuedLength);
         if (!canBatch(realMessageSize, batchSize, batchMsgCount)) {
           // We can't add this to the current batch so seal the current batch as a write context and create a new one.
-          this.writeContexts.add(new WriteContext(buildWireProtocolMessageGroup(currentBatch)));
+          this.writeContexts.add(newWriteContext(buildWireProtocolMessageGroup(currentBatch)).queued(batchMsgCount, batchQueuedBytes, putTimes, batchStart));
           batchSize = 0;
           batchMsgCount = 0;
+          batchQueuedBytes = 0;
           currentBatch = new ArrayList<TCNetworkMessage>();
         }
+        if (batchMsgCount == 0) {
+          batchStart = i;
+        }
         batchSize += realMessageSize;
         batchMsgCount++;
+        batchQueuedBytes += queuedLength;
         currentBatch.add(element);
       } else {
-        this.writeContexts.add(new WriteContext(buildWireProtocolMessage(element)));
+        this.writeContexts.add(newWriteContext(buildWireProtocolMessage(element)).queued(1, queuedLength, putTimes, i));
       }
     }
 
     if (MSG_GROUPING_ENABLED && batchMsgCount > 0) {
       final WireProtocolMessage ms = buildWireProtocolMessageGroup(currentBatch);
-      this.writeContexts.add(new WriteContext(ms));
+      this.writeContexts.add(newWriteContext(ms).queued(batchMsgCount, batchQueuedBytes, putTimes, batchStart));
     }
   }
 
+  /**
+   * Transport handshake and health check messages never come through here, so they always go out uncompressed.
+   */
+  private WriteContext newWriteContext(WireProtocolMessage message) {
+    final int length = message.getTotalLength();
+    if (this.wireCompression && length >= COMPRESSION_MIN_SIZE_BYTES) {
+      final TCByteBuffer[] compressed = WireProtocolCompression.compress(message, COMPRESSION_MAX_RATIO_PERCENT);
+      if (compressed != null) {
+        this.compressedRawBytes.add(length);
+        this.compressedWireBytes.add(compressed[0].limit() + compressed[1].limit());
+        return new WriteContext(message, compressed);
+      }
+    }
+    return new WriteContext(message);
+  }
+
+  /**
+   * Adaptive coalescing: while messages arrive faster than the coalescing budget, a partially filled group is held back
+   * until the oldest queued message has waited for the budget or the group fills up. An idle connection, where the next
+   * message is not expected within the budget, is flushed right away.
+   *
+   * @return true if the write was deferred and the comm thread will select this connection again later
+   */
+  private boolean deferForCoalescing() {
+    final long budget = this.coalesceBudgetNanos;
+    if (budget <= 0) { return false; }
+    final long deadline;
+    synchronized (this.writeMessages) {
+      if (this.closed.isSet() || this.writeMessages.isEmpty()) { return false; }
+      this.writeDeferred = false;
+      if (this.averagePutIntervalNanos >= budget || isCoalescedGroupFull()) { return false; }
+      deadline = this.oldestQueuedNanos + budget;
+      if (deadline - System.nanoTime() <= 0) { return false; }
+      this.writeDeferred = true;
+      this.coalescedWrites++;
+    }
+    this.commWorker.deferWrite(this, this.channel, deadline);
+    return true;
+  }
+
+  private boolean isCoalescedGroupFull() {
+    return this.queuedMessages >= WireProtocolHeader.MAX_MESSAGE_COUNT
+           || this.queuedBytes >= MSG_GROUPING_MAX_SIZE_BYTES;
+  }
+
   private boolean canBatch(int realMessageSize, int currentBatchSize, int currentBatchMsgCount) {
     // We can add this message to the batch if it fits, we don't already have too many messages in the batch
     //  OR if the message batch is currently empty (a degenerate case where a single message is too big to batch but
@@ -478,6 +736,7 @@ final class TCConnectionImpl implements TCConnection, TCChannelReader, TCChannel
     // get a copy of the current write contexts. Since we call out to event/error handlers in the write
     // loop below, we don't want to be holding the lock on the writeContexts queue
     if (this.writeContexts.size() <= 0) {
+      if (deferForCoalescing()) { return 0; }
       buildWriteContextsFromMessages();
     }
     while (this.writeContexts.size() > 0) {
@@ -511,24 +770,83 @@ final class TCConnectionImpl implements TCConnection, TCChannelReader, TCChannel
         if (debug) {
           logger.debug("Complete message sent on connection " + this.channel.toString());
         }
-        context.writeComplete();
+        writeComplete(context);
         this.writeContexts.remove(context);
+        outgoingMessagesWritten(context);
       } else {
         if (debug) {
           logger.debug("Message not yet completely sent on connection " + this.channel.toString());
         }
+        this.partialWrites.increment();
         break;
       }
     }
 
+    removeWriteInterestIfIdle();
+    return totalBytesWritten;
+  }
+
+  /**
+   * Hands the buffers of the pending write contexts straight to the socket channel as one gathering write, so message
+   * data is not copied into the intermediate send buffer of the {@link BufferManager} first.
+   */
+  private int doGatheringWrite() throws IOException {
+    final boolean debug = logger.isDebugEnabled();
+    long totalBytesWritten = 0;
+
+    if (this.writeContexts.isEmpty()) {
+      if (deferForCoalescing()) { return 0; }
+      buildWriteContextsFromMessages();
+    }
+    try {
+      while (!this.writeContexts.isEmpty()) {
+        int count = 0;
+        long expected = 0;
+        for (int c = 0, n = this.writeContexts.size(); c < n && count < MAX_GATHER_BUFFERS; c++) {
+          WriteContext context = this.writeContexts.get(c);
+          int start = count;
+          count = context.gatherBuffers(this.gatherBuffers, count);
+          for (int i = start; i < count; i++) {
+            expected += this.gatherBuffers[i].remaining();
+          }
+        }
+
+        final long written = count > 0 ? bufferManager.sendFromBuffers(this.gatherBuffers, 0, count) : 0;
+        totalBytesWritten += written;
+        if (debug) {
+          logger.debug("Wrote " + written + " bytes on connection " + this.channel.toString());
+        }
+
+        while (!this.writeContexts.isEmpty() && this.writeContexts.get(0).releaseWrittenBuffers()) {
+          WriteContext context = this.writeContexts.remove(0);
+          writeComplete(context);
+          outgoingMessagesWritten(context);
+        }
+
+        if (written < expected) {
+          // socket send buffer is full, wait to be selected for write again
+          this.partialWrites.increment();
+          break;
+        }
+      }
+    } finally {
+      Arrays.fill(this.gatherBuffers, null);
+    }
+
+    removeWriteInterestIfIdle();
+    return (int) totalBytesWritten;
+  }
+
+  private void removeWriteInterestIfIdle() {
+    // an inline write never registered write interest
+    if (this.writingInline) { return; }
     synchronized (this.writeMessages) {
-      if (this.closed.isSet()) { return totalBytesWritten; }
+      if (this.closed.isSet()) { return; }
 
       if (this.writeMessages.isEmpty() && this.writeContexts.isEmpty()) {
         this.commWorker.removeWriteInterest(this, this.channel);
       }
     }
-    return totalBytesWritten;
   }
 
   static private ByteBuffer extractNioBuffer(TCByteBuffer buffer) {
@@ -546,15 +864,70 @@ final class TCConnectionImpl implements TCConnection, TCChannelReader, TCChannel
                   + bytesToWrite + " bytes");
     }
 
-    // TODO: outgoing queue should not be unbounded size!
-    final boolean newData;
-    final int msgCount;
+    boolean newData = false;
+    int msgCount = 0;
+    boolean disconnect = false;
 
     synchronized (this.writeMessages) {
       if (this.closed.isSet()) { return; }
-      this.writeMessages.addLast(message);
-      msgCount = this.writeMessages.size();
-      newData = (msgCount == 1);
+      if (isOutgoingQueueFull(bytesToWrite)) {
+        this.queueFullCount++;
+        switch (this.outgoingQueuePolicy) {
+          case BLOCK:
+            if (!waitForOutgoingQueueSpace(message, bytesToWrite)) { return; }
+            break;
+          case THROTTLE:
+            if (!this.readsThrottled) {
+              this.readsThrottled = true;
+              if (debug) {
+                logger.debug("Outgoing queue full on connection " + this.channel + ", suspending reads");
+              }
+              // queued under the lock so the resume in outgoingMessagesWritten() can't overtake it
+              this.commWorker.removeReadInterest(this, this.channel);
+            }
+            break;
+          case DISCONNECT:
+            disconnect = true;
+            break;
+          default:
+            throw new AssertionError(this.outgoingQueuePolicy);
+        }
+      }
+      if (!disconnect) {
+        final long now = System.nanoTime();
+        this.writeMessages.addLast(message);
+        if (this.putCount == this.putNanos.length) {
+          this.putNanos = Arrays.copyOf(this.putNanos, this.putCount * 2);
+        }
+        this.putNanos[this.putCount++] = now;
+        this.queueDepth.record(this.queuedMessages);
+        this.queuedMessages++;
+        this.queuedBytes += bytesToWrite;
+        msgCount = this.writeMessages.size();
+        newData = (msgCount == 1);
+        if (this.coalesceBudgetNanos > 0) {
+          if (this.lastPutNanos != 0) {
+            final long interval = now - this.lastPutNanos;
+            this.averagePutIntervalNanos = this.averagePutIntervalNanos == Long.MAX_VALUE ? interval
+                : this.averagePutIntervalNanos + ((interval - this.averagePutIntervalNanos) >> 3);
+          }
+          this.lastPutNanos = now;
+          if (newData) {
+            this.oldestQueuedNanos = now;
+          } else if (this.writeDeferred && isCoalescedGroupFull()) {
+            // the held back group filled up, flush it before the budget expires
+            this.writeDeferred = false;
+            newData = true;
+          }
+        }
+      }
+    }
+
+    if (disconnect) {
+      logger.warn("Outgoing queue of " + this + " is full (" + this.outgoingQueueMaxMessages + " messages, "
+                  + this.outgoingQueueMaxBytes + " bytes), disconnecting");
+      asynchClose();
+      return;
     }
 
     if (debug) {
@@ -577,8 +950,157 @@ final class TCConnectionImpl implements TCConnection, TCChannelReader, TCChannel
       // for, as well as actually be selected for, write interest immediately
       // after finishConnect(). Only after this selection occurs it is always safe to try
       // to write.
-      this.commWorker.requestWriteInterest(this, this.channel);
+      if (!writeInline()) {
+        this.commWorker.requestWriteInterest(this, this.channel);
+      }
+    }
+  }
+
+  /**
+   * With a single selector thread, a message put on an idle connection is written by the calling thread right away
+   * instead of waking up the selector thread. This is only done once the transport is established, by then the socket
+   * has been selected for write before (see above). Whatever the socket doesn't take is left to the selector thread.
+   * <p>
+   * Only the bytes are written inline. The caller may hold locks of its own (the OOO send state machine for one), so
+   * the sent callbacks and a write error are left to the comm thread, like those of any other write. A thread already
+   * writing, e.g. a sent callback sending again, leaves its message to the comm thread as well.
+   *
+   * @return false if write interest still has to be requested
+   */
+  private boolean writeInline() {
+    if (!this.commWorker.isSingleThreaded() || this.coalesceBudgetNanos > 0 || this.pipeSocket != null
+        || !this.transportEstablished.get() || Thread.holdsLock(this.writerLock)) { return false; }
+    synchronized (this.writerLock) {
+      this.writingInline = true;
+      try {
+        doWriteInternal();
+      } catch (IOException ioe) {
+        if (this.inlineWriteError == null) {
+          this.inlineWriteError = ioe;
+        }
+      } finally {
+        this.writingInline = false;
+      }
+      final boolean failed = this.inlineWriteError != null;
+      if ((failed || !this.writtenInline.isEmpty()) && !this.inlineEventsScheduled) {
+        this.inlineEventsScheduled = true;
+        this.commWorker.addWriterTask(this.inlineEventsTask);
+      }
+      // the connection is about to be closed on the error, no point selecting it for write
+      if (failed) { return true; }
+      synchronized (this.writeMessages) {
+        return this.closed.isSet() || (this.writeMessages.isEmpty() && this.writeContexts.isEmpty());
+      }
+    }
+  }
+
+  private final Runnable inlineEventsTask = new Runnable() {
+    @Override
+    public void run() {
+      synchronized (writerLock) {
+        inlineEventsScheduled = false;
+        fireInlineWriteEvents();
+      }
+    }
+  };
+
+  private void writeComplete(WriteContext context) {
+    if (this.writingInline) {
+      this.writtenInline.add(context);
+    } else {
+      // the messages written inline were sent first
+      fireInlineWriteEvents();
+      context.writeComplete();
+    }
+  }
+
+  private void fireInlineWriteEvents() {
+    if (!this.writtenInline.isEmpty()) {
+      final WriteContext[] written = this.writtenInline.toArray(new WriteContext[this.writtenInline.size()]);
+      this.writtenInline.clear();
+      for (WriteContext context : written) {
+        context.writeComplete();
+      }
+    }
+    final IOException ioe = this.inlineWriteError;
+    if (ioe != null) {
+      this.inlineWriteError = null;
+      try {
+        closeWriteOnException(ioe);
+      } catch (IOException e) {
+        logger.warn("error closing connection " + this + " after a failed write", e);
+      }
+    }
+  }
+
+  private boolean isOutgoingQueueFull(long bytesToWrite) {
+    // always admit a message into an empty queue, however big it is
+    return this.queuedMessages > 0
+           && ((this.outgoingQueueMaxMessages > 0 && this.queuedMessages >= this.outgoingQueueMaxMessages)
+               || (this.outgoingQueueMaxBytes > 0 && this.queuedBytes + bytesToWrite > this.outgoingQueueMaxBytes));
+  }
+
+  private boolean isOutgoingQueueDrained() {
+    return (this.outgoingQueueMaxMessages <= 0 || this.queuedMessages <= this.outgoingQueueMaxMessages / 2)
+           && (this.outgoingQueueMaxBytes <= 0 || this.queuedBytes <= this.outgoingQueueMaxBytes / 2);
+  }
+
+  /**
+   * Parks the producing thread until the outgoing queue has room. Comm threads are never parked since they are the ones
+   * draining the queue. Neither are senders of once-and-only-once protocol messages: they hold the send state machine
+   * lock that the comm threads need to process incoming acks, and the OOO send window already bounds what they queue.
+   *
+   * @return false if the connection closed while waiting
+   */
+  private boolean waitForOutgoingQueueSpace(TCNetworkMessage message, long bytesToWrite) {
+    if (CoreNIOServices.isCommThread()
+        || WireProtocolHeader.getProtocolForMessageClass(message) == WireProtocolHeader.PROTOCOL_OOOP) { return true; }
+    while (isOutgoingQueueFull(bytesToWrite)) {
+      if (this.closed.isSet()) { return false; }
+      try {
+        this.writeMessages.wait();
+      } catch (InterruptedException ie) {
+        // don't drop the message, just stop waiting
+        Thread.currentThread().interrupt();
+        break;
+      }
     }
+    return !this.closed.isSet();
+  }
+
+  private void outgoingMessagesWritten(WriteContext context) {
+    context.recordWriteLatency(this.writeLatencyMicros);
+    synchronized (this.writeMessages) {
+      if (this.closed.isSet()) { return; }
+      this.queuedMessages -= context.queuedMessages;
+      this.queuedBytes -= context.queuedBytes;
+      if (this.readsThrottled && isOutgoingQueueDrained()) {
+        this.readsThrottled = false;
+        // queued under the lock, in order with the remove queued by putMessageImpl()
+        this.commWorker.requestReadInterest(this, this.channel);
+      }
+      if (this.outgoingQueuePolicy == QueueFullPolicy.BLOCK) {
+        this.writeMessages.notifyAll();
+      }
+    }
+  }
+
+  /**
+   * Replaces the outgoing queue bounds and policy read from the tc properties, used by tests.
+   */
+  void setOutgoingQueueLimits(int maxMessages, long maxBytes, QueueFullPolicy policy) {
+    synchronized (this.writeMessages) {
+      this.outgoingQueueMaxMessages = maxMessages;
+      this.outgoingQueueMaxBytes = maxBytes;
+      this.outgoingQueuePolicy = policy;
+    }
+  }
+
+  /**
+   * Replaces the coalescing budget read from the tc properties, 0 turns coalescing off. Used by tests.
+   */
+  void setCoalesceBudget(long budgetNanos) {
+    this.coalesceBudgetNanos = budgetNanos;
   }
 
   @Override
@@ -921,6 +1443,13 @@ final class TCConnectionImpl implements TCConnection, TCChannelReader, TCChannel
   }
 
   public void closeWriteOnException(IOException ioe) throws IOException {
+    if (this.writingInline) {
+      // reported by the comm thread, see writeInline()
+      if (this.inlineWriteError == null) {
+        this.inlineWriteError = ioe;
+      }
+      return;
+    }
     if (pipeSocket != null) {
       TCConnectionImpl.this.commWorker.removeWriteInterest(TCConnectionImpl.this, TCConnectionImpl.this.channel);
       pipeSocket.closeWrite();
@@ -940,10 +1469,31 @@ final class TCConnectionImpl implements TCConnection, TCChannelReader, TCChannel
     }
   }
 
+  /**
+   * What a connection does when a message is put while its outgoing queue is full.
+   */
+  enum QueueFullPolicy {
+    /** park the producing thread until the comm thread drains the queue */
+    BLOCK,
+    /** stop reading from the peer until the queue is half drained, so it stops generating more responses */
+    THROTTLE,
+    /** give up on the peer and close the connection */
+    DISCONNECT;
+
+    static QueueFullPolicy fromProperty(String value) {
+      return value == null ? BLOCK : valueOf(value.trim().toUpperCase());
+    }
+  }
+
   protected static class WriteContext {
     private final TCNetworkMessage message;
     private int                    index = 0;
     private final TCByteBuffer[]   entireMessageData;
+    private final boolean          ownsBuffers;
+    private int                    queuedMessages;
+    private long                   queuedBytes;
+    private long[]                 putNanos;
+    private int                    putIndex;
 
     WriteContext(TCNetworkMessage message) {
       // either WireProtocolMessage or WireProtocolMessageGroup
@@ -954,7 +1504,16 @@ final class TCConnectionImpl implements TCConnection, TCChannelReader, TCChannel
       } else {
         this.entireMessageData = getClonedMessage(message.getEntireMessageData());
       }
+      this.ownsBuffers = MESSSAGE_PACKUP;
+    }
 
+    /**
+     * Writes {@code data} (a compressed copy of the message) in place of the message's own buffers.
+     */
+    WriteContext(TCNetworkMessage message, TCByteBuffer[] data) {
+      this.message = message;
+      this.entireMessageData = data;
+      this.ownsBuffers = true;
     }
 
     boolean done() {
@@ -966,7 +1525,7 @@ final class TCConnectionImpl implements TCConnection, TCChannelReader, TCChannel
     }
 
     void incrementIndexAndCleanOld() {
-      if (MESSSAGE_PACKUP) {
+      if (ownsBuffers) {
         // we created these new messages. lets recycle it.
         entireMessageData[index].recycle();
       }
@@ -978,6 +1537,49 @@ final class TCConnectionImpl implements TCConnection, TCChannelReader, TCChannel
       this.message.wasSent();
     }
 
+    /**
+     * @param putNanos when the queued messages were put, this context's messages start at {@code putIndex}
+     */
+    WriteContext queued(int messages, long bytes, long[] putNanos, int putIndex) {
+      this.queuedMessages = messages;
+      this.queuedBytes = bytes;
+      this.putNanos = putNanos;
+      this.putIndex = putIndex;
+      return this;
+    }
+
+    void recordWriteLatency(Histogram histogram) {
+      if (putNanos == null) { return; }
+      final long now = System.nanoTime();
+      for (int i = putIndex, n = Math.min(putNanos.length, putIndex + queuedMessages); i < n; i++) {
+        histogram.record(TimeUnit.NANOSECONDS.toMicros(now - putNanos[i]));
+      }
+    }
+
+    /**
+     * Copies the not yet written nio buffers of this context into {@code dest} starting at {@code offset}.
+     *
+     * @return the next free index in {@code dest}
+     */
+    int gatherBuffers(ByteBuffer[] dest, int offset) {
+      for (int i = index, n = entireMessageData.length; i < n && offset < dest.length; i++) {
+        dest[offset++] = entireMessageData[i].getNioBuffer();
+      }
+      return offset;
+    }
+
+    /**
+     * Releases the leading buffers that have been fully written.
+     *
+     * @return true when the entire message has been written
+     */
+    boolean releaseWrittenBuffers() {
+      while (index < entireMessageData.length && !entireMessageData[index].hasRemaining()) {
+        incrementIndexAndCleanOld();
+      }
+      return index == entireMessageData.length;
+    }
+
     private static TCByteBuffer[] getClonedMessage(TCByteBuffer[] sourceMessageByteBuffers) {
       final TCByteBuffer[] msgData = sourceMessageByteBuffers;
       TCByteBuffer[] clonedMessageData = new TCByteBuffer[msgData.length];
@@ -999,7 +1601,7 @@ final class TCConnectionImpl implements TCConnection, TCChannelReader, TCChannel
       }
 
       // packedup message is direct byte buffers based. so that system socket write can avoid copy over of data
-      TCByteBuffer[] packedUpMessageByteBuffers = TCByteBufferFactory.getFixedSizedInstancesForLength(false, len);
+      TCByteBuffer[] packedUpMessageByteBuffers = TCByteBufferFactory.getFixedSizedInstancesForLength(true, len);
       srcOffset = sourceMessageByteBuffers[srcIndex].arrayOffset();
       while (srcIndex < sourceMessageByteBuffers.length) {
         dstRem = packedUpMessageByteBuffers[dstIndex].remaining();
@@ -1054,4 +1656,9 @@ final class TCConnectionImpl implements TCConnection, TCChannelReader, TCChannel
     return this.transportEstablished.get();
   }
 
+  @Override
+  public void enableWireCompression() {
+    this.wireCompression = true;
+  }
+
 }
@@ -21,6 +21,7 @@ package com.tc.net.core;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.tc.bytes.TCByteBufferFactory;
 import com.tc.net.TCSocketAddress;
 import com.tc.net.core.event.TCConnectionErrorEvent;
 import com.tc.net.core.event.TCConnectionEvent;
@@ -32,6 +33,9 @@ import com.tc.net.protocol.TCProtocolAdaptor;
 import com.tc.net.protocol.transport.ConnectionHealthCheckerUtil;
 import com.tc.net.protocol.transport.HealthCheckerConfig;
 import com.tc.net.protocol.transport.HealthCheckerConfigImpl;
+import com.tc.net.protocol.transport.WireProtocolCompression;
+import com.tc.properties.TCPropertiesConsts;
+import com.tc.properties.TCPropertiesImpl;
 import com.tc.util.concurrent.SetOnceFlag;
 
 import java.io.IOException;
@@ -39,6 +43,7 @@ import java.net.InetSocketAddress;
 import java.net.ServerSocket;
 import java.nio.channels.ServerSocketChannel;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashSet;
 import java.util.LinkedHashMap;
 import java.util.List;
@@ -72,14 +77,28 @@ public class TCConnectionManagerImpl implements TCConnectionManager {
   }
 
   public TCConnectionManagerImpl(String name, int workerCommCount, HealthCheckerConfig healthCheckerConfig, BufferManagerFactory bufferManagerFactory) {
+    this(name, workerCommCount, healthCheckerConfig, bufferManagerFactory, isSingleSelectorThread(name));
+  }
+
+  public TCConnectionManagerImpl(String name, int workerCommCount, HealthCheckerConfig healthCheckerConfig,
+                                 BufferManagerFactory bufferManagerFactory, boolean singleSelectorThread) {
     this.connEvents = new ConnectionEvents();
     this.listenerEvents = new ListenerEvents();
     this.socketParams = new SocketParams();
     this.healthCheckerConfig = healthCheckerConfig;
     this.bufferManagerFactory = bufferManagerFactory;
-    this.comm = new TCCommImpl(name, workerCommCount, socketParams);
+    this.comm = new TCCommImpl(name, workerCommCount, socketParams, singleSelectorThread);
     this.comm.start();
   }
+
+  /**
+   * Whether the named communications manager is listed to run one selector thread for both reads and writes.
+   */
+  private static boolean isSingleSelectorThread(String name) {
+    String names = TCPropertiesImpl.getProperties().getProperty(TCPropertiesConsts.TC_COMM_SINGLE_SELECTOR_THREAD, true);
+    if (names == null) { return false; }
+    return Arrays.stream(names.split(",")).map(String::trim).anyMatch(name::equals);
+  }
   
   @Override
   public Map<String, ?> getStateMap() {
@@ -88,6 +107,10 @@ public class TCConnectionManagerImpl implements TCConnectionManager {
       state.put("connections", connections.stream().map(connection->connection.getState()).collect(Collectors.toList()));
     }
     state.put("processors", comm.getState());
+    if (TCByteBufferFactory.isPoolingEnabled()) {
+      state.put("bufferPool", TCByteBufferFactory.getPoolStats());
+    }
+    state.put("wireCompression", WireProtocolCompression.getStats());
     return state;
   }
 
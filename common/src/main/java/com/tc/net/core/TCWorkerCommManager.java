@@ -23,13 +23,19 @@ import org.slf4j.LoggerFactory;
 
 import com.tc.logging.LossyTCLogger;
 import com.tc.logging.LossyTCLogger.LossyTCLoggerType;
+import com.tc.properties.TCPropertiesConsts;
+import com.tc.properties.TCPropertiesImpl;
 import com.tc.util.Assert;
 import com.tc.util.concurrent.SetOnceFlag;
 
 import java.util.Arrays;
+import java.util.HashMap;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Timer;
+import java.util.TimerTask;
+import java.util.concurrent.TimeUnit;
 import java.util.stream.Collectors;
 
 
@@ -49,16 +55,45 @@ public class TCWorkerCommManager {
   private final SetOnceFlag       started            = new SetOnceFlag();
   private final SetOnceFlag       stopped            = new SetOnceFlag();
 
+  private final long              rebalanceIntervalMillis;
+  private final int               rebalanceHotPercent;
+  private final int               rebalanceIdlePercent;
+  private Timer                   rebalanceTimer;
+  // rebalancer state, only touched by the rebalance timer thread
+  private final long[]            lastBusyNanos;
+  private final Map<TCConnectionImpl, Long> lastConnectionNanos = new HashMap<TCConnectionImpl, Long>();
+  private long                    lastRebalanceNanos;
+  private int                     hotWorker          = -1;
+  private int                     hotIntervals;
+  private volatile long           migrations;
+
   TCWorkerCommManager(String name, int workerCommCount, SocketParams socketParams) {
+    this(name, workerCommCount, socketParams, false);
+  }
+
+  TCWorkerCommManager(String name, int workerCommCount, SocketParams socketParams, boolean singleSelectorThread) {
+    this(new CoreNIOServices[Math.max(workerCommCount, 0)]);
     if (workerCommCount <= 0) { throw new IllegalArgumentException("invalid worker count: " + workerCommCount); }
     logger.info("Creating " + workerCommCount + " worker comm threads for " + name);
-    this.totalWorkerComm = workerCommCount;
-    this.workerCommThreads = new CoreNIOServices[workerCommCount];
     for (int i = 0; i < this.workerCommThreads.length; i++) {
-      this.workerCommThreads[i] = new CoreNIOServices(name + ":" + WORKER_NAME_PREFIX + i, this, socketParams);
+      this.workerCommThreads[i] = new CoreNIOServices(name + ":" + WORKER_NAME_PREFIX + i, this, socketParams,
+                                                      singleSelectorThread);
     }
   }
 
+  // for testing, with the worker comm threads given
+  TCWorkerCommManager(CoreNIOServices[] workerCommThreads) {
+    this.totalWorkerComm = workerCommThreads.length;
+    this.workerCommThreads = workerCommThreads;
+    this.lastBusyNanos = new long[workerCommThreads.length];
+    this.rebalanceIntervalMillis = TCPropertiesImpl.getProperties()
+        .getInt(TCPropertiesConsts.TC_COMM_REBALANCE_INTERVAL_MILLIS, 0);
+    this.rebalanceHotPercent = TCPropertiesImpl.getProperties()
+        .getInt(TCPropertiesConsts.TC_COMM_REBALANCE_HOT_PERCENT, 60);
+    this.rebalanceIdlePercent = TCPropertiesImpl.getProperties()
+        .getInt(TCPropertiesConsts.TC_COMM_REBALANCE_IDLE_PERCENT, 20);
+  }
+
   public CoreNIOServices getNextWorkerComm() {
     CoreNIOServices leastWeightWorkerComm = null;
     
@@ -98,6 +133,20 @@ public class TCWorkerCommManager {
       for (CoreNIOServices workerCommThread : this.workerCommThreads) {
         workerCommThread.start();
       }
+      if (this.rebalanceIntervalMillis > 0 && this.totalWorkerComm > 1) {
+        this.rebalanceTimer = new Timer(workerCommThreads[0].getName() + " rebalancer", true);
+        this.lastRebalanceNanos = System.nanoTime();
+        this.rebalanceTimer.schedule(new TimerTask() {
+          @Override
+          public void run() {
+            try {
+              rebalance();
+            } catch (Exception e) {
+              lossyLogger.warn("Exception rebalancing worker comm threads", e);
+            }
+          }
+        }, this.rebalanceIntervalMillis, this.rebalanceIntervalMillis);
+      }
     } else {
       throw new IllegalStateException("already started");
     }
@@ -107,12 +156,98 @@ public class TCWorkerCommManager {
     if (!this.started.isSet()) { return; }
 
     if (this.stopped.attemptSet()) {
+      if (this.rebalanceTimer != null) {
+        this.rebalanceTimer.cancel();
+      }
       for (int i = 0; i < this.totalWorkerComm; i++) {
         this.workerCommThreads[i].requestStop();
       }
     }
   }
 
+  /**
+   * Compares how busy the worker comm threads were over the last interval. When the same worker has been hot for two
+   * intervals in a row while another one sat mostly idle, one connection is moved from the hot worker to the idle one.
+   * Only a connection carrying at most half the load difference is picked, so the two workers can't simply trade
+   * places.
+   */
+  void rebalance() {
+    rebalance(System.nanoTime());
+  }
+
+  void rebalance(long now) {
+    if (this.stopped.isSet()) { return; }
+    final long elapsed = now - this.lastRebalanceNanos;
+    this.lastRebalanceNanos = now;
+    if (elapsed <= 0) { return; }
+
+    int hot = -1;
+    int idle = -1;
+    final long[] busy = new long[this.totalWorkerComm];
+    for (int i = 0; i < this.totalWorkerComm; i++) {
+      long total = this.workerCommThreads[i].getBusyNanos();
+      busy[i] = total - this.lastBusyNanos[i];
+      this.lastBusyNanos[i] = total;
+      if (hot < 0 || busy[i] > busy[hot]) {
+        hot = i;
+      }
+      if (idle < 0 || busy[i] < busy[idle]) {
+        idle = i;
+      }
+    }
+
+    // per connection load over the same interval
+    final Map<TCConnectionImpl, Long> connectionLoad = new HashMap<TCConnectionImpl, Long>();
+    final Map<TCConnectionImpl, Long> current = new HashMap<TCConnectionImpl, Long>();
+    for (CoreNIOServices workerComm : this.workerCommThreads) {
+      for (TCConnectionImpl connection : workerComm.getManagedConnections()) {
+        long total = connection.getCommNanos();
+        Long last = this.lastConnectionNanos.get(connection);
+        current.put(connection, total);
+        connectionLoad.put(connection, last == null ? 0L : total - last);
+      }
+    }
+    this.lastConnectionNanos.clear();
+    this.lastConnectionNanos.putAll(current);
+
+    final boolean isHot = busy[hot] * 100 >= elapsed * this.rebalanceHotPercent;
+    final boolean isIdle = busy[idle] * 100 <= elapsed * this.rebalanceIdlePercent;
+    if (!isHot || !isIdle || hot == idle) {
+      this.hotWorker = -1;
+      this.hotIntervals = 0;
+      return;
+    }
+    if (hot != this.hotWorker) {
+      this.hotWorker = hot;
+      this.hotIntervals = 1;
+      return;
+    }
+    if (++this.hotIntervals < 2) { return; }
+
+    final long maxLoad = (busy[hot] - busy[idle]) / 2;
+    TCConnectionImpl candidate = null;
+    long candidateLoad = 0;
+    for (TCConnectionImpl connection : this.workerCommThreads[hot].getManagedConnections()) {
+      Long load = connectionLoad.get(connection);
+      if (load != null && load > candidateLoad && load <= maxLoad) {
+        candidate = connection;
+        candidateLoad = load;
+      }
+    }
+    if (candidate == null) { return; }
+
+    if (this.workerCommThreads[hot].migrateConnection(candidate, this.workerCommThreads[idle])) {
+      this.migrations++;
+      this.hotIntervals = 0;
+      logger.info("Moved " + candidate + " (" + TimeUnit.NANOSECONDS.toMillis(candidateLoad) + "ms busy) from "
+                  + this.workerCommThreads[hot].getName() + " to " + this.workerCommThreads[idle].getName());
+    }
+  }
+
+  protected long getMigrations() {
+    return this.migrations;
+  }
+
   protected CoreNIOServices getWorkerComm(int workerCommId) {
     return this.workerCommThreads[workerCommId];
   }
@@ -32,16 +32,29 @@ public class AbstractReconnectConfig implements ReconnectConfig {
   private final int             reconnectSendQueueCap;
   private final int             reconnectMaxDelayedAcks;
   private final int             reconnectSendWindow;
+  private final int             reconnectMinSendWindow;
+  private final int             reconnectMaxSendWindow;
+  private final int             reconnectMaxAckDelayMillis;
   private static final Logger logger = LoggerFactory.getLogger(AbstractReconnectConfig.class);
 
   public AbstractReconnectConfig(boolean reconnectEnabled, int reconnectTimeout, int reconnectSendQueueCap,
                                  int reconnectMaxDelayedAcks, int reconnectSendWindow, String name) {
+    this(reconnectEnabled, reconnectTimeout, reconnectSendQueueCap, reconnectMaxDelayedAcks, reconnectSendWindow, 0, 0,
+         0, name);
+  }
+
+  public AbstractReconnectConfig(boolean reconnectEnabled, int reconnectTimeout, int reconnectSendQueueCap,
+                                 int reconnectMaxDelayedAcks, int reconnectSendWindow, int reconnectMinSendWindow,
+                                 int reconnectMaxSendWindow, int reconnectMaxAckDelayMillis, String name) {
     this.name = name;
     this.reconnectEnabled = reconnectEnabled;
     this.reconnectTimeout = reconnectTimeout;
     this.reconnectSendQueueCap = reconnectSendQueueCap;
     this.reconnectMaxDelayedAcks = reconnectMaxDelayedAcks;
     this.reconnectSendWindow = (reconnectSendWindow > 0 ? reconnectSendWindow : 0);
+    this.reconnectMinSendWindow = (reconnectMinSendWindow > 0 ? reconnectMinSendWindow : 0);
+    this.reconnectMaxSendWindow = (reconnectMaxSendWindow > 0 ? reconnectMaxSendWindow : 0);
+    this.reconnectMaxAckDelayMillis = (reconnectMaxAckDelayMillis > 0 ? reconnectMaxAckDelayMillis : 0);
     validateConfig();
   }
 
@@ -58,6 +71,10 @@ public class AbstractReconnectConfig implements ReconnectConfig {
     if (reconnectMaxDelayedAcks >= reconnectSendWindow) { throw new TCRuntimeException(
                                                                                        name
                                                                                            + " : reconnectMaxDelayedAcks should be lesser than reconnectSendWindow"); }
+
+    if (reconnectMaxSendWindow > reconnectSendWindow && reconnectMinSendWindow > reconnectSendWindow) {
+      throw new TCRuntimeException(name + " : reconnectMinSendWindow should not be greater than reconnectSendWindow");
+    }
   }
 
   @Override
@@ -85,4 +102,19 @@ public class AbstractReconnectConfig implements ReconnectConfig {
     return reconnectSendWindow;
   }
 
+  @Override
+  public int getMinSendWindow() {
+    return reconnectMinSendWindow;
+  }
+
+  @Override
+  public int getMaxSendWindow() {
+    return reconnectMaxSendWindow;
+  }
+
+  @Override
+  public int getMaxAckDelayMillis() {
+    return reconnectMaxAckDelayMillis;
+  }
+
 }
@@ -23,6 +23,8 @@ import com.tc.properties.ReconnectConfig;
 import com.tc.util.Assert;
 import com.tc.util.Util;
 
+import java.util.Timer;
+
 /**
  * This implements an asynchronous Once and only once protocol. Sent messages go out on the sent queue received messages
  * come in to the ProtocolMessageDelivery instance.
@@ -33,8 +35,13 @@ class GuaranteedDeliveryProtocol {
 
   public GuaranteedDeliveryProtocol(OOOProtocolMessageDelivery delivery, ReconnectConfig reconnectConfig,
                                     boolean isClient) {
+    this(delivery, reconnectConfig, isClient, null);
+  }
+
+  public GuaranteedDeliveryProtocol(OOOProtocolMessageDelivery delivery, ReconnectConfig reconnectConfig,
+                                    boolean isClient, Timer ackTimer) {
     this.sender = new SendStateMachine(delivery, reconnectConfig, isClient);
-    this.receiver = new ReceiveStateMachine(delivery, reconnectConfig, isClient);
+    this.receiver = new ReceiveStateMachine(delivery, reconnectConfig, isClient, ackTimer);
   }
 
   public void send(TCNetworkMessage message) {
@@ -49,7 +56,7 @@ class GuaranteedDeliveryProtocol {
         }
       } while (true);
 
-      sender.execute(null);
+      sender.sendQueued();
     } finally {
       Util.selfInterruptIfNeeded(interrupted);
     }
@@ -19,17 +19,30 @@
 package com.tc.net.protocol.delivery;
 
 import com.tc.bytes.TCByteBuffer;
+import com.tc.bytes.TCByteBufferFactory;
 import com.tc.net.protocol.TCNetworkMessage;
 import com.tc.util.UUID;
 
 public class OOOProtocolMessageFactory {
 
+  private static final int SEND_WINDOW_LENGTH = 4;
+
   public OOOProtocolMessage createNewHandshakeMessage(UUID sessionId, long ack) {
     return new OOOProtocolMessageImpl(new OOOProtocolMessageHeader(OOOProtocolMessageHeader.VERSION,
                                                                    OOOProtocolMessageHeader.TYPE_HANDSHAKE, ack,
                                                                    sessionId));
   }
 
+  /**
+   * Handshake (and handshake reply) messages carry the smallest send window of their sender after the header, so the
+   * peer knows how long it may hold back acks. Older peers don't look at anything after the header.
+   */
+  public OOOProtocolMessage createNewHandshakeMessage(UUID sessionId, long ack, int sendWindow) {
+    return new OOOProtocolMessageImpl(new OOOProtocolMessageHeader(OOOProtocolMessageHeader.VERSION,
+                                                                   OOOProtocolMessageHeader.TYPE_HANDSHAKE, ack,
+                                                                   sessionId), sendWindowPayload(sendWindow));
+  }
+
   public OOOProtocolMessage createNewAckMessage(UUID sessionId, long ackSequence) {
     return new OOOProtocolMessageImpl(new OOOProtocolMessageHeader(OOOProtocolMessageHeader.VERSION,
                                                                    OOOProtocolMessageHeader.TYPE_ACK, 0, ackSequence,
@@ -63,4 +76,31 @@ public class OOOProtocolMessageFactory {
                                                                    OOOProtocolMessageHeader.TYPE_HANDSHAKE_REPLY_FAIL,
                                                                    sequence, sessionId));
   }
+
+  public OOOProtocolMessage createNewHandshakeReplyOkMessage(UUID sessionId, long sequence, int sendWindow) {
+    return new OOOProtocolMessageImpl(new OOOProtocolMessageHeader(OOOProtocolMessageHeader.VERSION,
+                                                                   OOOProtocolMessageHeader.TYPE_HANDSHAKE_REPLY_OK,
+                                                                   sequence, sessionId), sendWindowPayload(sendWindow));
+  }
+
+  public OOOProtocolMessage createNewHandshakeReplyFailMessage(UUID sessionId, long sequence, int sendWindow) {
+    return new OOOProtocolMessageImpl(new OOOProtocolMessageHeader(OOOProtocolMessageHeader.VERSION,
+                                                                   OOOProtocolMessageHeader.TYPE_HANDSHAKE_REPLY_FAIL,
+                                                                   sequence, sessionId), sendWindowPayload(sendWindow));
+  }
+
+  private static TCByteBuffer[] sendWindowPayload(int sendWindow) {
+    TCByteBuffer buffer = TCByteBufferFactory.wrap(new byte[SEND_WINDOW_LENGTH]);
+    buffer.putInt(0, sendWindow);
+    return new TCByteBuffer[] { buffer };
+  }
+
+  /**
+   * @return the send window carried by a handshake (or handshake reply) message, -1 if the peer didn't send one
+   */
+  public static int getSendWindow(OOOProtocolMessage handshake) {
+    TCByteBuffer[] payload = handshake.getPayload();
+    if (payload.length == 0 || payload[0].remaining() < SEND_WINDOW_LENGTH) { return -1; }
+    return payload[0].getInt(payload[0].position());
+  }
 }
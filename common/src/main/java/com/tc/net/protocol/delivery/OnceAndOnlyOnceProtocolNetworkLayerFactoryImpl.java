@@ -29,13 +29,16 @@ import java.util.Timer;
 public class OnceAndOnlyOnceProtocolNetworkLayerFactoryImpl implements OnceAndOnlyOnceProtocolNetworkLayerFactory {
 
   public static final String RESTORE_TIMERTHREAD_NAME = "OOO Connection Restore Timer";
+  public static final String ACK_TIMERTHREAD_NAME     = "OOO Delayed Ack Timer";
   private Timer              restoreConnectTimer      = null;
+  private Timer              ackTimer                 = null;
 
   @Override
   public synchronized OnceAndOnlyOnceProtocolNetworkLayer createNewClientInstance(ReconnectConfig reconnectConfig) {
     OOOProtocolMessageFactory messageFactory = new OOOProtocolMessageFactory();
     OOOProtocolMessageParser messageParser = new OOOProtocolMessageParser(messageFactory);
-    return new OnceAndOnlyOnceProtocolNetworkLayerImpl(messageFactory, messageParser, reconnectConfig, true);
+    return new OnceAndOnlyOnceProtocolNetworkLayerImpl(messageFactory, messageParser, reconnectConfig, true, null,
+                                                       getAckTimer(reconnectConfig));
   }
 
   @Override
@@ -48,6 +51,14 @@ public class OnceAndOnlyOnceProtocolNetworkLayerFactoryImpl implements OnceAndOn
     OOOProtocolMessageFactory messageFactory = new OOOProtocolMessageFactory();
     OOOProtocolMessageParser messageParser = new OOOProtocolMessageParser(messageFactory);
     return new OnceAndOnlyOnceProtocolNetworkLayerImpl(messageFactory, messageParser, reconnectConfig, false,
-                                                       restoreConnectTimer);
+                                                       restoreConnectTimer, getAckTimer(reconnectConfig));
+  }
+
+  private Timer getAckTimer(ReconnectConfig reconnectConfig) {
+    if (reconnectConfig.getMaxAckDelayMillis() <= 0) { return null; }
+    if (ackTimer == null) {
+      ackTimer = new Timer(ACK_TIMERTHREAD_NAME, true);
+    }
+    return ackTimer;
   }
 }
@@ -67,6 +67,8 @@ public class OnceAndOnlyOnceProtocolNetworkLayerImpl extends AbstractMessageTran
   private final String                     debugId;
   private UUID                             sessionId        = UUID.NULL_ID;
   private final Timer                      restoreConnectTimer;
+  // advertised to the peer in the handshake
+  private final int                        sendWindow;
   private static final boolean             debug            = Boolean.getBoolean("ooo.logging.enabled");
 
   public OnceAndOnlyOnceProtocolNetworkLayerImpl(OOOProtocolMessageFactory messageFactory,
@@ -79,11 +81,23 @@ public class OnceAndOnlyOnceProtocolNetworkLayerImpl extends AbstractMessageTran
                                                  OOOProtocolMessageParser messageParser,
                                                  ReconnectConfig reconnectConfig, boolean isClient,
                                                  Timer restoreConnectTimer) {
+    this(messageFactory, messageParser, reconnectConfig, isClient, restoreConnectTimer, null);
+  }
+
+  /**
+   * @param ackTimer schedules acks held back for {@link ReconnectConfig#getMaxAckDelayMillis()}, null to never hold
+   *        them back
+   */
+  public OnceAndOnlyOnceProtocolNetworkLayerImpl(OOOProtocolMessageFactory messageFactory,
+                                                 OOOProtocolMessageParser messageParser,
+                                                 ReconnectConfig reconnectConfig, boolean isClient,
+                                                 Timer restoreConnectTimer, Timer ackTimer) {
     super(LoggerFactory.getLogger(OnceAndOnlyOnceProtocolNetworkLayerImpl.class));
     this.messageFactory = messageFactory;
     this.messageParser = messageParser;
     this.isClient = isClient;
-    this.delivery = new GuaranteedDeliveryProtocol(this, reconnectConfig, isClient);
+    this.sendWindow = SendWindow.lowerBound(reconnectConfig);
+    this.delivery = new GuaranteedDeliveryProtocol(this, reconnectConfig, isClient, ackTimer);
     this.delivery.start();
     this.delivery.pause();
     this.restoreConnectTimer = restoreConnectTimer;
@@ -154,6 +168,7 @@ public class OnceAndOnlyOnceProtocolNetworkLayerImpl extends AbstractMessageTran
       if (debug) {
         debugLog("Got Handshake message...");
       }
+      receivePeerSendWindow(msg);
 
       if (msg.getSessionId().equals(UUID.NULL_ID)) {
         if (debug) {
@@ -216,6 +231,7 @@ public class OnceAndOnlyOnceProtocolNetworkLayerImpl extends AbstractMessageTran
       Assert.assertTrue(isClient);
       Assert.assertTrue(handshakeMode.get());
       debugLog("Got reply OK");
+      receivePeerSendWindow(msg);
 
       // current session is still ok:
       // 1. might have to resend some messages
@@ -232,6 +248,7 @@ public class OnceAndOnlyOnceProtocolNetworkLayerImpl extends AbstractMessageTran
       }
       Assert.assertTrue(isClient);
       Assert.assertTrue(handshakeMode.get());
+      receivePeerSendWindow(msg);
 
       // we need a new OOO stack and make a note of new sessionID
       resetStack();
@@ -390,22 +407,29 @@ public class OnceAndOnlyOnceProtocolNetworkLayerImpl extends AbstractMessageTran
 
   @Override
   public OOOProtocolMessage createHandshakeMessage(long ack) {
-    OOOProtocolMessage rv = this.messageFactory.createNewHandshakeMessage(getSessionId(), ack);
+    OOOProtocolMessage rv = this.messageFactory.createNewHandshakeMessage(getSessionId(), ack, sendWindow);
     return rv;
   }
 
   @Override
   public OOOProtocolMessage createHandshakeReplyOkMessage(long ack) {
-    OOOProtocolMessage rv = this.messageFactory.createNewHandshakeReplyOkMessage(getSessionId(), ack);
+    OOOProtocolMessage rv = this.messageFactory.createNewHandshakeReplyOkMessage(getSessionId(), ack, sendWindow);
     return rv;
   }
 
   @Override
   public OOOProtocolMessage createHandshakeReplyFailMessage(long ack) {
-    OOOProtocolMessage rv = this.messageFactory.createNewHandshakeReplyFailMessage(getSessionId(), ack);
+    OOOProtocolMessage rv = this.messageFactory.createNewHandshakeReplyFailMessage(getSessionId(), ack, sendWindow);
     return rv;
   }
 
+  private void receivePeerSendWindow(OOOProtocolMessage handshake) {
+    final int peerWindow = OOOProtocolMessageFactory.getSendWindow(handshake);
+    if (peerWindow >= 0) {
+      delivery.getReceiver().setPeerSendWindow(peerWindow);
+    }
+  }
+
   private UUID getSessionId() {
     return sessionId;
   }
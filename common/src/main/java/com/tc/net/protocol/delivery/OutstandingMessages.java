@@ -0,0 +1,151 @@
+/*
+ *
+ *  The contents of this file are subject to the Terracotta Public License Version
+ *  2.0 (the "License"); You may not use this file except in compliance with the
+ *  License. You may obtain a copy of the License at
+ *
+ *  http://terracotta.org/legal/terracotta-public-license.
+ *
+ *  Software distributed under the License is distributed on an "AS IS" basis,
+ *  WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License for
+ *  the specific language governing rights and limitations under the License.
+ *
+ *  The Covered Software is Terracotta Core.
+ *
+ *  The Initial Developer of the Covered Software is
+ *  Terracotta, Inc., a Software AG company
+ *
+ */
+package com.tc.net.protocol.delivery;
+
+import com.tc.util.Assert;
+
+import java.util.Arrays;
+
+/**
+ * The messages a {@link SendStateMachine} sent and is still waiting to be acked, indexed by their sequence. Messages are
+ * only ever added after the last one and acks release a contiguous range from the first one, so neither allocates once
+ * the ring is as large as the send window, and releasing costs O(acked messages).
+ * <p>
+ * Not thread safe, guarded by the state machine.
+ */
+final class OutstandingMessages {
+
+  // used without a send window, the ring grows as needed
+  private static final int     INITIAL_CAPACITY = 64;
+
+  private OOOProtocolMessage[] messages;
+  // send time by sequence, 0 if not known
+  private long[]               sendNanos;
+  private int                  mask;
+  private long                 first            = 0;
+  private int                  size             = 0;
+
+  /**
+   * @param window the most messages that will be outstanding at a time, 0 if not bounded
+   */
+  OutstandingMessages(int window) {
+    allocate(window > 0 ? window : INITIAL_CAPACITY);
+  }
+
+  private void allocate(int capacity) {
+    final int length = Integer.highestOneBit(Math.max(1, capacity - 1)) << 1;
+    messages = new OOOProtocolMessage[length];
+    sendNanos = new long[length];
+    mask = length - 1;
+  }
+
+  int size() {
+    return size;
+  }
+
+  boolean isEmpty() {
+    return size == 0;
+  }
+
+  /**
+   * @param seq must directly follow the last message added since the last release
+   * @param nanos the send time, 0 if not known
+   */
+  void add(long seq, OOOProtocolMessage msg, long nanos) {
+    if (size == 0) {
+      first = seq;
+    } else {
+      Assert.assertEquals(first + size, seq);
+    }
+    if (size == messages.length) {
+      grow();
+    }
+    final int i = index(seq);
+    messages[i] = msg;
+    sendNanos[i] = nanos;
+    size++;
+  }
+
+  OOOProtocolMessage get(long seq) {
+    return messages[checkedIndex(seq)];
+  }
+
+  long getSendNanos(long seq) {
+    return sendNanos[checkedIndex(seq)];
+  }
+
+  void clearSendNanos(long seq) {
+    sendNanos[checkedIndex(seq)] = 0;
+  }
+
+  /**
+   * Releases and recycles every outstanding message up to and including {@code seq}.
+   *
+   * @return the number of messages released
+   */
+  int release(long seq) {
+    if (size == 0 || seq < first) { return 0; }
+    final int count = (int) (seq - first + 1);
+    if (count > size) {
+      throw Assert.failure("acked " + seq + " beyond the last outstanding " + (first + size - 1));
+    }
+    for (long s = first; s <= seq; s++) {
+      final int i = index(s);
+      final OOOProtocolMessage msg = messages[i];
+      messages[i] = null;
+      sendNanos[i] = 0;
+      msg.reallyDoRecycleOnWrite();
+    }
+    first = seq + 1;
+    size -= count;
+    return count;
+  }
+
+  /**
+   * Drops every outstanding message without recycling it.
+   */
+  void clear() {
+    Arrays.fill(messages, null);
+    Arrays.fill(sendNanos, 0);
+    first = 0;
+    size = 0;
+  }
+
+  private void grow() {
+    final OOOProtocolMessage[] oldMessages = messages;
+    final long[] oldNanos = sendNanos;
+    final int oldMask = mask;
+    allocate(oldMessages.length * 2);
+    for (long s = first; s < first + size; s++) {
+      messages[index(s)] = oldMessages[(int) s & oldMask];
+      sendNanos[index(s)] = oldNanos[(int) s & oldMask];
+    }
+  }
+
+  private int checkedIndex(long seq) {
+    if (seq < first || seq >= first + size) {
+      throw Assert.failure("not outstanding: " + seq);
+    }
+    return index(seq);
+  }
+
+  private int index(long seq) {
+    return (int) seq & mask;
+  }
+}
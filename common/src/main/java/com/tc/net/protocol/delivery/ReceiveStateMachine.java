@@ -18,30 +18,80 @@
  */
 package com.tc.net.protocol.delivery;
 
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
 import com.tc.properties.ReconnectConfig;
 import com.tc.util.Assert;
 import com.tc.util.DebugUtil;
 import com.tc.util.UUID;
 
+import java.util.Timer;
+import java.util.TimerTask;
+
 /**
- * State Machine handling message receive for OOO
+ * State Machine handling message receive for OOO. Messages sent the other way carry the {@link #ackSequence()}, a
+ * standalone ack is only sent once {@link ReconnectConfig#getMaxDelayAcks()} messages are unacked and, given an ack
+ * timer, no message has carried the ack within {@link ReconnectConfig#getMaxAckDelayMillis()}.
+ * <p>
+ * Acks are only held back while the peer's send window has room. The peer sends its smallest window with the OOO
+ * handshake, see {@link #setPeerSendWindow(int)}. Until then, or with a peer too old to send it, the window of the
+ * local reconnect config is assumed.
  */
 public class ReceiveStateMachine extends AbstractStateMachine {
+  private static final Logger              logger             = LoggerFactory.getLogger(ReceiveStateMachine.class);
   private final State                      MESSAGE_WAIT_STATE = new MessageWaitState();
   private final int                        maxDelayedAcks;
+  private final int                        maxAckDelayMillis;
+  private final Timer                      ackTimer;
   private final String                     debugId;
   private final OOOProtocolMessageDelivery delivery;
   private static final boolean             debug              = false;
 
   private volatile long                    received           = -1;
   private volatile long                    lastAcked          = -1;
+  // unacked messages at which the ack goes out right away, so the peer does not run out of window
+  private int                              forcedAckThreshold;
+  private boolean                          ackScheduled       = false;
+  private long                             standaloneAcks     = 0;
+  private long                             delayedAcks        = 0;
+  private long                             forcedAcks         = 0;
+  private long                             repeatedAcks       = 0;
 
   public ReceiveStateMachine(OOOProtocolMessageDelivery delivery, ReconnectConfig reconnectConfig, boolean isClient) {
+    this(delivery, reconnectConfig, isClient, null);
+  }
+
+  /**
+   * @param ackTimer schedules held back acks, null to send them as soon as maxDelayedAcks messages are unacked
+   */
+  public ReceiveStateMachine(OOOProtocolMessageDelivery delivery, ReconnectConfig reconnectConfig, boolean isClient,
+                             Timer ackTimer) {
     maxDelayedAcks = reconnectConfig.getMaxDelayAcks();
+    this.forcedAckThreshold = ackThreshold(SendWindow.lowerBound(reconnectConfig));
+    // a held back ack must not look like queueing to the peer's adaptive send window, hence the hard 1ms cap
+    this.maxAckDelayMillis = Math.min(reconnectConfig.getMaxAckDelayMillis(), SendWindow.MAX_ACK_DELAY_MILLIS);
+    this.ackTimer = maxAckDelayMillis > 0 ? ackTimer : null;
     this.debugId = (isClient) ? "CLIENT" : "SERVER";
     this.delivery = delivery;
   }
 
+  /**
+   * Acks are held back until a quarter of the peer's window is left, at least until one message past
+   * maxDelayedAcks. A window no larger than maxDelayedAcks leaves no room to hold acks back at all.
+   */
+  private int ackThreshold(int peerWindow) {
+    if (peerWindow <= maxDelayedAcks) { return maxDelayedAcks; }
+    return Math.max(maxDelayedAcks + 1, peerWindow - peerWindow / 4);
+  }
+
+  /**
+   * @param peerWindow the smallest send window the peer can have, 0 for no window at all
+   */
+  public synchronized void setPeerSendWindow(int peerWindow) {
+    this.forcedAckThreshold = ackThreshold(peerWindow);
+  }
+
   @Override
   public synchronized void execute(OOOProtocolMessage msg) {
     getCurrentState().execute(msg);
@@ -54,7 +104,9 @@ public class ReceiveStateMachine extends AbstractStateMachine {
 
   @Override
   public String toString() {
-    return "CurrentState: " + getCurrentState() + "; Received: " + received + "; lastAcked: " + lastAcked + "; "
+    return "CurrentState: " + getCurrentState() + "; Received: " + received + "; lastAcked: " + lastAcked
+           + "; StandaloneAcks: " + standaloneAcks + "; DelayedAcks: " + delayedAcks + "; ForcedAcks: " + forcedAcks
+           + "; RepeatedAcks: " + repeatedAcks + "; ForcedAckThreshold: " + forcedAckThreshold + "; "
            + super.toString();
   }
 
@@ -79,11 +131,15 @@ public class ReceiveStateMachine extends AbstractStateMachine {
       if (r <= received) {
         // we already got message
         debugLog("Received dup msg " + r);
-        sendAck(received);
+        if (sendAck(received)) {
+          repeatedAcks++;
+        }
       } else if (r > (received + 1)) {
         // message missed, resend ack, receive to resend message.
         debugLog("Received out of order msg " + r);
-        sendAck(received);
+        if (sendAck(received)) {
+          repeatedAcks++;
+        }
       } else {
         Assert.assertTrue(r == (received + 1));
         putMessage(msg);
@@ -97,10 +153,53 @@ public class ReceiveStateMachine extends AbstractStateMachine {
   }
 
   private void ackIfNeeded(long next) {
-    if (next - lastAcked >= maxDelayedAcks) {
-      if (!sendAck(next)) {
+    final long unacked = next - lastAcked;
+    if (unacked < maxDelayedAcks) { return; }
+
+    if (ackTimer == null) {
+      if (sendAck(next)) {
+        standaloneAcks++;
+      } else {
         debugLog("Failed to send ack:" + next);
       }
+    } else if (unacked >= forcedAckThreshold) {
+      if (sendAck(next)) {
+        forcedAcks++;
+      } else {
+        debugLog("Failed to send forced ack:" + next);
+      }
+    } else if (!ackScheduled) {
+      // give a message going the other way the chance to carry the ack
+      ackScheduled = true;
+      try {
+        ackTimer.schedule(new TimerTask() {
+          @Override
+          public void run() {
+            try {
+              delayedAck();
+            } catch (Throwable t) {
+              // the timer is shared by all connections, don't let one of them kill it
+              logger.warn("Failed to send delayed ack on " + delivery.getConnectionId(), t);
+            }
+          }
+        }, maxAckDelayMillis);
+      } catch (IllegalStateException ise) {
+        // the timer was cancelled on shutdown
+        ackScheduled = false;
+        if (sendAck(next)) {
+          standaloneAcks++;
+        }
+      }
+    }
+  }
+
+  private synchronized void delayedAck() {
+    ackScheduled = false;
+    if (isPaused() || received <= lastAcked) { return; }
+    if (sendAck(received)) {
+      delayedAcks++;
+    } else {
+      debugLog("Failed to send delayed ack:" + received);
     }
   }
 
@@ -138,6 +237,31 @@ public class ReceiveStateMachine extends AbstractStateMachine {
     return received;
   }
 
+  // for testing purpose only
+  synchronized long getStandaloneAcks() {
+    return standaloneAcks;
+  }
+
+  // for testing purpose only
+  synchronized long getDelayedAcks() {
+    return delayedAcks;
+  }
+
+  // for testing purpose only
+  synchronized long getForcedAcks() {
+    return forcedAcks;
+  }
+
+  // for testing purpose only
+  synchronized long getRepeatedAcks() {
+    return repeatedAcks;
+  }
+
+  // for testing purpose only
+  synchronized int getForcedAckThreshold() {
+    return forcedAckThreshold;
+  }
+
   // for testing purpose only
   synchronized boolean isClean() {
     return ((received == -1) && (lastAcked == -1));
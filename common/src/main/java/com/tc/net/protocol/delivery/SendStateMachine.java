@@ -25,11 +25,11 @@ import com.tc.net.protocol.TCNetworkMessage;
 import com.tc.properties.ReconnectConfig;
 import com.tc.util.Assert;
 import com.tc.util.DebugUtil;
-import com.tc.util.Util;
 
-import java.util.LinkedList;
-import java.util.ListIterator;
-import java.util.concurrent.LinkedBlockingQueue;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.LongSupplier;
 
 /**
  * State Machine handling message send for OOO
@@ -43,26 +43,42 @@ public class SendStateMachine extends AbstractStateMachine {
   final State                              PAUSED_STATE          = new PausedState();
 
   private final OOOProtocolMessageDelivery delivery;
-  private final LinkedList<OOOProtocolMessage> outstandingMsgs       = new LinkedList<OOOProtocolMessage>();
-  private final int                        sendWindow;
+  private final SendWindow                 sendWindow;
+  private final OutstandingMessages        outstanding;
   private final boolean                    isClient;
   private final String                     debugId;
+  // times acks for the adaptive send window
+  private final LongSupplier               nanoClock;
 
   private static final boolean             debug                 = false;
   private static final Logger logger                = LoggerFactory.getLogger(SendStateMachine.class);
 
   private long                             sent                  = -1;
   private long                             acked                 = -1;
-  private int                              outstandingCnt        = 0;
-  private LinkedBlockingQueue<TCNetworkMessage> sendQueue;
+  // the last outstanding messages still to be resent after a reconnect
+  private int                              unsentResends         = 0;
+
+  // senders hand messages over without taking the state machine lock, they only block while the queue is full
+  private final Queue<TCNetworkMessage>    sendQueue             = new ConcurrentLinkedQueue<TCNetworkMessage>();
+  private final AtomicInteger              queued                = new AtomicInteger();
+  private final AtomicInteger              blockedSenders        = new AtomicInteger();
+  private final Object                     notFull               = new Object();
+  // senders asking for the queue to be drained, only the first one takes the lock and drains for the others
+  private final AtomicInteger              drainRequests         = new AtomicInteger();
 
   public SendStateMachine(OOOProtocolMessageDelivery delivery, ReconnectConfig reconnectConfig, boolean isClient) {
+    this(delivery, reconnectConfig, isClient, System::nanoTime);
+  }
+
+  SendStateMachine(OOOProtocolMessageDelivery delivery, ReconnectConfig reconnectConfig, boolean isClient,
+                   LongSupplier nanoClock) {
     this.delivery = delivery;
+    this.nanoClock = nanoClock;
     // set sendWindow from tc.properties if exist. 0 to disable window send.
-    sendWindow = reconnectConfig.getSendWindow();
+    sendWindow = new SendWindow(reconnectConfig);
+    outstanding = new OutstandingMessages(sendWindow.getMax());
     int queueCap = reconnectConfig.getSendQueueCapacity();
     this.sendQueueCap = (queueCap == 0) ? Integer.MAX_VALUE : queueCap;
-    this.sendQueue = new LinkedBlockingQueue<TCNetworkMessage>(this.sendQueueCap);
     this.isClient = isClient;
     this.debugId = (this.isClient) ? "CLIENT" : "SERVER";
   }
@@ -88,10 +104,28 @@ public class SendStateMachine extends AbstractStateMachine {
     getCurrentState().execute(msg);
   }
 
+  /**
+   * Sends whatever the window allows of the queued messages. If another thread is already at it this returns at once,
+   * that thread sends the messages queued meanwhile too.
+   */
+  public void sendQueued() {
+    if (drainRequests.getAndIncrement() != 0) { return; }
+    int requests = 1;
+    try {
+      do {
+        execute(null);
+        requests = drainRequests.addAndGet(-requests);
+      } while (requests != 0);
+    } catch (RuntimeException | Error e) {
+      drainRequests.set(0);
+      throw e;
+    }
+  }
+
   @Override
   public String toString() {
-    return "CurrentState: " + getCurrentState() + "; OutStandingMsgsCount: " + outstandingCnt + "; Sent: " + sent
-           + "; Acked: " + acked + "; " + super.toString();
+    return "CurrentState: " + getCurrentState() + "; OutStandingMsgsCount: " + outstanding.size() + "; Sent: " + sent
+           + "; Acked: " + acked + "; " + sendWindow + "; " + super.toString();
   }
 
   @Override
@@ -133,15 +167,14 @@ public class SendStateMachine extends AbstractStateMachine {
         logger.info("SENDER-" + debugId + "-" + delivery.getConnectionId() + "; AckSeq: " + ackedSeq + " Acked: "
                     + acked);
 
-        while (ackedSeq > acked) {
-          ++acked;
-          removeMessage();
-        }
+        release(ackedSeq);
       }
-      if (outstandingCnt > 0) {
+      if (!outstanding.isEmpty()) {
         // resend those not acked
+        sendWindow.reconnected();
+        unsentResends = outstanding.size();
         resendOutstandings();
-        if (outstandingCnt >= sendWindow) {
+        if (isWindowFull()) {
           switchToState(SENDWINDOW_FULL_STATE);
         } else {
           switchToState(MESSAGE_WAIT_STATE);
@@ -175,7 +208,7 @@ public class SendStateMachine extends AbstractStateMachine {
         getCurrentState().execute(protocolMessage);
       } else {
         sendMoreIfAvailable();
-        if ((sendWindow > 0) && (outstandingCnt >= sendWindow)) {
+        if (isWindowFull()) {
           switchToState(SENDWINDOW_FULL_STATE);
         }
       }
@@ -206,12 +239,13 @@ public class SendStateMachine extends AbstractStateMachine {
         }
       }
 
-      while (ackedSeq > acked) {
-        ++acked;
-        removeMessage();
+      if (ackedSeq > acked) {
+        final long rtt = roundTripNanos(ackedSeq);
+        final int newlyAcked = release(ackedSeq);
+        sendWindow.acked(ackedSeq, newlyAcked, rtt, sent);
       }
 
-      if (outstandingCnt < sendWindow) {
+      if (!isWindowFull()) {
         switchToState(MESSAGE_WAIT_STATE);
       } else {
         switchToState(SENDWINDOW_FULL_STATE);
@@ -258,32 +292,64 @@ public class SendStateMachine extends AbstractStateMachine {
 
   // send all or till the window
   private void sendMoreIfAvailable() {
-    while (((sendWindow <= 0) || (outstandingCnt < sendWindow)) && !sendQueue.isEmpty()) {
+    if (unsentResends > 0) {
+      resendOutstandings();
+    }
+    while (unsentResends == 0 && !isWindowFull() && !sendQueue.isEmpty()) {
       delivery.sendMessage(createProtocolMessage(++sent));
     }
   }
 
+  private boolean isWindowFull() {
+    final int window = sendWindow.get();
+    return (window > 0) && (outstanding.size() - unsentResends >= window);
+  }
+
   private OOOProtocolMessage createProtocolMessage(long count) {
-    final OOOProtocolMessage opm = delivery.createProtocolMessage(count, dequeue(sendQueue));
+    final OOOProtocolMessage opm = delivery.createProtocolMessage(count, dequeue());
     Assert.eval(opm != null);
-    outstandingCnt++;
-    outstandingMsgs.add(opm);
+    outstanding.add(count, opm, sendWindow.isAdaptive() ? nanoClock.getAsLong() : 0);
     return (opm);
   }
 
-  private void resendOutstandings() { 
-    ListIterator<OOOProtocolMessage> it = outstandingMsgs.listIterator(0);
-    while (it.hasNext()) {
-      OOOProtocolMessage msg = it.next();
-      delivery.sendMessage(msg);
+  /**
+   * Resends the outstanding messages not acked before the reconnect. With an adaptive window only as many as the window
+   * allows, the others follow as acks come in.
+   */
+  private void resendOutstandings() {
+    while (unsentResends > 0 && (!sendWindow.isAdaptive() || !isWindowFull())) {
+      final long seq = sent - unsentResends + 1;
+      // no round trip sample from a resent message, the ack might be for either send
+      outstanding.clearSendNanos(seq);
+      delivery.sendMessage(outstanding.get(seq));
+      unsentResends--;
     }
   }
 
-  private void removeMessage() {
-    OOOProtocolMessage msg = outstandingMsgs.removeFirst();
-    msg.reallyDoRecycleOnWrite();
-    outstandingCnt--;
-    Assert.eval(outstandingCnt >= 0);
+  private long roundTripNanos(long ackedSeq) {
+    if (!sendWindow.isAdaptive() || ackedSeq > sent || ackedSeq <= acked) { return 0; }
+    final long sentAt = outstanding.getSendNanos(ackedSeq);
+    return sentAt == 0 ? 0 : Math.max(1, nanoClock.getAsLong() - sentAt);
+  }
+
+  /**
+   * Releases the outstanding messages up to and including {@code ackedSeq}.
+   *
+   * @return the number of messages released
+   */
+  private int release(long ackedSeq) {
+    final int released = outstanding.release(ackedSeq);
+    acked = ackedSeq;
+    if (unsentResends > outstanding.size()) {
+      // acked before we got to resend it
+      unsentResends = outstanding.size();
+    }
+    return released;
+  }
+
+  // for testing purpose only
+  int getSendWindow() {
+    return sendWindow.get();
   }
 
   @Override
@@ -293,31 +359,54 @@ public class SendStateMachine extends AbstractStateMachine {
     acked = -1;
 
     // purge out outstanding sends
-    outstandingCnt = 0;
-    outstandingMsgs.clear();
+    unsentResends = 0;
+    outstanding.clear();
 
-    LinkedBlockingQueue<TCNetworkMessage> tmpQ = sendQueue;
-    sendQueue = new LinkedBlockingQueue<TCNetworkMessage>(sendQueueCap);
-    tmpQ.clear();
+    while (sendQueue.poll() != null) {
+      dequeued();
+    }
   }
 
-  private static TCNetworkMessage dequeue(LinkedBlockingQueue<TCNetworkMessage> q) {
-    boolean interrupted = false;
-    try {
-      while (true) {
-        try {
-          return q.take();
-        } catch (InterruptedException e) {
-          interrupted = true;
-        }
+  private TCNetworkMessage dequeue() {
+    final TCNetworkMessage msg = sendQueue.poll();
+    Assert.eval(msg != null);
+    dequeued();
+    return msg;
+  }
+
+  private void dequeued() {
+    queued.decrementAndGet();
+    if (blockedSenders.get() > 0) {
+      synchronized (notFull) {
+        notFull.notifyAll();
       }
-    } finally {
-      Util.selfInterruptIfNeeded(interrupted);
     }
   }
 
+  /**
+   * Queues a message to be sent, blocking while the send queue is full. Call {@link #sendQueued()} to get it sent.
+   */
   public void put(TCNetworkMessage message) throws InterruptedException {
-    sendQueue.put(message);
+    int n;
+    while ((n = queued.get()) >= sendQueueCap || !queued.compareAndSet(n, n + 1)) {
+      if (n >= sendQueueCap) {
+        awaitNotFull();
+      }
+    }
+    sendQueue.add(message);
+  }
+
+  private void awaitNotFull() throws InterruptedException {
+    synchronized (notFull) {
+      blockedSenders.incrementAndGet();
+      try {
+        while (queued.get() >= sendQueueCap) {
+          notFull.wait();
+        }
+      } finally {
+        blockedSenders.decrementAndGet();
+      }
+    }
   }
 
   private void debugLog(String msg) {
@@ -326,7 +415,7 @@ public class SendStateMachine extends AbstractStateMachine {
 
   // for testing purpose only
   boolean isClean() {
-    return (sendQueue.isEmpty() && outstandingMsgs.isEmpty());
+    return (sendQueue.isEmpty() && outstanding.isEmpty());
   }
 
 }
@@ -0,0 +1,171 @@
+/*
+ *
+ *  The contents of this file are subject to the Terracotta Public License Version
+ *  2.0 (the "License"); You may not use this file except in compliance with the
+ *  License. You may obtain a copy of the License at
+ *
+ *  http://terracotta.org/legal/terracotta-public-license.
+ *
+ *  Software distributed under the License is distributed on an "AS IS" basis,
+ *  WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License for
+ *  the specific language governing rights and limitations under the License.
+ *
+ *  The Covered Software is Terracotta Core.
+ *
+ *  The Initial Developer of the Covered Software is
+ *  Terracotta, Inc., a Software AG company
+ *
+ */
+package com.tc.net.protocol.delivery;
+
+import com.tc.properties.ReconnectConfig;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The number of messages a {@link SendStateMachine} may have outstanding. Unless the configuration sets a maximum
+ * above the send window this is just the configured send window.
+ * <p>
+ * Otherwise the window adapts between its bounds, driven by the round trip time of acks: it grows by one message per
+ * window of acked messages (and doubles per round trip while below the slow start threshold) as long as the round trip
+ * stays close to the smallest one seen, and shrinks multiplicatively, at most once per window, when acks come back late
+ * because data is queueing up somewhere between the peers. After a reconnect the window restarts from its minimum so
+ * that a slow peer is not hit by a full window of resends at once.
+ * <p>
+ * The receiver only acks once every {@link ReconnectConfig#getMaxDelayAcks()} messages, the window never goes below
+ * that or the sender would stall waiting for an ack that is never sent.
+ */
+class SendWindow {
+
+  // decrease to this share of the window on congestion
+  private static final double DECREASE_FACTOR        = 0.7;
+  // acks delayed by less than this are not taken as congestion, however small the round trip
+  private static final long   MIN_QUEUEING_NANOS     = TimeUnit.MILLISECONDS.toNanos(2);
+  // receivers hold back acks for less than that, or every held back ack would read as queueing
+  static final int            MAX_ACK_DELAY_MILLIS   = (int) TimeUnit.NANOSECONDS.toMillis(MIN_QUEUEING_NANOS) - 1;
+  // the smallest round trip is re-learnt every this many samples, routes and peers change
+  private static final int    BASE_RTT_SAMPLES       = 1024;
+
+  private final boolean       adaptive;
+  private final int           min;
+  private final int           max;
+
+  private int                 window;
+  private int                 slowStartThreshold;
+  private double              increaseCredit         = 0;
+  private long                recoverUntil           = -1;
+  private long                baseRttNanos           = Long.MAX_VALUE;
+  private long                epochMinRttNanos       = Long.MAX_VALUE;
+  private int                 samples                = 0;
+  private long                smoothedRttNanos       = 0;
+  private long                decreases              = 0;
+
+  SendWindow(ReconnectConfig config) {
+    final int configured = config.getSendWindow();
+    this.adaptive = configured > 0 && config.getMaxSendWindow() > configured;
+    if (adaptive) {
+      this.min = lowerBound(config);
+      this.max = config.getMaxSendWindow();
+    } else {
+      this.min = configured;
+      this.max = configured;
+    }
+    this.window = configured;
+    this.slowStartThreshold = this.max;
+  }
+
+  /**
+   * @return the smallest window a sender using {@code config} can have, 0 for no window at all
+   */
+  static int lowerBound(ReconnectConfig config) {
+    final int configured = config.getSendWindow();
+    if (configured > 0 && config.getMaxSendWindow() > configured) {
+      return Math.max(config.getMinSendWindow(), config.getMaxDelayAcks() + 1);
+    }
+    return configured;
+  }
+
+  boolean isAdaptive() {
+    return adaptive;
+  }
+
+  /**
+   * @return the current window, 0 for no window at all
+   */
+  int get() {
+    return window;
+  }
+
+  int getMax() {
+    return max;
+  }
+
+  /**
+   * @param newlyAcked number of messages this ack acknowledged
+   * @param rttNanos round trip of the last acked message, 0 if it is not a valid sample (it was resent)
+   * @param lastSent sequence of the last message sent so far
+   */
+  void acked(long ackedSeq, int newlyAcked, long rttNanos, long lastSent) {
+    if (!adaptive || newlyAcked <= 0) { return; }
+
+    if (rttNanos > 0) {
+      sample(rttNanos);
+      if (rttNanos - baseRttNanos > Math.max(baseRttNanos / 2, MIN_QUEUEING_NANOS)) {
+        if (ackedSeq > recoverUntil) {
+          // one decrease per window, the acks of the rest of this window were already on their way
+          slowStartThreshold = Math.max(min, (int) (window * DECREASE_FACTOR));
+          window = slowStartThreshold;
+          increaseCredit = 0;
+          recoverUntil = lastSent;
+          decreases++;
+        }
+        return;
+      }
+    }
+
+    if (window < slowStartThreshold) {
+      window = Math.min(slowStartThreshold, window + newlyAcked);
+    } else {
+      increaseCredit += (double) newlyAcked / window;
+      if (increaseCredit >= 1) {
+        window += (int) increaseCredit;
+        increaseCredit -= (int) increaseCredit;
+      }
+    }
+    window = Math.min(window, max);
+  }
+
+  /**
+   * Called when the peer reconnected, whatever is outstanding is about to be resent.
+   */
+  void reconnected() {
+    if (!adaptive) { return; }
+    slowStartThreshold = Math.max(min, window / 2);
+    window = min;
+    increaseCredit = 0;
+    recoverUntil = -1;
+    baseRttNanos = Long.MAX_VALUE;
+    epochMinRttNanos = Long.MAX_VALUE;
+    samples = 0;
+  }
+
+  private void sample(long rttNanos) {
+    smoothedRttNanos = smoothedRttNanos == 0 ? rttNanos : smoothedRttNanos + ((rttNanos - smoothedRttNanos) >> 3);
+    epochMinRttNanos = Math.min(epochMinRttNanos, rttNanos);
+    baseRttNanos = Math.min(baseRttNanos, rttNanos);
+    if (++samples == BASE_RTT_SAMPLES) {
+      baseRttNanos = epochMinRttNanos;
+      epochMinRttNanos = Long.MAX_VALUE;
+      samples = 0;
+    }
+  }
+
+  @Override
+  public String toString() {
+    if (!adaptive) { return "SendWindow: " + window; }
+    return "SendWindow: " + window + " [" + min + ".." + max + "]; SlowStartThreshold: " + slowStartThreshold
+           + "; RttMicros: " + TimeUnit.NANOSECONDS.toMicros(smoothedRttNanos) + "; BaseRttMicros: "
+           + (baseRttNanos == Long.MAX_VALUE ? "-" : String.valueOf(TimeUnit.NANOSECONDS.toMicros(baseRttNanos)))
+           + "; Decreases: " + decreases;
+  }
+}
@@ -230,6 +230,10 @@ abstract class AbstractMessageChannel implements MessageChannelInternal {
 
   @Override
   public void notifyTransportDisconnected(MessageTransport transport, boolean forcedDisconnect) {
+    // the peer we reconnect to might not read the compact encoding, it tells us again if it does
+    removeAttachment(TCMessageImpl.PEER_READS_COMPACT);
+    // and it may not know the strings sent so far, the next messages start a new dictionary
+    removeAttachment(TCMessageImpl.STRING_DICTIONARY_WRITER);
     fireEvent(new ChannelEventImpl(ChannelEventType.TRANSPORT_DISCONNECTED_EVENT, AbstractMessageChannel.this));
   }
 
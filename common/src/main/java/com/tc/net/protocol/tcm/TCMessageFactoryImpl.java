@@ -40,13 +40,26 @@ public class TCMessageFactoryImpl implements TCMessageFactory {
   @Override
   public TCMessage createMessage(MessageChannel source, TCMessageType type)
       throws UnsupportedMessageTypeException {
+    final SessionID sessionID = this.sessionProvider.getSessionID();
+    final TCMessagePool pool = TCMessagePool.of(source);
+    if (pool != null) {
+      final TCMessageImpl recycled = pool.take(type, sessionID);
+      if (recycled != null) {
+        recycled.reuse(createBuffer(type));
+        return recycled;
+      }
+    }
     final GeneratedMessageFactory factory = lookupFactory(type);
-    return factory.createMessage(this.sessionProvider.getSessionID(), this.monitor,
-                                 createBuffer(), source, type);
+    final TCMessage message = factory.createMessage(sessionID, this.monitor, createBuffer(type), source, type);
+    if (pool != null && message instanceof TCMessageImpl && ((TCMessageImpl) message).isReusable()) {
+      ((TCMessageImpl) message).setPool(pool);
+    }
+    return message;
   }
 
-  private static TCByteBufferOutputStream createBuffer() {
-    return new TCByteBufferOutputStream();
+  // the transport gathers the buffers of a message when it writes it, consolidating them first would only copy them
+  private static TCByteBufferOutputStream createBuffer(TCMessageType type) {
+    return new TCByteBufferOutputStream(type.getSizeHint(), false, false);
   }
 
   @Override
@@ -269,6 +269,11 @@ public class ClientMessageTransport extends MessageTransportBase {
         // This is a reconnect
         Assert.eval(!synAck.getConnectionId().isValid() || getConnectionId().equals(synAck.getConnectionId()));
       }
+      // servers that don't know about capabilities send none
+      if (WIRE_COMPRESSION_ENABLED
+          && (synAck.getCapabilities() & TransportHandshakeMessage.CAPABILITY_WIRE_COMPRESSION) != 0) {
+        getConnection().enableWireCompression();
+      }
       getConnection().setTransportEstablished();
       setSynAckResult(synAck);
       setRemoteCallbackPort(synAck.getCallbackPort());
@@ -336,8 +341,10 @@ public class ClientMessageTransport extends MessageTransportBase {
       this.waitForSynAckResult = targetFuture;
       // get the stack layer list and pass it in
       short stackLayerFlags = getCommunicationStackFlags(this);
+      short capabilities = WIRE_COMPRESSION_ENABLED ? TransportHandshakeMessage.CAPABILITY_WIRE_COMPRESSION
+          : TransportHandshakeMessage.CAPABILITY_NONE;
       TransportHandshakeMessage syn = this.messageFactory.createSyn(getConnectionId(), getConnection(),
-                                                                    stackLayerFlags, this.callbackPort);
+                                                                    stackLayerFlags, this.callbackPort, capabilities);
       // send syn message
       try {
         this.sendToConnection(syn);
@@ -30,6 +30,8 @@ import com.tc.net.protocol.IllegalReconnectException;
 import com.tc.net.protocol.NetworkLayer;
 import com.tc.net.protocol.TCNetworkMessage;
 import com.tc.net.protocol.tcm.ChannelID;
+import com.tc.properties.TCPropertiesConsts;
+import com.tc.properties.TCPropertiesImpl;
 import com.tc.util.Assert;
 import java.io.IOException;
 
@@ -40,6 +42,14 @@ import java.util.concurrent.atomic.AtomicReference;
  * Implementation of MessaageTransport
  */
 abstract class MessageTransportBase extends AbstractMessageTransport implements TCConnectionEventListener {
+  /**
+   * Whether this VM offers (client side) or accepts (server side) wire compression in the transport handshake.
+   */
+  static final boolean                             WIRE_COMPRESSION_ENABLED = TCPropertiesImpl
+                                                                              .getProperties()
+                                                                              .getBoolean(TCPropertiesConsts.TC_MESSAGE_COMPRESSION_ENABLED,
+                                                                                          false);
+
   private TCConnection                             connection;
 
   private ConnectionID                           connectionId           = new ConnectionID(JvmIDUtil.getJvmID(),
@@ -374,16 +374,20 @@ public class ServerStackProvider implements NetworkStackProvider, MessageTranspo
         this.isHandshakeError = true;
         return;
       }
-      sendSynAck(transport.getConnectionId(), syn.getSource(), isMaxConnectionReached);
+      short capabilities = MessageTransportBase.WIRE_COMPRESSION_ENABLED
+          ? (short) (syn.getCapabilities() & TransportHandshakeMessage.CAPABILITY_WIRE_COMPRESSION)
+          : TransportHandshakeMessage.CAPABILITY_NONE;
+      sendSynAck(transport.getConnectionId(), syn.getSource(), isMaxConnectionReached, capabilities);
     }
 
     private boolean verifySyn(WireProtocolMessage message) {
       return message instanceof TransportHandshakeMessage && (((TransportHandshakeMessage) message).isSyn());
     }
 
-    private void sendSynAck(ConnectionID connectionId, TCConnection source, boolean isMaxConnectionReached) {
+    private void sendSynAck(ConnectionID connectionId, TCConnection source, boolean isMaxConnectionReached,
+                            short capabilities) {
       source.addWeight(MessageTransport.CONNWEIGHT_TX_HANDSHAKED);
-      sendSynAck(connectionId, null, source, isMaxConnectionReached);
+      sendSynAck(connectionId, null, source, isMaxConnectionReached, capabilities);
     }
 
     /**
@@ -397,6 +401,12 @@ public class ServerStackProvider implements NetworkStackProvider, MessageTranspo
 
     private void sendSynAck(ConnectionID connectionId, TransportHandshakeErrorContext errorContext,
                             TCConnection source, boolean isMaxConnectionsReached) {
+      sendSynAck(connectionId, errorContext, source, isMaxConnectionsReached,
+                 TransportHandshakeMessage.CAPABILITY_NONE);
+    }
+
+    private void sendSynAck(ConnectionID connectionId, TransportHandshakeErrorContext errorContext,
+                            TCConnection source, boolean isMaxConnectionsReached, short capabilities) {
       TransportHandshakeMessage synAck;
       boolean isError = (errorContext != null);
       int maxConnections = connectionPolicy.getMaxConnections();
@@ -414,9 +424,17 @@ public class ServerStackProvider implements NetworkStackProvider, MessageTranspo
         }
       } else {
         int callbackPort = source.getLocalAddress().getPort();
-        synAck = handshakeMessageFactory.createSynAck(connectionId, source, isMaxConnectionsReached, maxConnections, callbackPort);
+        if (capabilities != TransportHandshakeMessage.CAPABILITY_NONE) {
+          synAck = handshakeMessageFactory.createSynAck(connectionId, source, isMaxConnectionsReached, maxConnections,
+                                                        callbackPort, capabilities);
+        } else {
+          synAck = handshakeMessageFactory.createSynAck(connectionId, source, isMaxConnectionsReached, maxConnections, callbackPort);
+        }
       }
       sendMessage(synAck);
+      if ((capabilities & TransportHandshakeMessage.CAPABILITY_WIRE_COMPRESSION) != 0 && !isError && activeProvider == null) {
+        source.enableWireCompression();
+      }
     }
 
     private void sendMessage(WireProtocolMessage message) {
@@ -0,0 +1,260 @@
+/*
+ *
+ *  The contents of this file are subject to the Terracotta Public License Version
+ *  2.0 (the "License"); You may not use this file except in compliance with the
+ *  License. You may obtain a copy of the License at
+ *
+ *  http://terracotta.org/legal/terracotta-public-license.
+ *
+ *  Software distributed under the License is distributed on an "AS IS" basis,
+ *  WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License for
+ *  the specific language governing rights and limitations under the License.
+ *
+ *  The Covered Software is Terracotta Core.
+ *
+ *  The Initial Developer of the Covered Software is
+ *  Terracotta, Inc., a Software AG company
+ *
+ */
+package com.tc.net.proxy;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * One direction of a shaped proxy connection. The reading thread hands data to {@link #send}, a sender thread writes
+ * it out once it is due and the bandwidth cap allows. Acts as a delay line, so added latency does not limit
+ * throughput the way sleeping on the read path does.
+ */
+class ShapedPipe implements Runnable {
+
+  // how much data may sit in the delay line before the reader is held back (and TCP flow control kicks in)
+  private static final long       MAX_QUEUED_BYTES  = 16 * 1024 * 1024;
+  private static final Object     EOF               = new Object();
+
+  /**
+   * Source of time for the delay line, tests replace it to run the pipe on a virtual clock.
+   */
+  interface Clock {
+    long nanoTime();
+
+    /**
+     * Waits on {@code monitor}, whose lock the caller holds, for at most {@code nanos}.
+     */
+    void timedWait(Object monitor, long nanos) throws InterruptedException;
+
+    void sleep(long nanos) throws InterruptedException;
+  }
+
+  static final Clock              SYSTEM_CLOCK      = new Clock() {
+    @Override
+    public long nanoTime() {
+      return System.nanoTime();
+    }
+
+    @Override
+    public void timedWait(Object monitor, long nanos) throws InterruptedException {
+      TimeUnit.NANOSECONDS.timedWait(monitor, nanos);
+    }
+
+    @Override
+    public void sleep(long nanos) throws InterruptedException {
+      TimeUnit.NANOSECONDS.sleep(nanos);
+    }
+  };
+
+  private final ShapingConfig     config;
+  private final OutputStream      dest;
+  private final Runnable          onFinish;
+  private final Clock             clock;
+  private final Random            random            = new Random();
+  private final Thread            sender;
+  private final ArrayDeque<Chunk> queue             = new ArrayDeque<Chunk>();
+  private long                    queuedBytes       = 0;
+  private long                    lastDueNanos      = 0;
+  private boolean                 finished          = false;
+  private volatile boolean        stopped           = false;
+
+  // statistics, guarded by this
+  private long                    bytes             = 0;
+  private long                    chunks            = 0;
+  private long                    firstReadNanos    = 0;
+  private long                    lastWriteNanos    = 0;
+  private long                    minLatencyNanos   = Long.MAX_VALUE;
+  private long                    maxLatencyNanos   = 0;
+  private long                    totalLatencyNanos = 0;
+
+  ShapedPipe(ShapingConfig config, OutputStream dest, Runnable onFinish, String name) {
+    this(config, dest, onFinish, name, SYSTEM_CLOCK);
+  }
+
+  ShapedPipe(ShapingConfig config, OutputStream dest, Runnable onFinish, String name, Clock clock) {
+    this.config = config;
+    this.dest = dest;
+    this.onFinish = onFinish;
+    this.clock = clock;
+    this.sender = new Thread(this, name);
+    this.sender.setDaemon(true);
+  }
+
+  void start() {
+    sender.start();
+  }
+
+  /**
+   * Queues {@code len} bytes of {@code buf}, blocking while the delay line is full.
+   */
+  void send(byte[] buf, int off, int len) throws InterruptedException {
+    final long now = clock.nanoTime();
+    for (int pos = off, end = off + len; pos < end; pos += config.getChunkSize()) {
+      final byte[] data = Arrays.copyOfRange(buf, pos, Math.min(end, pos + config.getChunkSize()));
+      synchronized (this) {
+        while (!stopped && queuedBytes > 0 && queuedBytes + data.length > MAX_QUEUED_BYTES) {
+          wait();
+        }
+        if (stopped) { return; }
+        if (firstReadNanos == 0) {
+          firstReadNanos = now;
+        }
+        // never let a chunk overtake the one before it
+        lastDueNanos = Math.max(lastDueNanos, now + config.sampleDelayNanos(random));
+        queue.add(new Chunk(data, now, lastDueNanos));
+        queuedBytes += data.length;
+        notifyAll();
+      }
+    }
+  }
+
+  /**
+   * The reading side hit the end of stream: {@code onFinish} runs once everything queued has been written.
+   */
+  synchronized void finish() {
+    finished = true;
+    notifyAll();
+  }
+
+  /**
+   * Drops whatever is still queued and stops the sender.
+   */
+  void stop() {
+    synchronized (this) {
+      stopped = true;
+      queue.clear();
+      queuedBytes = 0;
+      notifyAll();
+    }
+    if (Thread.currentThread() != sender) {
+      sender.interrupt();
+    }
+  }
+
+  @Override
+  public void run() {
+    long nextFreeNanos = clock.nanoTime();
+    try {
+      while (!stopped) {
+        final Object next = take();
+        if (next == EOF) {
+          break;
+        }
+        final Chunk chunk = (Chunk) next;
+
+        final long bandwidth = config.getBandwidthBytesPerSecond();
+        if (bandwidth > 0) {
+          sleepUntil(nextFreeNanos);
+          nextFreeNanos = Math.max(nextFreeNanos, clock.nanoTime())
+                          + TimeUnit.SECONDS.toNanos(chunk.data.length) / bandwidth;
+        }
+
+        dest.write(chunk.data);
+        dest.flush();
+        written(chunk);
+      }
+    } catch (InterruptedException e) {
+      // stopped
+    } catch (IOException ioe) {
+      // the other side went away, same as running into the end of stream
+    }
+    if (!stopped) {
+      onFinish.run();
+    }
+  }
+
+  /**
+   * @return the next chunk once it is due, or {@link #EOF}
+   */
+  private Object take() throws InterruptedException {
+    synchronized (this) {
+      while (true) {
+        if (stopped) { throw new InterruptedException(); }
+        final Chunk head = queue.peek();
+        if (head == null) {
+          if (finished) { return EOF; }
+          wait();
+          continue;
+        }
+        final long waitNanos = head.dueNanos - clock.nanoTime();
+        if (waitNanos > 0) {
+          clock.timedWait(this, waitNanos);
+          continue;
+        }
+        queue.poll();
+        queuedBytes -= head.data.length;
+        notifyAll();
+        return head;
+      }
+    }
+  }
+
+  private void sleepUntil(long nanos) throws InterruptedException {
+    long sleep;
+    while ((sleep = nanos - clock.nanoTime()) > 0) {
+      clock.sleep(sleep);
+    }
+  }
+
+  private synchronized void written(Chunk chunk) {
+    final long now = clock.nanoTime();
+    final long latency = now - chunk.readNanos;
+    bytes += chunk.data.length;
+    chunks++;
+    lastWriteNanos = now;
+    minLatencyNanos = Math.min(minLatencyNanos, latency);
+    maxLatencyNanos = Math.max(maxLatencyNanos, latency);
+    totalLatencyNanos += latency;
+  }
+
+  synchronized Map<String, Object> getStats() {
+    Map<String, Object> stats = new LinkedHashMap<String, Object>();
+    stats.put("shaping", config.toString());
+    stats.put("bytes", bytes);
+    stats.put("chunks", chunks);
+    stats.put("queuedBytes", queuedBytes);
+    final long elapsed = lastWriteNanos - firstReadNanos;
+    stats.put("bytesPerSecond", chunks > 0 && elapsed > 0 ? bytes * TimeUnit.SECONDS.toNanos(1) / elapsed : 0L);
+    if (chunks > 0) {
+      stats.put("minLatencyMicros", TimeUnit.NANOSECONDS.toMicros(minLatencyNanos));
+      stats.put("avgLatencyMicros", TimeUnit.NANOSECONDS.toMicros(totalLatencyNanos / chunks));
+      stats.put("maxLatencyMicros", TimeUnit.NANOSECONDS.toMicros(maxLatencyNanos));
+    }
+    return stats;
+  }
+
+  private static final class Chunk {
+    private final byte[] data;
+    private final long   readNanos;
+    private final long   dueNanos;
+
+    Chunk(byte[] data, long readNanos, long dueNanos) {
+      this.data = data;
+      this.readNanos = readNanos;
+      this.dueNanos = dueNanos;
+    }
+  }
+}
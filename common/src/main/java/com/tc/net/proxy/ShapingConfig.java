@@ -0,0 +1,148 @@
+/*
+ *
+ *  The contents of this file are subject to the Terracotta Public License Version
+ *  2.0 (the "License"); You may not use this file except in compliance with the
+ *  License. You may obtain a copy of the License at
+ *
+ *  http://terracotta.org/legal/terracotta-public-license.
+ *
+ *  Software distributed under the License is distributed on an "AS IS" basis,
+ *  WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License for
+ *  the specific language governing rights and limitations under the License.
+ *
+ *  The Covered Software is Terracotta Core.
+ *
+ *  The Initial Developer of the Covered Software is
+ *  Terracotta, Inc., a Software AG company
+ *
+ */
+package com.tc.net.proxy;
+
+import java.util.Random;
+
+/**
+ * How {@link TCPProxy} shapes the traffic flowing in one direction of a proxied connection. Data is cut into chunks of
+ * at most {@link #getChunkSize()} bytes, each chunk is held back for the latency plus a jitter sample and then written
+ * out no faster than the bandwidth cap allows. Chunks are never reordered, a chunk whose jitter sample would let it
+ * overtake its predecessor is sent right after it instead.
+ */
+public final class ShapingConfig {
+
+  public enum JitterDistribution {
+    /** no jitter, every chunk sees exactly the configured latency */
+    NONE {
+      @Override
+      double sample(Random random) {
+        return 0;
+      }
+    },
+    /** jitter evenly spread between zero and the configured jitter */
+    UNIFORM {
+      @Override
+      double sample(Random random) {
+        return random.nextDouble();
+      }
+    },
+    /** normally distributed jitter, the configured jitter being the standard deviation around the latency */
+    NORMAL {
+      @Override
+      double sample(Random random) {
+        return random.nextGaussian();
+      }
+    },
+    /** mostly small jitter with a long tail, the configured jitter being the mean */
+    EXPONENTIAL {
+      @Override
+      double sample(Random random) {
+        return -Math.log(1 - random.nextDouble());
+      }
+    };
+
+    /**
+     * @return a sample in units of the configured jitter
+     */
+    abstract double sample(Random random);
+  }
+
+  public static final int          DEFAULT_CHUNK_SIZE = 4096;
+
+  private final long               bandwidthBytesPerSecond;
+  private final long               latencyMillis;
+  private final long               jitterMillis;
+  private final JitterDistribution jitterDistribution;
+  private final int                chunkSize;
+
+  /**
+   * @param bandwidthBytesPerSecond bandwidth cap, 0 for unlimited
+   * @param latencyMillis one way latency added to every chunk
+   * @param jitterMillis scale of the jitter added to the latency, see {@link JitterDistribution}
+   * @param jitterDistribution how the jitter is distributed
+   * @param chunkSize largest number of bytes written to the socket at once
+   */
+  public ShapingConfig(long bandwidthBytesPerSecond, long latencyMillis, long jitterMillis,
+                       JitterDistribution jitterDistribution, int chunkSize) {
+    if (bandwidthBytesPerSecond < 0) { throw new IllegalArgumentException("bandwidth: " + bandwidthBytesPerSecond); }
+    if (latencyMillis < 0) { throw new IllegalArgumentException("latency: " + latencyMillis); }
+    if (jitterMillis < 0) { throw new IllegalArgumentException("jitter: " + jitterMillis); }
+    if (chunkSize <= 0) { throw new IllegalArgumentException("chunk size: " + chunkSize); }
+    this.bandwidthBytesPerSecond = bandwidthBytesPerSecond;
+    this.latencyMillis = latencyMillis;
+    this.jitterMillis = jitterMillis;
+    this.jitterDistribution = jitterDistribution == null ? JitterDistribution.NONE : jitterDistribution;
+    this.chunkSize = chunkSize;
+  }
+
+  public ShapingConfig(long bandwidthBytesPerSecond, long latencyMillis) {
+    this(bandwidthBytesPerSecond, latencyMillis, 0, JitterDistribution.NONE, DEFAULT_CHUNK_SIZE);
+  }
+
+  public long getBandwidthBytesPerSecond() {
+    return bandwidthBytesPerSecond;
+  }
+
+  public long getLatencyMillis() {
+    return latencyMillis;
+  }
+
+  public long getJitterMillis() {
+    return jitterMillis;
+  }
+
+  public JitterDistribution getJitterDistribution() {
+    return jitterDistribution;
+  }
+
+  public int getChunkSize() {
+    return chunkSize;
+  }
+
+  /**
+   * @return the delay in nanoseconds for the next chunk, latency plus a jitter sample but never negative
+   */
+  long sampleDelayNanos(Random random) {
+    double millis = latencyMillis + jitterMillis * jitterDistribution.sample(random);
+    return millis <= 0 ? 0 : (long) (millis * 1000000L);
+  }
+
+  /**
+   * Parses the {@code <bandwidth KB/s>[/<latency ms>[/<jitter ms>[/<distribution>[/<chunk size>]]]]} form used on the
+   * command line, e.g. {@code 1024/20/5/NORMAL}.
+   */
+  public static ShapingConfig parse(String spec) {
+    String[] parts = spec.trim().split("/");
+    long bandwidth = Long.parseLong(parts[0].trim()) * 1024;
+    long latency = parts.length > 1 ? Long.parseLong(parts[1].trim()) : 0;
+    long jitter = parts.length > 2 ? Long.parseLong(parts[2].trim()) : 0;
+    JitterDistribution distribution = parts.length > 3 ? JitterDistribution.valueOf(parts[3].trim().toUpperCase())
+        : (jitter > 0 ? JitterDistribution.UNIFORM : JitterDistribution.NONE);
+    int chunkSize = parts.length > 4 ? Integer.parseInt(parts[4].trim()) : DEFAULT_CHUNK_SIZE;
+    return new ShapingConfig(bandwidth, latency, jitter, distribution, chunkSize);
+  }
+
+  @Override
+  public String toString() {
+    return (bandwidthBytesPerSecond == 0 ? "unlimited" : (bandwidthBytesPerSecond / 1024) + "KB/s") + ", latency "
+           + latencyMillis + "ms, jitter " + jitterMillis + "ms " + jitterDistribution + ", chunks of " + chunkSize
+           + " bytes";
+  }
+}
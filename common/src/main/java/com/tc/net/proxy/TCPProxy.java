@@ -33,14 +33,19 @@ import java.net.InetSocketAddress;
 import java.net.ServerSocket;
 import java.net.Socket;
 import java.net.SocketTimeoutException;
+import java.util.ArrayList;
 import java.util.Date;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * A simple TCP proxy (with round robin load balancing support) to simulate network delays and help debug network
- * streams.
+ * streams. With {@link #setShaping(ShapingConfig, ShapingConfig)} each direction of a connection can be given a
+ * bandwidth cap, latency and jitter to mimic a WAN link.
  */
 public class TCPProxy {
 
@@ -56,6 +61,8 @@ public class TCPProxy {
   private final File                logDir;
   private final boolean             logData;
   private boolean                   reuseAddress       = false;
+  private volatile ShapingConfig    toServerShaping;
+  private volatile ShapingConfig    toClientShaping;
 
   public TCPProxy(int listenPort, InetAddress destHost, int destPort, long delay, boolean logData, File logDir) {
     this(listenPort, new InetSocketAddress[] { new InetSocketAddress(destHost, destPort) }, delay, logData, logDir);
@@ -267,6 +274,34 @@ public class TCPProxy {
     delay = newDelay;
   }
 
+  /**
+   * Shape the traffic of connections accepted from now on, connections already established are not affected. When a
+   * direction is shaped its latency replaces the plain {@link #setDelay(long) delay}.
+   *
+   * @param toServer shaping of the data sent by clients, null to leave it unshaped
+   * @param toClient shaping of the data sent back by the endpoints, null to leave it unshaped
+   */
+  public void setShaping(ShapingConfig toServer, ShapingConfig toClient) {
+    this.toServerShaping = toServer;
+    this.toClientShaping = toClient;
+  }
+
+  /**
+   * @return throughput and latency statistics of the active connections
+   */
+  public List<Map<String, Object>> getConnectionStats() {
+    Connection conns[];
+    synchronized (connections) {
+      conns = connections.toArray(new Connection[] {});
+    }
+
+    List<Map<String, Object>> stats = new ArrayList<Map<String, Object>>(conns.length);
+    for (Connection conn : conns) {
+      stats.add(conn.getStats());
+    }
+    return stats;
+  }
+
   void interrupt() {
     Connection conns[];
     synchronized (connections) {
@@ -339,6 +374,8 @@ public class TCPProxy {
       System.err.println();
       System.err.println("Listening on port : " + listenPort);
       System.err.println("Connection delay  : " + getDelay() + "ms");
+      System.err.println("Shaping to server : " + (toServerShaping == null ? "none" : toServerShaping));
+      System.err.println("Shaping to client : " + (toClientShaping == null ? "none" : toClientShaping));
       System.err.println("Proxying to       : " + StringUtil.toString(endpoints, ", ", "[", "]"));
       System.err.println("Debug Logging     : " + debug);
       System.err.println("Active connections:");
@@ -364,6 +401,9 @@ public class TCPProxy {
       System.err.println("h       - this help message");
       System.err.println("s       - print proxy status");
       System.err.println("d <num> - adjust the delay time to <num> milliseconds");
+      System.err.println("b <to server> <to client> - shape new connections, each direction given as");
+      System.err.println("          <KB/s>[/<latency ms>[/<jitter ms>[/<NONE|UNIFORM|NORMAL|EXPONENTIAL>[/<chunk bytes>]]]]");
+      System.err.println("          or - to leave it unshaped, e.g. \"b 1024/20/5 -\"");
       System.err.println("c       - close all active connections");
       System.err.println("l       - toggle debug logging");
       System.err.println("q       - quit (shutdown proxy)");
@@ -434,6 +474,22 @@ public class TCPProxy {
               continue;
             }
 
+            if (line.toLowerCase().startsWith("b")) {
+              String[] specs = line.substring(1).trim().split("\\s+");
+              if (specs.length != 2) {
+                out("you must supply the shaping of both directions");
+                continue;
+              }
+
+              try {
+                theProxy.setShaping(parseShaping(specs[0]), parseShaping(specs[1]));
+                out("shaping applies to new connections");
+              } catch (Exception e) {
+                out(e);
+              }
+              continue;
+            }
+
             if (line.toLowerCase().startsWith("d")) {
               if (line.length() <= 2) {
                 out("you must supply a delay value");
@@ -460,6 +516,10 @@ public class TCPProxy {
     }
   }
 
+  private static ShapingConfig parseShaping(String spec) {
+    return "-".equals(spec) ? null : ShapingConfig.parse(spec);
+  }
+
   private static class Connection {
     private final Socket       client;
     private final Socket       proxy;
@@ -475,6 +535,8 @@ public class TCPProxy {
     private final OutputStream clientLog;
     private final OutputStream proxyLog;
     private volatile boolean   allowSplit    = false;
+    private final ShapedPipe   toServerPipe;
+    private final ShapedPipe   toClientPipe;
 
     @SuppressWarnings("resource")
     Connection(Socket client, TCPProxy parent, boolean logData, File logDir) throws IOException {
@@ -529,26 +591,50 @@ public class TCPProxy {
       final InputStream proxyIs = proxy.getInputStream();
       final OutputStream proxyOs = proxy.getOutputStream();
 
+      toServerPipe = createPipe(parent.toServerShaping, proxyOs, "Shaping thread for connection " + client
+                                                                 + " to " + proxy);
+      toClientPipe = createPipe(parent.toClientShaping, clientOs, "Shaping thread for connection " + proxy
+                                                                  + " to " + client);
+
       parent.register(this);
 
       clientThread = new Thread(new Runnable() {
         @Override
         public void run() {
-          runHalf(clientIs, proxyOs, true, clientLog, Connection.this.client);
+          runHalf(clientIs, proxyOs, true, clientLog, Connection.this.client, toServerPipe);
         }
       }, "Client thread for connection " + client + " proxy to " + proxy);
 
       proxyThread = new Thread(new Runnable() {
         @Override
         public void run() {
-          runHalf(proxyIs, clientOs, false, proxyLog, proxy);
+          runHalf(proxyIs, clientOs, false, proxyLog, proxy, toClientPipe);
         }
       }, "Proxy thread for connection " + client + " proxy to " + proxy);
 
+      if (toServerPipe != null) {
+        toServerPipe.start();
+      }
+      if (toClientPipe != null) {
+        toClientPipe.start();
+      }
       clientThread.start();
       proxyThread.start();
     }
 
+    private ShapedPipe createPipe(ShapingConfig config, OutputStream dest, String name) {
+      if (config == null) { return null; }
+      return new ShapedPipe(config, dest, new Runnable() {
+        @Override
+        public void run() {
+          // everything read before the end of stream has been passed on
+          if (!allowSplit) {
+            close(true);
+          }
+        }
+      }, name);
+    }
+
     private synchronized void activity() {
       lastActivity = System.currentTimeMillis();
     }
@@ -573,11 +659,33 @@ public class TCPProxy {
       return this.clientBytesIn;
     }
 
+    Map<String, Object> getStats() {
+      final long elapsed = Math.max(1, System.currentTimeMillis() - connectTime);
+      Map<String, Object> stats = new LinkedHashMap<String, Object>();
+      stats.put("client", client.getRemoteSocketAddress());
+      stats.put("endpoint", proxy.getRemoteSocketAddress());
+      stats.put("connectTime", new Date(connectTime));
+      stats.put("idleMillis", System.currentTimeMillis() - getLastActivity());
+      stats.put("bytesFromClient", getClientBytesIn());
+      stats.put("bytesFromEndpoint", getProxyBytesIn());
+      stats.put("clientBytesPerSecond", getClientBytesIn() * 1000 / elapsed);
+      stats.put("endpointBytesPerSecond", getProxyBytesIn() * 1000 / elapsed);
+      if (toServerPipe != null) {
+        stats.put("toServer", toServerPipe.getStats());
+      }
+      if (toClientPipe != null) {
+        stats.put("toClient", toClientPipe.getStats());
+      }
+      return stats;
+    }
+
     @Override
     public String toString() {
       return "Client: " + client + ", proxy to: " + proxy + ", connect: " + new Date(connectTime) + ", idle: "
              + (System.currentTimeMillis() - getLastActivity()) + ", bytes from client: " + getClientBytesIn()
-             + ", bytes from endpoint: " + getProxyBytesIn();
+             + ", bytes from endpoint: " + getProxyBytesIn()
+             + (toServerPipe != null ? ", to server: " + toServerPipe.getStats() : "")
+             + (toClientPipe != null ? ", to client: " + toClientPipe.getStats() : "");
     }
 
     private void delay() {
@@ -592,7 +700,8 @@ public class TCPProxy {
       }
     }
 
-    private void runHalf(InputStream src, OutputStream dest, boolean isClientHalf, OutputStream log, Socket s) {
+    private void runHalf(InputStream src, OutputStream dest, boolean isClientHalf, OutputStream log, Socket s,
+                         ShapedPipe pipe) {
       byte buffer[] = new byte[4096];
 
       while (!stopConn) {
@@ -621,6 +730,11 @@ public class TCPProxy {
         }
 
         if (bytesRead < 0) {
+          if (pipe != null) {
+            // the pipe closes the connection once it has written what it still holds
+            pipe.finish();
+            return;
+          }
           // delay();
           if (!allowSplit) {
             close(true);
@@ -628,7 +742,15 @@ public class TCPProxy {
           return;
         }
 
-        if (bytesRead > 0) {
+        if (bytesRead > 0 && pipe != null) {
+          activity();
+          try {
+            pipe.send(buffer, 0, bytesRead);
+          } catch (InterruptedException e) {
+            // closing
+            return;
+          }
+        } else if (bytesRead > 0) {
           activity();
           delay();
 
@@ -707,6 +829,12 @@ public class TCPProxy {
       }
 
       try {
+        if (toServerPipe != null) {
+          toServerPipe.stop();
+        }
+        if (toClientPipe != null) {
+          toClientPipe.stop();
+        }
         closeClientHalf(waitDeadThread, false);
         closeProxyHalf(waitDeadThread, false);
       } finally {
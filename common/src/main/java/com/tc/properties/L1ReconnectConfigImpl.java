@@ -29,7 +29,10 @@ public class L1ReconnectConfigImpl extends AbstractReconnectConfig {
         .getProperties().getInt(TCPropertiesConsts.L2_L1RECONNECT_TIMEOUT_MILLS), TCPropertiesImpl.getProperties()
         .getInt(TCPropertiesConsts.L2_L1RECONNECT_SENDQUEUE_CAP), TCPropertiesImpl.getProperties()
         .getInt(TCPropertiesConsts.L2_L1RECONNECT_MAX_DELAYEDACKS), TCPropertiesImpl.getProperties()
-        .getInt(TCPropertiesConsts.L2_L1RECONNECT_SEND_WINDOW), NAME);
+        .getInt(TCPropertiesConsts.L2_L1RECONNECT_SEND_WINDOW), TCPropertiesImpl.getProperties()
+        .getInt(TCPropertiesConsts.L2_L1RECONNECT_SEND_WINDOW_MIN, 0), TCPropertiesImpl.getProperties()
+        .getInt(TCPropertiesConsts.L2_L1RECONNECT_SEND_WINDOW_MAX, 0), TCPropertiesImpl.getProperties()
+        .getInt(TCPropertiesConsts.L2_L1RECONNECT_MAX_ACK_DELAY, 0), NAME);
   }
 
   public L1ReconnectConfigImpl(boolean l1ReconnectEnabled, int l1ReconnectTimeout, int l1ReconnectSendQueueCap,
@@ -38,4 +41,11 @@ public class L1ReconnectConfigImpl extends AbstractReconnectConfig {
           l1ReconnectSendWindow, NAME);
   }
 
+  public L1ReconnectConfigImpl(boolean l1ReconnectEnabled, int l1ReconnectTimeout, int l1ReconnectSendQueueCap,
+                               int l1ReconnectMaxDelayedAcks, int l1ReconnectSendWindow, int l1ReconnectMinSendWindow,
+                               int l1ReconnectMaxSendWindow) {
+    super(l1ReconnectEnabled, l1ReconnectTimeout, l1ReconnectSendQueueCap, l1ReconnectMaxDelayedAcks,
+          l1ReconnectSendWindow, l1ReconnectMinSendWindow, l1ReconnectMaxSendWindow, 0, NAME);
+  }
+
 }
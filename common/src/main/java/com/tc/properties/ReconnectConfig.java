@@ -29,5 +29,23 @@ public interface ReconnectConfig {
   int getMaxDelayAcks();
   
   int getSendWindow();
-  
+
+  /**
+   * Lower bound of the adaptive send window, it is never below {@link #getMaxDelayAcks()} + 1 whatever this says.
+   */
+  int getMinSendWindow();
+
+  /**
+   * Upper bound of the adaptive send window. The send window only adapts if this is above {@link #getSendWindow()},
+   * which is then the initial window.
+   */
+  int getMaxSendWindow();
+
+  /**
+   * How long the receiver may hold back a standalone ack, waiting for a message flowing the other way to carry it. 0
+   * to ack as soon as {@link #getMaxDelayAcks()} messages are unacked. Capped at 1ms, a longer delay would read as
+   * queueing to the peer's adaptive send window.
+   */
+  int getMaxAckDelayMillis();
+
 }
@@ -45,8 +45,15 @@ public interface TCPropertiesConsts {
    *                                      seda stage
    * stage.sink.capacity                : Capacity of seda stage queue, Integer.MAX_VALUE if not set
    *                                      (experimental, do not change)
+   * seda.<stage>.queue                 : Queue used by the workers of the named stage, linked (default) or ring.
+   *                                      Unbounded stages only use a ring if seda.<stage>.queue.capacity is set
+   * seda.<stage>.queue.wait            : How threads wait on a ring queue, spin (default), park or yield
+   * seda.<stage>.queue.capacity        : Capacity of a ring queue, the capacity of the stage if not set
    * </code>
    ********************************************************************************************************************/
+  public static final String SEDA_STAGE_QUEUE_TYPE                                          = "seda.%s.queue";
+  public static final String SEDA_STAGE_QUEUE_WAIT                                          = "seda.%s.queue.wait";
+  public static final String SEDA_STAGE_QUEUE_CAPACITY                                      = "seda.%s.queue.capacity";
   public static final String ENTITY_PROCESSOR_THREADS                                    = "server.entity.processor.threads";
   public static final String MIN_ENTITY_PROCESSOR_THREADS                                    = "server.entity.processor.minthreads";
   public static final String L2_SEDA_STAGE_SINK_CAPACITY                                    = "l2.seda.stage.sink.capacity";
@@ -76,6 +83,11 @@ public interface TCPropertiesConsts {
    * tcgroupcomm.reconnect.sendqueue.cap  - Sendqueue capacity, 0 for Integer.MAX_VALUE
    * tcgroupcomm.reconnect.maxDelayedAcks - At least one ack per maxDelayedAcks messages received
    * tcgroupcomm.reconnect.sendWindow     - Max outstanding messages before ack received
+   * tcgroupcomm.reconnect.sendWindow.min - Lower bound of the adaptive send window
+   * tcgroupcomm.reconnect.sendWindow.max - Upper bound of the adaptive send window, the window only adapts to ack
+   *                                        round trips if this is above sendWindow
+   * tcgroupcomm.reconnect.maxAckDelay.millis - How long an ack may wait for a message going the other way to carry it,
+   *                                        at most 1
    * tcgroupcomm.reconnect.enabled        - Enable L2-L2 reconnect
    * send.timeout.millis                  - Number of milliseconds to retry sending a message
    * dirtydb.backup.enabled               - Creates BackUp of DirtyDB only If it is set to true.
@@ -87,6 +99,9 @@ public interface TCPropertiesConsts {
   public static final String L2_NHA_TCGROUPCOMM_RECONNECT_SENDQUEUE_CAP                     = "l2.nha.tcgroupcomm.reconnect.sendqueue.cap";
   public static final String L2_NHA_TCGROUPCOMM_RECONNECT_MAX_DELAYEDACKS                   = "l2.nha.tcgroupcomm.reconnect.maxDelayedAcks";
   public static final String L2_NHA_TCGROUPCOMM_RECONNECT_SEND_WINDOW                       = "l2.nha.tcgroupcomm.reconnect.sendWindow";
+  public static final String L2_NHA_TCGROUPCOMM_RECONNECT_SEND_WINDOW_MIN                   = "l2.nha.tcgroupcomm.reconnect.sendWindow.min";
+  public static final String L2_NHA_TCGROUPCOMM_RECONNECT_SEND_WINDOW_MAX                   = "l2.nha.tcgroupcomm.reconnect.sendWindow.max";
+  public static final String L2_NHA_TCGROUPCOMM_RECONNECT_MAX_ACK_DELAY                     = "l2.nha.tcgroupcomm.reconnect.maxAckDelay.millis";
   public static final String L2_NHA_TCGROUPCOMM_DISCOVERY_INTERVAL                          = "l2.nha.tcgroupcomm.discovery.interval";
   // a hidden tc.properties only used for l2 proxy testing purpose
   public static final String L2_NHA_TCGROUPCOMM_RECONNECT_L2PROXY_TO_PORT                   = "l2.nha.tcgroupcomm.l2proxytoport";
@@ -157,6 +172,10 @@ public interface TCPropertiesConsts {
    *                  reconnect to L2 that has not crashed
    * maxDelayedAcks - Max number of messages received for which ack may not be sent
    * sendWindow     - Max number of messages that can be sent without getting an ack back
+   * sendWindow.min - Lower bound of the adaptive send window
+   * sendWindow.max - Upper bound of the adaptive send window, the window only adapts to ack round trips if this is
+   *                  above sendWindow
+   * maxAckDelay.millis - How long an ack may wait for a message going the other way to carry it, at most 1
    * rejoin.sleep.millis - Number of milliseconds to sleep before retry rejoin, if rejoin attempt was unsuccessful for some reason
    * </code>
    ********************************************************************************************************************/
@@ -165,6 +184,9 @@ public interface TCPropertiesConsts {
   public static final String L2_L1RECONNECT_SENDQUEUE_CAP                                   = "l2.l1reconnect.sendqueue.cap";
   public static final String L2_L1RECONNECT_MAX_DELAYEDACKS                                 = "l2.l1reconnect.maxDelayedAcks";
   public static final String L2_L1RECONNECT_SEND_WINDOW                                     = "l2.l1reconnect.sendWindow";
+  public static final String L2_L1RECONNECT_SEND_WINDOW_MIN                                 = "l2.l1reconnect.sendWindow.min";
+  public static final String L2_L1RECONNECT_SEND_WINDOW_MAX                                 = "l2.l1reconnect.sendWindow.max";
+  public static final String L2_L1RECONNECT_MAX_ACK_DELAY                                   = "l2.l1reconnect.maxAckDelay.millis";
 
   /*********************************************************************************************************************
    * <code>
@@ -183,16 +205,48 @@ public interface TCPropertiesConsts {
    * Description : Stage monitoring can be enabled or disabled for debugging.
    * stage.monitor.enabled                : <true/false>    - Enable or Disable Monitoring
    * stage.monitor.delay                  : long            - frequency in milliseconds
+   * stage.latency.windowMillis           : long            - how long each stage queue wait and service time
+   *                                                          histogram window lasts before it starts over
    * bytebuffer.pooling.enabled           : Enable/disable tc byte buffer pooling
    * bytebuffer.common.pool.maxcount      : Max size of pool for tc byte buffer
    * bytebuffer.threadlocal.pool.maxcount : Thread pool size
+   * messages.grouping.coalesceMicros     : With grouping enabled, how long a busy connection may hold back a partially
+   *                                        filled message group, 0 to always write what is queued right away
+   * messages.gatheringWrite.enabled      : Write message buffers straight to the socket instead of copying them into
+   *                                        the connection send buffer first
+   * messages.scatteringRead.enabled      : Read the body of large messages straight into the message buffers instead of
+   *                                        copying it out of the connection receive buffer
+   * messages.outgoingQueue.maxMessages   : Max messages queued for writing per connection, 0 for unbounded
+   * messages.outgoingQueue.maxKiloBytes  : Max kilobytes queued for writing per connection, 0 for unbounded
+   * messages.outgoingQueue.policy        : What to do when the outgoing queue is full: BLOCK the producer, THROTTLE
+   *                                        reads from the peer until the queue drains or DISCONNECT the peer
+   * comm.rebalance.intervalMillis        : How often to compare the load of worker comm threads and move a busy
+   *                                        connection off a hot worker, 0 to keep connections where they were accepted
+   * comm.rebalance.hotPercent            : Percentage of an interval a worker must be busy to count as hot
+   * comm.rebalance.idlePercent           : Percentage of an interval a worker may be busy and still take connections
+   * comm.singleSelectorThread            : Comma separated names of the communications managers (L1_L2, L2_L1, L2_L2)
+   *                                        that handle reads and writes on one selector thread instead of two and
+   *                                        write to an idle socket directly from the sending thread
    * </code>
    ********************************************************************************************************************/
   public static final String TC_STAGE_MONITOR_ENABLED                                       = "tc.stage.monitor.enabled";
   public static final String TC_STAGE_MONITOR_DELAY                                         = "tc.stage.monitor.delay";
+  public static final String TC_STAGE_LATENCY_WINDOW_MILLIS                                 = "tc.stage.latency.windowMillis";
   public static final String TC_MESSAGE_GROUPING_ENABLED                                    = "tc.messages.grouping.enabled";
   public static final String TC_MESSAGE_GROUPING_MAXSIZE_KB                                 = "tc.messages.grouping.maxSizeKiloBytes";
+  public static final String TC_MESSAGE_GROUPING_COALESCE_MICROS                            = "tc.messages.grouping.coalesceMicros";
   public static final String TC_MESSAGE_PACKUP_ENABLED                                      = "tc.messages.packup.enabled";
+  public static final String TC_MESSAGE_GATHERING_WRITE_ENABLED                             = "tc.messages.gatheringWrite.enabled";
+  public static final String TC_MESSAGE_SCATTERING_READ_ENABLED                             = "tc.messages.scatteringRead.enabled";
+  public static final String TC_MESSAGE_OUTGOING_QUEUE_MAX_MESSAGES                         = "tc.messages.outgoingQueue.maxMessages";
+  public static final String TC_MESSAGE_OUTGOING_QUEUE_MAX_KB                               = "tc.messages.outgoingQueue.maxKiloBytes";
+  public static final String TC_MESSAGE_OUTGOING_QUEUE_POLICY                               = "tc.messages.outgoingQueue.policy";
+  public static final String TC_MESSAGE_COMPRESSION_ENABLED                                 = "tc.messages.compression.enabled";
+  public static final String TC_MESSAGE_COMPRESSION_MIN_SIZE_KB                             = "tc.messages.compression.minSizeKiloBytes";
+  public static final String TC_COMM_REBALANCE_INTERVAL_MILLIS                              = "tc.comm.rebalance.intervalMillis";
+  public static final String TC_COMM_REBALANCE_HOT_PERCENT                                  = "tc.comm.rebalance.hotPercent";
+  public static final String TC_COMM_REBALANCE_IDLE_PERCENT                                 = "tc.comm.rebalance.idlePercent";
+  public static final String TC_COMM_SINGLE_SELECTOR_THREAD                                 = "tc.comm.singleSelectorThread";
 
   /*********************************************************************************************************************
    * <code>
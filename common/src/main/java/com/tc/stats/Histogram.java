@@ -0,0 +1,172 @@
+/*
+ *
+ *  The contents of this file are subject to the Terracotta Public License Version
+ *  2.0 (the "License"); You may not use this file except in compliance with the
+ *  License. You may obtain a copy of the License at
+ *
+ *  http://terracotta.org/legal/terracotta-public-license.
+ *
+ *  Software distributed under the License is distributed on an "AS IS" basis,
+ *  WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License for
+ *  the specific language governing rights and limitations under the License.
+ *
+ *  The Covered Software is Terracotta Core.
+ *
+ *  The Initial Developer of the Covered Software is
+ *  Terracotta, Inc., a Software AG company
+ *
+ */
+package com.tc.stats;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A lock free histogram of non negative values. Values are counted in logarithmic buckets, by default four per power
+ * of two, so percentiles are reported with at most 25% error while recording costs a couple of atomic increments and
+ * no allocation. Negative values are counted as zero.
+ */
+public final class Histogram {
+
+  private static final int      SUB_BUCKET_BITS = 2;
+  private static final int      MAX_SUB_BUCKET_BITS = 8;
+
+  private final int             subBucketBits;
+  private final int             buckets;
+  private final AtomicLongArray counts;
+  private final AtomicLong      count           = new AtomicLong();
+  private final AtomicLong      sum             = new AtomicLong();
+  private final AtomicLong      max             = new AtomicLong();
+
+  public Histogram() {
+    this(SUB_BUCKET_BITS);
+  }
+
+  /**
+   * @param subBucketBits each power of two is split into {@code 2^subBucketBits} buckets, bounding the error of a
+   *        reported percentile to {@code 1/2^subBucketBits} at the cost of that many more counters
+   */
+  public Histogram(int subBucketBits) {
+    if (subBucketBits < 0 || subBucketBits > MAX_SUB_BUCKET_BITS) { throw new IllegalArgumentException("subBucketBits: " + subBucketBits); }
+    this.subBucketBits = subBucketBits;
+    this.buckets = (64 - subBucketBits) * (1 << subBucketBits);
+    this.counts = new AtomicLongArray(buckets);
+  }
+
+  public void record(long value) {
+    if (value < 0) {
+      value = 0;
+    }
+    counts.incrementAndGet(bucketOf(value, subBucketBits));
+    count.incrementAndGet();
+    sum.addAndGet(value);
+    long current;
+    while (value > (current = max.get()) && !max.compareAndSet(current, value)) {
+      // retry
+    }
+  }
+
+  public long getCount() {
+    return count.get();
+  }
+
+  public long getSum() {
+    return sum.get();
+  }
+
+  public long getMax() {
+    return max.get();
+  }
+
+  public long getMean() {
+    final long n = count.get();
+    return n == 0 ? 0 : sum.get() / n;
+  }
+
+  /**
+   * @param percentile between 0 and 100
+   * @return an upper bound of the value below which {@code percentile} percent of the recorded values fall, never
+   *         more than the largest recorded value
+   */
+  public long getPercentile(double percentile) {
+    if (percentile < 0 || percentile > 100) { throw new IllegalArgumentException("percentile: " + percentile); }
+    long total = 0;
+    final long[] snapshot = new long[buckets];
+    for (int i = 0; i < buckets; i++) {
+      snapshot[i] = counts.get(i);
+      total += snapshot[i];
+    }
+    if (total == 0) { return 0; }
+
+    final long rank = Math.max(1, (long) Math.ceil(total * percentile / 100));
+    long seen = 0;
+    for (int i = 0; i < buckets; i++) {
+      seen += snapshot[i];
+      if (seen >= rank) { return Math.min(upperBoundOf(i, subBucketBits), max.get()); }
+    }
+    return max.get();
+  }
+
+  /**
+   * Adds everything recorded in this histogram to {@code other}, which must have the same precision.
+   */
+  public void addTo(Histogram other) {
+    if (other.subBucketBits != subBucketBits) { throw new IllegalArgumentException("precision mismatch"); }
+    for (int i = 0; i < buckets; i++) {
+      final long n = counts.get(i);
+      if (n > 0) {
+        other.counts.addAndGet(i, n);
+      }
+    }
+    other.count.addAndGet(count.get());
+    other.sum.addAndGet(sum.get());
+    long current;
+    final long value = max.get();
+    while (value > (current = other.max.get()) && !other.max.compareAndSet(current, value)) {
+      // retry
+    }
+  }
+
+  public Map<String, Object> getStateMap() {
+    Map<String, Object> state = new LinkedHashMap<>();
+    state.put("count", getCount());
+    state.put("mean", getMean());
+    state.put("p50", getPercentile(50));
+    state.put("p90", getPercentile(90));
+    state.put("p99", getPercentile(99));
+    state.put("p999", getPercentile(99.9));
+    state.put("max", getMax());
+    return state;
+  }
+
+  @Override
+  public String toString() {
+    return "Histogram" + getStateMap();
+  }
+
+  static int bucketOf(long value) {
+    return bucketOf(value, SUB_BUCKET_BITS);
+  }
+
+  static long upperBoundOf(int bucket) {
+    return upperBoundOf(bucket, SUB_BUCKET_BITS);
+  }
+
+  static int bucketOf(long value, int subBucketBits) {
+    final int subBuckets = 1 << subBucketBits;
+    if (value < subBuckets) { return (int) value; }
+    final int msb = 63 - Long.numberOfLeadingZeros(value);
+    final int sub = (int) (value >>> (msb - subBucketBits)) & (subBuckets - 1);
+    return (msb - subBucketBits + 1) * subBuckets + sub;
+  }
+
+  static long upperBoundOf(int bucket, int subBucketBits) {
+    final int subBuckets = 1 << subBucketBits;
+    if (bucket < subBuckets) { return bucket; }
+    final int shift = bucket / subBuckets - 1;
+    final long lower = (long) (subBuckets + bucket % subBuckets) << shift;
+    return lower + (1L << shift) - 1;
+  }
+}
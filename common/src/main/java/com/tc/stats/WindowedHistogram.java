@@ -0,0 +1,95 @@
+/*
+ *
+ *  The contents of this file are subject to the Terracotta Public License Version
+ *  2.0 (the "License"); You may not use this file except in compliance with the
+ *  License. You may obtain a copy of the License at
+ *
+ *  http://terracotta.org/legal/terracotta-public-license.
+ *
+ *  Software distributed under the License is distributed on an "AS IS" basis,
+ *  WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License for
+ *  the specific language governing rights and limitations under the License.
+ *
+ *  The Covered Software is Terracotta Core.
+ *
+ *  The Initial Developer of the Covered Software is
+ *  Terracotta, Inc., a Software AG company
+ *
+ */
+package com.tc.stats;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A {@link Histogram} that starts over every window so its percentiles describe recent values rather than everything
+ * since startup.  The last complete window is kept alongside the one being filled, so memory stays at two histograms
+ * however long it runs.
+ */
+public final class WindowedHistogram {
+
+  private final int         subBucketBits;
+  private final long        windowNanos;
+  private final AtomicLong  windowStart;
+  private volatile Histogram current;
+  private volatile Histogram last;
+
+  public WindowedHistogram(int subBucketBits, long windowMillis) {
+    if (windowMillis <= 0) { throw new IllegalArgumentException("windowMillis: " + windowMillis); }
+    this.subBucketBits = subBucketBits;
+    this.windowNanos = windowMillis * 1000000L;
+    this.current = new Histogram(subBucketBits);
+    this.last = new Histogram(subBucketBits);
+    this.windowStart = new AtomicLong(System.nanoTime());
+  }
+
+  public void record(long value) {
+    roll(System.nanoTime());
+    current.record(value);
+  }
+
+  /**
+   * Drops everything recorded so far and starts a new window.
+   */
+  public void reset() {
+    windowStart.set(System.nanoTime());
+    last = new Histogram(subBucketBits);
+    current = new Histogram(subBucketBits);
+  }
+
+  /**
+   * @return the last complete window, or an empty histogram if none has completed since the last reset
+   */
+  public Histogram getLastWindow() {
+    roll(System.nanoTime());
+    return last;
+  }
+
+  public Histogram getCurrentWindow() {
+    roll(System.nanoTime());
+    return current;
+  }
+
+  private void roll(long now) {
+    long start = windowStart.get();
+    if (now - start >= windowNanos && windowStart.compareAndSet(start, now)) {
+      // a window with nothing recorded in it still ends the one before
+      last = (now - start >= 2 * windowNanos) ? new Histogram(subBucketBits) : current;
+      current = new Histogram(subBucketBits);
+    }
+  }
+
+  public Map<String, Object> getStateMap() {
+    Map<String, Object> state = new LinkedHashMap<>();
+    state.put("window", windowNanos / 1000000L);
+    state.put("last", getLastWindow().getStateMap());
+    state.put("current", getCurrentWindow().getStateMap());
+    return state;
+  }
+
+  @Override
+  public String toString() {
+    return "WindowedHistogram" + getStateMap();
+  }
+}
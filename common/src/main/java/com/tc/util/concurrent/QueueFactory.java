@@ -20,10 +20,19 @@ package com.tc.util.concurrent;
 
 import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.LinkedBlockingQueue;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
 import com.tc.async.impl.Event;
+import com.tc.properties.TCProperties;
+import com.tc.properties.TCPropertiesConsts;
+import com.tc.properties.TCPropertiesImpl;
 
 public class QueueFactory {
 
+  private static final Logger LOGGER = LoggerFactory.getLogger(QueueFactory.class);
+
   public <E> BlockingQueue<Event> createInstance(Class<E> type) {
     return new LinkedBlockingQueue<>();
   }
@@ -31,4 +40,47 @@ public class QueueFactory {
   public <E> BlockingQueue<Event> createInstance(Class<E> type, int capacity) {
     return new LinkedBlockingQueue<>(capacity);
   }
+
+  /**
+   * Creates the queue for one of the given stage's workers.  The queue type is taken from
+   * {@code seda.<stage>.queue} ({@code linked}, the default, or {@code ring}).  Ring queues also read
+   * {@code seda.<stage>.queue.wait} ({@code park}, {@code spin} or {@code yield}) and
+   * {@code seda.<stage>.queue.capacity}, the capacity of the ring whatever the capacity of the stage.  Without it a
+   * ring takes the capacity of the stage, an unbounded stage then keeps its linked queue since a ring would have to
+   * impose a bound on it.
+   * <p>
+   * Final so the stage configuration is honoured whatever queues a subclass creates for the linked case.
+   */
+  public final <E> BlockingQueue<Event> createInstance(String stage, Class<E> type, int capacity) {
+    TCProperties props = TCPropertiesImpl.getProperties();
+    String kind = props.getProperty(String.format(TCPropertiesConsts.SEDA_STAGE_QUEUE_TYPE, stage), true);
+    if (kind == null || kind.trim().equalsIgnoreCase("linked")) {
+      return createInstance(type, capacity);
+    } else if (kind.trim().equalsIgnoreCase("ring")) {
+      int ringCapacity = props.getInt(String.format(TCPropertiesConsts.SEDA_STAGE_QUEUE_CAPACITY, stage), 0);
+      if (ringCapacity > 0) {
+        capacity = ringCapacity;
+      } else if (capacity == Integer.MAX_VALUE) {
+        LOGGER.warn("ring queue ignored for unbounded stage " + stage + ", set "
+                    + String.format(TCPropertiesConsts.SEDA_STAGE_QUEUE_CAPACITY, stage) + " to bound it");
+        return createInstance(type, capacity);
+      }
+      String wait = props.getProperty(String.format(TCPropertiesConsts.SEDA_STAGE_QUEUE_WAIT, stage), true);
+      return new RingBufferBlockingQueue<>(capacity, waitStrategy(wait));
+    } else {
+      throw new IllegalArgumentException("unknown queue type for stage " + stage + ": " + kind);
+    }
+  }
+
+  private static RingBufferBlockingQueue.WaitStrategy waitStrategy(String name) {
+    if (name == null || name.trim().equalsIgnoreCase("spin")) {
+      return RingBufferBlockingQueue.WaitStrategy.SPIN_THEN_PARK;
+    } else if (name.trim().equalsIgnoreCase("park")) {
+      return RingBufferBlockingQueue.WaitStrategy.PARK;
+    } else if (name.trim().equalsIgnoreCase("yield")) {
+      return RingBufferBlockingQueue.WaitStrategy.YIELD;
+    } else {
+      throw new IllegalArgumentException("unknown queue wait strategy: " + name);
+    }
+  }
 }
@@ -0,0 +1,347 @@
+/*
+ *
+ *  The contents of this file are subject to the Terracotta Public License Version
+ *  2.0 (the "License"); You may not use this file except in compliance with the
+ *  License. You may obtain a copy of the License at
+ *
+ *  http://terracotta.org/legal/terracotta-public-license.
+ *
+ *  Software distributed under the License is distributed on an "AS IS" basis,
+ *  WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License for
+ *  the specific language governing rights and limitations under the License.
+ *
+ *  The Covered Software is Terracotta Core.
+ *
+ *  The Initial Developer of the Covered Software is
+ *  Terracotta, Inc., a Software AG company
+ *
+ */
+package com.tc.util.concurrent;
+
+import java.util.AbstractQueue;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A bounded, array backed {@link BlockingQueue} whose {@code offer} and {@code poll} never take a lock.
+ * <p>
+ * Each slot carries a sequence number that tells producers and consumers whether it is free to write or ready to
+ * read, so many producers can publish into the ring at once and a consumer only pays for an uncontended
+ * compare-and-set. Stage queues are drained by a single worker thread but may be cleared from another, so consumers
+ * are claimed with a compare-and-set as well rather than assuming there is only ever one.
+ * <p>
+ * Threads only block when the ring is empty (consumers) or full (producers). How they wait is chosen by
+ * {@link WaitStrategy}; a sleeping thread is only signalled when one is known to be waiting so the common path never
+ * touches the lock.
+ * <p>
+ * The iterator is weakly consistent: it works on a snapshot of the elements present when it was created and does not
+ * support removal.
+ */
+public class RingBufferBlockingQueue<E> extends AbstractQueue<E> implements BlockingQueue<E> {
+
+  public enum WaitStrategy {
+    /** park immediately */
+    PARK,
+    /** busy spin briefly, then park */
+    SPIN_THEN_PARK,
+    /** yield the processor between attempts, then park */
+    YIELD
+  }
+
+  private static final int SPINS = 128;
+
+  private final int                          mask;
+  private final AtomicReferenceArray<E>      buffer;
+  private final AtomicLongArray              sequences;
+  private final AtomicLong                   head             = new AtomicLong();
+  private final AtomicLong                   tail             = new AtomicLong();
+  private final WaitStrategy                 waitStrategy;
+
+  private final ReentrantLock                lock             = new ReentrantLock();
+  private final Condition                    notEmpty         = lock.newCondition();
+  private final Condition                    notFull          = lock.newCondition();
+  private final AtomicInteger                waitingConsumers = new AtomicInteger();
+  private final AtomicInteger                waitingProducers = new AtomicInteger();
+
+  public RingBufferBlockingQueue(int capacity) {
+    this(capacity, WaitStrategy.SPIN_THEN_PARK);
+  }
+
+  /**
+   * @param capacity rounded up to the next power of two
+   */
+  public RingBufferBlockingQueue(int capacity, WaitStrategy waitStrategy) {
+    if (capacity <= 0 || capacity > (1 << 30)) {
+      throw new IllegalArgumentException("capacity: " + capacity);
+    }
+    if (waitStrategy == null) {
+      throw new NullPointerException();
+    }
+    int size = Integer.highestOneBit(capacity);
+    if (size < capacity) {
+      size <<= 1;
+    }
+    this.mask = size - 1;
+    this.buffer = new AtomicReferenceArray<>(size);
+    this.sequences = new AtomicLongArray(size);
+    for (int i = 0; i < size; i++) {
+      this.sequences.set(i, i);
+    }
+    this.waitStrategy = waitStrategy;
+  }
+
+  public int capacity() {
+    return mask + 1;
+  }
+
+  @Override
+  public boolean offer(E e) {
+    if (e == null) {
+      throw new NullPointerException();
+    }
+    while (true) {
+      long pos = tail.get();
+      int index = (int) pos & mask;
+      long diff = sequences.get(index) - pos;
+      if (diff == 0) {
+        if (tail.compareAndSet(pos, pos + 1)) {
+          buffer.lazySet(index, e);
+          // a full fence, so the waiter check below cannot be ordered ahead of the publish
+          sequences.set(index, pos + 1);
+          if (waitingConsumers.get() > 0) {
+            signal(notEmpty);
+          }
+          return true;
+        }
+      } else if (diff < 0) {
+        return false;
+      }
+    }
+  }
+
+  @Override
+  public E poll() {
+    while (true) {
+      long pos = head.get();
+      int index = (int) pos & mask;
+      long diff = sequences.get(index) - (pos + 1);
+      if (diff == 0) {
+        if (head.compareAndSet(pos, pos + 1)) {
+          E e = buffer.get(index);
+          buffer.lazySet(index, null);
+          sequences.set(index, pos + mask + 1);
+          if (waitingProducers.get() > 0) {
+            signal(notFull);
+          }
+          return e;
+        }
+      } else if (diff < 0) {
+        return null;
+      }
+    }
+  }
+
+  @Override
+  public E peek() {
+    while (true) {
+      long pos = head.get();
+      int index = (int) pos & mask;
+      if (sequences.get(index) - (pos + 1) < 0) {
+        return null;
+      }
+      E e = buffer.get(index);
+      if (e != null && head.get() == pos) {
+        return e;
+      }
+    }
+  }
+
+  @Override
+  public void put(E e) throws InterruptedException {
+    offer(e, Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+  }
+
+  @Override
+  public boolean offer(E e, long timeout, TimeUnit unit) throws InterruptedException {
+    if (offer(e)) {
+      return true;
+    }
+    long deadline = deadline(timeout, unit);
+    for (int i = 0; timeout > 0 && i < SPINS && waitStrategy != WaitStrategy.PARK; i++) {
+      pause();
+      if (offer(e)) {
+        return true;
+      }
+    }
+    waitingProducers.incrementAndGet();
+    try {
+      while (true) {
+        lock.lockInterruptibly();
+        try {
+          if (offer(e)) {
+            return true;
+          }
+          if (!await(notFull, deadline)) {
+            return false;
+          }
+        } finally {
+          lock.unlock();
+        }
+      }
+    } finally {
+      waitingProducers.decrementAndGet();
+    }
+  }
+
+  @Override
+  public E take() throws InterruptedException {
+    return poll(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+  }
+
+  @Override
+  public E poll(long timeout, TimeUnit unit) throws InterruptedException {
+    E e = poll();
+    if (e != null) {
+      return e;
+    }
+    long deadline = deadline(timeout, unit);
+    for (int i = 0; timeout > 0 && i < SPINS && waitStrategy != WaitStrategy.PARK; i++) {
+      pause();
+      e = poll();
+      if (e != null) {
+        return e;
+      }
+    }
+    waitingConsumers.incrementAndGet();
+    try {
+      while (true) {
+        lock.lockInterruptibly();
+        try {
+          e = poll();
+          if (e != null) {
+            return e;
+          }
+          if (!await(notEmpty, deadline)) {
+            return null;
+          }
+        } finally {
+          lock.unlock();
+        }
+      }
+    } finally {
+      waitingConsumers.decrementAndGet();
+    }
+  }
+
+  @Override
+  public int size() {
+    while (true) {
+      long before = head.get();
+      long t = tail.get();
+      if (head.get() == before) {
+        return (int) Math.max(0, Math.min(t - before, capacity()));
+      }
+    }
+  }
+
+  @Override
+  public boolean isEmpty() {
+    return size() == 0;
+  }
+
+  @Override
+  public int remainingCapacity() {
+    return capacity() - size();
+  }
+
+  @Override
+  public int drainTo(Collection<? super E> c) {
+    return drainTo(c, Integer.MAX_VALUE);
+  }
+
+  @Override
+  public int drainTo(Collection<? super E> c, int maxElements) {
+    if (c == this) {
+      throw new IllegalArgumentException();
+    }
+    int count = 0;
+    E e;
+    while (count < maxElements && (e = poll()) != null) {
+      c.add(e);
+      count++;
+    }
+    return count;
+  }
+
+  /**
+   * Slots are recycled as soon as they are consumed, so this iterates over a snapshot of the elements that were
+   * present when it was called. Elements consumed while the snapshot is taken are skipped.
+   */
+  @Override
+  public Iterator<E> iterator() {
+    List<E> snapshot = new ArrayList<>();
+    long pos = head.get();
+    long end = Math.min(tail.get(), pos + capacity());
+    for (; pos < end; pos++) {
+      int index = (int) pos & mask;
+      // the slot holds the element for pos only while its sequence says so, check on both sides of the read
+      if (sequences.get(index) == pos + 1) {
+        E e = buffer.get(index);
+        if (e != null && sequences.get(index) == pos + 1) {
+          snapshot.add(e);
+        }
+      }
+    }
+    return Collections.unmodifiableList(snapshot).iterator();
+  }
+
+  @Override
+  public String toString() {
+    return "RingBufferBlockingQueue{size=" + size() + ", capacity=" + capacity() + ", wait=" + waitStrategy + "}";
+  }
+
+  private void pause() {
+    if (waitStrategy == WaitStrategy.YIELD) {
+      Thread.yield();
+    }
+    // a spin just retries right away, there is no spin wait hint before Java 9
+  }
+
+  private static boolean await(Condition condition, long deadline) throws InterruptedException {
+    if (deadline == Long.MAX_VALUE) {
+      condition.await();
+      return true;
+    }
+    long remaining = deadline - System.nanoTime();
+    if (remaining <= 0) {
+      return false;
+    }
+    condition.awaitNanos(remaining);
+    return true;
+  }
+
+  private void signal(Condition condition) {
+    lock.lock();
+    try {
+      condition.signal();
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  private static long deadline(long timeout, TimeUnit unit) {
+    long nanos = unit.toNanos(timeout);
+    return nanos >= Long.MAX_VALUE >> 1 ? Long.MAX_VALUE : System.nanoTime() + nanos;
+  }
+}
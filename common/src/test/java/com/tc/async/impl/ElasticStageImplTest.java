@@ -0,0 +1,133 @@
+/*
+ *
+ *  The contents of this file are subject to the Terracotta Public License Version
+ *  2.0 (the "License"); You may not use this file except in compliance with the
+ *  License. You may obtain a copy of the License at
+ *
+ *  http://terracotta.org/legal/terracotta-public-license.
+ *
+ *  Software distributed under the License is distributed on an "AS IS" basis,
+ *  WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License for
+ *  the specific language governing rights and limitations under the License.
+ *
+ *  The Covered Software is Terracotta Core.
+ *
+ *  The Initial Developer of the Covered Software is
+ *  Terracotta, Inc., a Software AG company
+ *
+ */
+package com.tc.async.impl;
+
+import com.tc.async.api.AbstractEventHandler;
+import com.tc.async.api.EventHandlerException;
+import com.tc.async.api.MultiThreadedEventContext;
+import com.tc.logging.DefaultLoggerProvider;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class ElasticStageImplTest {
+
+  @Test
+  public void testKeysKeepOrderWhileOthersProceed() throws Exception {
+    CountDownLatch release = new CountDownLatch(1);
+    Map<Object, List<Integer>> seen = new ConcurrentHashMap<>();
+    ElasticStageImpl<Context> stage = new ElasticStageImpl<>(new DefaultLoggerProvider(), "elastic", new AbstractEventHandler<Context>() {
+      @Override
+      public void handleEvent(Context context) throws EventHandlerException {
+        if (context.key.equals("blocked")) {
+          try {
+            release.await();
+          } catch (InterruptedException ie) {
+            throw new EventHandlerException(ie);
+          }
+        }
+        seen.computeIfAbsent(context.key, k -> new ArrayList<>()).add(context.sequence);
+      }
+    }, 4, null, Integer.MAX_VALUE);
+    // held until the stage starts
+    stage.getSink().addToSink(new Context("blocked", 0, false));
+    stage.start(new ConfigurationContextImpl(null));
+    for (int i = 1; i <= 100; i++) {
+      stage.getSink().addToSink(new Context("blocked", i, false));
+      stage.getSink().addToSink(new Context(i % 3, i, false));
+    }
+    long deadline = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(30);
+    while (stage.size() > 101 && System.currentTimeMillis() < deadline) {
+      Thread.sleep(10);
+    }
+    assertEquals(101, stage.size());
+    assertTrue(!seen.containsKey("blocked"));
+    release.countDown();
+    while (!stage.isEmpty() && System.currentTimeMillis() < deadline) {
+      Thread.sleep(10);
+    }
+    assertTrue(stage.isEmpty());
+    for (List<Integer> order : seen.values()) {
+      for (int i = 1; i < order.size(); i++) {
+        assertTrue(order.get(i - 1) < order.get(i));
+      }
+    }
+    assertEquals(101, seen.get("blocked").size());
+    stage.destroy();
+  }
+
+  @Test
+  public void testFlushRunsAfterEarlierEvents() throws Exception {
+    AtomicInteger handled = new AtomicInteger();
+    AtomicInteger atFlush = new AtomicInteger(-1);
+    ElasticStageImpl<Context> stage = new ElasticStageImpl<>(new DefaultLoggerProvider(), "flush", new AbstractEventHandler<Context>() {
+      @Override
+      public void handleEvent(Context context) throws EventHandlerException {
+        if (context.flush) {
+          atFlush.set(handled.get());
+        } else {
+          try {
+            Thread.sleep(context.sequence % 5);
+          } catch (InterruptedException ie) {
+            throw new EventHandlerException(ie);
+          }
+          handled.incrementAndGet();
+        }
+      }
+    }, 8, null, 16);
+    stage.start(new ConfigurationContextImpl(null));
+    for (int i = 0; i < 50; i++) {
+      stage.getSink().addToSink(new Context(i % 2 == 0 ? null : i, i, false));
+    }
+    stage.getSink().addToSink(new Context("management", 50, true));
+    stage.destroy();
+    assertEquals(50, atFlush.get());
+  }
+
+  private static class Context implements MultiThreadedEventContext {
+    private final Object key;
+    private final int sequence;
+    private final boolean flush;
+
+    Context(Object key, int sequence, boolean flush) {
+      this.key = key;
+      this.sequence = sequence;
+      this.flush = flush;
+    }
+
+    @Override
+    public Object getSchedulingKey() {
+      return key;
+    }
+
+    @Override
+    public boolean flush() {
+      return flush;
+    }
+  }
+}
@@ -21,6 +21,7 @@ package com.tc.async.impl;
 import com.tc.async.api.MultiThreadedEventContext;
 import com.tc.logging.DefaultLoggerProvider;
 import com.tc.logging.TCLoggerProvider;
+import com.tc.properties.TCPropertiesImpl;
 import com.tc.util.Assert;
 import com.tc.util.concurrent.QueueFactory;
 import org.junit.After;
@@ -34,6 +35,7 @@ import org.mockito.invocation.InvocationOnMock;
 import org.mockito.stubbing.Answer;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 import java.util.Queue;
 import java.util.Random;
@@ -237,6 +239,53 @@ public class MultiStageQueueImplTest {
     assertTrue(impl.partitionHand.get() < prior);
   }
 
+  @Test
+  public void testKeyRunStealing() throws Exception {
+    TCPropertiesImpl.getProperties().setProperty("seda.steal.steal", "true");
+    try {
+      TCLoggerProvider logger = new DefaultLoggerProvider();
+      MultiStageQueueImpl<MultiThreadedEventContext> impl = new MultiStageQueueImpl<>(2, new QueueFactory(), MultiThreadedEventContext.class,
+          (event)->()->{}, logger, "steal", 16);
+      // both keys hash to the first queue
+      impl.addToSink(keyed(0));
+      impl.addToSink(keyed(2));
+      impl.addToSink(keyed(2));
+      impl.addToSink(keyed(0));
+      assertEquals(2, impl.getSource(0).size());
+      assertEquals(2, impl.getSource(1).size());
+      // once the stolen run is handled the key is free to move again, but not while any of it is outstanding
+      impl.getSource(1).poll(0).call();
+      impl.addToSink(keyed(2));
+      assertEquals(2, impl.getSource(1).size());
+      impl.getSource(1).poll(0).call();
+      impl.getSource(1).poll(0).call();
+      impl.getSource(0).poll(0).call();
+      impl.addToSink(keyed(2));
+      assertEquals(1, impl.getSource(0).size());
+      assertEquals(1, impl.getSource(1).size());
+      assertEquals(Arrays.asList(0L, 2L), impl.getState().get("steals"));
+      impl.clear();
+      assertEquals(0, impl.getState().get("activeKeys"));
+    } finally {
+      // the property is global, stealing is off by default
+      TCPropertiesImpl.getProperties().setProperty("seda.steal.steal", "false");
+    }
+  }
+
+  private static MultiThreadedEventContext keyed(Object key) {
+    return new MultiThreadedEventContext() {
+      @Override
+      public Object getSchedulingKey() {
+        return key;
+      }
+
+      @Override
+      public boolean flush() {
+        return false;
+      }
+    };
+  }
+
   @Test
   @Ignore
   public void testThroughput8() throws InterruptedException {
@@ -18,6 +18,7 @@
  */
 package com.tc.async.impl;
 
+import com.tc.async.api.AbstractEventHandler;
 import com.tc.async.api.ConfigurationContext;
 import com.tc.async.api.EventHandler;
 import com.tc.async.api.EventHandlerException;
@@ -36,11 +37,13 @@ import org.mockito.invocation.InvocationOnMock;
 import org.mockito.stubbing.Answer;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.List;
 import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.BrokenBarrierException;
+import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.CyclicBarrier;
 
 import static org.junit.Assert.assertEquals;
@@ -105,6 +108,53 @@ public class StageImplTest {
     
   }
   
+  @Test
+  public void testBatchedEvents() throws Exception {
+    TCLoggerProvider logger = new DefaultLoggerProvider();
+    final CountDownLatch blocked = new CountDownLatch(1);
+    final CountDownLatch release = new CountDownLatch(1);
+    final List<Object> handled = new ArrayList<>();
+    final List<Integer> batches = new ArrayList<>();
+    EventHandler<Object> handler = new AbstractEventHandler<Object>() {
+      @Override
+      public void handleEvent(Object context) throws EventHandlerException {
+        if (handled.isEmpty()) {
+          blocked.countDown();
+          try {
+            release.await();
+          } catch (InterruptedException ie) {
+            throw new EventHandlerException(ie);
+          }
+        }
+        handled.add(context);
+      }
+
+      @Override
+      public void handleEvents(Collection<Object> contexts) throws EventHandlerException {
+        batches.add(contexts.size());
+        super.handleEvents(contexts);
+      }
+
+      @Override
+      public int getMaxBatchSize() {
+        return 4;
+      }
+    };
+    StageImpl<Object> instance = new StageImpl<Object>(logger, "batch", Object.class, handler, 1, null, new QueueFactory(), 16, false);
+    instance.start(new ConfigurationContextImpl(null));
+    instance.getSink().addToSink(0);
+    blocked.await();
+    for (int i = 1; i <= 6; i++) {
+      instance.getSink().addToSink(i);
+    }
+    release.countDown();
+    instance.waitForIdle();
+    instance.destroy();
+
+    assertEquals(Arrays.asList(0, 1, 2, 3, 4, 5, 6), handled);
+    assertEquals(Arrays.asList(4, 2), batches);
+  }
+
   private void testMultiContextFlush(int size) throws Exception {
     System.out.println("test a multi context flush");
     TCLoggerProvider logger = new DefaultLoggerProvider();
@@ -0,0 +1,185 @@
+/*
+ *
+ *  The contents of this file are subject to the Terracotta Public License Version
+ *  2.0 (the "License"); You may not use this file except in compliance with the
+ *  License. You may obtain a copy of the License at
+ *
+ *  http://terracotta.org/legal/terracotta-public-license.
+ *
+ *  Software distributed under the License is distributed on an "AS IS" basis,
+ *  WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License for
+ *  the specific language governing rights and limitations under the License.
+ *
+ *  The Covered Software is Terracotta Core.
+ *
+ *  The Initial Developer of the Covered Software is
+ *  Terracotta, Inc., a Software AG company
+ *
+ */
+package com.tc.net.core;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.channels.GatheringByteChannel;
+import java.nio.channels.ScatteringByteChannel;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class ClearTextBufferManagerTest {
+
+  @Test
+  public void testGatheringWriteFlushesSendBufferFirst() throws Exception {
+    try (ServerSocketChannel server = ServerSocketChannel.open()) {
+      server.bind(new InetSocketAddress("localhost", 0));
+      try (SocketChannel client = SocketChannel.open(server.getLocalAddress());
+           Socket accepted = server.accept().socket()) {
+        ClearTextBufferManager manager = new ClearTextBufferManager(client);
+        assertTrue(manager.supportsGatheringWrites());
+
+        manager.forwardToWriteBuffer(ByteBuffer.wrap(new byte[] { 1, 2 }));
+        ByteBuffer[] srcs = new ByteBuffer[] { ByteBuffer.wrap(new byte[] { 3, 4 }),
+            ByteBuffer.allocateDirect(2).put((byte) 5).put((byte) 6) };
+        srcs[1].flip();
+
+        assertEquals(4, manager.sendFromBuffers(srcs, 0, srcs.length));
+        assertFalse(srcs[0].hasRemaining());
+        assertFalse(srcs[1].hasRemaining());
+
+        byte[] received = new byte[6];
+        InputStream in = accepted.getInputStream();
+        int read = 0;
+        while (read < received.length) {
+          read += in.read(received, read, received.length - read);
+        }
+        assertArrayEquals(new byte[] { 1, 2, 3, 4, 5, 6 }, received);
+      }
+    }
+  }
+
+  @Test
+  public void testScatteringReadForwardsReceiveBufferFirst() throws Exception {
+    try (ServerSocketChannel server = ServerSocketChannel.open()) {
+      server.bind(new InetSocketAddress("localhost", 0));
+      try (SocketChannel client = SocketChannel.open(server.getLocalAddress());
+           Socket accepted = server.accept().socket()) {
+        ClearTextBufferManager manager = new ClearTextBufferManager(client);
+        assertTrue(manager.supportsScatteringReads());
+
+        OutputStream out = accepted.getOutputStream();
+        out.write(new byte[] { 1, 2 });
+        out.flush();
+        while (manager.recvToBuffer() == 0) {
+          Thread.sleep(10);
+        }
+        out.write(new byte[] { 3, 4, 5, 6 });
+        out.flush();
+
+        ByteBuffer[] dsts = new ByteBuffer[] { ByteBuffer.allocate(3), ByteBuffer.allocateDirect(3) };
+        long read = manager.recvToBuffers(dsts, 0, dsts.length);
+        while (read < 6) {
+          read += manager.recvToBuffers(dsts, 0, dsts.length);
+        }
+        assertEquals(6, read);
+        byte[] received = new byte[6];
+        dsts[0].flip();
+        dsts[1].flip();
+        dsts[0].get(received, 0, 3);
+        dsts[1].get(received, 3, 3);
+        assertArrayEquals(new byte[] { 1, 2, 3, 4, 5, 6 }, received);
+      }
+    }
+  }
+
+  @Test
+  public void testSingleBufferFallback() throws Exception {
+    try (ServerSocketChannel server = ServerSocketChannel.open()) {
+      server.bind(new InetSocketAddress("localhost", 0));
+      try (SocketChannel client = SocketChannel.open(server.getLocalAddress());
+           Socket accepted = server.accept().socket()) {
+        BufferManager manager = singleBufferOnly(new ClearTextBufferManager(client));
+        assertFalse(manager.supportsGatheringWrites());
+        assertFalse(manager.supportsScatteringReads());
+
+        ByteBuffer[] srcs = new ByteBuffer[] { ByteBuffer.wrap(new byte[] { 1, 2 }), ByteBuffer.wrap(new byte[0]),
+            ByteBuffer.wrap(new byte[] { 3, 4, 5 }) };
+        assertEquals(5, manager.sendFromBuffers(srcs, 0, srcs.length));
+        assertFalse(srcs[2].hasRemaining());
+        byte[] received = new byte[5];
+        InputStream in = accepted.getInputStream();
+        int read = 0;
+        while (read < received.length) {
+          read += in.read(received, read, received.length - read);
+        }
+        assertArrayEquals(new byte[] { 1, 2, 3, 4, 5 }, received);
+
+        OutputStream out = accepted.getOutputStream();
+        out.write(new byte[] { 6, 7, 8, 9 });
+        out.flush();
+        ByteBuffer[] dsts = new ByteBuffer[] { ByteBuffer.allocate(3), ByteBuffer.allocate(3) };
+        long filled = 0;
+        while (filled < 4) {
+          filled += manager.recvToBuffers(dsts, 0, dsts.length);
+        }
+        assertEquals(4, filled);
+        assertEquals(0, dsts[0].remaining());
+        assertEquals(1, dsts[1].position());
+        assertArrayEquals(new byte[] { 6, 7, 8 }, dsts[0].array());
+        assertEquals(9, dsts[1].get(0));
+      }
+    }
+  }
+
+  /**
+   * A manager with the single buffer operations of {@code delegate} only, so the default gathering and scattering
+   * methods are used.
+   */
+  private static BufferManager singleBufferOnly(ClearTextBufferManager delegate) {
+    return new BufferManager() {
+      @Override
+      public int forwardFromReadBuffer(ByteBuffer dest) {
+        return delegate.forwardFromReadBuffer(dest);
+      }
+
+      @Override
+      public int forwardToWriteBuffer(ByteBuffer src) {
+        return delegate.forwardToWriteBuffer(src);
+      }
+
+      @Override
+      public int sendFromBuffer() throws IOException {
+        return delegate.sendFromBuffer();
+      }
+
+      @Override
+      public int recvToBuffer() throws IOException {
+        return delegate.recvToBuffer();
+      }
+
+      @Override
+      public void close() {
+        delegate.close();
+      }
+
+      @Override
+      public int forwardFromReadBuffer(GatheringByteChannel gbc) throws IOException {
+        return delegate.forwardFromReadBuffer(gbc);
+      }
+
+      @Override
+      public int forwardToWriteBuffer(ScatteringByteChannel sbc) throws IOException {
+        return delegate.forwardToWriteBuffer(sbc);
+      }
+    };
+  }
+}
@@ -18,23 +18,45 @@
  */
 package com.tc.net.core;
 
+import com.tc.bytes.TCByteBuffer;
+import com.tc.bytes.TCByteBufferFactory;
 import com.tc.net.TCSocketAddress;
+import com.tc.net.core.TCConnectionImpl.QueueFullPolicy;
+import com.tc.net.core.event.TCConnectionErrorEvent;
 import com.tc.net.core.event.TCConnectionEvent;
 import com.tc.net.core.event.TCConnectionEventListener;
+import com.tc.net.protocol.TCNetworkMessage;
 import com.tc.net.protocol.TCProtocolAdaptor;
+import com.tc.properties.TCPropertiesConsts;
+import com.tc.properties.TCPropertiesImpl;
 import com.tc.util.PortChooser;
 import java.io.IOException;
 import java.net.ServerSocket;
+import java.nio.ByteBuffer;
+import java.nio.channels.GatheringByteChannel;
 import java.nio.channels.ScatteringByteChannel;
+import java.nio.channels.SelectableChannel;
 import java.nio.channels.SocketChannel;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
 import static junit.framework.TestCase.fail;
 import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.InOrder;
 
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
 import static org.mockito.Matchers.any;
 import static org.mockito.Matchers.anyBoolean;
+import static org.mockito.Matchers.anyLong;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.inOrder;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
@@ -79,5 +101,304 @@ public class TCConnectionImplTest {
     socket.close();
   }
 
-  
+  @Test
+  public void testFullOutgoingQueueBlocksProducer() throws Exception {
+    try (ServerSocket socket = new ServerSocket(0)) {
+      CoreNIOServices nioServiceThread = mock(CoreNIOServices.class);
+      TCConnectionImpl conn = connect(nioServiceThread, socket);
+      conn.setOutgoingQueueLimits(2, 0, QueueFullPolicy.BLOCK);
+
+      conn.putMessage(createMessage());
+      conn.putMessage(createMessage());
+      TCNetworkMessage blocked = createMessage();
+      Thread producer = new Thread(() -> conn.putMessage(blocked));
+      producer.start();
+      waitForState(producer, Thread.State.WAITING);
+      assertEquals(2, conn.getState().get("outgoingQueueMessages"));
+
+      // writing the queued messages makes room for the parked one
+      conn.doWrite();
+      producer.join(10000);
+      assertFalse(producer.isAlive());
+      assertEquals(1, conn.getState().get("outgoingQueueMessages"));
+      assertEquals(1L, conn.getState().get("outgoingQueueFull"));
+      conn.asynchClose();
+    }
+  }
+
+  @Test
+  public void testClosingReleasesBlockedProducer() throws Exception {
+    try (ServerSocket socket = new ServerSocket(0)) {
+      CoreNIOServices nioServiceThread = mock(CoreNIOServices.class);
+      TCConnectionImpl conn = connect(nioServiceThread, socket);
+      conn.setOutgoingQueueLimits(1, 0, QueueFullPolicy.BLOCK);
+
+      conn.putMessage(createMessage());
+      TCNetworkMessage blocked = createMessage();
+      Thread producer = new Thread(() -> conn.putMessage(blocked));
+      producer.start();
+      waitForState(producer, Thread.State.WAITING);
+
+      conn.asynchClose();
+      producer.join(10000);
+      assertFalse(producer.isAlive());
+      assertEquals(0, conn.getState().get("outgoingQueueMessages"));
+    }
+  }
+
+  @Test
+  public void testFullOutgoingQueueThrottlesReadsUntilDrained() throws Exception {
+    try (ServerSocket socket = new ServerSocket(0)) {
+      CoreNIOServices nioServiceThread = mock(CoreNIOServices.class);
+      TCConnectionImpl conn = connect(nioServiceThread, socket);
+      SocketChannel channel = conn.getChannel();
+      conn.setOutgoingQueueLimits(2, 0, QueueFullPolicy.THROTTLE);
+
+      conn.putMessage(createMessage());
+      conn.putMessage(createMessage());
+      verify(nioServiceThread, never()).removeReadInterest(any(TCConnectionImpl.class), any(SelectableChannel.class));
+
+      // throttling admits the message but stops reading from the peer, once
+      conn.putMessage(createMessage());
+      conn.putMessage(createMessage());
+      assertEquals(4, conn.getState().get("outgoingQueueMessages"));
+      assertEquals(true, conn.getState().get("readsThrottled"));
+      verify(nioServiceThread).removeReadInterest(conn, channel);
+
+      conn.doWrite();
+      assertEquals(0, conn.getState().get("outgoingQueueMessages"));
+      assertEquals(false, conn.getState().get("readsThrottled"));
+      InOrder order = inOrder(nioServiceThread);
+      order.verify(nioServiceThread).requestReadInterest(eq(conn), any(ScatteringByteChannel.class));
+      order.verify(nioServiceThread).removeReadInterest(conn, channel);
+      order.verify(nioServiceThread).requestReadInterest(eq(conn), any(ScatteringByteChannel.class));
+      conn.asynchClose();
+    }
+  }
+
+  @Test
+  public void testFullOutgoingQueueDisconnects() throws Exception {
+    try (ServerSocket socket = new ServerSocket(0)) {
+      CoreNIOServices nioServiceThread = mock(CoreNIOServices.class);
+      TCConnectionImpl conn = connect(nioServiceThread, socket);
+      conn.setOutgoingQueueLimits(0, 32, QueueFullPolicy.DISCONNECT);
+
+      // an empty queue admits a message of any size
+      conn.putMessage(createMessage(64));
+      assertFalse(conn.isClosed());
+      conn.putMessage(createMessage(16));
+      assertTrue(conn.isClosed());
+      verify(nioServiceThread).cleanupChannel(eq(conn.getChannel()), any(Runnable.class));
+      assertEquals(0, conn.getState().get("outgoingQueueMessages"));
+    }
+  }
+
+  @Test
+  public void testCoalescingFlushesFullGroup() throws Exception {
+    try (ServerSocket socket = new ServerSocket(0)) {
+      CoreNIOServices nioServiceThread = mock(CoreNIOServices.class);
+      TCConnectionImpl conn = connect(nioServiceThread, socket);
+      SocketChannel channel = conn.getChannel();
+      conn.setCoalesceBudget(TimeUnit.MINUTES.toNanos(1));
+
+      conn.putMessage(createMessage());
+      conn.putMessage(createMessage());
+      verify(nioServiceThread, times(1)).requestWriteInterest(eq(conn), any(GatheringByteChannel.class));
+      // messages arrive faster than the budget, so the partial group is held back
+      assertEquals(0, conn.doWrite());
+      verify(nioServiceThread).deferWrite(eq(conn), eq(channel), anyLong());
+      assertEquals(2, conn.getState().get("outgoingQueueMessages"));
+
+      // filling the group asks for the write again without waiting for the budget
+      int groupBytes = TCPropertiesImpl.getProperties().getInt(TCPropertiesConsts.TC_MESSAGE_GROUPING_MAXSIZE_KB, 128) * 1024;
+      conn.putMessage(createMessage(groupBytes));
+      verify(nioServiceThread, times(2)).requestWriteInterest(eq(conn), any(GatheringByteChannel.class));
+      assertTrue(conn.doWrite() > 32);
+      verify(nioServiceThread, times(1)).deferWrite(eq(conn), eq(channel), anyLong());
+      assertEquals(1L, conn.getState().get("coalescedWrites"));
+      conn.asynchClose();
+    }
+  }
+
+  @Test
+  public void testCoalescingFlushesWhenBudgetExpires() throws Exception {
+    try (ServerSocket socket = new ServerSocket(0)) {
+      CoreNIOServices nioServiceThread = mock(CoreNIOServices.class);
+      TCConnectionImpl conn = connect(nioServiceThread, socket);
+      SocketChannel channel = conn.getChannel();
+      conn.setCoalesceBudget(TimeUnit.MILLISECONDS.toNanos(200));
+
+      conn.putMessage(createMessage());
+      conn.putMessage(createMessage());
+      assertEquals(0, conn.doWrite());
+      verify(nioServiceThread).deferWrite(eq(conn), eq(channel), anyLong());
+
+      // once the oldest message has waited for the budget the group goes out as it is
+      Thread.sleep(250);
+      assertEquals(32, conn.doWrite());
+      verify(nioServiceThread, times(1)).deferWrite(eq(conn), eq(channel), anyLong());
+      assertEquals(0, conn.getState().get("outgoingQueueMessages"));
+      conn.asynchClose();
+    }
+  }
+
+  @Test
+  public void testCoalescingDisabled() throws Exception {
+    try (ServerSocket socket = new ServerSocket(0)) {
+      CoreNIOServices nioServiceThread = mock(CoreNIOServices.class);
+      TCConnectionImpl conn = connect(nioServiceThread, socket);
+      conn.setCoalesceBudget(0);
+
+      conn.putMessage(createMessage());
+      conn.putMessage(createMessage());
+      assertEquals(32, conn.doWrite());
+      verify(nioServiceThread, never()).deferWrite(any(TCConnectionImpl.class), any(SelectableChannel.class), anyLong());
+      assertEquals(0, conn.getState().get("outgoingQueueMessages"));
+      assertFalse(conn.getState().containsKey("coalescedWrites"));
+      conn.asynchClose();
+    }
+  }
+
+  @Test
+  public void testInlineWriteLeavesRemainderToSelector() throws Exception {
+    try (ServerSocket socket = new ServerSocket(0)) {
+      CoreNIOServices nioServiceThread = mock(CoreNIOServices.class);
+      when(nioServiceThread.isSingleThreaded()).thenReturn(true);
+      // the socket takes no more than 10 bytes per write
+      TCConnectionImpl conn = connect(nioServiceThread, socket, mock(TCConnectionEventListener.class),
+                                      (channel, client) -> new ClearTextBufferManager(channel) {
+        @Override
+        public long sendFromBuffers(ByteBuffer[] srcs, int offset, int length) throws IOException {
+          ByteBuffer src = srcs[offset];
+          int limit = src.limit();
+          src.limit(Math.min(limit, src.position() + 10));
+          try {
+            return super.sendFromBuffers(srcs, offset, 1);
+          } finally {
+            src.limit(limit);
+          }
+        }
+      });
+      conn.setCoalesceBudget(0);
+      conn.setTransportEstablished();
+
+      conn.putMessage(createMessage());
+      verify(nioServiceThread, times(1)).requestWriteInterest(eq(conn), any(GatheringByteChannel.class));
+      assertEquals(1L, conn.getState().get("partialWrites"));
+      assertEquals(1, conn.getState().get("outgoingQueueMessages"));
+
+      // the selector thread picks up where the inline write stopped
+      assertEquals(6, conn.doWrite());
+      assertEquals(0, conn.getState().get("outgoingQueueMessages"));
+      conn.asynchClose();
+    }
+  }
+
+  @Test
+  public void testInlineWriteErrorClosesConnection() throws Exception {
+    try (ServerSocket socket = new ServerSocket(0)) {
+      CoreNIOServices nioServiceThread = mock(CoreNIOServices.class);
+      when(nioServiceThread.isSingleThreaded()).thenReturn(true);
+      // like the connection manager, the listener closes the connection on error
+      AtomicReference<TCConnectionImpl> connection = new AtomicReference<>();
+      TCConnectionEventListener listener = mock(TCConnectionEventListener.class);
+      doAnswer(invocation -> {
+        connection.get().asynchClose();
+        return null;
+      }).when(listener).errorEvent(any(TCConnectionErrorEvent.class));
+      TCConnectionImpl conn = connect(nioServiceThread, socket, listener,
+                                      (channel, client) -> new ClearTextBufferManager(channel) {
+        @Override
+        public long sendFromBuffers(ByteBuffer[] srcs, int offset, int length) throws IOException {
+          throw new IOException("Connection reset by peer");
+        }
+      });
+      connection.set(conn);
+      conn.setCoalesceBudget(0);
+      conn.setTransportEstablished();
+
+      conn.putMessage(createMessage());
+      // the error is reported by the comm thread, not by the thread putting the message
+      verify(listener, never()).errorEvent(any(TCConnectionErrorEvent.class));
+      ArgumentCaptor<Runnable> task = ArgumentCaptor.forClass(Runnable.class);
+      verify(nioServiceThread).addWriterTask(task.capture());
+      task.getValue().run();
+      verify(listener, times(1)).errorEvent(any(TCConnectionErrorEvent.class));
+      verify(nioServiceThread).cleanupChannel(eq(conn.getChannel()), any(Runnable.class));
+      // nothing is left for the selector thread of a closed connection
+      verify(nioServiceThread, never()).requestWriteInterest(any(TCConnectionImpl.class), any(GatheringByteChannel.class));
+      assertTrue(conn.isClosed());
+      assertEquals(0, conn.getState().get("outgoingQueueMessages"));
+    }
+  }
+
+  @Test
+  public void testInlineWriteSentCallbackSendsAgain() throws Exception {
+    try (ServerSocket socket = new ServerSocket(0)) {
+      CoreNIOServices nioServiceThread = mock(CoreNIOServices.class);
+      when(nioServiceThread.isSingleThreaded()).thenReturn(true);
+      TCConnectionImpl conn = connect(nioServiceThread, socket);
+      conn.setCoalesceBudget(0);
+      conn.setTransportEstablished();
+
+      TCNetworkMessage reply = createMessage();
+      TCNetworkMessage message = createMessage();
+      doAnswer(invocation -> {
+        conn.putMessage(reply);
+        return null;
+      }).when(message).wasSent();
+
+      conn.putMessage(message);
+      // the bytes went out inline, the callback is left to the comm thread
+      verify(message, never()).wasSent();
+      verify(nioServiceThread, never()).requestWriteInterest(any(TCConnectionImpl.class), any(GatheringByteChannel.class));
+      ArgumentCaptor<Runnable> task = ArgumentCaptor.forClass(Runnable.class);
+      verify(nioServiceThread).addWriterTask(task.capture());
+
+      task.getValue().run();
+      verify(message, times(1)).wasSent();
+      // sent from within the callback, the reply is not written inline but by the selector thread
+      verify(nioServiceThread, times(1)).requestWriteInterest(eq(conn), any(GatheringByteChannel.class));
+      verify(reply, never()).wasSent();
+      assertEquals(1, conn.getState().get("outgoingQueueMessages"));
+
+      conn.doWrite();
+      verify(reply, times(1)).wasSent();
+      assertEquals(0, conn.getState().get("outgoingQueueMessages"));
+      conn.asynchClose();
+    }
+  }
+
+  private static TCConnectionImpl connect(CoreNIOServices nioServiceThread, ServerSocket socket) throws Exception {
+    return connect(nioServiceThread, socket, mock(TCConnectionEventListener.class),
+                   (channel, client) -> new ClearTextBufferManager(channel));
+  }
+
+  private static TCConnectionImpl connect(CoreNIOServices nioServiceThread, ServerSocket socket,
+                                          TCConnectionEventListener listener, BufferManagerFactory bufferManagerFactory) throws Exception {
+    TCConnectionImpl conn = new TCConnectionImpl(listener, mock(TCProtocolAdaptor.class), new TCConnectionManagerImpl(),
+                                                 nioServiceThread, new SocketParams(), bufferManagerFactory);
+    conn.connect(new TCSocketAddress("localhost", socket.getLocalPort()), 0);
+    verify(nioServiceThread, times(1)).requestReadInterest(any(TCChannelReader.class), any(ScatteringByteChannel.class));
+    return conn;
+  }
+
+  private static TCNetworkMessage createMessage() {
+    return createMessage(16);
+  }
+
+  private static TCNetworkMessage createMessage(int length) {
+    TCNetworkMessage message = mock(TCNetworkMessage.class);
+    when(message.getTotalLength()).thenReturn(length);
+    when(message.getEntireMessageData()).thenAnswer(invocation -> new TCByteBuffer[] { TCByteBufferFactory.wrap(new byte[length]) });
+    return message;
+  }
+
+  private static void waitForState(Thread thread, Thread.State state) throws InterruptedException {
+    long deadline = System.currentTimeMillis() + 10000;
+    while (thread.getState() != state) {
+      assertTrue("thread never reached " + state, System.currentTimeMillis() < deadline);
+      Thread.sleep(10);
+    }
+  }
 }
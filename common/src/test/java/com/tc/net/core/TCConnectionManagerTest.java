@@ -28,6 +28,7 @@ import com.tc.net.protocol.transport.HealthCheckerConfigImpl;
 import com.tc.util.concurrent.ThreadUtil;
 
 import java.util.Arrays;
+import java.util.Map;
 
 import junit.framework.TestCase;
 
@@ -115,6 +116,37 @@ public class TCConnectionManagerTest extends TestCase {
     assertEquals(0, serverConnMgr.getAllListeners().length);
   }
 
+  public void testSingleSelectorThread() throws Exception {
+    TCConnectionManagerImpl client = new TCConnectionManagerImpl("client", 0, new HealthCheckerConfigImpl("client"),
+                                                                 new ClearTextBufferManagerFactory(), true);
+    TCConnectionManagerImpl server = new TCConnectionManagerImpl("server", 0, new HealthCheckerConfigImpl("server"),
+                                                                 new ClearTextBufferManagerFactory(), true);
+    try {
+      TCListener listener = server.createListener(new TCSocketAddress(0), new ProtocolAdaptorFactory() {
+        @Override
+        public TCProtocolAdaptor getInstance() {
+          return new NullProtocolAdaptor();
+        }
+      });
+      TCConnection conn = client.createConnection(new NullProtocolAdaptor());
+      conn.connect(listener.getBindSocketAddress(), 3000);
+      assertTrue(conn.isConnected());
+      while (server.getAllConnections().length != 1) {
+        ThreadUtil.reallySleep(100);
+      }
+
+      Map<?, ?> threads = (Map<?, ?>) ((Map<?, ?>) client.getStateMap().get("processors")).get("threads");
+      assertTrue(threads.containsKey("selector"));
+      assertFalse(threads.containsKey("writer"));
+
+      conn.close(5000);
+      assertEquals(0, client.getAllConnections().length);
+    } finally {
+      client.shutdown();
+      server.shutdown();
+    }
+  }
+
   public void testActiveClientConnections() throws Exception {
     assertEquals(0, clientConnMgr.getAllConnections().length);
 
@@ -63,12 +63,21 @@ import com.tc.util.ProductID;
 
 import java.net.InetAddress;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
 import java.util.Properties;
 import java.util.concurrent.Callable;
+import java.util.concurrent.TimeUnit;
 import org.junit.Ignore;
 
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
 public class TCWorkerCommManagerTest extends TCTestCase {
   private static final int L1_RECONNECT_TIMEOUT = 15000;
   Logger logger = LoggerFactory.getLogger(TCWorkerCommManager.class);
@@ -282,6 +291,137 @@ public class TCWorkerCommManagerTest extends TCTestCase {
 
   }
 
+  public void testConnectionMigration() throws Exception {
+    CommunicationsManager commsMgr = new CommunicationsManagerImpl("Server-TestCommsMgr", new NullMessageMonitor(),
+                                                                   getNetworkStackHarnessFactory(false),
+                                                                   new NullConnectionPolicy(), 2);
+    NetworkListener listener = commsMgr.createListener(new TCSocketAddress(0), true,
+                                                       new DefaultConnectionIdFactory());
+    listener.start(Collections.<ClientID>emptySet());
+    ConnectionInfo connectTo = new ConnectionInfo("localhost", listener.getBindPort());
+
+    ClientMessageChannel client1 = createClientMsgCh(false);
+    ClientMessageChannel client2 = createClientMsgCh(false);
+    client1.open(connectTo);
+    client2.open(connectTo);
+    waitForConnected(client1, client2);
+    waitForWeight(commsMgr, 0, 1);
+    waitForWeight(commsMgr, 1, 1);
+
+    TCCommImpl comm = (TCCommImpl) commsMgr.getConnectionManager().getTcComm();
+    CoreNIOServices worker0 = comm.getWorkerComm(0);
+    CoreNIOServices worker1 = comm.getWorkerComm(1);
+    TCConnectionImpl connection = worker0.getManagedConnections().get(0);
+
+    Assert.assertTrue(worker0.migrateConnection(connection, worker1));
+    Assert.assertSame(worker1, connection.getCommWorker());
+    Assert.assertEquals(0, comm.getWeightForWorkerComm(0));
+    Assert.assertEquals(2, comm.getWeightForWorkerComm(1));
+    Assert.assertEquals(1, ((Integer) worker1.getState().get("migratedIn")).intValue());
+    // already moved
+    Assert.assertFalse(worker0.migrateConnection(connection, worker1));
+
+    ThreadUtil.reallySleep(1000);
+    waitForConnected(client1, client2);
+
+    // the target worker now owns the close event
+    client1.close();
+    client2.close();
+    waitForTotalWeights(commsMgr, 2, 0);
+
+    listener.stop(5000);
+  }
+
+  public void testRebalanceMigratesAfterTwoHotIntervals() throws Exception {
+    // worker 0 is busy 900ms of every second, worker 1 100ms: a gap of 800ms
+    CoreNIOServices hot = mockWorker(900, 1800);
+    CoreNIOServices idle = mockWorker(100, 200);
+    TCConnectionImpl heavy = mockConnection(500, 1000);
+    TCConnectionImpl candidate = mockConnection(300, 600);
+    TCConnectionImpl light = mockConnection(100, 200);
+    when(hot.getManagedConnections()).thenReturn(Arrays.asList(heavy, candidate, light));
+    when(idle.getManagedConnections()).thenReturn(Collections.<TCConnectionImpl>emptyList());
+    when(hot.migrateConnection(any(TCConnectionImpl.class), any(CoreNIOServices.class))).thenReturn(true);
+    TCWorkerCommManager manager = new TCWorkerCommManager(new CoreNIOServices[] { hot, idle });
+
+    manager.rebalance(seconds(1));
+    // hot for one interval only so far
+    verify(hot, never()).migrateConnection(any(TCConnectionImpl.class), any(CoreNIOServices.class));
+
+    manager.rebalance(seconds(2));
+    // the busiest connection with at most half the gap, 300ms of 400ms
+    verify(hot).migrateConnection(candidate, idle);
+    verify(hot, times(1)).migrateConnection(any(TCConnectionImpl.class), any(CoreNIOServices.class));
+    Assert.assertEquals(1, manager.getMigrations());
+  }
+
+  public void testRebalanceNeedsTwoHotIntervalsInARow() throws Exception {
+    // hot, cooled down (500ms is below 60%), hot again
+    CoreNIOServices hot = mockWorker(900, 1400, 2300);
+    CoreNIOServices idle = mockWorker(100, 200, 300);
+    TCConnectionImpl connection = mockConnection(100, 200, 300);
+    when(hot.getManagedConnections()).thenReturn(Arrays.asList(connection));
+    when(idle.getManagedConnections()).thenReturn(Collections.<TCConnectionImpl>emptyList());
+    TCWorkerCommManager manager = new TCWorkerCommManager(new CoreNIOServices[] { hot, idle });
+
+    manager.rebalance(seconds(1));
+    manager.rebalance(seconds(2));
+    manager.rebalance(seconds(3));
+    verify(hot, never()).migrateConnection(any(TCConnectionImpl.class), any(CoreNIOServices.class));
+    Assert.assertEquals(0, manager.getMigrations());
+  }
+
+  public void testRebalanceKeepsConnectionsAboveHalfTheGap() throws Exception {
+    CoreNIOServices hot = mockWorker(900, 1800, 2700);
+    CoreNIOServices idle = mockWorker(100, 200, 300);
+    // both carry more than 400ms, moving either would make the idle worker the hot one
+    TCConnectionImpl first = mockConnection(450, 900, 1350);
+    TCConnectionImpl second = mockConnection(450, 900, 1350);
+    when(hot.getManagedConnections()).thenReturn(Arrays.asList(first, second));
+    when(idle.getManagedConnections()).thenReturn(Collections.<TCConnectionImpl>emptyList());
+    TCWorkerCommManager manager = new TCWorkerCommManager(new CoreNIOServices[] { hot, idle });
+
+    manager.rebalance(seconds(1));
+    manager.rebalance(seconds(2));
+    manager.rebalance(seconds(3));
+    verify(hot, never()).migrateConnection(any(TCConnectionImpl.class), any(CoreNIOServices.class));
+    Assert.assertEquals(0, manager.getMigrations());
+  }
+
+  private static long seconds(int seconds) {
+    return TimeUnit.SECONDS.toNanos(seconds);
+  }
+
+  /**
+   * @param busyMillis the total time the worker was busy at each rebalance
+   */
+  private static CoreNIOServices mockWorker(long... busyMillis) {
+    CoreNIOServices worker = mock(CoreNIOServices.class);
+    when(worker.getBusyNanos()).thenReturn(millis(busyMillis[0]), rest(busyMillis));
+    return worker;
+  }
+
+  /**
+   * @param commMillis the total comm thread time of the connection at each rebalance
+   */
+  private static TCConnectionImpl mockConnection(long... commMillis) {
+    TCConnectionImpl connection = mock(TCConnectionImpl.class);
+    when(connection.getCommNanos()).thenReturn(millis(commMillis[0]), rest(commMillis));
+    return connection;
+  }
+
+  private static long millis(long millis) {
+    return TimeUnit.MILLISECONDS.toNanos(millis);
+  }
+
+  private static Long[] rest(long[] millis) {
+    Long[] rest = new Long[millis.length - 1];
+    for (int i = 1; i < millis.length; i++) {
+      rest[i - 1] = millis(millis[i]);
+    }
+    return rest;
+  }
+
   private ClientMessageChannel createClientMsgCh() {
     return createClientMsgCh(true);
   }
@@ -0,0 +1,78 @@
+/*
+ *
+ *  The contents of this file are subject to the Terracotta Public License Version
+ *  2.0 (the "License"); You may not use this file except in compliance with the
+ *  License. You may obtain a copy of the License at
+ *
+ *  http://terracotta.org/legal/terracotta-public-license.
+ *
+ *  Software distributed under the License is distributed on an "AS IS" basis,
+ *  WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License for
+ *  the specific language governing rights and limitations under the License.
+ *
+ *  The Covered Software is Terracotta Core.
+ *
+ *  The Initial Developer of the Covered Software is
+ *  Terracotta, Inc., a Software AG company
+ *
+ */
+package com.tc.net.protocol.delivery;
+
+import com.tc.test.TCTestCase;
+
+public class OutstandingMessagesTest extends TCTestCase {
+
+  public void testAddAndRelease() {
+    OutstandingMessages outstanding = new OutstandingMessages(16);
+    for (int i = 0; i < 10; i++) {
+      outstanding.add(i, new TestProtocolMessage(null, i, -1), 100 + i);
+    }
+    assertEquals(10, outstanding.size());
+    assertEquals(3, outstanding.get(3).getSent());
+    assertEquals(103, outstanding.getSendNanos(3));
+
+    assertEquals(5, outstanding.release(4));
+    assertEquals(5, outstanding.size());
+    assertEquals(0, outstanding.release(4));
+    assertEquals(5, outstanding.get(5).getSent());
+    try {
+      outstanding.get(4);
+      fail();
+    } catch (AssertionError e) {
+      // expected
+    }
+
+    outstanding.clearSendNanos(5);
+    assertEquals(0, outstanding.getSendNanos(5));
+    assertEquals(5, outstanding.release(9));
+    assertTrue(outstanding.isEmpty());
+  }
+
+  public void testWrapsAround() {
+    OutstandingMessages outstanding = new OutstandingMessages(4);
+    for (int i = 0; i < 100; i++) {
+      outstanding.add(i, new TestProtocolMessage(null, i, -1), 0);
+      if (i % 4 == 3) {
+        assertEquals(4, outstanding.release(i));
+      }
+    }
+    assertTrue(outstanding.isEmpty());
+  }
+
+  public void testGrowsWithoutWindow() {
+    OutstandingMessages outstanding = new OutstandingMessages(0);
+    for (int i = 0; i < 50; i++) {
+      outstanding.add(i, new TestProtocolMessage(null, i, -1), i);
+    }
+    outstanding.release(39);
+    // grows while wrapped around
+    for (int i = 50; i < 500; i++) {
+      outstanding.add(i, new TestProtocolMessage(null, i, -1), i);
+    }
+    assertEquals(460, outstanding.size());
+    for (int i = 40; i < 500; i++) {
+      assertEquals(i, outstanding.get(i).getSent());
+      assertEquals(i, outstanding.getSendNanos(i));
+    }
+  }
+}
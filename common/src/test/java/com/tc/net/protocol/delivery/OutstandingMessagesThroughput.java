@@ -0,0 +1,66 @@
+/*
+ *
+ *  The contents of this file are subject to the Terracotta Public License Version
+ *  2.0 (the "License"); You may not use this file except in compliance with the
+ *  License. You may obtain a copy of the License at
+ *
+ *  http://terracotta.org/legal/terracotta-public-license.
+ *
+ *  Software distributed under the License is distributed on an "AS IS" basis,
+ *  WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License for
+ *  the specific language governing rights and limitations under the License.
+ *
+ *  The Covered Software is Terracotta Core.
+ *
+ *  The Initial Developer of the Covered Software is
+ *  Terracotta, Inc., a Software AG company
+ *
+ */
+package com.tc.net.protocol.delivery;
+
+import java.util.LinkedList;
+
+/**
+ * Reports the cost of sending and acking a message with the {@link OutstandingMessages} ring and with the linked list
+ * it replaced. Not part of the test suite, run it by hand.
+ */
+public class OutstandingMessagesThroughput {
+
+  public static void main(String[] args) {
+    final int window = 1024;
+    final int ackEvery = 16;
+    final int messages = 4 * 1024 * 1024;
+    final int rounds = args.length > 0 ? Integer.parseInt(args[0]) : 5;
+    final TestProtocolMessage[] pool = new TestProtocolMessage[window];
+    for (int i = 0; i < window; i++) {
+      pool[i] = new TestProtocolMessage(null, i, -1);
+    }
+
+    for (int round = 0; round < rounds; round++) {
+      OutstandingMessages ring = new OutstandingMessages(window);
+      long start = System.nanoTime();
+      for (int i = 0; i < messages; i++) {
+        ring.add(i, pool[i & (window - 1)], 0);
+        if (i % ackEvery == ackEvery - 1) {
+          ring.release(i);
+        }
+      }
+      final long ringNanos = System.nanoTime() - start;
+
+      LinkedList<OOOProtocolMessage> list = new LinkedList<OOOProtocolMessage>();
+      start = System.nanoTime();
+      for (int i = 0; i < messages; i++) {
+        list.add(pool[i & (window - 1)]);
+        if (i % ackEvery == ackEvery - 1) {
+          for (int j = 0; j < ackEvery; j++) {
+            list.removeFirst().reallyDoRecycleOnWrite();
+          }
+        }
+      }
+      final long listNanos = System.nanoTime() - start;
+
+      System.out.println("ring: " + (double) ringNanos / messages + " ns/msg; linked list: "
+                         + (double) listNanos / messages + " ns/msg");
+    }
+  }
+}
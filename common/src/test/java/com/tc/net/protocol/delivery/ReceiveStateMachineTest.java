@@ -22,10 +22,18 @@ import com.tc.net.protocol.TCNetworkMessage;
 import com.tc.net.protocol.tcm.NullMessageMonitor;
 import com.tc.net.protocol.tcm.msgs.PingMessage;
 import com.tc.properties.L1ReconnectConfigImpl;
+import com.tc.properties.ReconnectConfig;
 import com.tc.test.TCTestCase;
+import com.tc.util.UUID;
 
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Timer;
+import java.util.TimerTask;
 import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 /**
  * Testing the basic functionality of OOO Receive State Machine. More functional test at GuaranteedDeliveryProtocolTest
@@ -58,4 +66,214 @@ public class ReceiveStateMachineTest extends TCTestCase {
     assertEquals(received, delivery.receivedMessageCount);
     assertTrue(receiveQueue.poll() == null);
   }
+
+  public void testDelayedAcks() throws Exception {
+    final List<Long> acks = new CopyOnWriteArrayList<Long>();
+    TestProtocolMessageDelivery delivery = recordingDelivery(acks);
+    // 4 unacked messages start the ack delay, 24 (three quarters of the send window) force an ack
+    ReconnectConfig config = new AbstractReconnectConfig(true, 5000, 5000, 4, 32, 0, 0, 1, "test");
+    ManualTimer ackTimer = new ManualTimer();
+    ReceiveStateMachine rsm = new ReceiveStateMachine(delivery, config, true, ackTimer);
+    rsm.start();
+    rsm.resume();
+
+    long seq = 0;
+    for (; seq < 4; seq++) {
+      rsm.execute(sendMessage(seq));
+    }
+    assertTrue(acks.isEmpty());
+    assertEquals(1, ackTimer.runScheduled());
+    assertEquals(Long.valueOf(3), acks.get(0));
+    assertEquals(1, rsm.getDelayedAcks());
+
+    // the ack is carried by a message going the other way before the delay expires
+    for (; seq < 8; seq++) {
+      rsm.execute(sendMessage(seq));
+    }
+    assertEquals(7, rsm.ackSequence());
+    assertEquals(1, ackTimer.runScheduled());
+    assertEquals(1, acks.size());
+
+    // the sender must not run out of window while the ack is held back
+    for (; seq < 32; seq++) {
+      rsm.execute(sendMessage(seq));
+    }
+    assertEquals(2, acks.size());
+    assertEquals(Long.valueOf(31), acks.get(1));
+    assertEquals(1, rsm.getForcedAcks());
+    assertEquals(0, rsm.getStandaloneAcks());
+    assertEquals(0, rsm.getRepeatedAcks());
+  }
+
+  public void testDelayedAcksWithShippedDefaults() throws Exception {
+    // maxDelayedAcks = 16, sendWindow = 32, sendWindow.max = 0, maxAckDelay.millis = 1
+    for (ReconnectConfig config : new ReconnectConfig[] { new L1ReconnectConfigImpl(), new L2ReconnectConfigImpl() }) {
+      final List<Long> acks = new CopyOnWriteArrayList<Long>();
+      ManualTimer ackTimer = new ManualTimer();
+      ReceiveStateMachine rsm = new ReceiveStateMachine(recordingDelivery(acks), config, true, ackTimer);
+      assertEquals(24, rsm.getForcedAckThreshold());
+      rsm.start();
+      rsm.resume();
+
+      long seq = 0;
+      for (; seq < 16; seq++) {
+        rsm.execute(sendMessage(seq));
+      }
+      assertTrue(acks.isEmpty());
+      assertEquals(Long.valueOf(1), ackTimer.delays.get(0));
+      assertEquals(1, ackTimer.runScheduled());
+      assertEquals(1, rsm.getDelayedAcks());
+
+      for (; seq < 40; seq++) {
+        rsm.execute(sendMessage(seq));
+      }
+      assertEquals(2, acks.size());
+      assertEquals(Long.valueOf(39), acks.get(1));
+      assertEquals(1, rsm.getForcedAcks());
+    }
+  }
+
+  public void testAckDelayStaysBelowQueueingFloor() throws Exception {
+    ReconnectConfig config = new AbstractReconnectConfig(true, 5000, 5000, 4, 32, 0, 0, 100, "test");
+    ManualTimer ackTimer = new ManualTimer();
+    ReceiveStateMachine rsm = new ReceiveStateMachine(recordingDelivery(new CopyOnWriteArrayList<Long>()), config, true,
+                                                      ackTimer);
+    rsm.start();
+    rsm.resume();
+    for (long seq = 0; seq < 4; seq++) {
+      rsm.execute(sendMessage(seq));
+    }
+    assertEquals(Long.valueOf(SendWindow.MAX_ACK_DELAY_MILLIS), ackTimer.delays.get(0));
+  }
+
+  public void testForcedAckFollowsPeerSendWindow() throws Exception {
+    final List<Long> acks = new CopyOnWriteArrayList<Long>();
+    // the local window of 64 would only force an ack at 60 unacked messages
+    ReconnectConfig config = new AbstractReconnectConfig(true, 5000, 5000, 4, 64, 0, 0, 1, "test");
+    ReceiveStateMachine rsm = new ReceiveStateMachine(recordingDelivery(acks), config, true, new ManualTimer());
+    rsm.setPeerSendWindow(16);
+    assertEquals(12, rsm.getForcedAckThreshold());
+    rsm.start();
+    rsm.resume();
+
+    for (long seq = 0; seq < 12; seq++) {
+      rsm.execute(sendMessage(seq));
+    }
+    assertEquals(1, acks.size());
+    assertEquals(Long.valueOf(11), acks.get(0));
+
+    // a new session with the same peer keeps its window
+    rsm.reset();
+    assertEquals(12, rsm.getForcedAckThreshold());
+  }
+
+  public void testRepeatedAcksAreNotStandalone() throws Exception {
+    final List<Long> acks = new CopyOnWriteArrayList<Long>();
+    ReconnectConfig config = new AbstractReconnectConfig(true, 5000, 5000, 4, 32, 0, 0, 0, "test");
+    ReceiveStateMachine rsm = new ReceiveStateMachine(recordingDelivery(acks), config, true);
+    rsm.start();
+    rsm.resume();
+
+    rsm.execute(sendMessage(0));
+    rsm.execute(sendMessage(0));
+    rsm.execute(sendMessage(5));
+    assertEquals(2, acks.size());
+    assertEquals(2, rsm.getRepeatedAcks());
+    assertEquals(0, rsm.getStandaloneAcks());
+
+    for (long seq = 1; seq < 5; seq++) {
+      rsm.execute(sendMessage(seq));
+    }
+    assertEquals(3, acks.size());
+    assertEquals(1, rsm.getStandaloneAcks());
+  }
+
+  public void testFailingDelayedAckDoesNotEscapeTimer() throws Exception {
+    final AtomicBoolean fail = new AtomicBoolean(true);
+    TestProtocolMessageDelivery delivery = new TestProtocolMessageDelivery(new LinkedBlockingQueue<TCNetworkMessage>()) {
+      @Override
+      public boolean sendMessage(OOOProtocolMessage pmsg) {
+        if (fail.get()) { throw new IllegalStateException("send failed"); }
+        return super.sendMessage(pmsg);
+      }
+    };
+    ReconnectConfig config = new AbstractReconnectConfig(true, 5000, 5000, 4, 32, 0, 0, 1, "test");
+    ManualTimer ackTimer = new ManualTimer();
+    ReceiveStateMachine rsm = new ReceiveStateMachine(delivery, config, true, ackTimer);
+    rsm.start();
+    rsm.resume();
+
+    long seq = 0;
+    for (; seq < 4; seq++) {
+      rsm.execute(sendMessage(seq));
+    }
+    // run() must not throw, that would kill the timer shared by all connections
+    assertEquals(1, ackTimer.runScheduled());
+    assertEquals(0, rsm.getDelayedAcks());
+
+    fail.set(false);
+    rsm.execute(sendMessage(seq));
+    assertEquals(1, ackTimer.runScheduled());
+    assertEquals(1, rsm.getDelayedAcks());
+  }
+
+  public void testSendWindowInHandshake() throws Exception {
+    OOOProtocolMessageFactory factory = new OOOProtocolMessageFactory();
+    OOOProtocolMessageParser parser = new OOOProtocolMessageParser(factory);
+    UUID session = UUID.getUUID();
+
+    OOOProtocolMessage handshake = factory.createNewHandshakeMessage(session, 5, 17);
+    assertEquals(17, OOOProtocolMessageFactory.getSendWindow(parser.parseMessage(handshake.getEntireMessageData())));
+    OOOProtocolMessage reply = factory.createNewHandshakeReplyOkMessage(session, 5, 0);
+    assertEquals(0, OOOProtocolMessageFactory.getSendWindow(parser.parseMessage(reply.getEntireMessageData())));
+
+    // what an older peer sends
+    OOOProtocolMessage old = factory.createNewHandshakeMessage(session, 5);
+    OOOProtocolMessage parsed = parser.parseMessage(old.getEntireMessageData());
+    assertTrue(parsed.isHandshake());
+    assertEquals(-1, OOOProtocolMessageFactory.getSendWindow(parsed));
+  }
+
+  private static TestProtocolMessageDelivery recordingDelivery(List<Long> acks) {
+    return new TestProtocolMessageDelivery(new LinkedBlockingQueue<TCNetworkMessage>()) {
+      @Override
+      public boolean sendMessage(OOOProtocolMessage pmsg) {
+        acks.add(pmsg.getAckSequence());
+        return super.sendMessage(pmsg);
+      }
+    };
+  }
+
+  /**
+   * Collects the scheduled tasks for the test to run, instead of running them in the background.
+   */
+  private static class ManualTimer extends Timer {
+    private final List<TimerTask> tasks  = new ArrayList<TimerTask>();
+    final List<Long>              delays = new ArrayList<Long>();
+
+    ManualTimer() {
+      super(true);
+    }
+
+    @Override
+    public synchronized void schedule(TimerTask task, long delay) {
+      tasks.add(task);
+      delays.add(delay);
+    }
+
+    synchronized int runScheduled() {
+      List<TimerTask> run = new ArrayList<TimerTask>(tasks);
+      tasks.clear();
+      for (TimerTask task : run) {
+        task.run();
+      }
+      return run.size();
+    }
+  }
+
+  private static TestProtocolMessage sendMessage(long seq) {
+    TestProtocolMessage tpm = new TestProtocolMessage(new PingMessage(new NullMessageMonitor()), seq, -1);
+    tpm.isSend = true;
+    return tpm;
+  }
 }
@@ -27,7 +27,11 @@ import com.tc.properties.ReconnectConfig;
 import com.tc.test.TCTestCase;
 import com.tc.util.UUID;
 
+import java.util.ArrayList;
+import java.util.List;
 import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * Testing the basic functionality of OOO Send State Machine. More functional test at GuaranteedDeliveryProtocolTest
@@ -103,4 +107,138 @@ public class SendStateMachineTest extends TCTestCase {
     assertEquals(4, delivery.msg.getSent());
 
   }
+
+  public void testAdaptiveSendWindow() throws Exception {
+    final List<Long> sends = new ArrayList<Long>();
+    TestProtocolMessageDelivery delivery = new TestProtocolMessageDelivery(new LinkedBlockingQueue<TCNetworkMessage>()) {
+      @Override
+      public boolean sendMessage(OOOProtocolMessage pmsg) {
+        sends.add(pmsg.getSent());
+        return super.sendMessage(pmsg);
+      }
+    };
+    final UUID sessionId = UUID.getUUID();
+    final ReconnectConfig reconnectConfig = new L1ReconnectConfigImpl(true, 5000, 0, 16, 32, 17, 256);
+    final AtomicLong nanoTime = new AtomicLong(TimeUnit.SECONDS.toNanos(1));
+    SendStateMachine ssm = new SendStateMachine(delivery, reconnectConfig, true, nanoTime::get);
+    ssm.start();
+    ssm.resume();
+    ssm.execute(handshakeReply(sessionId, -1));
+
+    MessageMonitor monitor = new NullMessageMonitor();
+    for (int i = 0; i < 1000; i++) {
+      ssm.put(new PingMessage(monitor));
+    }
+    ssm.execute(null);
+    assertEquals(32, sends.size());
+    assertEquals(32, ssm.getSendWindow());
+
+    // a quick ack while below the slow start threshold grows the window by the number of messages acked
+    sends.clear();
+    ssm.execute(ack(sessionId, 31));
+    assertEquals(64, ssm.getSendWindow());
+    assertEquals(64, sends.size());
+    assertEquals(Long.valueOf(32), sends.get(0));
+
+    // a late ack shrinks it, the sender waits until no more than the window is outstanding
+    sends.clear();
+    nanoTime.addAndGet(TimeUnit.MILLISECONDS.toNanos(50));
+    ssm.execute(ack(sessionId, 40));
+    assertEquals(44, ssm.getSendWindow());
+    assertEquals(0, sends.size());
+
+    // after a reconnect only the minimum window of outstanding messages is resent at once
+    ssm.pause();
+    ssm.resume();
+    ssm.execute(handshakeReply(sessionId, 40));
+    assertEquals(17, ssm.getSendWindow());
+    assertEquals(17, sends.size());
+    assertEquals(Long.valueOf(41), sends.get(0));
+    assertEquals(Long.valueOf(57), sends.get(16));
+
+    // the rest of the resends follow as acks come in, only then new messages are sent
+    sends.clear();
+    ssm.execute(ack(sessionId, 57));
+    assertEquals(22, ssm.getSendWindow());
+    assertEquals(22, sends.size());
+    assertEquals(Long.valueOf(58), sends.get(0));
+    assertEquals(Long.valueOf(79), sends.get(21));
+
+    sends.clear();
+    ssm.execute(ack(sessionId, 79));
+    assertEquals(Long.valueOf(80), sends.get(0));
+    assertEquals(Long.valueOf(95), sends.get(15));
+    assertEquals(Long.valueOf(96), sends.get(16));
+  }
+
+  public void testConcurrentSenders() throws Exception {
+    final AtomicLong lastSent = new AtomicLong(-1);
+    TestProtocolMessageDelivery delivery = new TestProtocolMessageDelivery(new LinkedBlockingQueue<TCNetworkMessage>()) {
+      @Override
+      public boolean sendMessage(OOOProtocolMessage pmsg) {
+        assertEquals(lastSent.get() + 1, pmsg.getSent());
+        lastSent.set(pmsg.getSent());
+        return true;
+      }
+    };
+    final UUID sessionId = UUID.getUUID();
+    // a send queue much smaller than the number of senders times their messages, senders block on it
+    final ReconnectConfig reconnectConfig = new L1ReconnectConfigImpl(true, 5000, 8, 4, 16);
+    final SendStateMachine ssm = new SendStateMachine(delivery, reconnectConfig, true);
+    ssm.start();
+    ssm.resume();
+    ssm.execute(handshakeReply(sessionId, -1));
+
+    final int senders = 4;
+    final int messages = 2000;
+    final MessageMonitor monitor = new NullMessageMonitor();
+    List<Thread> threads = new ArrayList<Thread>();
+    for (int i = 0; i < senders; i++) {
+      Thread t = new Thread("sender-" + i) {
+        @Override
+        public void run() {
+          try {
+            for (int j = 0; j < messages; j++) {
+              ssm.put(new PingMessage(monitor));
+              ssm.sendQueued();
+            }
+          } catch (InterruptedException e) {
+            throw new AssertionError(e);
+          }
+        }
+      };
+      t.start();
+      threads.add(t);
+    }
+
+    long acked = -1;
+    while (acked < senders * messages - 1) {
+      final long sent = lastSent.get();
+      if (sent > acked) {
+        ssm.execute(ack(sessionId, sent));
+        acked = sent;
+      } else {
+        Thread.sleep(1);
+      }
+    }
+    for (Thread t : threads) {
+      t.join();
+    }
+    assertEquals(senders * messages - 1, lastSent.get());
+    assertTrue(ssm.isClean());
+  }
+
+  private static TestProtocolMessage handshakeReply(UUID sessionId, long ack) {
+    TestProtocolMessage msg = new TestProtocolMessage(null, 0, ack);
+    msg.isHandshakeReplyOk = true;
+    msg.setSessionId(sessionId);
+    return msg;
+  }
+
+  private static TestProtocolMessage ack(UUID sessionId, long ack) {
+    TestProtocolMessage msg = new TestProtocolMessage(null, -1, ack);
+    msg.isAck = true;
+    msg.setSessionId(sessionId);
+    return msg;
+  }
 }
@@ -0,0 +1,181 @@
+/*
+ *
+ *  The contents of this file are subject to the Terracotta Public License Version
+ *  2.0 (the "License"); You may not use this file except in compliance with the
+ *  License. You may obtain a copy of the License at
+ *
+ *  http://terracotta.org/legal/terracotta-public-license.
+ *
+ *  Software distributed under the License is distributed on an "AS IS" basis,
+ *  WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License for
+ *  the specific language governing rights and limitations under the License.
+ *
+ *  The Covered Software is Terracotta Core.
+ *
+ *  The Initial Developer of the Covered Software is
+ *  Terracotta, Inc., a Software AG company
+ *
+ */
+package com.tc.net.proxy;
+
+import com.tc.net.proxy.ShapingConfig.JitterDistribution;
+import java.io.ByteArrayOutputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Runs the delay line on a virtual clock that only moves when the sender waits, so every chunk is written at an exact
+ * point in time. All data is queued before the sender starts.
+ */
+public class ShapedPipeTest {
+
+  private static final long START = TimeUnit.SECONDS.toNanos(1);
+
+  @Test
+  public void testBandwidthCap() throws Exception {
+    // 100 byte chunks at 1000 bytes/s leave 100ms between writes
+    Recorder recorder = run(new ShapingConfig(1000, 0, 0, JitterDistribution.NONE, 100), 1000);
+
+    assertEquals(10, recorder.times.size());
+    for (int i = 0; i < 10; i++) {
+      assertEquals(TimeUnit.MILLISECONDS.toNanos(100 * i), recorder.times.get(i) - START);
+    }
+  }
+
+  @Test
+  public void testLatency() throws Exception {
+    ShapedPipeRun run = new ShapedPipeRun(new ShapingConfig(0, 20, 0, JitterDistribution.NONE, 100));
+    run.pipe.send(new byte[100], 0, 100);
+    run.clock.advance(TimeUnit.MILLISECONDS.toNanos(5));
+    run.pipe.send(new byte[100], 0, 100);
+    run.clock.advance(TimeUnit.MILLISECONDS.toNanos(5));
+    run.pipe.send(new byte[100], 0, 100);
+    Recorder recorder = run.finish();
+
+    // each chunk is held back for the latency alone, chunks in flight don't wait for each other
+    assertEquals(Arrays.asList(START + TimeUnit.MILLISECONDS.toNanos(20), START + TimeUnit.MILLISECONDS.toNanos(25),
+                               START + TimeUnit.MILLISECONDS.toNanos(30)), recorder.times);
+    Map<String, Object> stats = run.pipe.getStats();
+    assertEquals(300L, stats.get("bytes"));
+    assertEquals(20000L, stats.get("minLatencyMicros"));
+    assertEquals(20000L, stats.get("maxLatencyMicros"));
+  }
+
+  @Test
+  public void testLatencyAndBandwidthCap() throws Exception {
+    Recorder recorder = run(new ShapingConfig(1000, 50, 0, JitterDistribution.NONE, 100), 300);
+
+    // the latency delays the first chunk only, from then on the cap paces the writes
+    assertEquals(Arrays.asList(START + TimeUnit.MILLISECONDS.toNanos(50), START + TimeUnit.MILLISECONDS.toNanos(150),
+                               START + TimeUnit.MILLISECONDS.toNanos(250)), recorder.times);
+  }
+
+  @Test
+  public void testJitterNeverReorders() throws Exception {
+    byte[] data = new byte[64 * 1024];
+    for (int i = 0; i < data.length; i++) {
+      data[i] = (byte) i;
+    }
+    ShapedPipeRun run = new ShapedPipeRun(new ShapingConfig(0, 20, 10, JitterDistribution.NORMAL, 1000));
+    run.pipe.send(data, 0, data.length);
+    Recorder recorder = run.finish();
+
+    assertArrayEquals(data, recorder.toByteArray());
+    for (int i = 1; i < recorder.times.size(); i++) {
+      assertTrue(recorder.times.get(i) >= recorder.times.get(i - 1));
+    }
+  }
+
+  private static Recorder run(ShapingConfig config, int length) throws Exception {
+    ShapedPipeRun run = new ShapedPipeRun(config);
+    run.pipe.send(new byte[length], 0, length);
+    return run.finish();
+  }
+
+  private static class ShapedPipeRun {
+    private final VirtualClock   clock    = new VirtualClock(START);
+    private final Recorder       recorder = new Recorder(clock);
+    private final CountDownLatch finished = new CountDownLatch(1);
+    private final ShapedPipe     pipe;
+
+    ShapedPipeRun(ShapingConfig config) {
+      pipe = new ShapedPipe(config, recorder, finished::countDown, "ShapedPipeTest", clock);
+    }
+
+    Recorder finish() throws InterruptedException {
+      pipe.finish();
+      pipe.start();
+      assertTrue(finished.await(30, TimeUnit.SECONDS));
+      return recorder;
+    }
+  }
+
+  /**
+   * Waiting and sleeping move the clock to the deadline right away.
+   */
+  private static class VirtualClock implements ShapedPipe.Clock {
+    private final AtomicLong now;
+
+    VirtualClock(long start) {
+      now = new AtomicLong(start);
+    }
+
+    void advance(long nanos) {
+      now.addAndGet(nanos);
+    }
+
+    @Override
+    public long nanoTime() {
+      return now.get();
+    }
+
+    @Override
+    public void timedWait(Object monitor, long nanos) {
+      advance(nanos);
+    }
+
+    @Override
+    public void sleep(long nanos) {
+      advance(nanos);
+    }
+  }
+
+  /**
+   * Records the virtual time of every write.
+   */
+  private static class Recorder extends OutputStream {
+    private final VirtualClock          clock;
+    private final ByteArrayOutputStream data  = new ByteArrayOutputStream();
+    private final List<Long>            times = new ArrayList<>();
+
+    Recorder(VirtualClock clock) {
+      this.clock = clock;
+    }
+
+    @Override
+    public synchronized void write(int b) {
+      write(new byte[] { (byte) b }, 0, 1);
+    }
+
+    @Override
+    public synchronized void write(byte[] b, int off, int len) {
+      times.add(clock.nanoTime());
+      data.write(b, off, len);
+    }
+
+    synchronized byte[] toByteArray() {
+      return data.toByteArray();
+    }
+  }
+}
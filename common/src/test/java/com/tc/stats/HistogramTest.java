@@ -0,0 +1,131 @@
+/*
+ *
+ *  The contents of this file are subject to the Terracotta Public License Version
+ *  2.0 (the "License"); You may not use this file except in compliance with the
+ *  License. You may obtain a copy of the License at
+ *
+ *  http://terracotta.org/legal/terracotta-public-license.
+ *
+ *  Software distributed under the License is distributed on an "AS IS" basis,
+ *  WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License for
+ *  the specific language governing rights and limitations under the License.
+ *
+ *  The Covered Software is Terracotta Core.
+ *
+ *  The Initial Developer of the Covered Software is
+ *  Terracotta, Inc., a Software AG company
+ *
+ */
+package com.tc.stats;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class HistogramTest {
+
+  @Test
+  public void testBucketsCoverAllValues() {
+    long previousBound = -1;
+    for (int bucket = 0; bucket < 248; bucket++) {
+      final long bound = Histogram.upperBoundOf(bucket);
+      assertTrue(bound > previousBound);
+      assertEquals(bucket, Histogram.bucketOf(previousBound + 1));
+      assertEquals(bucket, Histogram.bucketOf(bound));
+      previousBound = bound;
+    }
+    assertEquals(Long.MAX_VALUE, previousBound);
+  }
+
+  @Test
+  public void testEmpty() {
+    Histogram h = new Histogram();
+    assertEquals(0, h.getCount());
+    assertEquals(0, h.getMean());
+    assertEquals(0, h.getPercentile(99));
+    assertEquals(0, h.getMax());
+  }
+
+  @Test
+  public void testPercentiles() {
+    Histogram h = new Histogram();
+    for (int i = 1; i <= 1000; i++) {
+      h.record(i);
+    }
+    assertEquals(1000, h.getCount());
+    assertEquals(500, h.getMean());
+    assertEquals(1000, h.getMax());
+    assertWithin(500, h.getPercentile(50));
+    assertWithin(990, h.getPercentile(99));
+    assertEquals(1000, h.getPercentile(100));
+    assertEquals(1, h.getPercentile(0));
+  }
+
+  @Test
+  public void testNegativeValuesCountAsZero() {
+    Histogram h = new Histogram();
+    h.record(-5);
+    assertEquals(1, h.getCount());
+    assertEquals(0, h.getMax());
+    assertEquals(0, h.getPercentile(50));
+  }
+
+  @Test
+  public void testAddTo() {
+    Random r = new Random(1);
+    Histogram a = new Histogram();
+    Histogram b = new Histogram();
+    Histogram all = new Histogram();
+    for (int i = 0; i < 10000; i++) {
+      long v = r.nextInt(1000000);
+      (i % 2 == 0 ? a : b).record(v);
+      all.record(v);
+    }
+    Histogram merged = new Histogram();
+    a.addTo(merged);
+    b.addTo(merged);
+    assertEquals(all.getStateMap(), merged.getStateMap());
+  }
+
+  @Test
+  public void testConcurrentRecording() throws Exception {
+    final Histogram h = new Histogram();
+    Thread[] threads = new Thread[4];
+    for (int t = 0; t < threads.length; t++) {
+      threads[t] = new Thread() {
+        @Override
+        public void run() {
+          for (int i = 0; i < 100000; i++) {
+            h.record(i);
+          }
+        }
+      };
+      threads[t].start();
+    }
+    for (Thread thread : threads) {
+      thread.join();
+    }
+    assertEquals(400000, h.getCount());
+    assertEquals(99999, h.getMax());
+  }
+
+  @Test
+  public void testFinerPrecision() {
+    Histogram h = new Histogram(4);
+    for (int i = 1; i <= 10000; i++) {
+      h.record(i);
+    }
+    long p999 = h.getPercentile(99.9);
+    assertTrue(p999 >= 9990 && p999 <= 9990 + 9990 / 16);
+    assertEquals(p999, h.getStateMap().get("p999"));
+  }
+
+  private static void assertWithin(long expected, long actual) {
+    // one sub bucket is a quarter of a power of two wide
+    assertTrue("expected about " + expected + " but was " + actual,
+               actual >= expected && actual <= expected + expected / 4);
+  }
+}
@@ -0,0 +1,53 @@
+/*
+ *
+ *  The contents of this file are subject to the Terracotta Public License Version
+ *  2.0 (the "License"); You may not use this file except in compliance with the
+ *  License. You may obtain a copy of the License at
+ *
+ *  http://terracotta.org/legal/terracotta-public-license.
+ *
+ *  Software distributed under the License is distributed on an "AS IS" basis,
+ *  WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License for
+ *  the specific language governing rights and limitations under the License.
+ *
+ *  The Covered Software is Terracotta Core.
+ *
+ *  The Initial Developer of the Covered Software is
+ *  Terracotta, Inc., a Software AG company
+ *
+ */
+package com.tc.stats;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+public class WindowedHistogramTest {
+
+  @Test
+  public void testWindowsRoll() throws Exception {
+    WindowedHistogram h = new WindowedHistogram(2, 200);
+    h.record(10);
+    h.record(20);
+    assertEquals(2, h.getCurrentWindow().getCount());
+    assertEquals(0, h.getLastWindow().getCount());
+    Thread.sleep(250);
+    h.record(30);
+    assertEquals(2, h.getLastWindow().getCount());
+    assertEquals(20, h.getLastWindow().getMax());
+    assertEquals(1, h.getCurrentWindow().getCount());
+    // a window with nothing in it leaves nothing behind
+    Thread.sleep(450);
+    assertEquals(0, h.getLastWindow().getCount());
+    assertEquals(0, h.getCurrentWindow().getCount());
+  }
+
+  @Test
+  public void testReset() {
+    WindowedHistogram h = new WindowedHistogram(2, 60000);
+    h.record(10);
+    h.reset();
+    assertEquals(0, h.getCurrentWindow().getCount());
+    assertEquals(0, h.getLastWindow().getCount());
+  }
+}
@@ -0,0 +1,65 @@
+/*
+ *
+ *  The contents of this file are subject to the Terracotta Public License Version
+ *  2.0 (the "License"); You may not use this file except in compliance with the
+ *  License. You may obtain a copy of the License at
+ *
+ *  http://terracotta.org/legal/terracotta-public-license.
+ *
+ *  Software distributed under the License is distributed on an "AS IS" basis,
+ *  WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License for
+ *  the specific language governing rights and limitations under the License.
+ *
+ *  The Covered Software is Terracotta Core.
+ *
+ *  The Initial Developer of the Covered Software is
+ *  Terracotta, Inc., a Software AG company
+ *
+ */
+package com.tc.util.concurrent;
+
+import com.tc.async.impl.Event;
+import com.tc.properties.TCPropertiesConsts;
+import com.tc.properties.TCPropertiesImpl;
+
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+
+import junit.framework.TestCase;
+
+public class QueueFactoryTest extends TestCase {
+
+  public void testStageQueueType() throws Exception {
+    TCPropertiesImpl.getProperties().setProperty(String.format(TCPropertiesConsts.SEDA_STAGE_QUEUE_TYPE, "ring_test"), "ring");
+    TCPropertiesImpl.getProperties().setProperty(String.format(TCPropertiesConsts.SEDA_STAGE_QUEUE_WAIT, "ring_test"), "park");
+    QueueFactory factory = new QueueFactory();
+
+    BlockingQueue<Event> bounded = factory.createInstance("ring_test", Object.class, 1000);
+    assertTrue(bounded instanceof RingBufferBlockingQueue);
+    assertEquals(1024, ((RingBufferBlockingQueue<?>) bounded).capacity());
+
+    // a ring can't be unbounded, so unbounded stages keep the linked queue
+    BlockingQueue<Event> unbounded = factory.createInstance("ring_test", Object.class, Integer.MAX_VALUE);
+    assertTrue(unbounded instanceof LinkedBlockingQueue);
+    assertEquals(Integer.MAX_VALUE, unbounded.remainingCapacity());
+
+    assertTrue(factory.createInstance("linked_test", Object.class, 1000) instanceof LinkedBlockingQueue);
+  }
+
+  public void testRingCapacity() throws Exception {
+    TCPropertiesImpl.getProperties().setProperty(String.format(TCPropertiesConsts.SEDA_STAGE_QUEUE_TYPE, "ring_capacity_test"), "ring");
+    TCPropertiesImpl.getProperties().setProperty(String.format(TCPropertiesConsts.SEDA_STAGE_QUEUE_CAPACITY, "ring_capacity_test"), "4096");
+    QueueFactory factory = new QueueFactory();
+
+    // the ring capacity bounds unbounded stages and overrides the capacity of bounded ones
+    BlockingQueue<Event> unbounded = factory.createInstance("ring_capacity_test", Object.class, Integer.MAX_VALUE);
+    assertTrue(unbounded instanceof RingBufferBlockingQueue);
+    assertEquals(4096, ((RingBufferBlockingQueue<?>) unbounded).capacity());
+    BlockingQueue<Event> bounded = factory.createInstance("ring_capacity_test", Object.class, 100);
+    assertEquals(4096, ((RingBufferBlockingQueue<?>) bounded).capacity());
+
+    // and means nothing to a linked queue
+    TCPropertiesImpl.getProperties().setProperty(String.format(TCPropertiesConsts.SEDA_STAGE_QUEUE_CAPACITY, "linked_capacity_test"), "4096");
+    assertEquals(100, factory.createInstance("linked_capacity_test", Object.class, 100).remainingCapacity());
+  }
+}
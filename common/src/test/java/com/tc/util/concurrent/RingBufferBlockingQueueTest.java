@@ -0,0 +1,167 @@
+/*
+ *
+ *  The contents of this file are subject to the Terracotta Public License Version
+ *  2.0 (the "License"); You may not use this file except in compliance with the
+ *  License. You may obtain a copy of the License at
+ *
+ *  http://terracotta.org/legal/terracotta-public-license.
+ *
+ *  Software distributed under the License is distributed on an "AS IS" basis,
+ *  WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License for
+ *  the specific language governing rights and limitations under the License.
+ *
+ *  The Covered Software is Terracotta Core.
+ *
+ *  The Initial Developer of the Covered Software is
+ *  Terracotta, Inc., a Software AG company
+ *
+ */
+package com.tc.util.concurrent;
+
+import com.tc.util.concurrent.RingBufferBlockingQueue.WaitStrategy;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import junit.framework.TestCase;
+
+public class RingBufferBlockingQueueTest extends TestCase {
+
+  public void testBounded() throws Exception {
+    RingBufferBlockingQueue<Integer> queue = new RingBufferBlockingQueue<>(3);
+    assertEquals(4, queue.capacity());
+    for (int i = 0; i < 4; i++) {
+      assertTrue(queue.offer(i));
+    }
+    assertFalse(queue.offer(4));
+    assertFalse(queue.offer(4, 10, TimeUnit.MILLISECONDS));
+    assertEquals(4, queue.size());
+    assertEquals(0, queue.remainingCapacity());
+    assertEquals(Integer.valueOf(0), queue.peek());
+    for (int i = 0; i < 4; i++) {
+      assertEquals(Integer.valueOf(i), queue.poll());
+    }
+    assertNull(queue.poll());
+    assertNull(queue.poll(10, TimeUnit.MILLISECONDS));
+    assertTrue(queue.isEmpty());
+  }
+
+  public void testWrapsAround() throws Exception {
+    RingBufferBlockingQueue<Integer> queue = new RingBufferBlockingQueue<>(2);
+    for (int i = 0; i < 100; i++) {
+      queue.put(i);
+      assertEquals(Integer.valueOf(i), queue.take());
+    }
+    queue.put(1);
+    queue.put(2);
+    List<Integer> drained = new ArrayList<>();
+    assertEquals(2, queue.drainTo(drained));
+    assertEquals(2, drained.size());
+  }
+
+  public void testIteratesOverSnapshot() throws Exception {
+    RingBufferBlockingQueue<Integer> queue = new RingBufferBlockingQueue<>(4);
+    assertFalse(queue.iterator().hasNext());
+    // move the head past the end of the array so the snapshot has to wrap
+    for (int i = 0; i < 3; i++) {
+      queue.put(i);
+      queue.take();
+    }
+    for (int i = 0; i < 4; i++) {
+      queue.put(i);
+    }
+    Iterator<Integer> it = queue.iterator();
+    queue.take();
+    queue.put(4);
+    for (int i = 0; i < 4; i++) {
+      assertTrue(it.hasNext());
+      assertEquals(Integer.valueOf(i), it.next());
+    }
+    assertFalse(it.hasNext());
+    assertTrue(queue.contains(4));
+    assertFalse(queue.contains(0));
+    try {
+      queue.iterator().remove();
+      fail();
+    } catch (UnsupportedOperationException | IllegalStateException expected) {
+      // snapshot is read only
+    }
+  }
+
+  public void testIteratesWhileConsumed() throws Exception {
+    RingBufferBlockingQueue<Integer> queue = new RingBufferBlockingQueue<>(8);
+    Thread consumer = new Thread(() -> {
+      try {
+        for (int i = 0; i < 50000; i++) {
+          queue.take();
+        }
+      } catch (InterruptedException e) {
+        throw new AssertionError(e);
+      }
+    });
+    consumer.start();
+    int produced = 0;
+    while (consumer.isAlive()) {
+      if (produced < 50000 && queue.offer(produced)) {
+        produced++;
+      }
+      int last = -1;
+      for (Integer e : queue) {
+        // every element seen is one that was put, in order
+        assertTrue(e > last && e < produced);
+        last = e;
+      }
+    }
+    consumer.join();
+  }
+
+  public void testProducersAndConsumers() throws Exception {
+    for (WaitStrategy wait : WaitStrategy.values()) {
+      exchange(new RingBufferBlockingQueue<Long>(16, wait));
+    }
+  }
+
+  private void exchange(RingBufferBlockingQueue<Long> queue) throws Exception {
+    final int producers = 4;
+    final int perProducer = 20000;
+    final AtomicLong sum = new AtomicLong();
+    final AtomicLong count = new AtomicLong();
+    List<Thread> threads = new ArrayList<>();
+    for (int p = 0; p < producers; p++) {
+      threads.add(new Thread(() -> {
+        try {
+          for (long i = 1; i <= perProducer; i++) {
+            queue.put(i);
+          }
+        } catch (InterruptedException e) {
+          throw new AssertionError(e);
+        }
+      }));
+    }
+    for (int c = 0; c < 2; c++) {
+      threads.add(new Thread(() -> {
+        try {
+          Long next;
+          while ((next = queue.poll(500, TimeUnit.MILLISECONDS)) != null) {
+            sum.addAndGet(next);
+            count.incrementAndGet();
+          }
+        } catch (InterruptedException e) {
+          throw new AssertionError(e);
+        }
+      }));
+    }
+    for (Thread t : threads) {
+      t.start();
+    }
+    for (Thread t : threads) {
+      t.join();
+    }
+    assertEquals(producers * perProducer, count.get());
+    assertEquals(producers * ((long) perProducer * (perProducer + 1) / 2), sum.get());
+    assertTrue(queue.isEmpty());
+  }
+}
@@ -83,6 +83,7 @@ import com.tc.object.request.RequestReceiveHandler;
 import com.tc.object.session.SessionManager;
 import com.tc.object.session.SessionManagerImpl;
 import com.tc.cluster.ClientChannelEventController;
+import com.tc.properties.L1ReconnectConfigImpl;
 import com.tc.properties.ReconnectConfig;
 import com.tc.properties.TCProperties;
 import com.tc.properties.TCPropertiesConsts;
@@ -186,6 +187,8 @@ public class DistributedObjectClient implements TCClient {
   }
 
   private ReconnectConfig getReconnectPropertiesFromServer() {
+    // the window has to suit the server end of the connection, which acks with the l2.l1reconnect settings
+    final ReconnectConfig serverConfig = new L1ReconnectConfigImpl();
     ReconnectConfig reconnectConfig = new ReconnectConfig() {
 
       @Override
@@ -205,12 +208,27 @@ public class DistributedObjectClient implements TCClient {
 
       @Override
       public int getMaxDelayAcks() {
-        return 16;
+        return serverConfig.getMaxDelayAcks();
       }
 
       @Override
       public int getSendWindow() {
-        return 32;
+        return serverConfig.getSendWindow();
+      }
+
+      @Override
+      public int getMinSendWindow() {
+        return serverConfig.getMinSendWindow();
+      }
+
+      @Override
+      public int getMaxSendWindow() {
+        return serverConfig.getMaxSendWindow();
+      }
+
+      @Override
+      public int getMaxAckDelayMillis() {
+        return serverConfig.getMaxAckDelayMillis();
       }
     };
     return reconnectConfig;
@@ -22,6 +22,8 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
 import java.util.Set;
 import java.util.WeakHashMap;
 
@@ -29,6 +31,15 @@ import java.util.WeakHashMap;
  * TCByteBuffer source that hides JDK dependencies and that can pool instances. Instance pooling is likely to be a good
  * idea for fixed size buffers and definitely a good idea for java direct buffers (since their allocation/deallocation
  * is more expensive than regular java objects).
+ * <p>
+ * Pooling is off by default and is controlled with the following system properties:
+ * <ul>
+ * <li>{@value #POOLING_ENABLED} - serve buffers between 1KiB and 512KiB from a {@link TCByteBufferPool}</li>
+ * <li>{@value #POOLING_DIRECT} - honour the direct hint for pooled buffers, otherwise pooled buffers live on the heap</li>
+ * <li>{@value #COMMON_POOL_MAXCOUNT} - capacity of the shared queue of the smallest size class</li>
+ * <li>{@value #THREADLOCAL_POOL_MAXCOUNT} - buffers cached per size class by each SEDA/comms thread</li>
+ * <li>{@value #LEAK_DETECTION} - report pooled buffers that are garbage collected without being recycled</li>
+ * </ul>
  * 
  * @author teck
  */
@@ -40,7 +51,34 @@ public class TCByteBufferFactory {
   private static final TCByteBuffer        ZERO_BYTE_BUFFER        = TCByteBufferImpl.wrap(new byte[0]);
   private static final Logger logger = LoggerFactory.getLogger(TCByteBufferFactory.class);
   
-  private static final Set<ThreadGroup> handledGroups = Collections.newSetFromMap(new WeakHashMap<ThreadGroup, Boolean>());
+  private static final Set<ThreadGroup> handledGroups = Collections.synchronizedSet(Collections.newSetFromMap(new WeakHashMap<ThreadGroup, Boolean>()));
+
+  static final String                      POOLING_ENABLED           = "tc.bytebuffer.pooling.enabled";
+  static final String                      POOLING_DIRECT            = "tc.bytebuffer.pooling.direct";
+  static final String                      COMMON_POOL_MAXCOUNT      = "tc.bytebuffer.common.pool.maxcount";
+  static final String                      THREADLOCAL_POOL_MAXCOUNT = "tc.bytebuffer.threadlocal.pool.maxcount";
+  static final String                      LEAK_DETECTION            = "tc.bytebuffer.pooling.leakDetection";
+
+  private static final boolean             POOLING                   = Boolean.getBoolean(POOLING_ENABLED);
+  private static final TCByteBufferPool    HEAP_POOL;
+  private static final TCByteBufferPool    DIRECT_POOL;
+
+  static {
+    if (POOLING) {
+      int commonMax = Integer.getInteger(COMMON_POOL_MAXCOUNT, 2048);
+      int threadLocalMax = Integer.getInteger(THREADLOCAL_POOL_MAXCOUNT, 16);
+      boolean leakDetection = Boolean.getBoolean(LEAK_DETECTION);
+      HEAP_POOL = new TCByteBufferPool(false, commonMax, threadLocalMax, leakDetection, TCByteBufferFactory::isHandledThread);
+      DIRECT_POOL = Boolean.getBoolean(POOLING_DIRECT)
+          ? new TCByteBufferPool(true, commonMax, threadLocalMax, leakDetection, TCByteBufferFactory::isHandledThread)
+          : HEAP_POOL;
+      logger.info("TCByteBuffer pooling enabled (direct=" + (DIRECT_POOL != HEAP_POOL) + ", common=" + commonMax
+                  + ", threadLocal=" + threadLocalMax + ", leakDetection=" + leakDetection + ")");
+    } else {
+      HEAP_POOL = null;
+      DIRECT_POOL = null;
+    }
+  }
   
   private static TCByteBuffer createNewInstance(boolean direct, int capacity, int index, int totalCount) {
     try {
@@ -59,8 +97,8 @@ public class TCByteBufferFactory {
   /**
    * Get a single variable sized TCByteBuffer instance Note: These are not pooled (yet)
    * 
-   * @param size The desired minimum capacity of the buffer. The actual capacity may be higher. The buffer's limit will
-   *        be equal to it's capacity.
+   * @param size The desired minimum capacity of the buffer. The actual capacity may be higher (pooled buffers are
+   *        rounded up to their size class). The buffer's limit will be equal to the requested size.
    * @param direct True to hint that the buffer should be a direct buffer (ie. not on the Java heap). A direct buffer
    *        will never be returned if this parameter is false. A direct buffer may or MAY NOT returned if the parameter
    *        is true TODO :: Make this the only interface and make it return fixed size buffer also make sure only
@@ -74,7 +112,9 @@ public class TCByteBufferFactory {
     if (size < 0) { throw new IllegalArgumentException("Requested length cannot be less than zero"); }
     if (size == 0) { return ZERO_BYTE_BUFFER; }
 
-    // Don't give 4k ByteBuffer from pool for smaller size requests.
+    if (POOLING && TCByteBufferPool.isPoolable(size)) {
+      return (direct ? DIRECT_POOL : HEAP_POOL).checkOut(size);
+    }
     return createNewInstance(direct, size);
   }
 
@@ -85,6 +125,13 @@ public class TCByteBufferFactory {
   public static void registerThreadGroup(ThreadGroup group) {
     handledGroups.add(group);
   }
+
+  private static boolean isHandledThread(Thread thread) {
+    for (ThreadGroup group = thread.getThreadGroup(); group != null; group = group.getParent()) {
+      if (handledGroups.contains(group)) { return true; }
+    }
+    return false;
+  }
   
   /**
    * Get enough fixed sized TCByteBuffer instances to contain the given number of bytes
@@ -109,7 +156,8 @@ public class TCByteBufferFactory {
     TCByteBuffer rv[] = new TCByteBuffer[numBuffers];
 
     for (int i = 0; i < numBuffers; i++) {
-      rv[i] = createNewInstance(direct, FIXED_BUFFER_SIZE, i, numBuffers);
+      rv[i] = POOLING ? (direct ? DIRECT_POOL : HEAP_POOL).checkOut(FIXED_BUFFER_SIZE)
+          : createNewInstance(direct, FIXED_BUFFER_SIZE, i, numBuffers);
     }
 
     // adjust limit of last buffer returned
@@ -140,17 +188,13 @@ public class TCByteBufferFactory {
   }
 
   public static void returnBuffer(TCByteBuffer buf) {
-    if (buf.capacity() == FIXED_BUFFER_SIZE) {
-      BufferPool bufferPool = buf.getBufferPool();
-      buf.commit();
-
-      if (bufferPool != null) {
-        try {
-          bufferPool.offer(buf);
-        } catch (InterruptedException e) {
-          logger.warn("interrupted while trying to return buffer", e);
-          Thread.currentThread().interrupt();
-        }
+    BufferPool bufferPool = buf.getBufferPool();
+    if (bufferPool != null) {
+      try {
+        bufferPool.offer(buf);
+      } catch (InterruptedException e) {
+        logger.warn("interrupted while trying to return buffer", e);
+        Thread.currentThread().interrupt();
       }
     }
   }
@@ -171,6 +215,20 @@ public class TCByteBufferFactory {
   }
 
   public static boolean isPoolingEnabled() {
-    return false;
+    return POOLING;
+  }
+
+  /**
+   * @return hit/miss/leak counters of the buffer pools, empty when pooling is disabled
+   */
+  public static Map<String, ?> getPoolStats() {
+    Map<String, Object> stats = new LinkedHashMap<>();
+    if (POOLING) {
+      stats.put("heap", HEAP_POOL.getStats());
+      if (DIRECT_POOL != HEAP_POOL) {
+        stats.put("direct", DIRECT_POOL.getStats());
+      }
+    }
+    return stats;
   }
 }
@@ -22,8 +22,6 @@ import com.tc.util.Assert;
 import com.tc.util.State;
 
 import java.nio.ByteBuffer;
-import java.util.concurrent.LinkedBlockingQueue;
-import java.util.concurrent.TimeUnit;
 
 /**
  * @author teck A thin wrapper to a real java.nio.ByteBuffer instance
@@ -39,16 +37,18 @@ public class TCByteBufferImpl implements TCByteBuffer, BufferPool {
 
   private final ByteBuffer          buffer;
   private final TCByteBuffer        root;
-  private final LinkedBlockingQueue<TCByteBuffer> bufPool;
+  private final BufferPool          bufPool;
   private State                     state       = INIT;
+  // owned by the pool this buffer was allocated from, see TCByteBufferPool
+  Object                            poolTracker;
 
-  TCByteBufferImpl(int capacity, boolean direct, LinkedBlockingQueue<TCByteBuffer> poolQueue) {
+  TCByteBufferImpl(int capacity, boolean direct, BufferPool pool) {
     if (direct) {
       buffer = ByteBuffer.allocateDirect(capacity);
     } else {
       buffer = ByteBuffer.allocate(capacity);
     }
-    bufPool = poolQueue;
+    bufPool = pool;
     root = this;
   }
 
@@ -599,7 +599,7 @@ public class TCByteBufferImpl implements TCByteBuffer, BufferPool {
   @Override
   public void offer(TCByteBuffer buf) throws InterruptedException {
     if (this.bufPool != null) {
-      this.bufPool.offer(buf, 0, TimeUnit.MILLISECONDS);
+      this.bufPool.offer(buf);
     }
   }
 
@@ -0,0 +1,192 @@
+/*
+ *
+ *  The contents of this file are subject to the Terracotta Public License Version
+ *  2.0 (the "License"); You may not use this file except in compliance with the
+ *  License. You may obtain a copy of the License at
+ *
+ *  http://terracotta.org/legal/terracotta-public-license.
+ *
+ *  Software distributed under the License is distributed on an "AS IS" basis,
+ *  WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License for
+ *  the specific language governing rights and limitations under the License.
+ *
+ *  The Covered Software is Terracotta Core.
+ *
+ *  The Initial Developer of the Covered Software is
+ *  Terracotta, Inc., a Software AG company
+ *
+ */
+package com.tc.bytes;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.ArrayDeque;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Predicate;
+
+/**
+ * Size classed pool of {@link TCByteBuffer} instances. Capacities are powers of two between {@link #MIN_POOLED_SIZE}
+ * and {@link #MAX_POOLED_SIZE}; requests outside that range are not served by the pool. Threads that qualify (see
+ * {@link TCByteBufferFactory#registerThreadGroup(ThreadGroup)}) keep a small private cache per size class and fall back
+ * to a bounded shared queue, everything else goes straight to the shared queue.
+ * <p>
+ * With leak detection on, every checked out buffer is tracked with a weak reference. A buffer that becomes unreachable
+ * without being recycled is reported together with the stack that allocated it.
+ */
+final class TCByteBufferPool implements BufferPool {
+
+  static final int                          MIN_POOLED_SIZE = 1024;
+  static final int                          MAX_POOLED_SIZE = 512 * 1024;
+  private static final int                  MIN_SHIFT       = Integer.numberOfTrailingZeros(MIN_POOLED_SIZE);
+  private static final int                  CLASS_COUNT     = Integer.numberOfTrailingZeros(MAX_POOLED_SIZE) - MIN_SHIFT + 1;
+
+  private static final Logger               logger          = LoggerFactory.getLogger(TCByteBufferPool.class);
+
+  private final boolean                     direct;
+  private final int                         threadLocalMax;
+  private final ArrayBlockingQueue<TCByteBuffer>[] shared;
+  private final ThreadLocal<ArrayDeque<TCByteBuffer>[]> local;
+
+  private final LongAdder                   hits            = new LongAdder();
+  private final LongAdder                   misses          = new LongAdder();
+  private final LongAdder                   returns         = new LongAdder();
+  private final LongAdder                   discards        = new LongAdder();
+  private final LongAdder                   leaks           = new LongAdder();
+
+  private final boolean                     leakDetection;
+  private final ReferenceQueue<TCByteBuffer> leakQueue      = new ReferenceQueue<TCByteBuffer>();
+  private final Set<LeakReference>          tracked         = ConcurrentHashMap.newKeySet();
+
+  @SuppressWarnings("unchecked")
+  TCByteBufferPool(boolean direct, int commonMax, int threadLocalMax, boolean leakDetection,
+                   Predicate<Thread> useThreadLocal) {
+    this.direct = direct;
+    this.threadLocalMax = threadLocalMax;
+    this.leakDetection = leakDetection;
+    this.shared = new ArrayBlockingQueue[CLASS_COUNT];
+    for (int i = 0; i < CLASS_COUNT; i++) {
+      // keep roughly the same amount of memory in every size class
+      shared[i] = new ArrayBlockingQueue<TCByteBuffer>(Math.max(1, commonMax >> i));
+    }
+    this.local = ThreadLocal.withInitial(() -> useThreadLocal.test(Thread.currentThread()) && threadLocalMax > 0
+        ? new ArrayDeque[CLASS_COUNT] : null);
+  }
+
+  static boolean isPoolable(int size) {
+    return size >= MIN_POOLED_SIZE && size <= MAX_POOLED_SIZE;
+  }
+
+  private static int sizeClass(int size) {
+    int shift = 32 - Integer.numberOfLeadingZeros(size - 1);
+    return Math.max(shift, MIN_SHIFT) - MIN_SHIFT;
+  }
+
+  /**
+   * @return a buffer with at least the given capacity, its limit set to {@code size}
+   */
+  TCByteBuffer checkOut(int size) {
+    if (leakDetection) {
+      reportLeaks();
+    }
+    int sizeClass = sizeClass(size);
+    TCByteBuffer buf = null;
+    ArrayDeque<TCByteBuffer>[] cache = local.get();
+    if (cache != null && cache[sizeClass] != null) {
+      buf = cache[sizeClass].pollFirst();
+    }
+    if (buf == null) {
+      buf = shared[sizeClass].poll();
+    }
+    if (buf == null) {
+      misses.increment();
+      buf = new TCByteBufferImpl(MIN_POOLED_SIZE << sizeClass, direct, this);
+    } else {
+      hits.increment();
+    }
+    buf.checkedOut();
+    if (leakDetection) {
+      LeakReference ref = new LeakReference(buf, leakQueue);
+      tracked.add(ref);
+      ((TCByteBufferImpl) buf).poolTracker = ref;
+    }
+    buf.limit(size);
+    return buf;
+  }
+
+  @Override
+  public void offer(TCByteBuffer buf) {
+    buf.commit();
+    returns.increment();
+    if (leakDetection) {
+      LeakReference ref = (LeakReference) ((TCByteBufferImpl) buf).poolTracker;
+      ((TCByteBufferImpl) buf).poolTracker = null;
+      if (ref != null) {
+        tracked.remove(ref);
+        ref.clear();
+      }
+    }
+    buf.clear();
+    int sizeClass = sizeClass(buf.capacity());
+    ArrayDeque<TCByteBuffer>[] cache = local.get();
+    if (cache != null) {
+      ArrayDeque<TCByteBuffer> deque = cache[sizeClass];
+      if (deque == null) {
+        deque = new ArrayDeque<TCByteBuffer>(threadLocalMax);
+        cache[sizeClass] = deque;
+      }
+      if (deque.size() < threadLocalMax) {
+        deque.addFirst(buf);
+        return;
+      }
+    }
+    if (!shared[sizeClass].offer(buf)) {
+      discards.increment();
+    }
+  }
+
+  private void reportLeaks() {
+    LeakReference ref;
+    while ((ref = (LeakReference) leakQueue.poll()) != null) {
+      if (tracked.remove(ref)) {
+        leaks.increment();
+        logger.warn("pooled buffer was garbage collected without being recycled", ref.allocation);
+      }
+    }
+  }
+
+  Map<String, Object> getStats() {
+    Map<String, Object> stats = new LinkedHashMap<>();
+    stats.put("direct", direct);
+    stats.put("hits", hits.longValue());
+    stats.put("misses", misses.longValue());
+    stats.put("returns", returns.longValue());
+    stats.put("discards", discards.longValue());
+    if (leakDetection) {
+      reportLeaks();
+      stats.put("outstanding", tracked.size());
+      stats.put("leaks", leaks.longValue());
+    }
+    Map<Integer, Integer> shared = new LinkedHashMap<>();
+    for (int i = 0; i < CLASS_COUNT; i++) {
+      shared.put(MIN_POOLED_SIZE << i, this.shared[i].size());
+    }
+    stats.put("shared", shared);
+    return stats;
+  }
+
+  private static class LeakReference extends WeakReference<TCByteBuffer> {
+    private final Throwable allocation = new Throwable("buffer allocated by " + Thread.currentThread().getName());
+
+    LeakReference(TCByteBuffer referent, ReferenceQueue<TCByteBuffer> q) {
+      super(referent, q);
+    }
+  }
+}
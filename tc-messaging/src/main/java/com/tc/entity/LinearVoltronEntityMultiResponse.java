@@ -155,12 +155,24 @@ public class LinearVoltronEntityMultiResponse extends DSOMessageBase implements
     return super.send();
   }
 
+  @Override
+  protected boolean isReusable() {
+    return true;
+  }
+
+  @Override
+  protected synchronized void resetValues() {
+    timeline = new LinkedList<>();
+    stopAdding = false;
+  }
+
   @Override
   public boolean addReceived(TransactionID tid) {
     return buildOp(Operation.RECEIVED, tid.toLong(), null);
   }
   
   private synchronized boolean buildOp(Operation type, long id, byte[] data) {
+    checkNotPoisoned();
     if (!stopAdding) {
       Op op = new Op(type, id, data);
       timeline.add(op);
@@ -200,6 +212,7 @@ public class LinearVoltronEntityMultiResponse extends DSOMessageBase implements
   
   @Override
   public synchronized void stopAdding() {
+    checkNotPoisoned();
     stopAdding = true;
     timeline = Collections.unmodifiableList(timeline);
   }
@@ -20,6 +20,7 @@
 package com.tc.entity;
 
 import com.tc.bytes.TCByteBuffer;
+import com.tc.io.SharedBytesPayload;
 import com.tc.io.TCByteBufferOutputStream;
 import com.tc.net.ClientID;
 import com.tc.net.protocol.tcm.MessageChannel;
@@ -153,6 +154,16 @@ public class NetworkVoltronEntityMessageImpl extends DSOMessageBase implements N
     super(sessionID, monitor, channel, header, data);
   }
 
+  @Override
+  protected boolean supportsCompactEncoding() {
+    return true;
+  }
+
+  @Override
+  protected boolean supportsStringDictionary() {
+    return true;
+  }
+
   @Override
   protected void dehydrateValues() {
     TCByteBufferOutputStream outputStream = getOutputStream();
@@ -161,18 +172,18 @@ public class NetworkVoltronEntityMessageImpl extends DSOMessageBase implements N
     
     this.clientID.serializeTo(outputStream);
     
-    outputStream.writeLong(this.transactionID.toLong());
+    putLongValue(this.transactionID.toLong());
     
     this.entityDescriptor.serializeTo(outputStream);
     
-    outputStream.writeInt(type.ordinal());
+    putIntValue(type.ordinal());
     
-    outputStream.writeInt(extendedData.length);
-    outputStream.write(extendedData);
+    putIntValue(extendedData.length);
+    SharedBytesPayload.wrap(extendedData).writeTo(outputStream);
     
     outputStream.writeBoolean(requiresReplication);
     
-    outputStream.writeLong(this.oldestTransactionPending.toLong());
+    putLongValue(this.oldestTransactionPending.toLong());
     
     outputStream.writeByte(requestedAcks.size());
     for (VoltronEntityMessage.Acks ack : this.requestedAcks) {
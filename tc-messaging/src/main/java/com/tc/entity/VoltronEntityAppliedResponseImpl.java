@@ -54,6 +54,7 @@ public class VoltronEntityAppliedResponseImpl extends DSOMessageBase implements
   
   @Override
   public void setSuccess(TransactionID transactionID, byte[] response) {
+    checkNotPoisoned();
     Assert.assertNull(this.transactionID);
     Assert.assertNull(this.successResponse);
     Assert.assertNull(this.failureException);
@@ -67,6 +68,7 @@ public class VoltronEntityAppliedResponseImpl extends DSOMessageBase implements
   
   @Override
   public void setFailure(TransactionID transactionID, EntityException exception) {
+    checkNotPoisoned();
     Assert.assertNull(this.transactionID);
     Assert.assertNull(this.successResponse);
     Assert.assertNull(this.failureException);
@@ -87,6 +89,19 @@ public class VoltronEntityAppliedResponseImpl extends DSOMessageBase implements
     super(sessionID, monitor, channel, header, data);
   }
 
+  @Override
+  protected boolean isReusable() {
+    return true;
+  }
+
+  @Override
+  protected void resetValues() {
+    this.transactionID = null;
+    this.isSuccess = false;
+    this.successResponse = null;
+    this.failureException = null;
+  }
+
   @Override
   protected void dehydrateValues() {
     TCByteBufferOutputStream outputStream = getOutputStream();
@@ -23,6 +23,7 @@ import com.tc.io.TCByteBufferOutputStream;
 import com.tc.net.protocol.tcm.MessageChannel;
 import com.tc.net.protocol.tcm.MessageMonitor;
 import com.tc.net.protocol.tcm.TCMessageHeader;
+import com.tc.net.protocol.tcm.TCMessageSchema;
 import com.tc.net.protocol.tcm.TCMessageType;
 import com.tc.object.msg.DSOMessageBase;
 import com.tc.object.session.SessionID;
@@ -33,6 +34,11 @@ import java.io.IOException;
 
 public class VoltronEntityRetiredResponseImpl extends DSOMessageBase implements VoltronEntityRetiredResponse {
   private static final byte TRANSACTION_ID = 0;
+
+  private static final TCMessageSchema<VoltronEntityRetiredResponseImpl> SCHEMA =
+      TCMessageSchema.builder(VoltronEntityRetiredResponseImpl.class)
+          .longField(TRANSACTION_ID, m -> m.transactionID.toLong(), (m, v) -> m.transactionID = new TransactionID(v))
+          .build();
   
   private TransactionID transactionID;
   
@@ -49,13 +55,32 @@ public class VoltronEntityRetiredResponseImpl extends DSOMessageBase implements
     return VoltronEntityMessage.Acks.RETIRED;
   }
   
+  @Override
+  protected boolean isReusable() {
+    return true;
+  }
+
+  @Override
+  protected void resetValues() {
+    transactionID = null;
+  }
+
+  @Override
+  protected TCMessageSchema<?> getSchema() {
+    return SCHEMA;
+  }
+
+  // the hand-written values, in case the schema is off
   @Override
   protected void dehydrateValues() {
-    putNVPair(TRANSACTION_ID, transactionID.toLong());
+    if (!usesSchema()) {
+      putNVPair(TRANSACTION_ID, transactionID.toLong());
+    }
   }
 
   @Override
   public void setTransactionID(TransactionID id) {
+    checkNotPoisoned();
     transactionID = id;
   }
 
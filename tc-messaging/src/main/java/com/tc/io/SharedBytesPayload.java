@@ -0,0 +1,74 @@
+/*
+ *
+ *  The contents of this file are subject to the Terracotta Public License Version
+ *  2.0 (the "License"); You may not use this file except in compliance with the
+ *  License. You may obtain a copy of the License at
+ *
+ *  http://terracotta.org/legal/terracotta-public-license.
+ *
+ *  Software distributed under the License is distributed on an "AS IS" basis,
+ *  WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License for
+ *  the specific language governing rights and limitations under the License.
+ *
+ *  The Covered Software is Terracotta Core.
+ *
+ *  The Initial Developer of the Covered Software is
+ *  Terracotta, Inc., a Software AG company
+ *
+ */
+package com.tc.io;
+
+import com.tc.bytes.TCByteBuffer;
+import com.tc.bytes.TCByteBufferFactory;
+
+/**
+ * A byte array shared, not copied, by every output it is written to. Large payloads are added to an output as a buffer
+ * wrapping the array, so a payload that goes out many times, once for every passive for instance, is not copied into
+ * each of those outputs. This is all it does: it neither pools nor copies the array, which belongs to the caller and
+ * must not change once wrapped.
+ */
+public final class SharedBytesPayload {
+
+  // below this a payload is copied into the output, a buffer of its own is not worth it
+  static final int                        MIN_WRAP_LENGTH = 512;
+
+  public static final SharedBytesPayload  EMPTY           = new SharedBytesPayload(new byte[0]);
+
+  private final byte[]                    bytes;
+
+  private SharedBytesPayload(byte[] bytes) {
+    this.bytes = bytes;
+  }
+
+  public static SharedBytesPayload wrap(byte[] bytes) {
+    return bytes.length == 0 ? EMPTY : new SharedBytesPayload(bytes);
+  }
+
+  public int length() {
+    return bytes.length;
+  }
+
+  /**
+   * @return the content of this payload, not a copy
+   */
+  public byte[] toByteArray() {
+    return bytes;
+  }
+
+  /**
+   * Writes the content of this payload to {@code out}. Large payloads are added as a buffer wrapping the array instead
+   * of being copied, the array must not change afterwards.
+   */
+  public void writeTo(TCByteBufferOutput out) {
+    if (bytes.length < MIN_WRAP_LENGTH) {
+      out.write(bytes);
+    } else {
+      out.write(new TCByteBuffer[] { TCByteBufferFactory.wrap(bytes) });
+    }
+  }
+
+  @Override
+  public String toString() {
+    return "SharedBytesPayload[length=" + bytes.length + "]";
+  }
+}
@@ -0,0 +1,219 @@
+/*
+ *
+ *  The contents of this file are subject to the Terracotta Public License Version
+ *  2.0 (the "License"); You may not use this file except in compliance with the
+ *  License. You may obtain a copy of the License at
+ *
+ *  http://terracotta.org/legal/terracotta-public-license.
+ *
+ *  Software distributed under the License is distributed on an "AS IS" basis,
+ *  WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License for
+ *  the specific language governing rights and limitations under the License.
+ *
+ *  The Covered Software is Terracotta Core.
+ *
+ *  The Initial Developer of the Covered Software is
+ *  Terracotta, Inc., a Software AG company
+ *
+ */
+package com.tc.io;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The strings a peer sent on a channel, so that identifiers repeated from message to message (entity class and entity
+ * names, message class names) go over the wire once and are referenced by a small id afterwards. See
+ * {@link TCByteBufferOutput#writeIdentifier(String)}.
+ * <p>
+ * The sending end has a {@link Writer}, the receiving end a {@link StringDictionary} with the strings of the writers
+ * it heard from. Each writer has an epoch of its own, a message names the epoch it was written with and the receiving
+ * end starts over whenever it sees a newer one: a writer is replaced when the connection drops, its peer may not be
+ * the same after a reconnect. The strings of the previous epoch are kept as well, a message written just before the
+ * writer was replaced may still arrive after the first one of the new epoch.
+ * <p>
+ * Tables are bounded, once full further strings are just written as they are.
+ */
+public final class StringDictionary {
+
+  static final int                   MAX_ENTRIES   = 4096;
+  // longer strings are not identifiers, they are written as they are
+  static final int                   MAX_LENGTH    = 256;
+
+  // an identifier is written as a varint tag: a plain string follows, a string follows which gets the next id, or an id
+  private static final int           LITERAL       = 0;
+  private static final int           DEFINE        = 1;
+  private static final int           FIRST_ID      = 2;
+
+  private static final AtomicInteger EPOCHS        = new AtomicInteger();
+
+  private int                        epoch         = -1;
+  private List<String>               strings;
+  private int                        previousEpoch = -1;
+  private List<String>               previousStrings;
+
+  /**
+   * @return the strings of {@code epoch}, for reading the identifiers of a message written with it
+   * @throws IOException if that epoch is neither the current nor the previous one
+   */
+  public synchronized Reader reader(int epoch) throws IOException {
+    if (epoch > this.epoch) {
+      this.previousEpoch = this.epoch;
+      this.previousStrings = this.strings;
+      this.epoch = epoch;
+      this.strings = new ArrayList<>();
+    }
+    if (epoch == this.epoch) { return new Reader(this.strings); }
+    if (epoch == this.previousEpoch) { return new Reader(this.previousStrings); }
+    throw new IOException("stale string dictionary epoch " + epoch + ", current is " + this.epoch);
+  }
+
+  public static Writer newWriter() {
+    return new Writer(EPOCHS.incrementAndGet());
+  }
+
+  /**
+   * Assigns ids to the strings sent on a channel. Messages are written under the lock of the writer and then handed to
+   * the channel in the order they were written, see {@link #written()}. Sending doesn't hold the lock, so the next
+   * messages can be written meanwhile.
+   */
+  public static final class Writer {
+    private final int                  epoch;
+    private final Map<String, Integer> ids       = new HashMap<>();
+    private final List<String>         strings   = new ArrayList<>();
+    // guarded by the writer
+    private long                       written;
+    private final Object               sendOrder = new Object();
+    // guarded by sendOrder
+    private long                       turn;
+    private boolean                    broken;
+
+    private Writer(int epoch) {
+      this.epoch = epoch;
+    }
+
+    public int getEpoch() {
+      return epoch;
+    }
+
+    /**
+     * @return a mark to {@link #rollback(int)} to, if the message being written is never sent
+     */
+    public int mark() {
+      return strings.size();
+    }
+
+    /**
+     * Forgets the strings defined since {@code mark}, the peer never saw them.
+     */
+    public void rollback(int mark) {
+      for (int i = strings.size() - 1; i >= mark; i--) {
+        ids.remove(strings.remove(i));
+      }
+    }
+
+    /**
+     * Called under the lock of the writer once a message was written with it.
+     *
+     * @return the place of the message in the send order, for {@link #awaitTurn(long)} and {@link #sent(long, boolean)}
+     */
+    public long written() {
+      return written++;
+    }
+
+    /**
+     * Waits until the messages written before the one holding {@code ticket} were handed to the channel. Every ticket
+     * must be ended with {@link #sent(long, boolean)}, so this does not give up when interrupted.
+     *
+     * @return false if an earlier message was not sent, the peer won't know the strings it defined
+     */
+    public boolean awaitTurn(long ticket) {
+      boolean interrupted = false;
+      synchronized (sendOrder) {
+        try {
+          while (turn != ticket) {
+            try {
+              sendOrder.wait();
+            } catch (InterruptedException e) {
+              interrupted = true;
+            }
+          }
+          return !broken;
+        } finally {
+          if (interrupted) {
+            Thread.currentThread().interrupt();
+          }
+        }
+      }
+    }
+
+    /**
+     * Ends the turn of {@code ticket}. Once a message was not sent the writer is broken: later messages may already
+     * refer to the strings it defined, so they can't be {@link #rollback(int) rolled back} anymore.
+     */
+    public void sent(long ticket, boolean sent) {
+      synchronized (sendOrder) {
+        if (!sent) {
+          broken = true;
+        }
+        turn = ticket + 1;
+        sendOrder.notifyAll();
+      }
+    }
+
+    public boolean isBroken() {
+      synchronized (sendOrder) {
+        return broken;
+      }
+    }
+
+    void write(TCByteBufferOutput out, String string) {
+      final Integer id = (string != null) ? ids.get(string) : null;
+      if (id != null) {
+        out.writeVarInt(FIRST_ID + id);
+      } else if (string != null && strings.size() < MAX_ENTRIES && string.length() <= MAX_LENGTH) {
+        ids.put(string, strings.size());
+        strings.add(string);
+        out.writeVarInt(DEFINE);
+        out.writeString(string);
+      } else {
+        out.writeVarInt(LITERAL);
+        out.writeString(string);
+      }
+    }
+  }
+
+  /**
+   * The strings of one epoch, as seen by the messages of a channel. Messages have to be read in the order they were
+   * written.
+   */
+  public static final class Reader {
+    private final List<String> strings;
+
+    private Reader(List<String> strings) {
+      this.strings = strings;
+    }
+
+    String read(TCByteBufferInput in) throws IOException {
+      final int tag = in.readVarInt();
+      if (tag == LITERAL) { return in.readString(); }
+      if (tag == DEFINE) {
+        final String string = in.readString();
+        synchronized (strings) {
+          if (strings.size() >= MAX_ENTRIES) { throw new IOException("string dictionary is full"); }
+          strings.add(string);
+        }
+        return string;
+      }
+      synchronized (strings) {
+        final int id = tag - FIRST_ID;
+        if (id < 0 || id >= strings.size()) { throw new IOException("unknown string dictionary id " + id); }
+        return strings.get(id);
+      }
+    }
+  }
+}
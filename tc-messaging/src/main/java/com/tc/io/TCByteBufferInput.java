@@ -20,6 +20,8 @@ package com.tc.io;
 
 import com.tc.bytes.TCByteBuffer;
 
+import java.io.IOException;
+
 public interface TCByteBufferInput extends TCDataInput {
 
   public interface Mark {
@@ -79,6 +81,38 @@ public interface TCByteBufferInput extends TCDataInput {
    */
   public void tcReset(Mark m);
 
+  /**
+   * Read a zigzag varint as written by {@link TCByteBufferOutput#writeVarLong(long)}
+   */
+  public long readVarLong() throws IOException;
+
+  /**
+   * Read a zigzag varint as written by {@link TCByteBufferOutput#writeVarInt(int)}
+   */
+  public int readVarInt() throws IOException;
+
+  /**
+   * Read a long written by {@link TCByteBufferOutput#writeLong(long, boolean)} with the same {@code compact}
+   */
+  default long readLong(boolean compact) throws IOException {
+    return compact ? readVarLong() : readLong();
+  }
+
+  /**
+   * Read an int written by {@link TCByteBufferOutput#writeInt(int, boolean)} with the same {@code compact}
+   */
+  default int readInt(boolean compact) throws IOException {
+    return compact ? readVarInt() : readInt();
+  }
+
+  /**
+   * Read a string written by {@link TCByteBufferOutput#writeIdentifier(String)}, from a stream with the
+   * {@link StringDictionary.Reader} of the writer if it had one.
+   */
+  default String readIdentifier() throws IOException {
+    return readString();
+  }
+
   public long skip(long skip);
 
 }
\ No newline at end of file
@@ -38,6 +38,7 @@ public class TCByteBufferInputStream extends InputStream implements TCByteBuffer
   private int                         position                = 0;
   private int                         index                   = 0;
   private boolean                     marked                  = false;
+  private StringDictionary.Reader     dictionary;
 
   private TCByteBufferInputStream(TCByteBuffer[] sourceData, int dupeLength, int sourceIndex) {
     this(sourceData, dupeLength, sourceIndex, true);
@@ -98,7 +99,9 @@ public class TCByteBufferInputStream extends InputStream implements TCByteBuffer
   @Override
   public TCByteBufferInput duplicate() {
     checkClosed();
-    return new TCByteBufferInputStream(this.data, available(), this.index);
+    TCByteBufferInputStream rv = new TCByteBufferInputStream(this.data, available(), this.index);
+    rv.dictionary = this.dictionary;
+    return rv;
   }
 
   /**
@@ -135,7 +138,9 @@ public class TCByteBufferInputStream extends InputStream implements TCByteBuffer
 
     limitedData[limitedData.length - 1].limit(lastLimit);
 
-    return new TCByteBufferInputStream(limitedData, limit, 0, false);
+    TCByteBufferInputStream rv = new TCByteBufferInputStream(limitedData, limit, 0, false);
+    rv.dictionary = this.dictionary;
+    return rv;
   }
 
   @Override
@@ -419,8 +424,29 @@ public class TCByteBufferInputStream extends InputStream implements TCByteBuffer
     }
   }
 
+  /**
+   * @return the buffer at the read position if it holds at least {@code size} more bytes, so that a primitive can be
+   *         read from it in one go, null if it has to be assembled a byte at a time across buffers
+   */
+  private TCByteBuffer currentBuffer(int size) {
+    checkClosed();
+    while (this.index < this.numBufs) {
+      final TCByteBuffer buf = this.data[this.index];
+      final int remaining = buf.remaining();
+      if (remaining >= size) {
+        this.position += size;
+        return buf;
+      }
+      if (remaining > 0) { return null; }
+      nextBuffer();
+    }
+    return null;
+  }
+
   @Override
   public final int readInt() throws IOException {
+    final TCByteBuffer buf = currentBuffer(4);
+    if (buf != null) { return buf.getInt(); }
     int byte1 = read();
     int byte2 = read();
     int byte3 = read();
@@ -445,6 +471,8 @@ public class TCByteBufferInputStream extends InputStream implements TCByteBuffer
 
   @Override
   public final char readChar() throws IOException {
+    final TCByteBuffer buf = currentBuffer(2);
+    if (buf != null) { return buf.getChar(); }
     int byte1 = read();
     int byte2 = read();
     if ((byte1 | byte2) < 0) { throw new EOFException(); }
@@ -458,6 +486,8 @@ public class TCByteBufferInputStream extends InputStream implements TCByteBuffer
 
   @Override
   public final long readLong() throws IOException {
+    final TCByteBuffer buf = currentBuffer(8);
+    if (buf != null) { return buf.getLong(); }
     int byte1 = read();
     int byte2 = read();
     int byte3 = read();
@@ -481,12 +511,45 @@ public class TCByteBufferInputStream extends InputStream implements TCByteBuffer
 
   @Override
   public final short readShort() throws IOException {
+    final TCByteBuffer buf = currentBuffer(2);
+    if (buf != null) { return buf.getShort(); }
     int byte1 = read();
     int byte2 = read();
     if ((byte1 | byte2) < 0) { throw new EOFException(); }
     return (short) ((byte1 << 8) + (byte2 << 0));
   }
 
+  @Override
+  public final long readVarLong() throws IOException {
+    long v = 0;
+    for (int shift = 0; shift < 64; shift += 7) {
+      final int b = read();
+      if (b < 0) { throw new EOFException(); }
+      v |= (long) (b & 0x7F) << shift;
+      if ((b & 0x80) == 0) { return (v >>> 1) ^ -(v & 1); }
+    }
+    throw new IOException("malformed varint");
+  }
+
+  @Override
+  public final int readVarInt() throws IOException {
+    final long v = readVarLong();
+    if ((int) v != v) { throw new IOException("varint out of int range: " + v); }
+    return (int) v;
+  }
+
+  /**
+   * Identifiers read from now on go through {@code reader}, null to read them as plain strings again.
+   */
+  public void setStringDictionary(StringDictionary.Reader reader) {
+    this.dictionary = reader;
+  }
+
+  @Override
+  public final String readIdentifier() throws IOException {
+    return (dictionary == null) ? readString() : dictionary.read(this);
+  }
+
   @Override
   public final String readString() throws IOException {
     boolean isNull = readBoolean();
@@ -552,6 +615,8 @@ public class TCByteBufferInputStream extends InputStream implements TCByteBuffer
 
   @Override
   public final int readUnsignedShort() throws IOException {
+    final TCByteBuffer buf = currentBuffer(2);
+    if (buf != null) { return buf.getShort() & 0xFFFF; }
     int byte1 = read();
     int byte2 = read();
     if ((byte1 | byte2) < 0) { throw new EOFException(); }
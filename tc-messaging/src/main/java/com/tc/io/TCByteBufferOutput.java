@@ -27,4 +27,44 @@ public interface TCByteBufferOutput extends TCDataOutput, Recyclable {
 
   public void write(TCByteBuffer[] data);
 
+  /**
+   * Write a zigzag varint: values close to zero, negative or not, take a single byte, the full range up to ten.
+   */
+  public void writeVarLong(long value);
+
+  /**
+   * Write a zigzag varint, in at most five bytes
+   */
+  public void writeVarInt(int value);
+
+  /**
+   * Write a varint if {@code compact} is true, all eight bytes otherwise
+   */
+  default void writeLong(long value, boolean compact) {
+    if (compact) {
+      writeVarLong(value);
+    } else {
+      writeLong(value);
+    }
+  }
+
+  /**
+   * Write a string that is likely to be written again, like a class or an entity name. Written with
+   * {@link #writeString(String)} unless the stream has a {@link StringDictionary.Writer}.
+   */
+  default void writeIdentifier(String string) {
+    writeString(string);
+  }
+
+  /**
+   * Write a varint if {@code compact} is true, all four bytes otherwise
+   */
+  default void writeInt(int value, boolean compact) {
+    if (compact) {
+      writeVarInt(value);
+    } else {
+      writeInt(value);
+    }
+  }
+
 }
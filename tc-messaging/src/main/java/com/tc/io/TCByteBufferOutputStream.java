@@ -38,9 +38,14 @@ public final class TCByteBufferOutputStream extends OutputStream implements TCBy
 
   private static final int       DEFAULT_MAX_BLOCK_SIZE     = 512 * 1024;
   private static final int       DEFAULT_INITIAL_BLOCK_SIZE = 1024;
+  // size hints never make the first block bigger than this, a wrong guess should not cost much memory
+  private static final int       MAX_HINTED_BLOCK_SIZE      = 64 * 1024;
+  // more buffers than this are consolidated anyway, a gathering write takes a limited number at a time
+  private static final int       MAX_COMPOSITE_BUFFERS      = 32;
 
   private final boolean          direct;
   private final int              maxBlockSize;
+  private final boolean          consolidate;
   private final DataOutputStream dos;
 
   // The "buffers" list is accessed by index in the Mark class, thus it should not be a linked list
@@ -52,6 +57,7 @@ public final class TCByteBufferOutputStream extends OutputStream implements TCBy
   private boolean                closed;
   private int                    written;
   private int                    blockSize;
+  private StringDictionary.Writer dictionary;
 
   // TODO: Provide a method to write buffers to another output stream
   // TODO: Provide a method to turn the buffers into an input stream with minimal cost (ie. no consolidation, no
@@ -65,7 +71,22 @@ public final class TCByteBufferOutputStream extends OutputStream implements TCBy
     this(blockSize, blockSize, false);
   }
 
+  /**
+   * Creates a stream for about {@code sizeHint} bytes of data: the first block is big enough to hold all of it, within
+   * reason, instead of growing from a small block a buffer at a time.
+   * 
+   * @param consolidate false to hand out the buffers as they were written, without copying runs of small buffers
+   *        together first. Use it when the buffers go to a write that can gather them.
+   */
+  public TCByteBufferOutputStream(int sizeHint, boolean direct, boolean consolidate) {
+    this(initialBlockSize(sizeHint), DEFAULT_MAX_BLOCK_SIZE, direct, consolidate);
+  }
+
   public TCByteBufferOutputStream(int initialBlockSize, int maxBlockSize, boolean direct) {
+    this(initialBlockSize, maxBlockSize, direct, true);
+  }
+
+  private TCByteBufferOutputStream(int initialBlockSize, int maxBlockSize, boolean direct, boolean consolidate) {
     if (maxBlockSize < 1) { throw new IllegalArgumentException("Max block size must be greater than or equal to 1"); }
     if (initialBlockSize < 1) { throw new IllegalArgumentException(
                                                                    "Initial block size must be greater than or equal to 1"); }
@@ -76,6 +97,7 @@ public final class TCByteBufferOutputStream extends OutputStream implements TCBy
     this.maxBlockSize = maxBlockSize;
     this.blockSize = initialBlockSize;
     this.direct = direct;
+    this.consolidate = consolidate;
     this.closed = false;
     this.dos = new DataOutputStream(this);
     addBuffer();
@@ -234,6 +256,8 @@ public final class TCByteBufferOutputStream extends OutputStream implements TCBy
 
     current = null;
 
+    if (!consolidate && buffers.size() <= MAX_COMPOSITE_BUFFERS) { return; }
+
     List<TCByteBuffer> finalBufs = new ArrayList<TCByteBuffer>();
 
     final int num = buffers.size();
@@ -276,83 +300,132 @@ public final class TCByteBufferOutputStream extends OutputStream implements TCBy
     buffers = finalBufs;
   }
 
+  // a quarter more than the hint, rounded up to a power of two like the pooled buffers are
+  static int initialBlockSize(int sizeHint) {
+    if (sizeHint <= DEFAULT_INITIAL_BLOCK_SIZE) { return DEFAULT_INITIAL_BLOCK_SIZE; }
+    final int wanted = Math.min(sizeHint + (sizeHint >> 2), MAX_HINTED_BLOCK_SIZE);
+    return Math.min(Integer.highestOneBit(wanted - 1) << 1, MAX_HINTED_BLOCK_SIZE);
+  }
+
+  /**
+   * Makes room for {@code size} bytes in the current buffer when there is or a new one gives it, so that a primitive can
+   * be put in one go. Otherwise the caller writes it a byte at a time across the buffer boundary.
+   */
+  private boolean reserve(int size) {
+    checkClosed();
+    if (!current.hasRemaining()) {
+      addBuffer();
+    }
+    if (current.remaining() < size) { return false; }
+    written += size;
+    return true;
+  }
+
   @Override
   public void writeBoolean(boolean value) {
-    try {
-      dos.writeBoolean(value);
-    } catch (IOException e) {
-      throw new AssertionError(e);
-    }
+    write(value ? 1 : 0);
   }
 
   @Override
   public void writeByte(int value) {
-    try {
-      dos.writeByte(value);
-    } catch (IOException e) {
-      throw new AssertionError(e);
-    }
+    write(value);
   }
 
   @Override
   public void writeChar(int value) {
-    try {
-      dos.writeChar(value);
-    } catch (IOException e) {
-      throw new AssertionError(e);
-    }
+    writeShort(value);
   }
 
   @Override
   public void writeDouble(double value) {
-    try {
-      dos.writeDouble(value);
-    } catch (IOException e) {
-      throw new AssertionError(e);
-    }
+    writeLong(Double.doubleToLongBits(value));
   }
 
   @Override
   public void writeFloat(float value) {
-    try {
-      dos.writeFloat(value);
-    } catch (IOException e) {
-      throw new AssertionError(e);
-    }
+    writeInt(Float.floatToIntBits(value));
   }
 
   @Override
   public void writeInt(int value) {
-    try {
-      dos.writeInt(value);
-    } catch (IOException e) {
-      throw new AssertionError(e);
+    if (reserve(4)) {
+      current.putInt(value);
+    } else {
+      write(value >>> 24);
+      write(value >>> 16);
+      write(value >>> 8);
+      write(value);
     }
   }
 
   @Override
   public void writeLong(long value) {
-    try {
-      dos.writeLong(value);
-    } catch (IOException e) {
-      throw new AssertionError(e);
+    if (reserve(8)) {
+      current.putLong(value);
+    } else {
+      writeInt((int) (value >>> 32));
+      writeInt((int) value);
     }
   }
 
   @Override
   public void writeShort(int value) {
-    try {
-      dos.writeShort(value);
-    } catch (IOException e) {
-      throw new AssertionError(e);
+    if (reserve(2)) {
+      current.putShort((short) value);
+    } else {
+      write(value >>> 8);
+      write(value);
+    }
+  }
+
+  @Override
+  public void writeVarLong(long value) {
+    long v = (value << 1) ^ (value >> 63);
+    if (reserve(varLongSize(v))) {
+      while ((v & ~0x7FL) != 0) {
+        current.put((byte) ((v & 0x7F) | 0x80));
+        v >>>= 7;
+      }
+      current.put((byte) v);
+    } else {
+      while ((v & ~0x7FL) != 0) {
+        write((int) ((v & 0x7F) | 0x80));
+        v >>>= 7;
+      }
+      write((int) v);
     }
   }
 
+  @Override
+  public void writeVarInt(int value) {
+    writeVarLong(value);
+  }
+
+  private static int varLongSize(long zigzag) {
+    return (63 - Long.numberOfLeadingZeros(zigzag | 1)) / 7 + 1;
+  }
+
   @Override
   public void writeString(String string) {
     writeString(string, false);
   }
 
+  /**
+   * Identifiers written from now on go through {@code writer}, null to write them as plain strings again.
+   */
+  public void setStringDictionary(StringDictionary.Writer writer) {
+    this.dictionary = writer;
+  }
+
+  @Override
+  public void writeIdentifier(String string) {
+    if (dictionary == null) {
+      writeString(string);
+    } else {
+      dictionary.write(this, string);
+    }
+  }
+
   private void writeString(String string, boolean forceRaw) {
     // Is null? (true/false)
     if (string == null) {
@@ -385,11 +458,10 @@ public final class TCByteBufferOutputStream extends OutputStream implements TCBy
 
   private void writeStringAsRawChars(String string) {
     if (string == null) { throw new AssertionError(); }
-    writeInt(string.length());
-    try {
-      dos.writeChars(string);
-    } catch (IOException e) {
-      throw new AssertionError(e);
+    final int len = string.length();
+    writeInt(len);
+    for (int i = 0; i < len; i++) {
+      writeChar(string.charAt(i));
     }
   }
 
@@ -499,8 +571,7 @@ public final class TCByteBufferOutputStream extends OutputStream implements TCBy
       int pos = this.bufferPosition;
 
       while (offset > 0) {
-        byte[] array = getBuffer(index).array();
-        int num = Math.min(array.length - pos, offset);
+        int num = Math.min(getBuffer(index).limit() - pos, offset);
         offset -= num;
         if (offset == 0) {
           if (index > this.bufferIndex) {
@@ -516,9 +587,9 @@ public final class TCByteBufferOutputStream extends OutputStream implements TCBy
       }
 
       while (length > 0) {
-        byte[] array = getBuffer(index++).array();
-        int num = Math.min(array.length - pos, length);
-        dest.write(array, pos, num);
+        TCByteBuffer buffer = getBuffer(index++);
+        int num = Math.min(buffer.limit() - pos, length);
+        dest.write(buffer.array(), buffer.arrayOffset() + pos, num);
         length -= num;
         pos = 0;
       }
@@ -104,16 +104,21 @@ public class ReplicationMessage extends AbstractGroupMessage implements OrderedE
 
   @Override
   protected void basicDeserializeFrom(TCByteBufferInput in) throws IOException {
+    basicDeserializeFrom(in, false);
+  }
+
+  @Override
+  protected void basicDeserializeFrom(TCByteBufferInput in, boolean compact) throws IOException {
     int messageType = getType();
     switch (messageType) {
       case IGNORED:
-        this.rid = in.readLong();
-        int batchSize = in.readInt();
+        this.rid = in.readLong(compact);
+        int batchSize = in.readInt(compact);
         // We don't send empty batches.
         Assert.assertTrue(batchSize > 0);
         this.activities = new ArrayList<SyncReplicationActivity>();
         for (int i = 0; i < batchSize; ++i) {
-          SyncReplicationActivity activity = SyncReplicationActivity.deserializeFrom(in);
+          SyncReplicationActivity activity = SyncReplicationActivity.deserializeFrom(in, compact);
           Assert.assertNotNull(activity);
           this.activities.add(activity);
         }
@@ -124,15 +129,20 @@ public class ReplicationMessage extends AbstractGroupMessage implements OrderedE
 
   @Override
   protected void basicSerializeTo(TCByteBufferOutput out) {
+    basicSerializeTo(out, false);
+  }
+
+  @Override
+  protected void basicSerializeTo(TCByteBufferOutput out, boolean compact) {
     int messageType = getType();
     switch (messageType) {
       case IGNORED:
-        out.writeLong(rid);
+        out.writeLong(rid, compact);
         int batchSize = this.activities.size();
         Assert.assertTrue(batchSize > 0);
-        out.writeInt(batchSize);
+        out.writeInt(batchSize, compact);
         for (SyncReplicationActivity activity : this.activities) {
-          activity.serializeTo(out);
+          activity.serializeTo(out, compact);
         }
         break;
     }
@@ -82,14 +82,19 @@ public class ReplicationMessageAck extends AbstractGroupMessage implements IBatc
   
   @Override
   protected void basicDeserializeFrom(TCByteBufferInput in) throws IOException {
+    basicDeserializeFrom(in, false);
+  }
+
+  @Override
+  protected void basicDeserializeFrom(TCByteBufferInput in, boolean compact) throws IOException {
     if (BATCH == this.getType()) {
-      int batchSize = in.readInt();
+      int batchSize = in.readInt(compact);
       // We should never send an empty message.
       Assert.assertTrue(batchSize > 0);
       this.batch = new ArrayList<ReplicationAckTuple>();
       for (int i = 0; i < batchSize; ++i) {
-        SyncReplicationActivity.ActivityID respondTo = new SyncReplicationActivity.ActivityID(in.readLong());
-        ReplicationResultCode result = ReplicationResultCode.decode(in.readInt());
+        SyncReplicationActivity.ActivityID respondTo = new SyncReplicationActivity.ActivityID(in.readLong(compact));
+        ReplicationResultCode result = ReplicationResultCode.decode(in.readInt(compact));
         this.batch.add(new ReplicationAckTuple(respondTo, result));
       }
     }
@@ -97,14 +102,19 @@ public class ReplicationMessageAck extends AbstractGroupMessage implements IBatc
 
   @Override
   protected void basicSerializeTo(TCByteBufferOutput out) {
+    basicSerializeTo(out, false);
+  }
+
+  @Override
+  protected void basicSerializeTo(TCByteBufferOutput out, boolean compact) {
     if (BATCH == this.getType()) {
       int size = this.batch.size();
       // We should never send an empty message.
       Assert.assertTrue(size > 0);
-      out.writeInt(size);
+      out.writeInt(size, compact);
       for (ReplicationAckTuple tuple : this.batch) {
-        out.writeLong(tuple.respondTo.id);
-        out.writeInt(tuple.result.code());
+        out.writeLong(tuple.respondTo.id, compact);
+        out.writeInt(tuple.result.code(), compact);
       }
     }
   }
@@ -19,6 +19,7 @@
 package com.tc.l2.msg;
 
 import com.tc.async.api.OrderedEventContext;
+import com.tc.io.SharedBytesPayload;
 import com.tc.io.TCByteBufferInput;
 import com.tc.io.TCByteBufferOutput;
 import com.tc.net.ClientID;
@@ -205,7 +206,8 @@ public class SyncReplicationActivity implements OrderedEventContext {
   final TransactionID tid;
   final TransactionID oldest;
 
-  final byte[] payload;
+  // written to each passive without being copied, see SharedBytesPayload.writeTo()
+  final SharedBytesPayload payload;
   final int concurrency;
   // NOTE:  referenceCount is only used by SYNC_ENTITY_BEGIN.
   final int referenceCount;
@@ -237,7 +239,7 @@ public class SyncReplicationActivity implements OrderedEventContext {
     this.instance = instance;
     this.tid = tid;
     this.oldest = oldest;
-    this.payload = payload;
+    this.payload = (payload != null) ? SharedBytesPayload.wrap(payload) : null;
     this.concurrency = concurrency;
     this.referenceCount = referenceCount;
     this.debugId = debugId;
@@ -257,9 +259,13 @@ public class SyncReplicationActivity implements OrderedEventContext {
     return this.entitiesForSyncStart;
   }
 
+  /**
+   * @return the payload itself, not a copy; it is shared with every passive this activity goes to and must not be
+   *         mutated
+   */
   public byte[] getExtendedData() {
     Assert.assertTrue(ActivityType.SYNC_BEGIN != this.action);
-    return payload;
+    return (payload != null) ? payload.toByteArray() : null;
   }
   
   public ClientID getSource() {
@@ -324,7 +330,10 @@ public class SyncReplicationActivity implements OrderedEventContext {
     return (this.action.ordinal() >= ActivityType.SYNC_START.ordinal() && this.action.ordinal() < ActivityType.DISCONNECT_CLIENT.ordinal());
   }
 
-  protected void serializeTo(TCByteBufferOutput out) {
+  /**
+   * @param compact write ints and longs as varints
+   */
+  protected void serializeTo(TCByteBufferOutput out, boolean compact) {
     // This activity better be valid.
     Assert.assertTrue(ActivityType.INVALID != this.action);
     // We should NOT be serializing local flush activities.
@@ -332,54 +341,54 @@ public class SyncReplicationActivity implements OrderedEventContext {
     // We should NOT be serializing local flush activities.
     Assert.assertTrue(ActivityType.LOCAL_ENTITY_GC != this.action);
         
-    out.writeLong(this.id.id);
-    out.writeInt(this.action.ordinal());
+    out.writeLong(this.id.id, compact);
+    out.writeInt(this.action.ordinal(), compact);
     
     // We take very different paths depending on our type.
     if (ActivityType.SYNC_BEGIN == this.action) {
-      out.writeInt(this.entitiesForSyncStart.length);
+      out.writeInt(this.entitiesForSyncStart.length, compact);
       for (int i = 0; i < this.entitiesForSyncStart.length; ++i) {
         this.entitiesForSyncStart[i].serializeTo(out);
       }
     } else {
       if (this.action == ActivityType.CREATE_ENTITY) {
         this.entityID.serializeTo(out);
-        out.writeLong(version);
+        out.writeLong(version, compact);
       }
-      out.writeLong(fetchID.toLong());
+      out.writeLong(fetchID.toLong(), compact);
       int sourceNodeType = this.src.getNodeType();
       Assert.assertTrue(NodeID.CLIENT_NODE_TYPE == sourceNodeType);
       out.write(sourceNodeType);
       this.src.serializeTo(out);
-      out.writeLong(instance.getID());
-      out.writeLong(tid.toLong());
-      out.writeLong(oldest.toLong());
+      out.writeLong(instance.getID(), compact);
+      out.writeLong(tid.toLong(), compact);
+      out.writeLong(oldest.toLong(), compact);
       
       if (payload != null) {
-        out.writeInt(payload.length);
-        out.write(payload);
+        out.writeInt(payload.length(), compact);
+        payload.writeTo(out);
       } else {
-        out.writeInt(0);
+        out.writeInt(0, compact);
       }
       // Note that we only pass concurrency key or reference count in certain cases.
       if (ActivityType.SYNC_ENTITY_BEGIN == this.action) {
-        out.writeInt(this.referenceCount);
+        out.writeInt(this.referenceCount, compact);
       } else {
-        out.writeInt(this.concurrency);
+        out.writeInt(this.concurrency, compact);
       }
       if (this.debugId != null) {
         byte[] data = this.debugId.getBytes();
-        out.writeInt(data.length);
+        out.writeInt(data.length, compact);
         out.write(data);
       } else {
-        out.writeInt(0);
+        out.writeInt(0, compact);
       }
     }
   }
 
-  public static SyncReplicationActivity deserializeFrom(TCByteBufferInput in) throws IOException {
-    ActivityID activityID = new ActivityID(in.readLong());
-    ActivityType action = ActivityType.values()[in.readInt()];
+  public static SyncReplicationActivity deserializeFrom(TCByteBufferInput in, boolean compact) throws IOException {
+    ActivityID activityID = new ActivityID(in.readLong(compact));
+    ActivityType action = ActivityType.values()[in.readInt(compact)];
     
     // We take very different paths depending on our type.
     EntityCreationTuple[] entitiesForSyncStart = null;
@@ -395,7 +404,7 @@ public class SyncReplicationActivity implements OrderedEventContext {
     int referenceCount = 0;
     String debug = null;
     if (ActivityType.SYNC_BEGIN == action) {
-      int arraySize = in.readInt();
+      int arraySize = in.readInt(compact);
       entitiesForSyncStart = new EntityCreationTuple[arraySize];
       for (int i = 0; i < arraySize; ++i) {
         entitiesForSyncStart[i] = EntityCreationTuple.deserializeFrom(in);
@@ -403,17 +412,17 @@ public class SyncReplicationActivity implements OrderedEventContext {
     } else {
       if (action == ActivityType.CREATE_ENTITY) {
         entityID = EntityID.readFrom(in);
-        version = in.readLong();
+        version = in.readLong(compact);
       }
-      fetchID = new FetchID(in.readLong());
+      fetchID = new FetchID(in.readLong(compact));
       int sourceNodeType = in.read();
       Assert.assertTrue(NodeID.CLIENT_NODE_TYPE == sourceNodeType);
       source =  new ClientID().deserializeFrom(in);
-      instance =  new ClientInstanceID(in.readLong());
-      tid = new TransactionID(in.readLong());
-      oldest = new TransactionID(in.readLong());
+      instance =  new ClientInstanceID(in.readLong(compact));
+      tid = new TransactionID(in.readLong(compact));
+      oldest = new TransactionID(in.readLong(compact));
       
-      int length = in.readInt();
+      int length = in.readInt(compact);
       payload = new byte[length];
       in.readFully(payload);
       
@@ -421,11 +430,11 @@ public class SyncReplicationActivity implements OrderedEventContext {
       concurrency = 0;
       referenceCount = 0;
       if (ActivityType.SYNC_ENTITY_BEGIN == action) {
-        referenceCount = in.readInt();
+        referenceCount = in.readInt(compact);
       } else {
-        concurrency = in.readInt();
+        concurrency = in.readInt(compact);
       }
-      int dlen = in.readInt();
+      int dlen = in.readInt(compact);
       if (dlen > 0) {
         byte[] data = new byte[dlen];
         in.read(data);
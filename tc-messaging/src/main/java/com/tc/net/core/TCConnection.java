@@ -145,6 +145,12 @@ public interface TCConnection extends NetworkMessageSink {
 
   public boolean isTransportEstablished();
 
+  /**
+   * Start compressing large outgoing messages. Only called once the peer has agreed to wire compression in the transport
+   * handshake.
+   */
+  public void enableWireCompression();
+
   /**
    *
    * @return true iff the connection as been marked for close but hasn't been closed yet
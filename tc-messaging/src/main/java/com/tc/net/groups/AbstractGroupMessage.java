@@ -50,18 +50,30 @@ public abstract class AbstractGroupMessage implements GroupMessage {
 
   @Override
   final public void serializeTo(TCByteBufferOutput serialOutput) {
-    serialOutput.writeInt(this.type);
-    serialOutput.writeLong(this.id.toLong());
-    serialOutput.writeLong(this.requestID.toLong());
-    basicSerializeTo(serialOutput);
+    serializeTo(serialOutput, false);
+  }
+
+  /**
+   * @param compact write the ints and longs of the message header, and of the body if the message supports it, as
+   *        varints
+   */
+  final public void serializeTo(TCByteBufferOutput serialOutput, boolean compact) {
+    serialOutput.writeInt(this.type, compact);
+    serialOutput.writeLong(this.id.toLong(), compact);
+    serialOutput.writeLong(this.requestID.toLong(), compact);
+    basicSerializeTo(serialOutput, compact);
   }
 
   @Override
   final public GroupMessage deserializeFrom(TCByteBufferInput serialInput) throws IOException {
-    this.type = serialInput.readInt();
-    this.id = new MessageID(serialInput.readLong());
-    this.requestID = new MessageID(serialInput.readLong());
-    basicDeserializeFrom(serialInput);
+    return deserializeFrom(serialInput, false);
+  }
+
+  final public GroupMessage deserializeFrom(TCByteBufferInput serialInput, boolean compact) throws IOException {
+    this.type = serialInput.readInt(compact);
+    this.id = new MessageID(serialInput.readLong(compact));
+    this.requestID = new MessageID(serialInput.readLong(compact));
+    basicDeserializeFrom(serialInput, compact);
     return this;
   }
 
@@ -69,6 +81,18 @@ public abstract class AbstractGroupMessage implements GroupMessage {
 
   abstract protected void basicSerializeTo(TCByteBufferOutput out);
 
+  /**
+   * Override together with {@link #basicSerializeTo(TCByteBufferOutput, boolean)} to encode the ints and longs of the
+   * message body as varints when the peer reads them, the default ignores {@code compact}.
+   */
+  protected void basicDeserializeFrom(TCByteBufferInput in, boolean compact) throws IOException {
+    basicDeserializeFrom(in);
+  }
+
+  protected void basicSerializeTo(TCByteBufferOutput out, boolean compact) {
+    basicSerializeTo(out);
+  }
+
   @Override
   public boolean isRecycleOnRead(TCMessageImpl message) {
     return true;
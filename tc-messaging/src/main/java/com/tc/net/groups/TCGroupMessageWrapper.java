@@ -55,10 +55,20 @@ public class TCGroupMessageWrapper extends DSOMessageBase {
     return this.message;
   }
 
+  @Override
+  protected boolean supportsCompactEncoding() {
+    return true;
+  }
+
+  @Override
+  protected boolean supportsStringDictionary() {
+    return true;
+  }
+
   @Override
   protected void dehydrateValues() {
-    putNVPair(GROUP_MESSAGE_ID, this.message.getClass().getName());
-    this.message.serializeTo(getOutputStream());
+    putIdentifierNVPair(GROUP_MESSAGE_ID, this.message.getClass().getName());
+    this.message.serializeTo(getOutputStream(), isCompactEncoding());
   }
 
   @Override
@@ -67,7 +77,7 @@ public class TCGroupMessageWrapper extends DSOMessageBase {
       case GROUP_MESSAGE_ID:
         TCByteBufferInputStream in = getInputStream();
         try {
-          this.message = (AbstractGroupMessage) Class.forName(in.readString()).newInstance();
+          this.message = (AbstractGroupMessage) Class.forName(in.readIdentifier()).newInstance();
         } catch (InstantiationException e) {
           throw new RuntimeException(e);
         } catch (IllegalAccessException e) {
@@ -75,7 +85,7 @@ public class TCGroupMessageWrapper extends DSOMessageBase {
         } catch (ClassNotFoundException e) {
           throw new RuntimeException(e);
         }
-        this.message.deserializeFrom(in);
+        this.message.deserializeFrom(in, isCompactEncoding());
         return true;
       default:
         return false;
@@ -296,6 +296,23 @@ public class AbstractTCNetworkMessage implements TCNetworkMessage {
     }
   }
 
+  /**
+   * Makes a recycled message blank again under a new header, for a subclass that reuses its instances.
+   */
+  protected final void reset(TCNetworkHeader newHeader) {
+    Assert.eval(newHeader != null);
+    this.header = newHeader;
+    this.payloadData = EMPTY_BUFFER_ARRAY;
+    this.messagePayload = null;
+    this.entireMessageData = null;
+    this.totalLength = 0;
+    this.dataLength = 0;
+    this.headerLength = 0;
+    this.sentCallback = null;
+    this.sealed = new SetOnceFlag();
+    this.sentCallbackFired = new SetOnceFlag();
+  }
+
   protected boolean isRecycled() {
     return isSealed() && entireMessageData == null;
   }
@@ -334,10 +351,10 @@ public class AbstractTCNetworkMessage implements TCNetworkMessage {
     if (sealed.isSet()) { throw new IllegalStateException("Message is sealed"); }
   }
 
-  private final SetOnceFlag           sealed             = new SetOnceFlag();
-  private final SetOnceFlag           sentCallbackFired  = new SetOnceFlag();
+  private SetOnceFlag                 sealed             = new SetOnceFlag();
+  private SetOnceFlag                 sentCallbackFired  = new SetOnceFlag();
   private static final TCByteBuffer[] EMPTY_BUFFER_ARRAY = {};
-  private final TCNetworkHeader       header;
+  private TCNetworkHeader             header;
   private TCByteBuffer[]              payloadData;
   private TCNetworkMessage            messagePayload;
   private TCByteBuffer[]              entireMessageData;
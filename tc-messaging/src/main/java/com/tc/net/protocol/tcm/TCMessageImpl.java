@@ -22,6 +22,7 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.tc.bytes.TCByteBuffer;
+import com.tc.io.StringDictionary;
 import com.tc.io.TCByteBufferInputStream;
 import com.tc.io.TCByteBufferOutputStream;
 import com.tc.io.TCSerializable;
@@ -33,16 +34,43 @@ import com.tc.util.Assert;
 import com.tc.util.concurrent.SetOnceFlag;
 
 import java.io.IOException;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
+ * The top bits of the message version in the header are not part of the version of the message type, they negotiate
+ * the compact encoding of message values: a sender with {@value #COMPACT_ENCODING_ENABLED} set flags every message
+ * with {@link #VERSION_READS_COMPACT}. Once a message with that flag came in on a channel, messages of the types that
+ * {@link #supportsCompactEncoding() support it} go out on that channel with their ints and longs as zigzag varints
+ * and flagged with {@link #VERSION_COMPACT}. Readers always go by the flags of the message at hand, so either end
+ * copes with a peer that doesn't know about the compact encoding.
+ * <p>
+ * Compact messages of the types that {@link #supportsStringDictionary() support it} also write their identifiers
+ * through the {@link StringDictionary} of the channel, they are flagged with {@link #VERSION_DICTIONARY} and name the
+ * epoch of the dictionary right after the NV count.
+ *
  * @author teck
  */
 public abstract class TCMessageImpl extends AbstractTCNetworkMessage implements TCMessage {
 
+  public static final String            COMPACT_ENCODING_ENABLED = "tc.messages.compactEncoding.enabled";
+  static final int                      VERSION_COMPACT          = 0x8000;
+  static final int                      VERSION_READS_COMPACT    = 0x4000;
+  static final int                      VERSION_DICTIONARY       = 0x2000;
+  static final int                      VERSION_MASK             = 0x1FFF;
+  // channel attachment set once the peer announced it reads the compact encoding
+  static final String                   PEER_READS_COMPACT       = "tcm.peerReadsCompact";
+  // channel attachments with the strings sent and received, the sending one is dropped when the transport disconnects
+  static final String                   STRING_DICTIONARY_WRITER = "tcm.stringDictionaryWriter";
+  static final String                   STRING_DICTIONARY        = "tcm.stringDictionary";
+  private static volatile boolean       compactEncoding          = Boolean.getBoolean(COMPACT_ENCODING_ENABLED);
+  // with the schemas off, messages that have one fall back to their hand-written values
+  public static final String            SCHEMA_ENABLED           = "tc.messages.schema.enabled";
+  private static volatile boolean       schemaEnabled            = Boolean.parseBoolean(System.getProperty(SCHEMA_ENABLED, "true"));
+
   private static final Logger LOGGER = LoggerFactory.getLogger(TCMessageImpl.class);
   private final MessageMonitor          monitor;
-  private final SetOnceFlag             processed         = new SetOnceFlag();
-  private final SetOnceFlag             isSent            = new SetOnceFlag();
+  private SetOnceFlag                   processed         = new SetOnceFlag();
+  private SetOnceFlag                   isSent            = new SetOnceFlag();
   private final TCMessageType           type;
   private final MessageChannel          channel;
   private final boolean                 isOutgoing;
@@ -50,6 +78,14 @@ public abstract class TCMessageImpl extends AbstractTCNetworkMessage implements
   private TCByteBufferOutputStream      out;
   private TCByteBufferInputStream       bbis;
   private int                           messageVersion;
+  private boolean                       compact;
+  // only set while the message is sent, under its lock
+  private StringDictionary.Writer       dictionary;
+  private boolean                       usesDictionary;
+  // set if the message goes back to the pool once its owners are done with it, see TCMessagePool
+  private TCMessagePool                 pool;
+  private final AtomicInteger           owners            = new AtomicInteger(1);
+  private volatile Throwable            recycledAt;
 
   /**
    * Creates a new TCMessage to write data into (ie. to send to the network)
@@ -81,7 +117,13 @@ public abstract class TCMessageImpl extends AbstractTCNetworkMessage implements
     super(header, data);
     this.monitor = monitor;
     this.type = TCMessageType.getInstance(header.getMessageType());
-    this.messageVersion = header.getMessageTypeVersion();
+    final int version = header.getMessageTypeVersion();
+    this.messageVersion = version & VERSION_MASK;
+    this.compact = (version & VERSION_COMPACT) != 0;
+    this.usesDictionary = (version & VERSION_DICTIONARY) != 0;
+    if ((version & VERSION_READS_COMPACT) != 0 && channel != null) {
+      channel.addAttachment(PEER_READS_COMPACT, Boolean.TRUE, false);
+    }
     this.bbis = new TCByteBufferInputStream(data);
     this.channel = channel;
     this.isOutgoing = false;
@@ -97,16 +139,128 @@ public abstract class TCMessageImpl extends AbstractTCNetworkMessage implements
   }
 
   protected void setMessageVersion(int version) {
+    Assert.eval((version & ~VERSION_MASK) == 0);
     this.messageVersion = version;
   }
 
+  /**
+   * Override to return true once every int and long value of the message is written with {@link #putNVPair(byte, int)},
+   * {@link #putNVPair(byte, long)}, {@link #putIntValue(int)}, {@link #putLongValue(long)} or according to
+   * {@link #isCompactEncoding()} and read back accordingly.
+   */
+  protected boolean supportsCompactEncoding() {
+    return false;
+  }
+
+  /**
+   * Override to return true if messages of this type are sent and read in order on their channels, so that the
+   * identifiers they write with {@link TCByteBufferOutputStream#writeIdentifier(String)} can refer to the ones of
+   * earlier messages. Only compact messages use the dictionary, it takes {@link #supportsCompactEncoding()} as well.
+   */
+  protected boolean supportsStringDictionary() {
+    return false;
+  }
+
+  /**
+   * Override to return true if sent messages of this type can be written again as a new message of the same channel,
+   * {@link #resetValues()} must then clear everything the message was given. See {@link TCMessagePool}.
+   */
+  protected boolean isReusable() {
+    return false;
+  }
+
+  /**
+   * Clears the values of a message before it is reused, called only if {@link #isReusable()}.
+   */
+  protected void resetValues() {
+    //
+  }
+
+  void setPool(TCMessagePool pool) {
+    Assert.assertTrue(isOutgoing && isReusable());
+    this.pool = pool;
+  }
+
+  /**
+   * Makes a recycled message blank again, to be written into {@code output}.
+   */
+  void reuse(TCByteBufferOutputStream output) {
+    Assert.assertTrue(this.pool != null);
+    reset(new TCMessageHeaderImpl(type));
+    this.processed = new SetOnceFlag();
+    this.isSent = new SetOnceFlag();
+    this.nvCount = 0;
+    this.messageVersion = 0;
+    this.compact = false;
+    this.usesDictionary = false;
+    this.out = output;
+    this.out.writeInt(0);
+    this.owners.set(1);
+    resetValues();
+  }
+
+  /**
+   * Fails any further use of this message, it was recycled at {@code recycledAt}.
+   */
+  void poison(Throwable recycledAt) {
+    this.recycledAt = recycledAt;
+  }
+
+  /**
+   * Fails if this message was recycled. Reusable messages call this from their setters as well, so a stale reference
+   * fails where it is used rather than when the message is sent.
+   */
+  protected final void checkNotPoisoned() {
+    final Throwable trace = this.recycledAt;
+    if (trace != null) { throw new IllegalStateException("message used after it was recycled: " + type, trace); }
+  }
+
+  private void release() {
+    if (owners.decrementAndGet() == 0) {
+      pool.offer(this);
+    }
+  }
+
+  @Override
+  public void doRecycleOnWrite() {
+    super.doRecycleOnWrite();
+    // the network is done with the message
+    if (pool != null) {
+      release();
+    }
+  }
+
+  /**
+   * @return true if the ints and longs of this message are encoded as varints. For an outgoing message only known
+   *         within {@link #dehydrateValues()}.
+   */
+  protected boolean isCompactEncoding() {
+    return this.compact;
+  }
+
+  // for testing purpose only
+  static void setCompactEncoding(boolean enabled) {
+    compactEncoding = enabled;
+  }
+
+  // for testing purpose only
+  static void setSchemaEnabled(boolean enabled) {
+    schemaEnabled = enabled;
+  }
+
+  private boolean peerReadsCompact() {
+    return channel != null && channel.getAttachment(PEER_READS_COMPACT) != null;
+  }
+
   // use me to read directly from the message data (as opposed to using the name-value mechanism)
   protected TCByteBufferInputStream getInputStream() {
+    checkNotPoisoned();
     return this.bbis;
   }
 
   // use me to write directly to the message data (as opposed to using the name-value mechanism)
   protected TCByteBufferOutputStream getOutputStream() {
+    checkNotPoisoned();
     return this.out;
   }
 
@@ -119,6 +273,26 @@ public abstract class TCMessageImpl extends AbstractTCNetworkMessage implements
     // override me to add NV data to your message
   }
 
+  /**
+   * Override to return the schema of the values of this message, written before the ones of
+   * {@link #dehydrateValues()} and read before {@link #hydrateValue(byte)} is asked for the names it doesn't know.
+   */
+  protected TCMessageSchema<?> getSchema() {
+    return null;
+  }
+
+  private TCMessageSchema<?> schema() {
+    return schemaEnabled ? getSchema() : null;
+  }
+
+  /**
+   * @return true if the schema of this message writes and reads its values. Otherwise {@link #dehydrateValues()} and
+   *         {@link #hydrateValue(byte)} handle all of them, see {@value #SCHEMA_ENABLED}.
+   */
+  protected final boolean usesSchema() {
+    return schema() != null;
+  }
+
   /**
    * Prepares all instance data into the payload byte buffer array in preparation for sending it.
    */
@@ -128,6 +302,7 @@ public abstract class TCMessageImpl extends AbstractTCNetworkMessage implements
   }
 
   private void dehydrate(TCByteBuffer[] nvData) {
+    checkNotPoisoned();
     if (processed.attemptSet()) {
       try {
         if (nvData == null) nvData = nvToTCByteBufferArray();
@@ -145,7 +320,19 @@ public abstract class TCMessageImpl extends AbstractTCNetworkMessage implements
   }
 
   private final TCByteBuffer[] nvToTCByteBufferArray() {
+    this.compact = compactEncoding && supportsCompactEncoding() && peerReadsCompact();
+    if (this.compact && this.dictionary != null) {
+      this.usesDictionary = true;
+      out.writeVarInt(this.dictionary.getEpoch());
+      out.setStringDictionary(this.dictionary);
+    }
+    final TCMessageSchema<?> schema = schema();
+    if (schema != null) {
+      schema.dehydrateValues(this);
+    }
     dehydrateValues();
+    out.setStringDictionary(null);
+    getMessageType().recordSize(out.getBytesWritten());
 
     final TCByteBuffer[] nvData = out.toArray();
 
@@ -157,7 +344,17 @@ public abstract class TCMessageImpl extends AbstractTCNetworkMessage implements
   private void populateHeader() {
     TCMessageHeader hdr = (TCMessageHeader) getHeader();
     hdr.setMessageType(getMessageType().getType());
-    hdr.setMessageTypeVersion(getMessageVersion());
+    int version = getMessageVersion();
+    if (compactEncoding) {
+      version |= VERSION_READS_COMPACT;
+    }
+    if (this.compact) {
+      version |= VERSION_COMPACT;
+    }
+    if (this.usesDictionary) {
+      version |= VERSION_DICTIONARY;
+    }
+    hdr.setMessageTypeVersion(version);
   }
 
   /**
@@ -171,14 +368,11 @@ public abstract class TCMessageImpl extends AbstractTCNetworkMessage implements
       try {
         final int count = bbis.readInt();
         if (count < 0) { throw new IOException("negative NV count: " + count); }
-
-        for (int i = 0; i < count; i++) {
-          final byte name = bbis.readByte();
-          if (!hydrateValue(name)) {
-            logger.error(" Hydrate Error - " + toString());
-            throw new UnknownNameException(getClass(), name);
-          }
+        if (usesDictionary) {
+          bbis.setStringDictionary(dictionaryReader(bbis.readVarInt()));
         }
+
+        hydrateValues(schema(), count);
       } finally {
         this.bbis.close();
         this.bbis = null;
@@ -188,6 +382,18 @@ public abstract class TCMessageImpl extends AbstractTCNetworkMessage implements
     }
   }
 
+  private <M extends TCMessageImpl> void hydrateValues(TCMessageSchema<M> schema, int count) throws IOException,
+      UnknownNameException {
+    final M message = schema == null ? null : schema.cast(this);
+    for (int i = 0; i < count; i++) {
+      final byte name = bbis.readByte();
+      if ((schema == null || !schema.hydrateValue(message, name)) && !hydrateValue(name)) {
+        logger.error(" Hydrate Error - " + toString());
+        throw new UnknownNameException(getClass(), name);
+      }
+    }
+  }
+
   // Can be overloaded by sub classes to decide when to recycle differently.
   public void doRecycleOnRead() {
     recycle();
@@ -205,8 +411,9 @@ public abstract class TCMessageImpl extends AbstractTCNetworkMessage implements
   }
 
   /**
-   * Subclasses must implement this to set appropriate instance variables with the value of the given name.
-   * Return false if the given name is unknown to your message class
+   * Subclasses must implement this to set appropriate instance variables with the value of the given name, it is only
+   * asked for the names their {@link #getSchema() schema} doesn't read. Return false if the given name is unknown to
+   * your message class
    * 
    * @param name
    */
@@ -233,11 +440,11 @@ public abstract class TCMessageImpl extends AbstractTCNetworkMessage implements
   }
 
   protected int getIntValue() throws IOException {
-    return bbis.readInt();
+    return bbis.readInt(compact);
   }
 
   protected long getLongValue() throws IOException {
-    return bbis.readLong();
+    return bbis.readLong(compact);
   }
 
   protected short getShortValue() throws IOException {
@@ -257,7 +464,7 @@ public abstract class TCMessageImpl extends AbstractTCNetworkMessage implements
   }
 
   protected byte[] getBytesArray() throws IOException {
-    int length = bbis.readInt();
+    int length = bbis.readInt(compact);
     byte bytes[] = new byte[length];
     int off = 0;
     while (length > 0) {
@@ -268,89 +475,106 @@ public abstract class TCMessageImpl extends AbstractTCNetworkMessage implements
     return bytes;
   }
 
-  protected void putNVPair(byte name, boolean value) {
+  private void putName(byte name) {
+    checkNotPoisoned();
     nvCount++;
     out.write(name);
+  }
+
+  protected void putNVPair(byte name, boolean value) {
+    putName(name);
     out.writeBoolean(value);
   }
 
   protected void putNVPair(byte name, byte value) {
-    nvCount++;
-    out.write(name);
+    putName(name);
     out.writeByte(value);
   }
 
   protected void putNVPair(byte name, char value) {
-    nvCount++;
-    out.write(name);
+    putName(name);
     out.writeChar(value);
   }
 
   protected void putNVPair(byte name, double value) {
-    nvCount++;
-    out.write(name);
+    putName(name);
     out.writeDouble(value);
   }
 
   protected void putNVPair(byte name, float value) {
-    nvCount++;
-    out.write(name);
+    putName(name);
     out.writeFloat(value);
   }
 
   protected void putNVPair(byte name, int value) {
-    nvCount++;
-    out.write(name);
-    out.writeInt(value);
+    putName(name);
+    out.writeInt(value, compact);
   }
 
   protected void putNVPair(byte name, long value) {
-    nvCount++;
-    out.write(name);
-    out.writeLong(value);
+    putName(name);
+    out.writeLong(value, compact);
   }
 
   protected void putNVPair(byte name, short value) {
-    nvCount++;
-    out.write(name);
+    putName(name);
     out.writeShort(value);
   }
 
   protected void putNVPair(byte name, String value) {
-    nvCount++;
-    out.write(name);
+    putName(name);
     out.writeString(value);
   }
 
+  /**
+   * Write a string which is likely to be repeated in later messages, to be read back with
+   * {@link TCByteBufferInputStream#readIdentifier()}
+   */
+  protected void putIdentifierNVPair(byte name, String value) {
+    putName(name);
+    out.writeIdentifier(value);
+  }
+
   protected void putNVPair(byte name, NodeID nodeID) {
-    nvCount++;
-    out.write(name);
+    putName(name);
     new NodeIDSerializer(nodeID).serializeTo(out);
   }
 
   protected void putNVPair(byte name, TCSerializable<?> object) {
-    nvCount++;
-    out.write(name);
+    putName(name);
     object.serializeTo(out);
   }
 
   protected void putNVPair(byte name, TCByteBuffer[] data) {
-    nvCount++;
-    out.write(name);
+    putName(name);
     out.write(data);
   }
 
   protected void putNVPair(byte name, byte[] bytes) {
-    nvCount++;
-    out.write(name);
-    out.writeInt(bytes.length);
+    putName(name);
+    out.writeInt(bytes.length, compact);
     out.write(bytes);
   }
 
   protected void putNVPair(byte name, AbstractIdentifier identifier) {
-    nvCount++;
-    out.write(name);
-    out.writeLong(identifier.toLong());
+    putName(name);
+    out.writeLong(identifier.toLong(), compact);
+  }
+
+  /**
+   * Write an int without a name, to be read back with {@link #getIntValue()}
+   */
+  protected void putIntValue(int value) {
+    checkNotPoisoned();
+    out.writeInt(value, compact);
+  }
+
+  /**
+   * Write a long without a name, to be read back with {@link #getLongValue()}
+   */
+  protected void putLongValue(long value) {
+    checkNotPoisoned();
+    out.writeLong(value, compact);
   }
 
   public ChannelID getChannelID() {
@@ -368,20 +592,91 @@ public abstract class TCMessageImpl extends AbstractTCNetworkMessage implements
    */
   @Override
   public boolean send() {
+    checkNotPoisoned();
     if (isSent.attemptSet()) {
+      try {
+        return dehydrateAndSend();
+      } finally {
+        // whoever wrote the message is done with it
+        if (pool != null) {
+          release();
+        }
+      }
+    }
+    return false;
+  }
+
+  private boolean dehydrateAndSend() {
+    final StringDictionary.Writer writer = dictionaryWriter();
+    if (writer == null) {
       dehydrate();
+      return sendDehydrated();
+    }
+    // the peer must read the messages in the order they were written, their identifiers refer to earlier ones. Only
+    // writing holds the dictionary, sending just waits for the messages written before
+    final long ticket;
+    synchronized (writer) {
+      final int mark = writer.mark();
+      boolean written = false;
       try {
-        basicSend();
-        return true;
-      } catch (IOException ioe) {
+        this.dictionary = writer;
+        dehydrate();
+        written = true;
+      } finally {
+        this.dictionary = null;
+        if (!written) {
+          writer.rollback(mark);
+        }
+      }
+      ticket = writer.written();
+    }
+    boolean sent = false;
+    try {
+      // behind a message that didn't go out, this one may refer to strings the peer never got
+      sent = writer.awaitTurn(ticket) && sendDehydrated();
+    } finally {
+      writer.sent(ticket, sent);
+    }
+    return sent;
+  }
+
+  private boolean sendDehydrated() {
+    try {
+      if (pool != null) {
+        // and the network as well until it recycles the message
+        owners.incrementAndGet();
+      }
+      basicSend();
+      return true;
+    } catch (IOException ioe) {
 //  suppress some warnings when the channel is closed as this is expected, client is not
 //  there anymore
-        if (channel.isOpen()) {
-          LOGGER.info("Message not sent: " + ioe.getMessage());
-        }
+      if (channel.isOpen()) {
+        LOGGER.info("Message not sent: " + ioe.getMessage());
       }
+      return false;
     }
-    return false;
+  }
+
+  private StringDictionary.Writer dictionaryWriter() {
+    if (!compactEncoding || !supportsStringDictionary() || !peerReadsCompact()) { return null; }
+    StringDictionary.Writer writer = (StringDictionary.Writer) channel.getAttachment(STRING_DICTIONARY_WRITER);
+    if (writer == null || writer.isBroken()) {
+      // a broken writer is replaced, the peer starts over with the epoch of the new one
+      channel.addAttachment(STRING_DICTIONARY_WRITER, StringDictionary.newWriter(), writer != null);
+      writer = (StringDictionary.Writer) channel.getAttachment(STRING_DICTIONARY_WRITER);
+    }
+    return writer;
+  }
+
+  private StringDictionary.Reader dictionaryReader(int epoch) throws IOException {
+    if (channel == null) { throw new IOException("string dictionary without a channel: " + getMessageType()); }
+    StringDictionary dictionary = (StringDictionary) channel.getAttachment(STRING_DICTIONARY);
+    if (dictionary == null) {
+      channel.addAttachment(STRING_DICTIONARY, new StringDictionary(), false);
+      dictionary = (StringDictionary) channel.getAttachment(STRING_DICTIONARY);
+    }
+    return dictionary.reader(epoch);
   }
 
   private void basicSend() throws IOException {
@@ -393,7 +688,14 @@ public abstract class TCMessageImpl extends AbstractTCNetworkMessage implements
    * send with payload from a dehydrated message
    */
   public void cloneAndSend(TCMessageImpl message) throws IOException {
+    if (message.compact && !peerReadsCompact()) {
+      throw new IOException("compact encoded payload, the peer does not read it: " + message.getMessageType());
+    }
+    if (message.usesDictionary) {
+      throw new IOException("payload refers to the string dictionary of another channel: " + message.getMessageType());
+    }
     if (isSent.attemptSet()) {
+      this.compact = message.compact;
       dehydrate(message.getPayload());
       basicSend();
     }
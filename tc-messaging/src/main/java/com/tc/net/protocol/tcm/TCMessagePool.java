@@ -0,0 +1,101 @@
+/*
+ *
+ *  The contents of this file are subject to the Terracotta Public License Version
+ *  2.0 (the "License"); You may not use this file except in compliance with the
+ *  License. You may obtain a copy of the License at
+ *
+ *  http://terracotta.org/legal/terracotta-public-license.
+ *
+ *  Software distributed under the License is distributed on an "AS IS" basis,
+ *  WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License for
+ *  the specific language governing rights and limitations under the License.
+ *
+ *  The Covered Software is Terracotta Core.
+ *
+ *  The Initial Developer of the Covered Software is
+ *  Terracotta, Inc., a Software AG company
+ *
+ */
+package com.tc.net.protocol.tcm;
+
+import com.tc.object.session.SessionID;
+
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Sent messages of a channel, kept for the next message of their type. Only the types that
+ * {@link TCMessageImpl#isReusable() allow it} are pooled, typically the responses the server sends for every request.
+ * <p>
+ * A pooled message has two owners once it is sent: whoever wrote it, until {@link TCMessageImpl#send()} returns, and
+ * the network, until it recycles the buffers of the message (on the ack of the peer if the channel resends messages).
+ * The message goes back to the pool when both are done with it, a message that is never sent or never written out is
+ * left to the garbage collector. Whoever wrote a message must not touch it once it is sent.
+ * <p>
+ * Pooling is off by default and is controlled with the following system properties:
+ * <ul>
+ * <li>{@value #POOLING_ENABLED} - reuse sent messages</li>
+ * <li>{@value #POOL_SIZE} - messages kept per type and channel</li>
+ * <li>{@value #POOLING_DEBUG} - do not reuse messages but fail any use of a message after it was recycled, with the
+ * trace of where it was recycled</li>
+ * </ul>
+ */
+final class TCMessagePool {
+
+  static final String                                           POOLING_ENABLED = "tc.messages.pooling.enabled";
+  static final String                                           POOL_SIZE       = "tc.messages.pooling.size";
+  static final String                                           POOLING_DEBUG   = "tc.messages.pooling.debug";
+  // channel attachment
+  static final String                                           ATTACHMENT      = "tcm.messagePool";
+
+  private static volatile boolean                               enabled         = Boolean.getBoolean(POOLING_ENABLED);
+  private static volatile boolean                               debug           = Boolean.getBoolean(POOLING_DEBUG);
+  private static final int                                      SIZE            = Integer.getInteger(POOL_SIZE, 64);
+
+  private final Map<TCMessageType, BlockingQueue<TCMessageImpl>> messages        = new ConcurrentHashMap<>();
+
+  /**
+   * @return the pool of {@code channel}, null if pooling is off
+   */
+  static TCMessagePool of(MessageChannel channel) {
+    if (!enabled || channel == null) { return null; }
+    TCMessagePool pool = (TCMessagePool) channel.getAttachment(ATTACHMENT);
+    if (pool == null) {
+      channel.addAttachment(ATTACHMENT, new TCMessagePool(), false);
+      pool = (TCMessagePool) channel.getAttachment(ATTACHMENT);
+    }
+    return pool;
+  }
+
+  // for testing purpose only
+  static void setEnabled(boolean enabled, boolean debug) {
+    TCMessagePool.enabled = enabled;
+    TCMessagePool.debug = debug;
+  }
+
+  /**
+   * @return a recycled message of {@code type}, or null if there is none written with {@code sessionID}
+   */
+  TCMessageImpl take(TCMessageType type, SessionID sessionID) {
+    final BlockingQueue<TCMessageImpl> queue = messages.get(type);
+    if (queue == null) { return null; }
+    final TCMessageImpl message = queue.poll();
+    // the session changes when the client reconnects to another server, that message is for the old one
+    if (message == null || !sessionID.equals(message.getLocalSessionID())) { return null; }
+    return message;
+  }
+
+  /**
+   * Called once the last owner of {@code message} is done with it.
+   */
+  void offer(TCMessageImpl message) {
+    if (debug) {
+      message.poison(new IllegalStateException("message recycled here"));
+      return;
+    }
+    // dropped when the pool is full
+    messages.computeIfAbsent(message.getMessageType(), t -> new ArrayBlockingQueue<>(SIZE)).offer(message);
+  }
+}
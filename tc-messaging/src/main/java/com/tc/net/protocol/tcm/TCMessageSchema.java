@@ -0,0 +1,152 @@
+/*
+ *
+ *  The contents of this file are subject to the Terracotta Public License Version
+ *  2.0 (the "License"); You may not use this file except in compliance with the
+ *  License. You may obtain a copy of the License at
+ *
+ *  http://terracotta.org/legal/terracotta-public-license.
+ *
+ *  Software distributed under the License is distributed on an "AS IS" basis,
+ *  WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License for
+ *  the specific language governing rights and limitations under the License.
+ *
+ *  The Covered Software is Terracotta Core.
+ *
+ *  The Initial Developer of the Covered Software is
+ *  Terracotta, Inc., a Software AG company
+ *
+ */
+package com.tc.net.protocol.tcm;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
+import java.util.function.ObjIntConsumer;
+import java.util.function.ObjLongConsumer;
+import java.util.function.Predicate;
+import java.util.function.ToIntFunction;
+import java.util.function.ToLongFunction;
+
+/**
+ * The values of a message type, declared once instead of coded by hand in {@link TCMessageImpl#dehydrateValues()} and
+ * {@link TCMessageImpl#hydrateValue(byte)}. A message written with a schema looks the same on the wire as one written
+ * by hand: every field is a name value pair, the fields are written in the order they were declared and read back
+ * through a table indexed by their name. A message may still write and read values of its own by hand, after the ones
+ * of its schema. The messages that have a schema keep their hand-written values as well, those are used instead when
+ * {@value TCMessageImpl#SCHEMA_ENABLED} is false, see {@link TCMessageImpl#usesSchema()}.
+ *
+ * <pre>
+ * private static final TCMessageSchema&lt;PingMessage&gt; SCHEMA = TCMessageSchema.builder(PingMessage.class)
+ *     .longField(SEQUENCE, m -&gt; m.sequence, (m, v) -&gt; m.sequence = v)
+ *     .build();
+ * </pre>
+ */
+public final class TCMessageSchema<M extends TCMessageImpl> {
+
+  /**
+   * Writes a field of a message, with the put methods of the message.
+   */
+  public interface Encoder<M> {
+    void encode(M message);
+  }
+
+  /**
+   * Reads a field of a message, with the get methods of the message.
+   */
+  public interface Decoder<M> {
+    void decode(M message) throws IOException;
+  }
+
+  /**
+   * Sets a boolean field of a message, without boxing the value.
+   */
+  public interface ObjBooleanConsumer<M> {
+    void accept(M message, boolean value);
+  }
+
+  private final Class<M>           type;
+  private final Encoder<M>[]       encoders;
+  private final Decoder<M>[]       decoders;
+
+  private TCMessageSchema(Class<M> type, Encoder<M>[] encoders, Decoder<M>[] decoders) {
+    this.type = type;
+    this.encoders = encoders;
+    this.decoders = decoders;
+  }
+
+  public static <M extends TCMessageImpl> Builder<M> builder(Class<M> type) {
+    return new Builder<>(type);
+  }
+
+  /**
+   * The message as the type of this schema, cast once per message rather than once per field.
+   */
+  M cast(TCMessageImpl message) {
+    return type.cast(message);
+  }
+
+  void dehydrateValues(TCMessageImpl message) {
+    final M m = cast(message);
+    for (Encoder<M> encoder : encoders) {
+      encoder.encode(m);
+    }
+  }
+
+  /**
+   * @return false if {@code name} is not a field of this schema
+   */
+  boolean hydrateValue(M message, byte name) throws IOException {
+    final Decoder<M> decoder = decoders[name & 0xFF];
+    if (decoder == null) { return false; }
+    decoder.decode(message);
+    return true;
+  }
+
+  public static final class Builder<M extends TCMessageImpl> {
+    private final Class<M>         type;
+    private final List<Encoder<M>> encoders = new ArrayList<>();
+    @SuppressWarnings("unchecked")
+    private final Decoder<M>[]     decoders = new Decoder[256];
+
+    private Builder(Class<M> type) {
+      this.type = type;
+    }
+
+    public Builder<M> booleanField(byte name, Predicate<M> getter, ObjBooleanConsumer<M> setter) {
+      return field(name, m -> m.putNVPair(name, getter.test(m)), m -> setter.accept(m, m.getBooleanValue()));
+    }
+
+    public Builder<M> intField(byte name, ToIntFunction<M> getter, ObjIntConsumer<M> setter) {
+      return field(name, m -> m.putNVPair(name, getter.applyAsInt(m)), m -> setter.accept(m, m.getIntValue()));
+    }
+
+    public Builder<M> longField(byte name, ToLongFunction<M> getter, ObjLongConsumer<M> setter) {
+      return field(name, m -> m.putNVPair(name, getter.applyAsLong(m)), m -> setter.accept(m, m.getLongValue()));
+    }
+
+    public Builder<M> stringField(byte name, Function<M, String> getter, BiConsumer<M, String> setter) {
+      return field(name, m -> m.putNVPair(name, getter.apply(m)), m -> setter.accept(m, m.getStringValue()));
+    }
+
+    public Builder<M> bytesField(byte name, Function<M, byte[]> getter, BiConsumer<M, byte[]> setter) {
+      return field(name, m -> m.putNVPair(name, getter.apply(m)), m -> setter.accept(m, m.getBytesArray()));
+    }
+
+    /**
+     * A field of any other kind, {@code encoder} has to write the name value pair of {@code name} itself.
+     */
+    public Builder<M> field(byte name, Encoder<M> encoder, Decoder<M> decoder) {
+      if (decoders[name & 0xFF] != null) { throw new IllegalArgumentException("field " + name + " declared twice"); }
+      encoders.add(encoder);
+      decoders[name & 0xFF] = decoder;
+      return this;
+    }
+
+    @SuppressWarnings("unchecked")
+    public TCMessageSchema<M> build() {
+      return new TCMessageSchema<>(type, encoders.toArray(new Encoder[encoders.size()]), decoders.clone());
+    }
+  }
+}
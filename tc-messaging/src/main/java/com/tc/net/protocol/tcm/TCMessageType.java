@@ -47,6 +47,8 @@ public enum TCMessageType {
     DIAGNOSTIC_RESPONSE(true);
     
   private final boolean validType;
+  // moving average of the size of the messages of this type sent so far
+  private volatile int sizeHint;
 
   TCMessageType(boolean valid) {
     validType = valid;
@@ -67,4 +69,20 @@ public enum TCMessageType {
   public boolean isValid() {
     return this.validType;
   }
+
+  /**
+   * @return about how many bytes a message of this type takes, 0 until one was sent
+   */
+  public int getSizeHint() {
+    return this.sizeHint;
+  }
+
+  /**
+   * Called with the size of each message of this type that is sent. Racing updates lose a sample, a hint does not need
+   * to be exact.
+   */
+  public void recordSize(int size) {
+    final int hint = this.sizeHint;
+    this.sizeHint = hint + ((size - hint) >> 2);
+  }
 }
@@ -23,6 +23,7 @@ import com.tc.io.TCByteBufferOutputStream;
 import com.tc.net.protocol.tcm.MessageChannel;
 import com.tc.net.protocol.tcm.MessageMonitor;
 import com.tc.net.protocol.tcm.TCMessageHeader;
+import com.tc.net.protocol.tcm.TCMessageSchema;
 import com.tc.net.protocol.tcm.TCMessageType;
 import com.tc.object.msg.DSOMessageBase;
 import com.tc.object.session.SessionID;
@@ -39,6 +40,10 @@ public class PingMessage extends DSOMessageBase {
 
   private long              sequence = -1;
 
+  private static final TCMessageSchema<PingMessage> SCHEMA = TCMessageSchema.builder(PingMessage.class)
+      .longField(SEQUENCE, m -> m.sequence, (m, v) -> m.sequence = v)
+      .build();
+
   public PingMessage(SessionID sessionID,MessageMonitor monitor, TCByteBufferOutputStream out, MessageChannel channel, TCMessageType type) {
     super(sessionID, monitor, out, channel, type);
   }
@@ -62,9 +67,17 @@ public class PingMessage extends DSOMessageBase {
     return rv;
   }
 
+  @Override
+  protected TCMessageSchema<?> getSchema() {
+    return SCHEMA;
+  }
+
+  // the hand-written values, in case the schema is off
   @Override
   protected void dehydrateValues() {
-    putNVPair(SEQUENCE, sequence);
+    if (!usesSchema()) {
+      putNVPair(SEQUENCE, sequence);
+    }
   }
 
   @Override
@@ -36,4 +36,14 @@ public interface TransportHandshakeMessage extends WireProtocolMessage {
   public boolean isAck();
 
   public short getStackLayerFlags();
+
+  /**
+   * Capability bits. A SYN carries the capabilities the client supports, a successful SYN_ACK the ones the server agreed
+   * to use on the connection. They are written after all the fields older versions read, so older peers skip them and
+   * report none.
+   */
+  public short getCapabilities();
+
+  public static final short CAPABILITY_NONE             = 0;
+  public static final short CAPABILITY_WIRE_COMPRESSION = 0x0001;
 }
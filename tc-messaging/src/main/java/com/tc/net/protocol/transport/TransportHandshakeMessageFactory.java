@@ -24,11 +24,18 @@ public interface TransportHandshakeMessageFactory {
 
   public TransportHandshakeMessage createSyn(ConnectionID connectionId, TCConnection source, short stackLayerFlags, int callbackPort);
 
+  public TransportHandshakeMessage createSyn(ConnectionID connectionId, TCConnection source, short stackLayerFlags,
+                                             int callbackPort, short capabilities);
+
   public TransportHandshakeMessage createAck(ConnectionID connectionId, TCConnection source);
 
   public TransportHandshakeMessage createSynAck(ConnectionID connectionId, TCConnection source,
                                                 boolean isMaxConnectionsExceeded, int maxConnections, int callbackPort);
 
+  public TransportHandshakeMessage createSynAck(ConnectionID connectionId, TCConnection source,
+                                                boolean isMaxConnectionsExceeded, int maxConnections, int callbackPort,
+                                                short capabilities);
+
   public TransportHandshakeMessage createSynAck(ConnectionID connectionId, TransportHandshakeError error, String message, 
                                                 TCConnection source, boolean isMaxConnectionsExceeded,
                                                 int maxConnections);
@@ -45,7 +45,15 @@ public class TransportMessageFactoryImpl implements TransportHandshakeMessageFac
   @Override
   public TransportHandshakeMessage createSyn(ConnectionID connectionId, TCConnection source, short stackLayerFlags, int callbackPort) {
     return createNewMessage(TransportMessageImpl.SYN, connectionId, null, null, source, false, 0,
-                            WireProtocolHeader.PROTOCOL_TRANSPORT_HANDSHAKE, stackLayerFlags, callbackPort);
+                            WireProtocolHeader.PROTOCOL_TRANSPORT_HANDSHAKE, stackLayerFlags, callbackPort,
+                            TransportHandshakeMessage.CAPABILITY_NONE);
+  }
+
+  @Override
+  public TransportHandshakeMessage createSyn(ConnectionID connectionId, TCConnection source, short stackLayerFlags,
+                                             int callbackPort, short capabilities) {
+    return createNewMessage(TransportMessageImpl.SYN, connectionId, null, null, source, false, 0,
+                            WireProtocolHeader.PROTOCOL_TRANSPORT_HANDSHAKE, stackLayerFlags, callbackPort, capabilities);
   }
 
   @Override
@@ -61,6 +69,15 @@ public class TransportMessageFactoryImpl implements TransportHandshakeMessageFac
                             maxConnections, callbackPort);
   }
 
+  @Override
+  public TransportHandshakeMessage createSynAck(ConnectionID connectionId, TCConnection source,
+                                                boolean isMaxConnectionsExceeded, int maxConnections, int callbackPort,
+                                                short capabilities) {
+    return createNewMessage(TransportMessageImpl.SYN_ACK, connectionId, null, null, source, isMaxConnectionsExceeded,
+                            maxConnections, WireProtocolHeader.PROTOCOL_TRANSPORT_HANDSHAKE, (short) -1, callbackPort,
+                            capabilities);
+  }
+
   @Override
   public TransportHandshakeMessage createSynAck(ConnectionID connectionId, TransportHandshakeError errorContext, String message,
                                                 TCConnection source, boolean isMaxConnectionsExceeded,
@@ -73,26 +90,29 @@ public class TransportMessageFactoryImpl implements TransportHandshakeMessageFac
                                                        TransportHandshakeError errorContext, String message, TCConnection source,
                                                        boolean isMaxConnectionsExceeded, int maxConnections, short protocol) {
     return createNewMessage(type, connectionId, errorContext, message, source, isMaxConnectionsExceeded, maxConnections,
-                            protocol, (short) -1, TransportHandshakeMessage.NO_CALLBACK_PORT);
+                            protocol, (short) -1, TransportHandshakeMessage.NO_CALLBACK_PORT,
+                            TransportHandshakeMessage.CAPABILITY_NONE);
   }
 
   private static TransportMessageImpl createNewMessage(byte type, ConnectionID connectionId,
                                                        TransportHandshakeError errorContext, String message, TCConnection source,
                                                        boolean isMaxConnectionsExceeded, int maxConnections, int callbackPort) {
     return createNewMessage(type, connectionId, errorContext, message, source, isMaxConnectionsExceeded, maxConnections,
-                            WireProtocolHeader.PROTOCOL_TRANSPORT_HANDSHAKE, (short) -1, callbackPort);
+                            WireProtocolHeader.PROTOCOL_TRANSPORT_HANDSHAKE, (short) -1, callbackPort,
+                            TransportHandshakeMessage.CAPABILITY_NONE);
   }
 
   /**
    * One more parameter is added in createNewMessage so that the syn message that clients send to the server can have
    * the flags set for the present layers in the communication stack All other kinds of packet will have it as -1 and
-   * this wouldn't be send to the server
+   * this wouldn't be send to the server. Capabilities go last and only when there are any, so that older peers, which
+   * stop reading after the fields they know, see exactly the message they expect.
    */
   @SuppressWarnings("resource")
   private static TransportMessageImpl createNewMessage(byte type, ConnectionID connectionId,
                                                        TransportHandshakeError errorContext, String message, TCConnection source,
                                                        boolean isMaxConnectionsExceeded, int maxConnections, short protocol,
-                                                       short stackLayerFlags, int callbackPort) {
+                                                       short stackLayerFlags, int callbackPort, short capabilities) {
     TCByteBufferOutputStream bbos = new TCByteBufferOutputStream();
 
     bbos.write(TransportMessageImpl.VERSION);
@@ -111,6 +131,9 @@ public class TransportMessageFactoryImpl implements TransportHandshakeMessageFac
     if (type == TransportMessageImpl.TIME_CHECK) {
       bbos.writeLong(System.currentTimeMillis()); // timestamp
     }
+    if (capabilities != TransportHandshakeMessage.CAPABILITY_NONE) {
+      bbos.writeShort(capabilities);
+    }
 
     final WireProtocolHeader header = new WireProtocolHeader();
     header.setProtocol(protocol);
@@ -63,6 +63,7 @@ class TransportMessageImpl extends WireProtocolMessageImpl implements SynMessage
   private final TransportHandshakeError        errorType;
   private final int          callbackPort;
   private final long         timestamp;
+  private final short        capabilities;
 
   @SuppressWarnings("resource")
   TransportMessageImpl(TCConnection source, TCNetworkHeader header, TCByteBuffer[] payload) throws TCProtocolException {
@@ -92,6 +93,8 @@ class TransportMessageImpl extends WireProtocolMessageImpl implements SynMessage
         this.errorContext = null;
       }
       this.timestamp = (type == TIME_CHECK) ? in.readLong() : -1;
+      // older peers don't write capabilities
+      this.capabilities = (in.available() >= 2) ? in.readShort() : CAPABILITY_NONE;
     } catch (TCProtocolException e) {
       throw e;
     } catch (Exception e) {
@@ -201,6 +204,11 @@ class TransportMessageImpl extends WireProtocolMessageImpl implements SynMessage
     return this.stackLayerFlags;
   }
 
+  @Override
+  public short getCapabilities() {
+    return this.capabilities;
+  }
+
   @Override
   public int getCallbackPort() {
     return this.callbackPort;
@@ -96,6 +96,10 @@ public class WireProtocolAdaptorImpl extends AbstractTCProtocolAdaptor implement
     WireProtocolHeader wph = (WireProtocolHeader) hdr;
     final WireProtocolMessage rv;
 
+    if (wph.isCompressed()) {
+      data = WireProtocolCompression.decompress(wph, data);
+    }
+
     if (wph.isHandshakeOrHealthCheckMessage()) {
       rv = new TransportMessageImpl(source, wph, data);
     } else {
@@ -0,0 +1,152 @@
+/*
+ *
+ *  The contents of this file are subject to the Terracotta Public License Version
+ *  2.0 (the "License"); You may not use this file except in compliance with the
+ *  License. You may obtain a copy of the License at
+ *
+ *  http://terracotta.org/legal/terracotta-public-license.
+ *
+ *  Software distributed under the License is distributed on an "AS IS" basis,
+ *  WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License for
+ *  the specific language governing rights and limitations under the License.
+ *
+ *  The Covered Software is Terracotta Core.
+ *
+ *  The Initial Developer of the Covered Software is
+ *  Terracotta, Inc., a Software AG company
+ *
+ */
+package com.tc.net.protocol.transport;
+
+import com.tc.bytes.TCByteBuffer;
+import com.tc.bytes.TCByteBufferFactory;
+import com.tc.net.protocol.TCProtocolException;
+import com.tc.object.compression.LZ4BlockCodec;
+import com.tc.util.Conversion;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Compresses and decompresses the payload of wire protocol messages. A compressed message keeps its wire protocol
+ * header (with {@link WireProtocolHeader#FLAG_COMPRESSED} set and the total length adjusted), the payload is replaced by
+ * the 4 byte uncompressed payload length followed by an LZ4 block.
+ * <p>
+ * Compression is only ever used on a connection once both ends have agreed to it during the transport handshake.
+ */
+public final class WireProtocolCompression {
+
+  private static final int       LENGTH_PREFIX      = 4;
+  // LZ4 cannot expand data by more than this, anything claiming more is corrupt
+  private static final int       MAX_RATIO          = 255;
+
+  private static final LongAdder receivedCompressed = new LongAdder();
+  private static final LongAdder receivedRaw        = new LongAdder();
+
+  private WireProtocolCompression() {
+    // no instances
+  }
+
+  /**
+   * @param maxRatioPercent the compressed payload must not be larger than this percentage of the raw payload
+   * @return the header and payload buffers of the compressed form of {@code message}, or null if compressing it does not
+   *         pay off. The returned buffers are owned by the caller, the message itself is left untouched.
+   */
+  public static TCByteBuffer[] compress(WireProtocolMessage message, int maxRatioPercent) {
+    final TCByteBuffer[] data = message.getEntireMessageData();
+    int rawLength = 0;
+    for (int i = 1; i < data.length; i++) {
+      rawLength += data[i].limit();
+    }
+    if (rawLength == 0) { return null; }
+
+    final byte[] raw = new byte[rawLength];
+    int pos = 0;
+    for (int i = 1; i < data.length; i++) {
+      final int len = data[i].limit();
+      data[i].get(0, raw, pos, len);
+      pos += len;
+    }
+
+    final byte[] compressed = new byte[LENGTH_PREFIX + LZ4BlockCodec.maxCompressedLength(rawLength)];
+    final int compressedLength = LENGTH_PREFIX + LZ4BlockCodec.compress(raw, 0, rawLength, compressed, LENGTH_PREFIX);
+    if ((long) compressedLength * 100 > (long) rawLength * maxRatioPercent) { return null; }
+    Conversion.writeInt(rawLength, compressed, 0);
+
+    final WireProtocolHeader header = (WireProtocolHeader) message.getWireProtocolHeader().clone();
+    header.setFlags(header.getFlags() | WireProtocolHeader.FLAG_COMPRESSED);
+    header.setTotalPacketLength(header.getHeaderByteLength() + compressedLength);
+    header.computeChecksum();
+
+    final TCByteBuffer payload = TCByteBufferFactory.wrap(compressed);
+    payload.limit(compressedLength);
+    return new TCByteBuffer[] { header.getDataBuffer(), payload };
+  }
+
+  /**
+   * Replaces the compressed payload in {@code data} by its uncompressed form and clears the compressed flag of
+   * {@code header}. The compressed buffers are recycled.
+   */
+  public static TCByteBuffer[] decompress(WireProtocolHeader header, TCByteBuffer[] data) throws TCProtocolException {
+    int compressedLength = 0;
+    for (TCByteBuffer buf : data) {
+      compressedLength += buf.limit();
+    }
+    if (compressedLength <= LENGTH_PREFIX) {
+      throw new TCProtocolException("Compressed payload too short: " + compressedLength);
+    }
+
+    final byte[] compressed;
+    final int offset;
+    if (data.length == 1 && data[0].hasArray()) {
+      compressed = data[0].array();
+      offset = data[0].arrayOffset();
+    } else {
+      compressed = new byte[compressedLength];
+      offset = 0;
+      int pos = 0;
+      for (TCByteBuffer buf : data) {
+        final int len = buf.limit();
+        buf.get(0, compressed, pos, len);
+        pos += len;
+      }
+    }
+
+    final int rawLength = Conversion.bytes2Int(compressed, offset);
+    final int blockLength = compressedLength - LENGTH_PREFIX;
+    if (rawLength < 0 || rawLength > (long) blockLength * MAX_RATIO) {
+      throw new TCProtocolException("Invalid uncompressed length: " + rawLength);
+    }
+
+    final byte[] raw = new byte[rawLength];
+    try {
+      final int len = LZ4BlockCodec.decompress(compressed, offset + LENGTH_PREFIX, blockLength, raw, 0, rawLength);
+      if (len != rawLength) { throw new TCProtocolException("Uncompressed length mismatch: " + len + " != " + rawLength); }
+    } catch (IllegalArgumentException e) {
+      throw new TCProtocolException(e.getMessage(), e);
+    }
+
+    for (TCByteBuffer buf : data) {
+      buf.recycle();
+    }
+
+    header.setFlags(header.getFlags() & ~WireProtocolHeader.FLAG_COMPRESSED);
+    header.setTotalPacketLength(header.getHeaderByteLength() + rawLength);
+    header.computeChecksum();
+
+    receivedCompressed.add(compressedLength);
+    receivedRaw.add(rawLength);
+    return new TCByteBuffer[] { TCByteBufferFactory.wrap(raw) };
+  }
+
+  /**
+   * @return the number of compressed payload bytes received by this VM and what they expanded to
+   */
+  public static Map<String, ?> getStats() {
+    Map<String, Object> stats = new LinkedHashMap<>();
+    stats.put("receivedCompressedBytes", receivedCompressed.sum());
+    stats.put("receivedUncompressedBytes", receivedRaw.sum());
+    return stats;
+  }
+}
@@ -48,7 +48,7 @@ import com.tc.util.Conversion;
  *        +-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+
  *        |          Source Port          |      Destination Port         |
  *        +-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+
- *        |          Message Count        |          Padding              |
+ *        |          Message Count        |            Flags              |
  *        +-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+
  *        |     Options                                |    Padding       |
  *        +-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+
@@ -65,6 +65,9 @@ public class WireProtocolHeader extends AbstractTCNetworkHeader implements Clone
   public static final short    DEFAULT_TTL                  = 64;
   public static final int      MAX_MESSAGE_COUNT            = 0xFFFF;
 
+  // the payload is an LZ4 block preceded by its uncompressed length, see WireProtocolCompression
+  public static final int      FLAG_COMPRESSED              = 0x0001;
+
   public static final short    PROTOCOL_UNKNOWN             = 0;
   public static final short    PROTOCOL_TCM                 = 1;
   public static final short    PROTOCOL_TRANSPORT_HANDSHAKE = 2;
@@ -164,6 +167,18 @@ public class WireProtocolHeader extends AbstractTCNetworkHeader implements Clone
     return data.getUshort(28);
   }
 
+  public void setFlags(int flags) {
+    data.putUshort(30, flags);
+  }
+
+  public int getFlags() {
+    return data.getUshort(30);
+  }
+
+  public boolean isCompressed() {
+    return (getFlags() & FLAG_COMPRESSED) != 0;
+  }
+
   public int getMagicNum() {
     return data.getInt(4);
   }
@@ -329,6 +344,7 @@ public class WireProtocolHeader extends AbstractTCNetworkHeader implements Clone
     buf.append("\n");
 
     buf.append("Total Msg Count: " + getMessageCount());
+    buf.append(", Flags: ").append(getFlags());
     buf.append("\n");
 
     String errMsg = "no message";
@@ -404,12 +420,13 @@ public class WireProtocolHeader extends AbstractTCNetworkHeader implements Clone
 
     rv.setMagicNum(this.getMagicNum());
     rv.setTotalPacketLength(this.getTotalPacketLength());
-    rv.computeChecksum();
     rv.setSourceAddress(this.getSourceAddress());
     rv.setDestinationAddress(this.getDestinationAddress());
     rv.setSourcePort(this.getSourcePort());
     rv.setDestinationPort(this.getDestinationPort());
     rv.setMessageCount(this.getMessageCount());
+    rv.setFlags(this.getFlags());
+    rv.computeChecksum();
     return rv;
   }
 
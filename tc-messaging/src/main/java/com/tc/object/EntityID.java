@@ -69,8 +69,8 @@ public class EntityID implements TCSerializable<EntityID> {
 
   @Override
   public void serializeTo(TCByteBufferOutput serialOutput) {
-    serialOutput.writeString(className);
-    serialOutput.writeString(entityName);
+    serialOutput.writeIdentifier(className);
+    serialOutput.writeIdentifier(entityName);
   }
 
   @Override
@@ -79,7 +79,7 @@ public class EntityID implements TCSerializable<EntityID> {
   }
 
   public static EntityID readFrom(TCByteBufferInput serialInput) throws IOException {
-    return new EntityID(serialInput.readString(), serialInput.readString());
+    return new EntityID(serialInput.readIdentifier(), serialInput.readIdentifier());
   }
 
   @Override
@@ -0,0 +1,229 @@
+/*
+ *
+ *  The contents of this file are subject to the Terracotta Public License Version
+ *  2.0 (the "License"); You may not use this file except in compliance with the
+ *  License. You may obtain a copy of the License at
+ *
+ *  http://terracotta.org/legal/terracotta-public-license.
+ *
+ *  Software distributed under the License is distributed on an "AS IS" basis,
+ *  WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License for
+ *  the specific language governing rights and limitations under the License.
+ *
+ *  The Covered Software is Terracotta Core.
+ *
+ *  The Initial Developer of the Covered Software is
+ *  Terracotta, Inc., a Software AG company
+ *
+ */
+package com.tc.object.compression;
+
+/**
+ * A small, allocation free (apart from the hash table) implementation of the LZ4 block format. It trades compression
+ * ratio for speed, which is what we want on the wire: deflate costs more CPU than it saves in network time on anything
+ * faster than a slow WAN link.
+ * <p>
+ * The output is a plain LZ4 block (no frame, no checksum). The caller is responsible for remembering the uncompressed
+ * length, the decompressor needs it up front.
+ */
+public final class LZ4BlockCodec {
+
+  private static final int MIN_MATCH       = 4;
+  // the last 5 bytes of a block are always literals
+  private static final int LAST_LITERALS   = 5;
+  // the last match must start at least 12 bytes before the end of the block
+  private static final int MF_LIMIT        = 12;
+  private static final int MAX_DISTANCE    = 0xFFFF;
+  private static final int RUN_MASK        = 0x0F;
+  private static final int HASH_LOG        = 12;
+  private static final int HASH_TABLE_SIZE = 1 << HASH_LOG;
+  // the higher this is the longer we keep stepping one byte at a time through incompressible data
+  private static final int SKIP_STRENGTH   = 6;
+
+  private LZ4BlockCodec() {
+    // no instances
+  }
+
+  /**
+   * @return the largest size {@link #compress} can produce for {@code length} bytes of input
+   */
+  public static int maxCompressedLength(int length) {
+    if (length < 0) { throw new IllegalArgumentException("length: " + length); }
+    return length + (length / 255) + 16;
+  }
+
+  /**
+   * Compresses {@code srcLen} bytes of {@code src} into {@code dest}, which must have at least
+   * {@link #maxCompressedLength(int)} bytes available from {@code destOff}.
+   *
+   * @return the compressed length
+   */
+  public static int compress(byte[] src, int srcOff, int srcLen, byte[] dest, int destOff) {
+    final int srcEnd = srcOff + srcLen;
+    final int matchLimit = srcEnd - LAST_LITERALS;
+    final int mfLimit = srcEnd - MF_LIMIT;
+
+    int ip = srcOff;
+    int anchor = srcOff;
+    int op = destOff;
+
+    if (srcLen > MF_LIMIT) {
+      // positions are stored + 1 so that a zero entry means "empty"
+      final int[] table = new int[HASH_TABLE_SIZE];
+      while (ip < mfLimit) {
+        final int sequence = readInt(src, ip);
+        final int h = hash(sequence);
+        int ref = table[h] - 1 + srcOff;
+        table[h] = ip - srcOff + 1;
+
+        if (ref < srcOff || ip - ref > MAX_DISTANCE || readInt(src, ref) != sequence) {
+          ip += 1 + ((ip - anchor) >>> SKIP_STRENGTH);
+          continue;
+        }
+
+        while (ip > anchor && ref > srcOff && src[ip - 1] == src[ref - 1]) {
+          ip--;
+          ref--;
+        }
+
+        int matchLen = MIN_MATCH;
+        while (ip + matchLen < matchLimit && src[ip + matchLen] == src[ref + matchLen]) {
+          matchLen++;
+        }
+
+        op = writeSequence(src, anchor, ip - anchor, ip - ref, matchLen, dest, op);
+        ip += matchLen;
+        anchor = ip;
+      }
+    }
+
+    op = writeLiterals(src, anchor, srcEnd - anchor, dest, op);
+    return op - destOff;
+  }
+
+  /**
+   * Decompresses the block held in {@code srcLen} bytes of {@code src} into {@code dest}. At most {@code destLen} bytes
+   * are written.
+   *
+   * @return the decompressed length
+   * @throws IllegalArgumentException if the input is not a valid block or does not fit in {@code destLen} bytes
+   */
+  public static int decompress(byte[] src, int srcOff, int srcLen, byte[] dest, int destOff, int destLen) {
+    final int srcEnd = srcOff + srcLen;
+    final int destEnd = destOff + destLen;
+
+    int ip = srcOff;
+    int op = destOff;
+
+    while (true) {
+      if (ip >= srcEnd) { throw malformed(ip - srcOff); }
+      final int token = src[ip++] & 0xFF;
+
+      int literalLen = token >>> 4;
+      if (literalLen == RUN_MASK) {
+        int b;
+        do {
+          if (ip >= srcEnd) { throw malformed(ip - srcOff); }
+          b = src[ip++] & 0xFF;
+          literalLen += b;
+        } while (b == 0xFF && literalLen <= destLen);
+      }
+      if (literalLen > srcEnd - ip || literalLen > destEnd - op) { throw malformed(ip - srcOff); }
+      System.arraycopy(src, ip, dest, op, literalLen);
+      ip += literalLen;
+      op += literalLen;
+
+      if (ip == srcEnd) {
+        // the last sequence holds literals only
+        return op - destOff;
+      }
+
+      if (srcEnd - ip < 2) { throw malformed(ip - srcOff); }
+      final int offset = (src[ip] & 0xFF) | ((src[ip + 1] & 0xFF) << 8);
+      ip += 2;
+      if (offset == 0 || offset > op - destOff) { throw malformed(ip - srcOff); }
+
+      int matchLen = token & RUN_MASK;
+      if (matchLen == RUN_MASK) {
+        int b;
+        do {
+          if (ip >= srcEnd) { throw malformed(ip - srcOff); }
+          b = src[ip++] & 0xFF;
+          matchLen += b;
+        } while (b == 0xFF && matchLen <= destLen);
+      }
+      matchLen += MIN_MATCH;
+      if (matchLen > destEnd - op) { throw malformed(ip - srcOff); }
+
+      final int ref = op - offset;
+      if (offset >= matchLen) {
+        System.arraycopy(dest, ref, dest, op, matchLen);
+      } else {
+        // overlapping copy, this is how runs are encoded
+        for (int i = 0; i < matchLen; i++) {
+          dest[op + i] = dest[ref + i];
+        }
+      }
+      op += matchLen;
+    }
+  }
+
+  private static int writeSequence(byte[] src, int literalOff, int literalLen, int offset, int matchLen, byte[] dest,
+                                   int op) {
+    final int tokenPos = op++;
+    int token;
+    if (literalLen >= RUN_MASK) {
+      token = RUN_MASK << 4;
+      op = writeLength(literalLen - RUN_MASK, dest, op);
+    } else {
+      token = literalLen << 4;
+    }
+    System.arraycopy(src, literalOff, dest, op, literalLen);
+    op += literalLen;
+
+    dest[op++] = (byte) offset;
+    dest[op++] = (byte) (offset >>> 8);
+
+    final int encodedMatchLen = matchLen - MIN_MATCH;
+    if (encodedMatchLen >= RUN_MASK) {
+      token |= RUN_MASK;
+      op = writeLength(encodedMatchLen - RUN_MASK, dest, op);
+    } else {
+      token |= encodedMatchLen;
+    }
+    dest[tokenPos] = (byte) token;
+    return op;
+  }
+
+  private static int writeLiterals(byte[] src, int literalOff, int literalLen, byte[] dest, int op) {
+    if (literalLen >= RUN_MASK) {
+      dest[op++] = (byte) (RUN_MASK << 4);
+      op = writeLength(literalLen - RUN_MASK, dest, op);
+    } else {
+      dest[op++] = (byte) (literalLen << 4);
+    }
+    System.arraycopy(src, literalOff, dest, op, literalLen);
+    return op + literalLen;
+  }
+
+  private static int writeLength(int length, byte[] dest, int op) {
+    while (length >= 0xFF) {
+      dest[op++] = (byte) 0xFF;
+      length -= 0xFF;
+    }
+    dest[op++] = (byte) length;
+    return op;
+  }
+
+  private static int readInt(byte[] b, int i) {
+    return (b[i] & 0xFF) | ((b[i + 1] & 0xFF) << 8) | ((b[i + 2] & 0xFF) << 16) | ((b[i + 3] & 0xFF) << 24);
+  }
+
+  private static int hash(int sequence) {
+    return (sequence * -1640531535) >>> (32 - HASH_LOG);
+  }
+
+  private static IllegalArgumentException malformed(int position) {
+    return new IllegalArgumentException("Malformed LZ4 block at input offset " + position);
+  }
+}
@@ -23,6 +23,7 @@ import com.tc.io.TCByteBufferOutputStream;
 import com.tc.net.protocol.tcm.MessageChannel;
 import com.tc.net.protocol.tcm.MessageMonitor;
 import com.tc.net.protocol.tcm.TCMessageHeader;
+import com.tc.net.protocol.tcm.TCMessageSchema;
 import com.tc.net.protocol.tcm.TCMessageType;
 import com.tc.object.session.SessionID;
 
@@ -32,6 +33,11 @@ public class ClientHandshakeRefusedMessageImpl extends DSOMessageBase implements
   private static final byte REFUSAL_CAUSE = 1;
   private String            refusalCause;
 
+  private static final TCMessageSchema<ClientHandshakeRefusedMessageImpl> SCHEMA =
+      TCMessageSchema.builder(ClientHandshakeRefusedMessageImpl.class)
+          .stringField(REFUSAL_CAUSE, m -> m.refusalCause, (m, v) -> m.refusalCause = v)
+          .build();
+
   public ClientHandshakeRefusedMessageImpl(SessionID sessionID, MessageMonitor monitor,
                                            TCByteBufferOutputStream out, MessageChannel channel,
                                            TCMessageType type) {
@@ -44,9 +50,17 @@ public class ClientHandshakeRefusedMessageImpl extends DSOMessageBase implements
     super(sessionID, monitor, channel, header, data);
   }
 
+  @Override
+  protected TCMessageSchema<?> getSchema() {
+    return SCHEMA;
+  }
+
+  // the hand-written values, in case the schema is off
   @Override
   protected void dehydrateValues() {
-    putNVPair(REFUSAL_CAUSE, this.refusalCause);
+    if (!usesSchema()) {
+      putNVPair(REFUSAL_CAUSE, this.refusalCause);
+    }
   }
 
   @Override
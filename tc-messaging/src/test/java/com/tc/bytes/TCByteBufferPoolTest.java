@@ -0,0 +1,89 @@
+/*
+ *
+ *  The contents of this file are subject to the Terracotta Public License Version
+ *  2.0 (the "License"); You may not use this file except in compliance with the
+ *  License. You may obtain a copy of the License at
+ *
+ *  http://terracotta.org/legal/terracotta-public-license.
+ *
+ *  Software distributed under the License is distributed on an "AS IS" basis,
+ *  WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License for
+ *  the specific language governing rights and limitations under the License.
+ *
+ *  The Covered Software is Terracotta Core.
+ *
+ *  The Initial Developer of the Covered Software is
+ *  Terracotta, Inc., a Software AG company
+ *
+ */
+package com.tc.bytes;
+
+import org.junit.Test;
+
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class TCByteBufferPoolTest {
+
+  @Test
+  public void testSizeClasses() {
+    TCByteBufferPool pool = new TCByteBufferPool(false, 64, 4, false, t -> true);
+    TCByteBuffer buf = pool.checkOut(3000);
+    assertEquals(4096, buf.capacity());
+    assertEquals(3000, buf.limit());
+    assertEquals(1024, pool.checkOut(1).capacity());
+    assertEquals(TCByteBufferPool.MAX_POOLED_SIZE, pool.checkOut(TCByteBufferPool.MAX_POOLED_SIZE).capacity());
+    assertTrue(TCByteBufferPool.isPoolable(TCByteBufferPool.MAX_POOLED_SIZE));
+    assertFalse(TCByteBufferPool.isPoolable(TCByteBufferPool.MAX_POOLED_SIZE + 1));
+  }
+
+  @Test
+  public void testRecycledBufferIsReused() {
+    TCByteBufferPool pool = new TCByteBufferPool(true, 64, 4, true, t -> true);
+    TCByteBuffer buf = pool.checkOut(4096);
+    assertTrue(buf.isDirect());
+    buf.put((byte) 1);
+    buf.duplicate().recycle();
+
+    TCByteBuffer again = pool.checkOut(2048 + 1);
+    assertSame(buf, again);
+    assertEquals(0, again.position());
+    assertNotSame(buf, pool.checkOut(4096));
+
+    Map<String, Object> stats = pool.getStats();
+    assertEquals(1L, stats.get("hits"));
+    assertEquals(2L, stats.get("misses"));
+    assertEquals(1L, stats.get("returns"));
+    assertEquals(2, stats.get("outstanding"));
+  }
+
+  @Test
+  public void testSharedQueueWithoutThreadLocalCache() {
+    TCByteBufferPool pool = new TCByteBufferPool(false, 1, 4, false, t -> false);
+    TCByteBuffer one = pool.checkOut(1024);
+    TCByteBuffer two = pool.checkOut(1024);
+    one.recycle();
+    two.recycle();
+    assertEquals(1L, pool.getStats().get("discards"));
+    assertSame(one, pool.checkOut(1024));
+  }
+
+  @Test
+  public void testDoubleRecycleIsDetected() {
+    TCByteBufferPool pool = new TCByteBufferPool(false, 64, 4, false, t -> true);
+    TCByteBuffer buf = pool.checkOut(1024);
+    buf.recycle();
+    try {
+      buf.recycle();
+      fail();
+    } catch (AssertionError e) {
+      // expected
+    }
+  }
+}
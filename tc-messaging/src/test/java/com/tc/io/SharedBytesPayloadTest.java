@@ -0,0 +1,63 @@
+/*
+ *
+ *  The contents of this file are subject to the Terracotta Public License Version
+ *  2.0 (the "License"); You may not use this file except in compliance with the
+ *  License. You may obtain a copy of the License at
+ *
+ *  http://terracotta.org/legal/terracotta-public-license.
+ *
+ *  Software distributed under the License is distributed on an "AS IS" basis,
+ *  WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License for
+ *  the specific language governing rights and limitations under the License.
+ *
+ *  The Covered Software is Terracotta Core.
+ *
+ *  The Initial Developer of the Covered Software is
+ *  Terracotta, Inc., a Software AG company
+ *
+ */
+package com.tc.io;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+public class SharedBytesPayloadTest {
+
+  @Test
+  public void testWrap() {
+    byte[] data = data(10);
+    SharedBytesPayload payload = SharedBytesPayload.wrap(data);
+    assertEquals(10, payload.length());
+    assertSame(data, payload.toByteArray());
+    assertSame(SharedBytesPayload.EMPTY, SharedBytesPayload.wrap(new byte[0]));
+  }
+
+  @Test
+  public void testWriteTo() throws Exception {
+    for (int length : new int[] { 1, SharedBytesPayload.MIN_WRAP_LENGTH - 1, SharedBytesPayload.MIN_WRAP_LENGTH, 10000 }) {
+      byte[] data = data(length);
+      TCByteBufferOutputStream out = new TCByteBufferOutputStream(64, false);
+      out.writeInt(length);
+      SharedBytesPayload.wrap(data).writeTo(out);
+      out.writeInt(-1);
+
+      TCByteBufferInputStream in = new TCByteBufferInputStream(out.toArray());
+      assertEquals(length, in.readInt());
+      byte[] read = new byte[length];
+      in.readFully(read);
+      assertArrayEquals(data, read);
+      assertEquals(-1, in.readInt());
+    }
+  }
+
+  private static byte[] data(int length) {
+    byte[] data = new byte[length];
+    for (int i = 0; i < length; i++) {
+      data[i] = (byte) i;
+    }
+    return data;
+  }
+}
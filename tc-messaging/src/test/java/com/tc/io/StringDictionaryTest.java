@@ -0,0 +1,164 @@
+/*
+ *
+ *  The contents of this file are subject to the Terracotta Public License Version
+ *  2.0 (the "License"); You may not use this file except in compliance with the
+ *  License. You may obtain a copy of the License at
+ *
+ *  http://terracotta.org/legal/terracotta-public-license.
+ *
+ *  Software distributed under the License is distributed on an "AS IS" basis,
+ *  WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License for
+ *  the specific language governing rights and limitations under the License.
+ *
+ *  The Covered Software is Terracotta Core.
+ *
+ *  The Initial Developer of the Covered Software is
+ *  Terracotta, Inc., a Software AG company
+ *
+ */
+package com.tc.io;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class StringDictionaryTest {
+
+  @Test
+  public void testRepeatedIdentifiersAreReferenced() throws Exception {
+    StringDictionary.Writer writer = StringDictionary.newWriter();
+    StringDictionary dictionary = new StringDictionary();
+
+    TCByteBufferOutputStream first = write(writer, "entity.Class", "entity.Class", null, "other");
+    TCByteBufferOutputStream second = write(writer, "entity.Class", "other");
+    assertTrue(second.getBytesWritten() < "entity.Class".length());
+
+    TCByteBufferInputStream in = read(dictionary, writer.getEpoch(), first);
+    assertEquals("entity.Class", in.readIdentifier());
+    assertEquals("entity.Class", in.readIdentifier());
+    assertNull(in.readIdentifier());
+    assertEquals("other", in.readIdentifier());
+    in = read(dictionary, writer.getEpoch(), second);
+    assertEquals("entity.Class", in.readIdentifier());
+    assertEquals("other", in.readIdentifier());
+  }
+
+  @Test
+  public void testRollback() throws Exception {
+    StringDictionary.Writer writer = StringDictionary.newWriter();
+    StringDictionary dictionary = new StringDictionary();
+
+    int mark = writer.mark();
+    write(writer, "lost");
+    writer.rollback(mark);
+    // the peer never saw the first message, the string has to be defined again
+    TCByteBufferInputStream in = read(dictionary, writer.getEpoch(), write(writer, "lost"));
+    assertEquals("lost", in.readIdentifier());
+  }
+
+  @Test
+  public void testSentInWriteOrder() throws Exception {
+    StringDictionary.Writer writer = StringDictionary.newWriter();
+    long first = writer.written();
+    long second = writer.written();
+
+    AtomicBoolean turn = new AtomicBoolean();
+    Thread sender = new Thread(() -> turn.set(writer.awaitTurn(second)));
+    sender.start();
+    sender.join(100);
+    // waits for the first message, without holding the writer
+    assertTrue(sender.isAlive());
+    synchronized (writer) {
+      write(writer, "meanwhile");
+    }
+    assertTrue(writer.awaitTurn(first));
+    writer.sent(first, true);
+    sender.join(10000);
+    assertFalse(sender.isAlive());
+    assertTrue(turn.get());
+    writer.sent(second, true);
+    assertFalse(writer.isBroken());
+  }
+
+  @Test
+  public void testUnsentMessageBreaksWriter() throws Exception {
+    StringDictionary.Writer writer = StringDictionary.newWriter();
+    long lost = writer.written();
+    long next = writer.written();
+    assertTrue(writer.awaitTurn(lost));
+    writer.sent(lost, false);
+    // the next message may refer to strings the lost one defined
+    assertFalse(writer.awaitTurn(next));
+    writer.sent(next, false);
+    assertTrue(writer.isBroken());
+  }
+
+  @Test
+  public void testEpochs() throws Exception {
+    StringDictionary.Writer old = StringDictionary.newWriter();
+    StringDictionary.Writer current = StringDictionary.newWriter();
+    StringDictionary.Writer next = StringDictionary.newWriter();
+    StringDictionary dictionary = new StringDictionary();
+
+    assertEquals("a", read(dictionary, old.getEpoch(), write(old, "a")).readIdentifier());
+    TCByteBufferOutputStream late = write(old, "a");
+    assertEquals("b", read(dictionary, current.getEpoch(), write(current, "b")).readIdentifier());
+    // the previous epoch is still known
+    TCByteBufferInputStream in = read(dictionary, old.getEpoch(), late);
+    assertEquals("a", in.readIdentifier());
+
+    assertEquals("c", read(dictionary, next.getEpoch(), write(next, "c")).readIdentifier());
+    try {
+      dictionary.reader(old.getEpoch());
+      fail();
+    } catch (IOException expected) {
+      // stale
+    }
+  }
+
+  @Test
+  public void testLongStringsAreNotKept() throws Exception {
+    StringDictionary.Writer writer = StringDictionary.newWriter();
+    StringBuilder sb = new StringBuilder();
+    for (int i = 0; i <= StringDictionary.MAX_LENGTH; i++) {
+      sb.append('x');
+    }
+    String s = sb.toString();
+    TCByteBufferOutputStream out = write(writer, s);
+    assertEquals(out.getBytesWritten(), write(writer, s).getBytesWritten());
+    assertEquals(0, writer.mark());
+  }
+
+  @Test
+  public void testPlainStreams() throws Exception {
+    TCByteBufferOutputStream out = new TCByteBufferOutputStream();
+    out.writeIdentifier("plain");
+    out.close();
+    TCByteBufferInputStream in = new TCByteBufferInputStream(out.toArray());
+    assertEquals("plain", in.readString());
+  }
+
+  private static TCByteBufferOutputStream write(StringDictionary.Writer writer, String... strings) {
+    TCByteBufferOutputStream out = new TCByteBufferOutputStream();
+    out.setStringDictionary(writer);
+    for (String s : strings) {
+      out.writeIdentifier(s);
+    }
+    out.close();
+    return out;
+  }
+
+  private static TCByteBufferInputStream read(StringDictionary dictionary, int epoch, TCByteBufferOutputStream out)
+      throws IOException {
+    TCByteBufferInputStream in = new TCByteBufferInputStream(out.toArray());
+    in.setStringDictionary(dictionary.reader(epoch));
+    return in;
+  }
+}
@@ -19,6 +19,7 @@
 package com.tc.io;
 
 import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Arrays;
@@ -321,6 +322,70 @@ public class TCByteBufferOutputStreamTest {
     }
   }
 
+  @Test
+  public void testNoConsolidation() {
+    TCByteBufferOutputStream os = new TCByteBufferOutputStream(0, false, false);
+    ByteArrayOutputStream baos = new ByteArrayOutputStream();
+
+    try {
+      for (int i = 0; i < 8192; i++) {
+        byte b = (byte) random.nextInt();
+        baos.write(b);
+        os.write(b);
+      }
+      TCByteBuffer[] bufs = os.toArray();
+      // handed out as written: 1024 + 2048 + 4096 + 1024
+      assertEquals(4, bufs.length);
+      assertEquals(1024, bufs[0].limit());
+      assertEquals(2048, bufs[1].limit());
+      assertEquals(4096, bufs[2].limit());
+      assertEquals(1024, bufs[3].limit());
+      compareData(baos.toByteArray(), bufs);
+    } finally {
+      os.close();
+    }
+  }
+
+  @Test
+  public void testTooManyBuffersAreConsolidated() {
+    TCByteBufferOutputStream os = new TCByteBufferOutputStream(0, false, false);
+    ByteArrayOutputStream baos = new ByteArrayOutputStream();
+
+    try {
+      for (int i = 0; i < 100; i++) {
+        byte[] b = new byte[] { (byte) i, (byte) -i };
+        baos.write(b, 0, b.length);
+        os.write(new TCByteBuffer[] { TCByteBufferFactory.wrap(b) });
+      }
+      TCByteBuffer[] bufs = os.toArray();
+      assertEquals(1, bufs.length);
+      compareData(baos.toByteArray(), bufs);
+    } finally {
+      os.close();
+    }
+  }
+
+  @Test
+  public void testSizeHint() {
+    assertEquals(1024, TCByteBufferOutputStream.initialBlockSize(0));
+    assertEquals(1024, TCByteBufferOutputStream.initialBlockSize(1000));
+    assertEquals(2048, TCByteBufferOutputStream.initialBlockSize(1500));
+    assertEquals(8192, TCByteBufferOutputStream.initialBlockSize(5000));
+    assertEquals(8192, TCByteBufferOutputStream.initialBlockSize(6554));
+    assertEquals(16384, TCByteBufferOutputStream.initialBlockSize(6555));
+    assertEquals(64 * 1024, TCByteBufferOutputStream.initialBlockSize(1024 * 1024));
+
+    TCByteBufferOutputStream os = new TCByteBufferOutputStream(5000, false, false);
+    try {
+      os.write(new byte[5000]);
+      TCByteBuffer[] bufs = os.toArray();
+      assertEquals(1, bufs.length);
+      assertEquals(5000, bufs[0].limit());
+    } finally {
+      os.close();
+    }
+  }
+
   public void doRandom() throws IOException {
     // this guy will hold the control/compare data
     ByteArrayOutputStream baos = new ByteArrayOutputStream();
@@ -578,6 +643,225 @@ public class TCByteBufferOutputStreamTest {
     }
   }
 
+  @Test
+  public void testPrimitivesAcrossBuffers() throws IOException {
+    for (int blockSize = 1; blockSize <= 17; blockSize++) {
+      final long seed = random.nextLong();
+      ByteArrayOutputStream expectedBytes = new ByteArrayOutputStream();
+      DataOutputStream expected = new DataOutputStream(expectedBytes);
+      TCByteBufferOutputStream bbos = new TCByteBufferOutputStream(blockSize, false);
+      Random values = new Random(seed);
+      for (int i = 0; i < 1000; i++) {
+        writePrimitive(values, expected, bbos);
+      }
+      expected.writeInt(9);
+      expected.writeChars("raw chars");
+      bbos.writeInt(9);
+      bbos.writeChar('r');
+      bbos.write("aw chars".getBytes("UTF-16BE"));
+
+      TCByteBuffer[] bufs = bbos.toArray();
+      compareData(expectedBytes.toByteArray(), bufs);
+
+      TCByteBufferInputStream in = new TCByteBufferInputStream(bufs);
+      values = new Random(seed);
+      for (int i = 0; i < 1000; i++) {
+        readPrimitive(values, in);
+      }
+      assertEquals(9, in.readInt());
+      for (char c : "raw chars".toCharArray()) {
+        assertEquals(c, in.readChar());
+      }
+      assertEquals(0, in.available());
+    }
+  }
+
+  @Test
+  public void testVarLongs() throws IOException {
+    final long[] values = { 0, 1, -1, 63, -64, 64, -65, Integer.MAX_VALUE, Integer.MIN_VALUE, Long.MAX_VALUE,
+        Long.MIN_VALUE, random.nextLong() };
+    for (int blockSize = 1; blockSize <= 11; blockSize++) {
+      TCByteBufferOutputStream bbos = new TCByteBufferOutputStream(blockSize, false);
+      for (long v : values) {
+        bbos.writeVarLong(v);
+        bbos.writeVarInt((int) v);
+      }
+      TCByteBufferInputStream in = new TCByteBufferInputStream(bbos.toArray());
+      for (long v : values) {
+        assertEquals(v, in.readVarLong());
+        assertEquals((int) v, in.readVarInt());
+      }
+      assertEquals(0, in.available());
+    }
+
+    // small magnitudes take a byte, the sign costs a bit
+    TCByteBufferOutputStream bbos = new TCByteBufferOutputStream();
+    bbos.writeVarLong(63);
+    bbos.writeVarLong(-64);
+    assertEquals(2, bbos.getBytesWritten());
+    bbos.writeVarLong(64);
+    assertEquals(4, bbos.getBytesWritten());
+    bbos.writeVarLong(Long.MIN_VALUE);
+    assertEquals(14, bbos.getBytesWritten());
+  }
+
+  private static void writePrimitive(Random values, DataOutputStream expected, TCByteBufferOutputStream bbos)
+      throws IOException {
+    switch (values.nextInt(8)) {
+      case 0: {
+        final int v = values.nextInt();
+        expected.writeInt(v);
+        bbos.writeInt(v);
+        break;
+      }
+      case 1: {
+        final long v = values.nextLong();
+        expected.writeLong(v);
+        bbos.writeLong(v);
+        break;
+      }
+      case 2: {
+        final int v = values.nextInt();
+        expected.writeShort(v);
+        bbos.writeShort(v);
+        break;
+      }
+      case 3: {
+        final int v = values.nextInt();
+        expected.writeChar(v);
+        bbos.writeChar(v);
+        break;
+      }
+      case 4: {
+        final double v = values.nextBoolean() ? Double.NaN : values.nextDouble();
+        expected.writeDouble(v);
+        bbos.writeDouble(v);
+        break;
+      }
+      case 5: {
+        final float v = values.nextFloat();
+        expected.writeFloat(v);
+        bbos.writeFloat(v);
+        break;
+      }
+      case 6: {
+        final boolean v = values.nextBoolean();
+        expected.writeBoolean(v);
+        bbos.writeBoolean(v);
+        break;
+      }
+      default: {
+        final int v = values.nextInt();
+        expected.writeByte(v);
+        bbos.writeByte(v);
+      }
+    }
+  }
+
+  private static void readPrimitive(Random values, TCByteBufferInputStream in) throws IOException {
+    switch (values.nextInt(8)) {
+      case 0:
+        assertEquals(values.nextInt(), in.readInt());
+        break;
+      case 1:
+        assertEquals(values.nextLong(), in.readLong());
+        break;
+      case 2: {
+        final int v = values.nextInt();
+        if ((v & 1) == 0) {
+          assertEquals((short) v, in.readShort());
+        } else {
+          assertEquals(v & 0xFFFF, in.readUnsignedShort());
+        }
+        break;
+      }
+      case 3:
+        assertEquals((char) values.nextInt(), in.readChar());
+        break;
+      case 4: {
+        final double v = values.nextBoolean() ? Double.NaN : values.nextDouble();
+        assertEquals(Double.doubleToLongBits(v), Double.doubleToLongBits(in.readDouble()));
+        break;
+      }
+      case 5:
+        assertEquals(values.nextFloat(), in.readFloat(), 0.0f);
+        break;
+      case 6:
+        assertEquals(values.nextBoolean(), in.readBoolean());
+        break;
+      default:
+        assertEquals((byte) values.nextInt(), in.readByte());
+    }
+  }
+
+  /**
+   * Puts edge values of every primitive at each offset from a buffer boundary, so they are written and read both in one
+   * go and split across buffers.
+   */
+  @Test
+  public void testPrimitiveEdgeValuesAcrossBoundaries() throws IOException {
+    final int[] ints = { 0, 1, -1, Integer.MIN_VALUE, Integer.MAX_VALUE, 0x7F, 0x80, 0xFF, 0x80808080 };
+    final long[] longs = { 0, 1, -1, Long.MIN_VALUE, Long.MAX_VALUE, 0x80L, 0xFFFFFFFFL, 0x8080808080808080L };
+    final float[] floats = { 0.0f, -0.0f, Float.MIN_VALUE, Float.MAX_VALUE, Float.NEGATIVE_INFINITY,
+        Float.intBitsToFloat(0x7FC00001), Float.NaN };
+    final double[] doubles = { 0.0d, -0.0d, Double.MIN_VALUE, Double.MAX_VALUE, Double.POSITIVE_INFINITY,
+        Double.longBitsToDouble(0x7FF8000000000001L), Double.NaN };
+    for (int blockSize = 1; blockSize <= 9; blockSize++) {
+      for (int offset = 0; offset < blockSize; offset++) {
+        ByteArrayOutputStream expectedBytes = new ByteArrayOutputStream();
+        DataOutputStream expected = new DataOutputStream(expectedBytes);
+        TCByteBufferOutputStream bbos = new TCByteBufferOutputStream(blockSize, false);
+        for (int i = 0; i < offset; i++) {
+          expected.write(i);
+          bbos.write(i);
+        }
+        for (int v : ints) {
+          expected.writeInt(v);
+          expected.writeShort(v);
+          expected.writeChar(v);
+          bbos.writeInt(v);
+          bbos.writeShort(v);
+          bbos.writeChar(v);
+        }
+        for (long v : longs) {
+          expected.writeLong(v);
+          bbos.writeLong(v);
+        }
+        for (float v : floats) {
+          expected.writeFloat(v);
+          bbos.writeFloat(v);
+        }
+        for (double v : doubles) {
+          expected.writeDouble(v);
+          bbos.writeDouble(v);
+        }
+
+        TCByteBuffer[] bufs = bbos.toArray();
+        compareData(expectedBytes.toByteArray(), bufs);
+
+        TCByteBufferInputStream in = new TCByteBufferInputStream(bufs);
+        for (int i = 0; i < offset; i++) {
+          assertEquals(i, in.read());
+        }
+        for (int v : ints) {
+          assertEquals(v, in.readInt());
+          assertEquals((short) v, in.readShort());
+          assertEquals((char) v, in.readChar());
+        }
+        for (long v : longs) {
+          assertEquals(v, in.readLong());
+        }
+        for (float v : floats) {
+          assertEquals(Float.floatToIntBits(v), Float.floatToIntBits(in.readFloat()));
+        }
+        for (double v : doubles) {
+          assertEquals(Double.doubleToLongBits(v), Double.doubleToLongBits(in.readDouble()));
+        }
+        assertEquals(0, in.available());
+      }
+    }
+  }
+
   @Test
   public void testEdgeCase1() {
     testEdgeCase(10, 5, 1004);
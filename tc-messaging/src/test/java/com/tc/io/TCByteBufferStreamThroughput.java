@@ -0,0 +1,57 @@
+/*
+ *
+ *  The contents of this file are subject to the Terracotta Public License Version
+ *  2.0 (the "License"); You may not use this file except in compliance with the
+ *  License. You may obtain a copy of the License at
+ *
+ *  http://terracotta.org/legal/terracotta-public-license.
+ *
+ *  Software distributed under the License is distributed on an "AS IS" basis,
+ *  WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License for
+ *  the specific language governing rights and limitations under the License.
+ *
+ *  The Covered Software is Terracotta Core.
+ *
+ *  The Initial Developer of the Covered Software is
+ *  Terracotta, Inc., a Software AG company
+ *
+ */
+package com.tc.io;
+
+import com.tc.bytes.TCByteBuffer;
+
+import java.io.IOException;
+
+/**
+ * Reports the cost of writing primitives to a {@link TCByteBufferOutputStream} and reading them back. Not part of the
+ * test suite, run it by hand.
+ */
+public class TCByteBufferStreamThroughput {
+
+  public static void main(String[] args) throws IOException {
+    final int count = 1024 * 1024;
+    final int rounds = args.length > 0 ? Integer.parseInt(args[0]) : 5;
+    for (int round = 0; round < rounds; round++) {
+      long start = System.nanoTime();
+      TCByteBufferOutputStream bbos = new TCByteBufferOutputStream();
+      for (int i = 0; i < count; i++) {
+        bbos.writeInt(i);
+        bbos.writeLong(i);
+        bbos.writeShort(i);
+      }
+      TCByteBuffer[] bufs = bbos.toArray();
+      final long writeNanos = System.nanoTime() - start;
+
+      start = System.nanoTime();
+      TCByteBufferInputStream in = new TCByteBufferInputStream(bufs);
+      long sum = 0;
+      for (int i = 0; i < count; i++) {
+        sum += in.readInt() + in.readLong() + in.readShort();
+      }
+      final long readNanos = System.nanoTime() - start;
+
+      System.out.println("write: " + (double) writeNanos / count + " ns/record; read: " + (double) readNanos / count
+                         + " ns/record (" + sum + ")");
+    }
+  }
+}
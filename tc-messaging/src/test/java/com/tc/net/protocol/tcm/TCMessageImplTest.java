@@ -0,0 +1,315 @@
+/*
+ *
+ *  The contents of this file are subject to the Terracotta Public License Version
+ *  2.0 (the "License"); You may not use this file except in compliance with the
+ *  License. You may obtain a copy of the License at
+ *
+ *  http://terracotta.org/legal/terracotta-public-license.
+ *
+ *  Software distributed under the License is distributed on an "AS IS" basis,
+ *  WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License for
+ *  the specific language governing rights and limitations under the License.
+ *
+ *  The Covered Software is Terracotta Core.
+ *
+ *  The Initial Developer of the Covered Software is
+ *  Terracotta, Inc., a Software AG company
+ *
+ */
+package com.tc.net.protocol.tcm;
+
+import com.tc.bytes.TCByteBuffer;
+import com.tc.entity.VoltronEntityReceivedResponseImpl;
+import com.tc.io.TCByteBufferOutputStream;
+import com.tc.object.msg.DSOMessageBase;
+import com.tc.object.session.SessionID;
+import com.tc.object.tx.TransactionID;
+import com.tc.util.AbstractIdentifier;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.lang.reflect.Proxy;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class TCMessageImplTest {
+
+  private static final MessageMonitor MONITOR = new MessageMonitor() {
+    @Override
+    public void newIncomingMessage(TCMessage message) {
+      //
+    }
+
+    @Override
+    public void newOutgoingMessage(TCMessage message) {
+      //
+    }
+  };
+
+  @After
+  public void tearDown() {
+    TCMessageImpl.setCompactEncoding(false);
+    TCMessagePool.setEnabled(false, false);
+  }
+
+  @Test
+  public void testFullWidthByDefault() throws Exception {
+    MessageChannel channel = channel();
+    ValuesMessage sent = send(channel, 7, 8L, new byte[] { 1, 2, 3 });
+    assertEquals(0, ((TCMessageHeader) sent.getHeader()).getMessageTypeVersion());
+
+    ValuesMessage received = receive(channel, sent);
+    assertFalse(received.isCompactEncoding());
+    assertEquals(7, received.intValue);
+    assertEquals(8L, received.longValue);
+    assertEquals(42L, received.idValue);
+  }
+
+  @Test
+  public void testCompactOnceThePeerReadsIt() throws Exception {
+    TCMessageImpl.setCompactEncoding(true);
+    MessageChannel channel = channel();
+
+    // nothing heard from the peer yet
+    ValuesMessage first = send(channel, 7, 8L, new byte[] { 1, 2, 3 });
+    final int firstVersion = ((TCMessageHeader) first.getHeader()).getMessageTypeVersion();
+    assertEquals(TCMessageImpl.VERSION_READS_COMPACT, firstVersion);
+    final int fullLength = first.getDataLength();
+
+    // the peer says it reads the compact encoding
+    receive(channel, first);
+    ValuesMessage second = send(channel, 7, 8L, new byte[] { 1, 2, 3 });
+    final int secondVersion = ((TCMessageHeader) second.getHeader()).getMessageTypeVersion();
+    assertEquals(TCMessageImpl.VERSION_READS_COMPACT | TCMessageImpl.VERSION_COMPACT, secondVersion);
+    // int, long, identifier and byte[] length shrink to a byte each
+    assertEquals(fullLength - 3 - 7 - 7 - 3, second.getDataLength());
+
+    ValuesMessage received = receive(channel(), second);
+    assertTrue(received.isCompactEncoding());
+    assertEquals(7, received.intValue);
+    assertEquals(8L, received.longValue);
+    assertEquals(42L, received.idValue);
+    assertArrayEquals(new byte[] { 1, 2, 3 }, received.bytesValue);
+
+    // negative and large values survive the round trip too
+    ValuesMessage extremes = send(channel, Integer.MIN_VALUE, Long.MAX_VALUE, new byte[0]);
+    received = receive(channel(), extremes);
+    assertEquals(Integer.MIN_VALUE, received.intValue);
+    assertEquals(Long.MAX_VALUE, received.longValue);
+  }
+
+  @Test
+  public void testMessageTypesWithoutSupportStayFullWidth() throws Exception {
+    TCMessageImpl.setCompactEncoding(true);
+    MessageChannel channel = channel();
+    channel.addAttachment(TCMessageImpl.PEER_READS_COMPACT, Boolean.TRUE, true);
+
+    ValuesMessage sent = new ValuesMessage(channel, false);
+    sent.set(7, 8L, new byte[0]);
+    sent.dehydrate();
+    assertEquals(TCMessageImpl.VERSION_READS_COMPACT, ((TCMessageHeader) sent.getHeader()).getMessageTypeVersion());
+    assertFalse(receive(channel(), sent).isCompactEncoding());
+  }
+
+  @Test
+  public void testSentMessagesAreReusedOnceWrittenOut() throws Exception {
+    TCMessagePool.setEnabled(true, false);
+    MessageChannel channel = channel();
+    TCMessagePool pool = TCMessagePool.of(channel);
+
+    ValuesMessage first = new ReusableMessage(channel);
+    ((TCMessageImpl) first).setPool(pool);
+    first.set(7, 8L, new byte[] { 1, 2, 3 });
+    assertTrue(first.send());
+    // the network still has it
+    assertNull(pool.take(TCMessageType.PING_MESSAGE, SessionID.NULL_ID));
+    first.doRecycleOnWrite();
+
+    ValuesMessage second = (ValuesMessage) pool.take(TCMessageType.PING_MESSAGE, SessionID.NULL_ID);
+    assertSame(first, second);
+    ((TCMessageImpl) second).reuse(new TCByteBufferOutputStream());
+    assertEquals(0, second.intValue);
+    second.set(9, 10L, new byte[] { 4 });
+    assertTrue(second.send());
+    ValuesMessage received = receive(channel(), second);
+    assertEquals(9, received.intValue);
+    assertEquals(10L, received.longValue);
+    assertArrayEquals(new byte[] { 4 }, received.bytesValue);
+
+    // not written out yet, the writer being done is not enough
+    assertNull(pool.take(TCMessageType.PING_MESSAGE, SessionID.NULL_ID));
+  }
+
+  @Test
+  public void testUseAfterRecycleIsDetected() throws Exception {
+    TCMessagePool.setEnabled(true, true);
+    MessageChannel channel = channel();
+    ValuesMessage msg = new ReusableMessage(channel);
+    ((TCMessageImpl) msg).setPool(TCMessagePool.of(channel));
+    msg.set(7, 8L, new byte[0]);
+    assertTrue(msg.send());
+    msg.doRecycleOnWrite();
+
+    assertNull(TCMessagePool.of(channel).take(TCMessageType.PING_MESSAGE, SessionID.NULL_ID));
+    try {
+      msg.send();
+      fail();
+    } catch (IllegalStateException expected) {
+      assertNotNull(expected.getCause());
+    }
+  }
+
+  @Test
+  public void testSetterOfRecycledMessageFails() {
+    VoltronEntityReceivedResponseImpl msg = new VoltronEntityReceivedResponseImpl(SessionID.NULL_ID, MONITOR,
+                                                                                  new TCByteBufferOutputStream(),
+                                                                                  channel(),
+                                                                                  TCMessageType.VOLTRON_ENTITY_RECEIVED_RESPONSE);
+    msg.setTransactionID(new TransactionID(1));
+    ((TCMessageImpl) msg).poison(new IllegalStateException("message recycled here"));
+    try {
+      msg.setTransactionID(new TransactionID(2));
+      fail();
+    } catch (IllegalStateException expected) {
+      assertNotNull(expected.getCause());
+    }
+  }
+
+  private static ValuesMessage send(MessageChannel channel, int i, long l, byte[] bytes) {
+    ValuesMessage msg = new ValuesMessage(channel, true);
+    msg.set(i, l, bytes);
+    msg.dehydrate();
+    return msg;
+  }
+
+  private static ValuesMessage receive(MessageChannel channel, ValuesMessage sent) throws IOException,
+      UnknownNameException {
+    TCByteBuffer[] payload = sent.getPayload();
+    TCByteBuffer[] copy = new TCByteBuffer[payload.length];
+    for (int i = 0; i < payload.length; i++) {
+      copy[i] = payload[i].duplicate().rewind();
+    }
+    ValuesMessage received = new ValuesMessage(channel, (TCMessageHeader) sent.getHeader(), copy);
+    received.hydrate();
+    return received;
+  }
+
+  private static MessageChannel channel() {
+    final Map<String, Object> attachments = new HashMap<String, Object>();
+    return (MessageChannel) Proxy.newProxyInstance(TCMessageImplTest.class.getClassLoader(),
+                                                   new Class<?>[] { MessageChannel.class }, (proxy, method, args) -> {
+                                                     switch (method.getName()) {
+                                                       case "addAttachment":
+                                                         attachments.put((String) args[0], args[1]);
+                                                         return null;
+                                                       case "getAttachment":
+                                                         return attachments.get(args[0]);
+                                                       case "send":
+                                                         return null;
+                                                       default:
+                                                         throw new UnsupportedOperationException(method.getName());
+                                                     }
+                                                   });
+  }
+
+  private static class Id extends AbstractIdentifier {
+    Id(long id) {
+      super(id);
+    }
+
+    @Override
+    public String getIdentifierType() {
+      return "Id";
+    }
+  }
+
+  private static class ReusableMessage extends ValuesMessage {
+    ReusableMessage(MessageChannel channel) {
+      super(channel, false);
+    }
+
+    @Override
+    protected boolean isReusable() {
+      return true;
+    }
+
+    @Override
+    protected void resetValues() {
+      set(0, 0L, null);
+    }
+  }
+
+  private static class ValuesMessage extends DSOMessageBase {
+    private static final byte INT   = 1;
+    private static final byte LONG  = 2;
+    private static final byte ID    = 3;
+    private static final byte BYTES = 4;
+
+    private final boolean     supportsCompact;
+    int                       intValue;
+    long                      longValue;
+    long                      idValue;
+    byte[]                    bytesValue;
+
+    ValuesMessage(MessageChannel channel, boolean supportsCompact) {
+      super(SessionID.NULL_ID, MONITOR, new TCByteBufferOutputStream(), channel, TCMessageType.PING_MESSAGE);
+      this.supportsCompact = supportsCompact;
+    }
+
+    ValuesMessage(MessageChannel channel, TCMessageHeader header, TCByteBuffer[] data) {
+      super(SessionID.NULL_ID, MONITOR, channel, header, data);
+      this.supportsCompact = true;
+    }
+
+    void set(int i, long l, byte[] bytes) {
+      this.intValue = i;
+      this.longValue = l;
+      this.idValue = 42;
+      this.bytesValue = bytes;
+    }
+
+    @Override
+    protected boolean supportsCompactEncoding() {
+      return supportsCompact;
+    }
+
+    @Override
+    protected void dehydrateValues() {
+      putNVPair(INT, intValue);
+      putNVPair(LONG, longValue);
+      putNVPair(ID, new Id(idValue));
+      putNVPair(BYTES, bytesValue);
+    }
+
+    @Override
+    protected boolean hydrateValue(byte name) throws IOException {
+      switch (name) {
+        case INT:
+          intValue = getIntValue();
+          return true;
+        case LONG:
+          longValue = getLongValue();
+          return true;
+        case ID:
+          idValue = getLongValue();
+          return true;
+        case BYTES:
+          bytesValue = getBytesArray();
+          return true;
+        default:
+          return false;
+      }
+    }
+  }
+}
@@ -0,0 +1,203 @@
+/*
+ *
+ *  The contents of this file are subject to the Terracotta Public License Version
+ *  2.0 (the "License"); You may not use this file except in compliance with the
+ *  License. You may obtain a copy of the License at
+ *
+ *  http://terracotta.org/legal/terracotta-public-license.
+ *
+ *  Software distributed under the License is distributed on an "AS IS" basis,
+ *  WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License for
+ *  the specific language governing rights and limitations under the License.
+ *
+ *  The Covered Software is Terracotta Core.
+ *
+ *  The Initial Developer of the Covered Software is
+ *  Terracotta, Inc., a Software AG company
+ *
+ */
+package com.tc.net.protocol.tcm;
+
+import com.tc.bytes.TCByteBuffer;
+import com.tc.io.TCByteBufferOutputStream;
+import com.tc.net.protocol.tcm.msgs.PingMessage;
+import com.tc.object.msg.DSOMessageBase;
+import com.tc.object.session.SessionID;
+
+import org.junit.Test;
+
+import java.io.IOException;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class TCMessageSchemaTest {
+
+  private static final MessageMonitor MONITOR = new MessageMonitor() {
+    @Override
+    public void newIncomingMessage(TCMessage message) {
+      //
+    }
+
+    @Override
+    public void newOutgoingMessage(TCMessage message) {
+      //
+    }
+  };
+
+  @Test
+  public void testRoundTrip() throws Exception {
+    SchemaMessage sent = new SchemaMessage();
+    sent.flag = true;
+    sent.count = -3;
+    sent.id = Long.MAX_VALUE;
+    sent.name = "name";
+    sent.bytes = new byte[] { 1, 2 };
+    sent.extra = 99;
+    sent.dehydrate();
+
+    SchemaMessage received = new SchemaMessage((TCMessageHeader) sent.getHeader(), copy(sent.getPayload()));
+    received.hydrate();
+    assertTrue(received.flag);
+    assertEquals(-3, received.count);
+    assertEquals(Long.MAX_VALUE, received.id);
+    assertEquals("name", received.name);
+    assertArrayEquals(new byte[] { 1, 2 }, received.bytes);
+    // written by hand after the fields of the schema
+    assertEquals(99, received.extra);
+  }
+
+  @Test
+  public void testSameBytesAsByHand() throws Exception {
+    PingMessage ping = new PingMessage(MONITOR);
+    ping.initialize(42);
+    ping.dehydrate();
+    HandCodedPing byHand = new HandCodedPing();
+    byHand.dehydrate();
+    assertArrayEquals(bytes(byHand.getPayload()), bytes(ping.getPayload()));
+  }
+
+  @Test
+  public void testHandWrittenFallback() throws Exception {
+    PingMessage ping = new PingMessage(MONITOR);
+    ping.initialize(42);
+    ping.dehydrate();
+    TCMessageImpl.setSchemaEnabled(false);
+    try {
+      PingMessage byHand = new PingMessage(MONITOR);
+      byHand.initialize(42);
+      byHand.dehydrate();
+      assertArrayEquals(bytes(ping.getPayload()), bytes(byHand.getPayload()));
+
+      // a schema message is read by hand
+      PingMessage received = new PingMessage(SessionID.NULL_ID, MONITOR, null, (TCMessageHeader) ping.getHeader(),
+                                             copy(ping.getPayload()));
+      received.hydrate();
+      assertEquals(42, received.getSequence());
+    } finally {
+      TCMessageImpl.setSchemaEnabled(true);
+    }
+  }
+
+  @Test
+  public void testFieldsAreDeclaredOnce() {
+    try {
+      TCMessageSchema.builder(SchemaMessage.class).intField((byte) 1, m -> m.count, (m, v) -> m.count = v)
+          .longField((byte) 1, m -> m.id, (m, v) -> m.id = v);
+      fail();
+    } catch (IllegalArgumentException expected) {
+      // declared twice
+    }
+  }
+
+  private static TCByteBuffer[] copy(TCByteBuffer[] payload) {
+    TCByteBuffer[] copy = new TCByteBuffer[payload.length];
+    for (int i = 0; i < payload.length; i++) {
+      copy[i] = payload[i].duplicate().rewind();
+    }
+    return copy;
+  }
+
+  private static byte[] bytes(TCByteBuffer[] payload) {
+    int length = 0;
+    for (TCByteBuffer buffer : payload) {
+      length += buffer.limit();
+    }
+    byte[] bytes = new byte[length];
+    int offset = 0;
+    for (TCByteBuffer buffer : payload) {
+      TCByteBuffer duplicate = buffer.duplicate().rewind();
+      int n = duplicate.limit();
+      duplicate.get(bytes, offset, n);
+      offset += n;
+    }
+    return bytes;
+  }
+
+  private static class HandCodedPing extends DSOMessageBase {
+    HandCodedPing() {
+      super(new SessionID(0), MONITOR, new TCByteBufferOutputStream(), null, TCMessageType.PING_MESSAGE);
+    }
+
+    @Override
+    protected void dehydrateValues() {
+      putNVPair((byte) 1, 42L);
+    }
+
+    @Override
+    protected boolean hydrateValue(byte name) {
+      return false;
+    }
+  }
+
+  private static class SchemaMessage extends DSOMessageBase {
+    private static final byte                            FLAG   = 1;
+    private static final byte                            COUNT  = 2;
+    private static final byte                            ID     = 3;
+    private static final byte                            NAME   = 4;
+    private static final byte                            BYTES  = 5;
+    private static final byte                            EXTRA  = 6;
+
+    private static final TCMessageSchema<SchemaMessage> SCHEMA = TCMessageSchema.builder(SchemaMessage.class)
+        .booleanField(FLAG, m -> m.flag, (m, v) -> m.flag = v)
+        .intField(COUNT, m -> m.count, (m, v) -> m.count = v)
+        .longField(ID, m -> m.id, (m, v) -> m.id = v)
+        .stringField(NAME, m -> m.name, (m, v) -> m.name = v)
+        .bytesField(BYTES, m -> m.bytes, (m, v) -> m.bytes = v)
+        .build();
+
+    boolean                                              flag;
+    int                                                  count;
+    long                                                 id;
+    String                                               name;
+    byte[]                                               bytes;
+    int                                                  extra;
+
+    SchemaMessage() {
+      super(SessionID.NULL_ID, MONITOR, new TCByteBufferOutputStream(), null, TCMessageType.PING_MESSAGE);
+    }
+
+    SchemaMessage(TCMessageHeader header, TCByteBuffer[] data) {
+      super(SessionID.NULL_ID, MONITOR, null, header, data);
+    }
+
+    @Override
+    protected TCMessageSchema<?> getSchema() {
+      return SCHEMA;
+    }
+
+    @Override
+    protected void dehydrateValues() {
+      putNVPair(EXTRA, extra);
+    }
+
+    @Override
+    protected boolean hydrateValue(byte name) throws IOException {
+      if (name != EXTRA) { return false; }
+      extra = getIntValue();
+      return true;
+    }
+  }
+}
@@ -23,6 +23,10 @@ import com.tc.bytes.TCByteBuffer;
 import org.junit.Before;
 import org.junit.Test;
 
+import java.io.ByteArrayOutputStream;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
 
 public class TransportHandshakeMessageTest {
@@ -49,4 +53,61 @@ public class TransportHandshakeMessageTest {
     assertEquals(isMaxConnectionsExceeded, message.isMaxConnectionsExceeded());
     assertEquals(maxConnections, message.getMaxConnections());
   }
+
+  @Test
+  public void testCapabilitiesInvisibleToPeerWithoutCompression() throws Exception {
+    ConnectionID connectionId = new ConnectionID("abc", 1L);
+    short stackLayerFlags = 0x0006;
+    // a client with compression talking to a server without it
+    TransportHandshakeMessage withCompression = factory.createSyn(connectionId, null, stackLayerFlags, 43,
+                                                                  TransportHandshakeMessage.CAPABILITY_WIRE_COMPRESSION);
+    TransportHandshakeMessage withoutCompression = factory.createSyn(connectionId, null, stackLayerFlags, 43);
+
+    byte[] newer = toBytes(withCompression.getPayload());
+    byte[] older = toBytes(withoutCompression.getPayload());
+    // the fields an older server reads are untouched, so its stack check still passes
+    assertArrayEquals(older, Arrays.copyOf(newer, older.length));
+    assertEquals(stackLayerFlags, receive(withCompression).getStackLayerFlags());
+    assertEquals(TransportHandshakeMessage.CAPABILITY_WIRE_COMPRESSION, receive(withCompression).getCapabilities());
+
+    // a server with compression receiving a SYN from a client without it
+    assertEquals(stackLayerFlags, receive(withoutCompression).getStackLayerFlags());
+    assertEquals(TransportHandshakeMessage.CAPABILITY_NONE, receive(withoutCompression).getCapabilities());
+  }
+
+  @Test
+  public void testSynAckCapabilities() throws Exception {
+    ConnectionID connectionId = new ConnectionID("abc", 1L);
+    TransportHandshakeMessage agreed = factory.createSynAck(connectionId, null, false, 13, 43,
+                                                            TransportHandshakeMessage.CAPABILITY_WIRE_COMPRESSION);
+    TransportHandshakeMessage plain = factory.createSynAck(connectionId, null, false, 13, 43);
+
+    assertEquals(TransportHandshakeMessage.CAPABILITY_WIRE_COMPRESSION, receive(agreed).getCapabilities());
+    assertEquals(43, receive(agreed).getCallbackPort());
+    assertEquals(TransportHandshakeMessage.CAPABILITY_NONE, receive(plain).getCapabilities());
+    assertArrayEquals(toBytes(plain.getPayload()),
+                      Arrays.copyOf(toBytes(agreed.getPayload()), toBytes(plain.getPayload()).length));
+  }
+
+  private static TransportMessageImpl receive(TransportHandshakeMessage sent) throws Exception {
+    WireProtocolHeader header = new WireProtocolHeader();
+    header.setProtocol(WireProtocolHeader.PROTOCOL_TRANSPORT_HANDSHAKE);
+    TCByteBuffer[] payload = sent.getPayload();
+    TCByteBuffer[] copy = new TCByteBuffer[payload.length];
+    for (int i = 0; i < payload.length; i++) {
+      copy[i] = payload[i].duplicate();
+    }
+    return new TransportMessageImpl(null, header, copy);
+  }
+
+  private static byte[] toBytes(TCByteBuffer[] payload) {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    for (TCByteBuffer buffer : payload) {
+      TCByteBuffer copy = buffer.duplicate();
+      byte[] bytes = new byte[copy.remaining()];
+      copy.get(bytes);
+      out.write(bytes, 0, bytes.length);
+    }
+    return out.toByteArray();
+  }
 }
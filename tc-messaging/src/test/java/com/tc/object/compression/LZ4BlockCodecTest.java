@@ -0,0 +1,129 @@
+/*
+ *
+ *  The contents of this file are subject to the Terracotta Public License Version
+ *  2.0 (the "License"); You may not use this file except in compliance with the
+ *  License. You may obtain a copy of the License at
+ *
+ *  http://terracotta.org/legal/terracotta-public-license.
+ *
+ *  Software distributed under the License is distributed on an "AS IS" basis,
+ *  WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License for
+ *  the specific language governing rights and limitations under the License.
+ *
+ *  The Covered Software is Terracotta Core.
+ *
+ *  The Initial Developer of the Covered Software is
+ *  Terracotta, Inc., a Software AG company
+ *
+ */
+package com.tc.object.compression;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class LZ4BlockCodecTest {
+
+  @Test
+  public void testRoundTripSmallInputs() {
+    Random r = new Random(1);
+    for (int len = 0; len < 64; len++) {
+      byte[] data = new byte[len];
+      r.nextBytes(data);
+      assertArrayEquals(data, roundTrip(data, 0));
+    }
+  }
+
+  @Test
+  public void testRoundTripRandomData() {
+    Random r = new Random(2);
+    byte[] data = new byte[100000];
+    r.nextBytes(data);
+    byte[] compressed = new byte[LZ4BlockCodec.maxCompressedLength(data.length)];
+    int clen = LZ4BlockCodec.compress(data, 0, data.length, compressed, 0);
+    assertTrue(clen <= compressed.length);
+    assertArrayEquals(data, roundTrip(data, 0));
+  }
+
+  @Test
+  public void testRoundTripRepetitiveData() {
+    byte[] data = new byte[256 * 1024];
+    for (int i = 0; i < data.length; i++) {
+      data[i] = (byte) ("terracotta-" + (i % 97)).charAt(i % 11);
+    }
+    byte[] compressed = new byte[LZ4BlockCodec.maxCompressedLength(data.length)];
+    int clen = LZ4BlockCodec.compress(data, 0, data.length, compressed, 0);
+    assertTrue("compressed length " + clen, clen < data.length / 4);
+    assertArrayEquals(data, roundTrip(data, 0));
+
+    // long runs exercise the overlapping match copy
+    Arrays.fill(data, (byte) 7);
+    assertArrayEquals(data, roundTrip(data, 0));
+  }
+
+  @Test
+  public void testOffsets() {
+    Random r = new Random(3);
+    byte[] data = new byte[5000];
+    for (int i = 0; i < data.length; i++) {
+      data[i] = (byte) r.nextInt(4);
+    }
+    byte[] src = new byte[data.length + 13];
+    System.arraycopy(data, 0, src, 13, data.length);
+    byte[] compressed = new byte[LZ4BlockCodec.maxCompressedLength(data.length) + 7];
+    int clen = LZ4BlockCodec.compress(src, 13, data.length, compressed, 7);
+    byte[] out = new byte[data.length + 3];
+    assertEquals(data.length, LZ4BlockCodec.decompress(compressed, 7, clen, out, 3, data.length));
+    assertArrayEquals(data, Arrays.copyOfRange(out, 3, out.length));
+  }
+
+  @Test
+  public void testCorruptInputIsRejected() {
+    byte[] data = new byte[10000];
+    for (int i = 0; i < data.length; i++) {
+      data[i] = (byte) (i % 31);
+    }
+    byte[] compressed = new byte[LZ4BlockCodec.maxCompressedLength(data.length)];
+    int clen = LZ4BlockCodec.compress(data, 0, data.length, compressed, 0);
+
+    // truncated
+    expectMalformed(compressed, clen - 3, data.length);
+    // too small a destination
+    expectMalformed(compressed, clen, data.length - 1);
+
+    Random r = new Random(4);
+    byte[] out = new byte[data.length];
+    for (int i = 0; i < 1000; i++) {
+      byte[] garbage = Arrays.copyOf(compressed, clen);
+      garbage[r.nextInt(clen)] = (byte) r.nextInt();
+      try {
+        LZ4BlockCodec.decompress(garbage, 0, clen, out, 0, out.length);
+      } catch (IllegalArgumentException e) {
+        // expected for most mutations, the others must simply stay in bounds
+      }
+    }
+  }
+
+  private static void expectMalformed(byte[] compressed, int clen, int destLen) {
+    try {
+      LZ4BlockCodec.decompress(compressed, 0, clen, new byte[destLen], 0, destLen);
+      fail();
+    } catch (IllegalArgumentException e) {
+      // expected
+    }
+  }
+
+  private static byte[] roundTrip(byte[] data, int off) {
+    byte[] compressed = new byte[LZ4BlockCodec.maxCompressedLength(data.length)];
+    int clen = LZ4BlockCodec.compress(data, off, data.length - off, compressed, 0);
+    byte[] out = new byte[data.length - off];
+    assertEquals(out.length, LZ4BlockCodec.decompress(compressed, 0, clen, out, 0, out.length));
+    return out;
+  }
+}